@@ -1,6 +1,7 @@
 plugins {
     java
     alias(libs.plugins.defaults)
+    alias(libs.plugins.jmh)
     alias(libs.plugins.license)
 }
 
@@ -31,9 +32,37 @@ testing {
                 runtimeOnly(libs.slf4j.simple)
             }
         }
+        // not part of `check`, run with `./gradlew loadTest -Dloadtest.duration-seconds=300`
+        register<JvmTestSuite>("loadTest") {
+            useJUnitJupiter(libs.versions.junit.jupiter)
+            dependencies {
+                implementation(project())
+                implementation(libs.hivemq.googleCloudPubSubExtension.customizationSdk)
+                // the load test uses the lightweight stand-ins of the SDK interfaces from the test source set
+                implementation(sourceSets.test.get().output)
+                runtimeOnly(libs.slf4j.simple)
+            }
+            targets.configureEach {
+                testTask.configure {
+                    systemProperties(providers.systemPropertiesPrefixedBy("loadtest.").get())
+                    systemProperty("org.slf4j.simpleLogger.defaultLogLevel", "warn")
+                    maxHeapSize = "1g"
+                    testLogging.showStandardStreams = true
+                    outputs.upToDateWhen { false }
+                }
+            }
+        }
     }
 }
 
+jmh {
+    jmhVersion = libs.versions.jmh
+    // the benchmarks use the lightweight stand-ins of the SDK interfaces from the test source set
+    includeTests = true
+    profilers.add("gc")
+    resultFormat = "JSON"
+}
+
 tasks.withType<Jar>().configureEach {
     manifest.attributes(
         "Implementation-Title" to project.name,
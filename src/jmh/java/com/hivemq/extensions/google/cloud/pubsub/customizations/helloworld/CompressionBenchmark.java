@@ -0,0 +1,121 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+
+/**
+ * Measures the CPU cost of the payload compression against the bytes it saves.
+ * <p>
+ * The {@code inputBytes} and {@code outputBytes} counters report the bytes before and after compression per second, so
+ * their ratio is the compression ratio of the measured payload.
+ *
+ * @since 4.53.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompressionBenchmark {
+
+    @Param({"gzip", "deflate"})
+    String algorithm;
+
+    @Param({"json", "random"})
+    String content;
+
+    @Param({"1024", "65536", "1048576"})
+    int payloadSize;
+
+    private @NotNull PayloadCompression.Algorithm compression;
+    private @NotNull ByteBuffer payload;
+    private @NotNull ByteBuffer compressed;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Bytes {
+
+        public long inputBytes;
+        public long outputBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            inputBytes = 0;
+            outputBytes = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        compression = PayloadCompression.Algorithm.fromContentEncoding(algorithm);
+        final byte[] bytes = new byte[payloadSize];
+        if (content.equals("json")) {
+            final Random random = new Random(42);
+            final StringBuilder json = new StringBuilder(payloadSize + 128);
+            while (json.length() < payloadSize) {
+                json.append("{\"device\":\"sensor-")
+                        .append(random.nextInt(1000))
+                        .append("\",\"temperature\":")
+                        .append(random.nextInt(400) / 10.0)
+                        .append(",\"status\":\"ok\"}\n");
+            }
+            System.arraycopy(json.toString().getBytes(StandardCharsets.UTF_8), 0, bytes, 0, payloadSize);
+        } else {
+            new Random(42).nextBytes(bytes);
+        }
+        payload = ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+        final ByteBuffer result = PayloadCompression.compress(payload, compression);
+        compressed = result != null ? result : payload;
+    }
+
+    @Benchmark
+    public @NotNull Object compress(final @NotNull Bytes bytes) {
+        final ByteBuffer result = PayloadCompression.compress(payload, compression);
+        bytes.inputBytes += payload.remaining();
+        bytes.outputBytes += result != null ? result.remaining() : payload.remaining();
+        return result != null ? result : payload;
+    }
+
+    @Benchmark
+    public @NotNull Object decompress() throws DataFormatException {
+        if (compressed == payload) {
+            return payload;
+        }
+        return PayloadCompression.decompress(compressed, compression, Integer.MAX_VALUE);
+    }
+}
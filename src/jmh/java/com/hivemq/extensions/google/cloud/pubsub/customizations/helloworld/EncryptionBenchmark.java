@@ -0,0 +1,124 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the CPU cost of encrypting respectively signing payloads and of decrypting respectively verifying them.
+ * <p>
+ * The {@code payloadBytes} counter reports the protected bytes per second, which is the throughput of one thread. The
+ * cipher, the MAC and the random generator are reused per thread like in the transformers, so the results do not
+ * include their creation.
+ *
+ * @since 4.53.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncryptionBenchmark {
+
+    @Param({"aes-gcm", "hmac-sha256"})
+    String encryption;
+
+    @Param({"1024", "65536", "1048576"})
+    int payloadSize;
+
+    private @NotNull PayloadEncryption.Mode mode;
+    private @NotNull SecretKey key;
+    private @NotNull ByteBuffer payload;
+    private @NotNull ByteBuffer data;
+    private @NotNull String signature;
+    private final byte @NotNull [] associatedData =
+            PayloadEncryption.associatedData(Map.of("key-id",
+                    "key-1",
+                    "mqtt-topic",
+                    "devices/device-1/state",
+                    "qos",
+                    "1",
+                    "retained",
+                    "false")::get);
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Bytes {
+
+        public long payloadBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            payloadBytes = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() throws GeneralSecurityException {
+        mode = PayloadEncryption.Mode.fromName(encryption);
+        final Random random = new Random(42);
+        final byte[] keyBytes = new byte[32];
+        random.nextBytes(keyBytes);
+        key = new SecretKeySpec(keyBytes, "AES");
+        final byte[] bytes = new byte[payloadSize];
+        random.nextBytes(bytes);
+        payload = ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+        data = PayloadEncryption.encrypt(payload, key, associatedData);
+        signature = PayloadEncryption.sign(payload, key, associatedData);
+    }
+
+    @Benchmark
+    public @NotNull Object protect(final @NotNull Bytes bytes) throws GeneralSecurityException {
+        bytes.payloadBytes += payload.remaining();
+        if (mode == PayloadEncryption.Mode.AES_GCM) {
+            return PayloadEncryption.encrypt(payload, key, associatedData);
+        }
+        return PayloadEncryption.sign(payload, key, associatedData);
+    }
+
+    @Benchmark
+    public @NotNull Object unprotect(final @NotNull Bytes bytes) throws GeneralSecurityException {
+        bytes.payloadBytes += payload.remaining();
+        if (mode == PayloadEncryption.Mode.AES_GCM) {
+            return PayloadEncryption.decrypt(data, key, associatedData);
+        }
+        PayloadEncryption.verify(payload, key, signature, associatedData);
+        return payload;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.packets.general.Qos;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link MqttToPubSubHelloWorldTransformer#transformMqttToPubSub} with the stand-in outputs of the tests, so
+ * the reported time and allocation rate only contain the work of the transformer and its builders.
+ *
+ * @since 4.53.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MqttToPubSubTransformerBenchmark {
+
+    @Param({"0", "8", "64"})
+    int userPropertyCount;
+
+    @Param({"1", "4", "16"})
+    int destinationCount;
+
+    @Param({"0", "1024", "65536", "1048576"})
+    int payloadSize;
+
+    private final @NotNull MqttToPubSubHelloWorldTransformer transformer = new MqttToPubSubHelloWorldTransformer();
+    private @NotNull TestMqttToPubSubInput input;
+    private final @NotNull TestMqttToPubSubOutput output = new TestMqttToPubSubOutput();
+
+    @Setup
+    public void setUp() {
+        final List<TestCustomSetting> customSettings = new ArrayList<>();
+        for (int i = 0; i < destinationCount; i++) {
+            customSettings.add(new TestCustomSetting("destination", "pubsub-topic-" + i));
+        }
+        transformer.init(new TestMqttToPubSubInitInput(customSettings));
+
+        final List<TestUserProperty> userProperties = new ArrayList<>();
+        for (int i = 0; i < userPropertyCount; i++) {
+            userProperties.add(new TestUserProperty("name-" + i, "value-" + i));
+        }
+        input = new TestMqttToPubSubInput(new TestPublishPacket("topic/device-1/temperature",
+                Qos.AT_LEAST_ONCE,
+                false,
+                ByteBuffer.wrap(new byte[payloadSize]),
+                userProperties));
+    }
+
+    @Benchmark
+    public @NotNull Object transform() {
+        transformer.transformMqttToPubSub(input, output);
+        return output.outboundPubSubMessages;
+    }
+}
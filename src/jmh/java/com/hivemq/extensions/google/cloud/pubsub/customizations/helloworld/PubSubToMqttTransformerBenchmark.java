@@ -0,0 +1,79 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link PubSubToMqttHelloWorldTransformer#transformPubSubToMqtt} with the stand-in outputs of the tests, so
+ * the reported time and allocation rate only contain the work of the transformer and its builders.
+ *
+ * @since 4.53.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PubSubToMqttTransformerBenchmark {
+
+    @Param({"0", "8", "64"})
+    int attributeCount;
+
+    @Param({"0", "1024", "65536", "1048576"})
+    int payloadSize;
+
+    private final @NotNull PubSubToMqttHelloWorldTransformer transformer = new PubSubToMqttHelloWorldTransformer();
+    private @NotNull TestPubSubToMqttInput input;
+    private final @NotNull TestPubSubToMqttOutput output = new TestPubSubToMqttOutput();
+
+    @Setup
+    public void setUp() {
+        transformer.init(new TestPubSubToMqttInitInput(List.of(new TestCustomSetting("qos", "1"))));
+
+        final Map<String, String> attributes = new HashMap<>();
+        for (int i = 0; i < attributeCount; i++) {
+            attributes.put("name-" + i, "value-" + i);
+        }
+        // an empty payload is the "no data" case of Pub/Sub
+        final ByteBuffer data = payloadSize == 0 ? null : ByteBuffer.wrap(new byte[payloadSize]);
+        input = new TestPubSubToMqttInput(new TestInboundPubSubMessage(data, Map.copyOf(attributes)));
+    }
+
+    @Benchmark
+    public @NotNull Object transform() {
+        transformer.transformPubSubToMqtt(input, output);
+        return output.publishes;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.packets.general.Qos;
+import com.hivemq.extensions.google.cloud.pubsub.api.model.OutboundPubSubMessage;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures both transformers with and without the `transcode-schema` custom setting for a JSON payload of sensor
+ * readings. The sizes of the MQTT payload and of the Pub/Sub data are reported as auxiliary counters, so the bytes that
+ * are saved can be compared with the time that is spent.
+ *
+ * @since 4.53.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TranscodingBenchmark {
+
+    private static final @NotNull String SCHEMA = "{\"type\":\"record\",\"name\":\"Reading\",\"namespace\":\"sensors\"," +
+            "\"fields\":[" +
+            "{\"name\":\"device\",\"type\":\"string\"}," +
+            "{\"name\":\"time\",\"type\":\"long\"}," +
+            "{\"name\":\"temperature\",\"type\":\"double\"}," +
+            "{\"name\":\"humidity\",\"type\":\"float\"}," +
+            "{\"name\":\"battery\",\"type\":\"int\"}," +
+            "{\"name\":\"charging\",\"type\":\"boolean\"}," +
+            "{\"name\":\"unit\",\"type\":[\"null\",\"string\"]}]}";
+    private static final @NotNull String PAYLOAD = "{\"device\":\"device-0001\",\"time\":1760000000000," +
+            "\"temperature\":21.53,\"humidity\":48.5,\"battery\":87,\"charging\":false,\"unit\":\"celsius\"}";
+
+    @Param({"false", "true"})
+    boolean transcode;
+
+    private final @NotNull MqttToPubSubHelloWorldTransformer mqttToPubSubTransformer =
+            new MqttToPubSubHelloWorldTransformer();
+    private final @NotNull PubSubToMqttHelloWorldTransformer pubSubToMqttTransformer =
+            new PubSubToMqttHelloWorldTransformer();
+    private @NotNull Path schema;
+    private @NotNull TestMqttToPubSubInput mqttToPubSubInput;
+    private final @NotNull TestMqttToPubSubOutput mqttToPubSubOutput = new TestMqttToPubSubOutput();
+    private @NotNull TestPubSubToMqttInput pubSubToMqttInput;
+    private final @NotNull TestPubSubToMqttOutput pubSubToMqttOutput = new TestPubSubToMqttOutput();
+    private int payloadBytes;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Bytes {
+
+        public long mqttBytes;
+        public long pubSubBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            mqttBytes = 0;
+            pubSubBytes = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        schema = Files.createTempFile("reading", ".avsc");
+        Files.writeString(schema, SCHEMA);
+        final List<TestCustomSetting> customSettings = new ArrayList<>();
+        if (transcode) {
+            customSettings.add(new TestCustomSetting("transcode-schema", schema.toString()));
+        }
+        final List<TestCustomSetting> mqttToPubSubSettings = new ArrayList<>(customSettings);
+        mqttToPubSubSettings.add(new TestCustomSetting("destination", "pubsub-topic"));
+        mqttToPubSubTransformer.init(new TestMqttToPubSubInitInput(mqttToPubSubSettings));
+        pubSubToMqttTransformer.init(new TestPubSubToMqttInitInput(customSettings));
+
+        final byte[] payload = PAYLOAD.getBytes(StandardCharsets.UTF_8);
+        payloadBytes = payload.length;
+        mqttToPubSubInput = new TestMqttToPubSubInput(new TestPublishPacket("sensors/device-0001",
+                Qos.AT_LEAST_ONCE,
+                false,
+                ByteBuffer.wrap(payload),
+                List.of()));
+        mqttToPubSubTransformer.transformMqttToPubSub(mqttToPubSubInput, mqttToPubSubOutput);
+        final OutboundPubSubMessage pubSubMessage =
+                Objects.requireNonNull(mqttToPubSubOutput.outboundPubSubMessages).get(0);
+        final ByteBuffer data = pubSubMessage.getData().orElseThrow();
+        pubSubToMqttInput = new TestPubSubToMqttInput(new TestInboundPubSubMessage(data.asReadOnlyBuffer(),
+                pubSubMessage.getAttributes()));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(schema);
+    }
+
+    @Benchmark
+    public @NotNull Object mqttToPubSub(final @NotNull Bytes bytes) {
+        mqttToPubSubTransformer.transformMqttToPubSub(mqttToPubSubInput, mqttToPubSubOutput);
+        final List<OutboundPubSubMessage> pubSubMessages =
+                Objects.requireNonNull(mqttToPubSubOutput.outboundPubSubMessages);
+        bytes.mqttBytes += payloadBytes;
+        bytes.pubSubBytes += pubSubMessages.get(0).getData().map(ByteBuffer::remaining).orElse(0);
+        return pubSubMessages;
+    }
+
+    @Benchmark
+    public @NotNull Object pubSubToMqtt() {
+        pubSubToMqttTransformer.transformPubSubToMqtt(pubSubToMqttInput, pubSubToMqttOutput);
+        return pubSubToMqttOutput.publishes;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.ThreadSafe;
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records the stop-the-world pauses of the garbage collectors from their notifications, including the longest pause.
+ * <p>
+ * The cycles of concurrent collectors, e.g. {@code ZGC Cycles} or {@code G1 Concurrent GC}, run next to the
+ * application and are not counted as pauses.
+ *
+ * @since 4.53.0
+ */
+@ThreadSafe
+final class GcPauses implements NotificationListener, AutoCloseable {
+
+    private final @NotNull List<NotificationEmitter> emitters = new ArrayList<>();
+    private final @NotNull LongAdder count = new LongAdder();
+    private final @NotNull LongAdder totalMillis = new LongAdder();
+    private final @NotNull AtomicLong maxMillis = new AtomicLong();
+    private final @NotNull AtomicLong intervalMaxMillis = new AtomicLong();
+
+    /**
+     * @return the recorder, which records until it is closed.
+     */
+    static @NotNull GcPauses start() {
+        final GcPauses gcPauses = new GcPauses();
+        for (final GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (collector instanceof NotificationEmitter) {
+                ((NotificationEmitter) collector).addNotificationListener(gcPauses, null, null);
+                gcPauses.emitters.add((NotificationEmitter) collector);
+            }
+        }
+        return gcPauses;
+    }
+
+    @Override
+    public void handleNotification(final @NotNull Notification notification, final Object handback) {
+        if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+            return;
+        }
+        final GarbageCollectionNotificationInfo info =
+                GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+        final String name = info.getGcName();
+        if (name.contains("Concurrent") || name.endsWith("Cycles")) {
+            return;
+        }
+        final long millis = info.getGcInfo().getDuration();
+        count.increment();
+        totalMillis.add(millis);
+        maxMillis.accumulateAndGet(millis, Math::max);
+        intervalMaxMillis.accumulateAndGet(millis, Math::max);
+    }
+
+    long getCount() {
+        return count.sum();
+    }
+
+    long getTotalMillis() {
+        return totalMillis.sum();
+    }
+
+    long getMaxMillis() {
+        return maxMillis.get();
+    }
+
+    /**
+     * @return the longest pause since the previous call.
+     */
+    long getAndResetIntervalMaxMillis() {
+        return intervalMaxMillis.getAndSet(0);
+    }
+
+    @Override
+    public void close() {
+        for (final NotificationEmitter emitter : emitters) {
+            try {
+                emitter.removeNotificationListener(this);
+            } catch (final ListenerNotFoundException ignored) {
+                // already removed
+            }
+        }
+    }
+}
@@ -0,0 +1,520 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.codahale.metrics.MetricRegistry;
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.packets.general.Qos;
+import com.hivemq.extension.sdk.api.services.publish.Publish;
+import com.hivemq.extensions.google.cloud.pubsub.api.model.OutboundPubSubMessage;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.IntToLongFunction;
+import java.util.function.ObjLongConsumer;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Drives both transformers from concurrent threads for minutes and reports the throughput, the p50/p99/p999 latency
+ * and the GC pauses, in intervals and for the whole run.
+ * <p>
+ * The transformers run against the in-memory stand-ins of the extension and broker interfaces from the test source
+ * set, so the load test runs offline and only measures the transformers. While the load threads transform, another
+ * thread initializes the transformer again and again with one of two configurations that have nothing in common. Every
+ * output must then match one of them completely and every message must be counted once, so a transformation that reads
+ * a mix of old and new settings, or a lost metric update, fails the load test.
+ * <p>
+ * The load is configured with the system properties {@code loadtest.threads}, {@code loadtest.duration-seconds},
+ * {@code loadtest.warmup-seconds}, {@code loadtest.report-interval-seconds} and {@code loadtest.reinit-interval-ms}.
+ * <p>
+ * The scaling tests transform with 1 to 32 threads ({@code loadtest.scaling-threads}) for
+ * {@code loadtest.scaling-seconds} each, after the warm-up, and report the throughput and its speedup over a single
+ * thread. Every message must be counted exactly once by every counter the transformation updates. The speedup depends
+ * on the cores of the machine, so it is only asserted for the thread counts up to the available processors and only if
+ * {@code loadtest.min-scaling-efficiency} (the speedup divided by the threads, e.g. {@code 0.7}) is set.
+ *
+ * @since 4.53.0
+ */
+class TransformerLoadTest {
+
+    private static final int THREADS =
+            Integer.getInteger("loadtest.threads", Runtime.getRuntime().availableProcessors());
+    private static final long DURATION_SECONDS = Long.getLong("loadtest.duration-seconds", 60);
+    private static final long WARMUP_SECONDS = Long.getLong("loadtest.warmup-seconds", 10);
+    private static final long REPORT_INTERVAL_SECONDS = Long.getLong("loadtest.report-interval-seconds", 10);
+    private static final long REINIT_INTERVAL_MILLIS = Long.getLong("loadtest.reinit-interval-ms", 1000);
+    private static final @NotNull String SCALING_THREADS =
+            System.getProperty("loadtest.scaling-threads", "1,2,4,8,16,32");
+    private static final long SCALING_SECONDS = Long.getLong("loadtest.scaling-seconds", 10);
+    private static final double MIN_SCALING_EFFICIENCY =
+            Double.parseDouble(System.getProperty("loadtest.min-scaling-efficiency", "0"));
+
+    private static final @NotNull String TRANSFORMER_ID = "load-test";
+    private static final int INPUTS_PER_THREAD = 64;
+    private static final int @NotNull [] PAYLOAD_SIZES = {0, 64, 512, 4096};
+
+    private static final @NotNull List<String> DESTINATIONS_A = List.of("pubsub-a-0", "pubsub-a-1");
+    private static final @NotNull List<String> DESTINATIONS_B = List.of("pubsub-b-0", "pubsub-b-1", "pubsub-b-2");
+
+    @Test
+    void mqttToPubSub_sustainedLoadWhileReinitialized_consistentOutputs() throws Exception {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final List<TestMqttToPubSubInitInput> configurations = List.of(
+                new TestMqttToPubSubInitInput(new TestCustomSettings(mqttToPubSubSettings(DESTINATIONS_A, true)),
+                        metricRegistry),
+                new TestMqttToPubSubInitInput(new TestCustomSettings(mqttToPubSubSettings(DESTINATIONS_B, true)),
+                        metricRegistry));
+        final MqttToPubSubHelloWorldTransformer transformer = new MqttToPubSubHelloWorldTransformer();
+        transformer.init(configurations.get(0));
+
+        final long messages = run(TransformerMetrics.MQTT_TO_PUBSUB, configurations, transformer::init, thread -> {
+            final TestMqttToPubSubInput[] inputs = mqttToPubSubInputs(thread);
+            final TestMqttToPubSubOutput output = new TestMqttToPubSubOutput();
+            return i -> {
+                final long startNanos = System.nanoTime();
+                transformer.transformMqttToPubSub(inputs[i % inputs.length], output);
+                final long nanos = System.nanoTime() - startNanos;
+                checkDestinations(Objects.requireNonNull(output.outboundPubSubMessages));
+                return nanos;
+            };
+        });
+
+        assertCounted(metricRegistry, TransformerMetrics.MQTT_TO_PUBSUB, messages);
+    }
+
+    @Test
+    void pubSubToMqtt_sustainedLoadWhileReinitialized_consistentOutputs() throws Exception {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final List<TestPubSubToMqttInitInput> configurations = List.of(
+                new TestPubSubToMqttInitInput(new TestCustomSettings(pubSubToMqttSettings("load/a", 1, true)),
+                        metricRegistry),
+                new TestPubSubToMqttInitInput(new TestCustomSettings(pubSubToMqttSettings("load/b", 2, true)),
+                        metricRegistry));
+        final PubSubToMqttHelloWorldTransformer transformer = new PubSubToMqttHelloWorldTransformer();
+        transformer.init(configurations.get(0));
+
+        final long messages = run(TransformerMetrics.PUBSUB_TO_MQTT, configurations, transformer::init, thread -> {
+            final TestPubSubToMqttInput[] inputs = pubSubToMqttInputs(thread);
+            final TestPubSubToMqttOutput output = new TestPubSubToMqttOutput();
+            return i -> {
+                final long startNanos = System.nanoTime();
+                transformer.transformPubSubToMqtt(inputs[i % inputs.length], output);
+                final long nanos = System.nanoTime() - startNanos;
+                checkTopicAndQos(Objects.requireNonNull(output.publishes));
+                return nanos;
+            };
+        });
+
+        assertCounted(metricRegistry, TransformerMetrics.PUBSUB_TO_MQTT, messages);
+    }
+
+    @Test
+    void mqttToPubSub_1To32Threads_scalesWithoutLostUpdates() throws Exception {
+        scale(TransformerMetrics.MQTT_TO_PUBSUB, () -> {
+            final MetricRegistry metricRegistry = new MetricRegistry();
+            final MqttToPubSubHelloWorldTransformer transformer = new MqttToPubSubHelloWorldTransformer();
+            // without detailed metrics, as the reservoirs of the timer and the histograms are locked
+            transformer.init(new TestMqttToPubSubInitInput(new TestCustomSettings(mqttToPubSubSettings(DESTINATIONS_A,
+                    false)), metricRegistry));
+            return new Scaling(thread -> {
+                final TestMqttToPubSubInput[] inputs = mqttToPubSubInputs(thread);
+                final TestMqttToPubSubOutput output = new TestMqttToPubSubOutput();
+                return i -> {
+                    transformer.transformMqttToPubSub(inputs[i % inputs.length], output);
+                    checkDestinations(Objects.requireNonNull(output.outboundPubSubMessages));
+                    return 0;
+                };
+            }, (perThread, messages) -> {
+                assertCounted(metricRegistry, TransformerMetrics.MQTT_TO_PUBSUB, messages);
+                final String prefix = TransformerMetrics.name(TransformerMetrics.MQTT_TO_PUBSUB,
+                        new TestPubSubConnection().getId(),
+                        TRANSFORMER_ID);
+                for (final String destination : DESTINATIONS_A) {
+                    assertEquals(messages,
+                            metricRegistry.counter(MetricRegistry.name(prefix, "destination", destination, "count"))
+                                    .getCount());
+                }
+            });
+        });
+    }
+
+    @Test
+    void pubSubToMqtt_1To32Threads_scalesWithoutLostUpdates() throws Exception {
+        scale(TransformerMetrics.PUBSUB_TO_MQTT, () -> {
+            final MetricRegistry metricRegistry = new MetricRegistry();
+            final PubSubToMqttHelloWorldTransformer transformer = new PubSubToMqttHelloWorldTransformer();
+            transformer.init(new TestPubSubToMqttInitInput(new TestCustomSettings(pubSubToMqttSettings("load/a",
+                    1,
+                    false)), metricRegistry));
+            return new Scaling(thread -> {
+                final TestPubSubToMqttInput[] inputs = pubSubToMqttInputs(thread);
+                final TestPubSubToMqttOutput output = new TestPubSubToMqttOutput();
+                return i -> {
+                    transformer.transformPubSubToMqtt(inputs[i % inputs.length], output);
+                    checkTopicAndQos(Objects.requireNonNull(output.publishes));
+                    return 0;
+                };
+            }, (perThread, messages) -> {
+                assertCounted(metricRegistry, TransformerMetrics.PUBSUB_TO_MQTT, messages);
+                // every input without data is counted by the counter that all Pub/Sub to MQTT transformers share
+                long missingData = 0;
+                for (final long threadMessages : perThread) {
+                    for (int i = 0; i < Math.min(threadMessages, INPUTS_PER_THREAD); i++) {
+                        if (PAYLOAD_SIZES[i % PAYLOAD_SIZES.length] == 0) {
+                            missingData += (threadMessages - i + INPUTS_PER_THREAD - 1) / INPUTS_PER_THREAD;
+                        }
+                    }
+                }
+                assertEquals(missingData,
+                        metricRegistry.counter(PubSubToMqttHelloWorldTransformer.MISSING_DATA_COUNTER_NAME)
+                                .getCount());
+            });
+        });
+    }
+
+    /**
+     * Runs a fresh transformer with every thread count of {@link #SCALING_THREADS} and prints the throughput and the
+     * speedup over the first thread count.
+     */
+    private static void scale(final @NotNull String name, final @NotNull Supplier<Scaling> scalings)
+            throws Exception {
+        final int processors = Runtime.getRuntime().availableProcessors();
+        System.out.printf(Locale.ROOT,
+                "%s scaling: %d s per thread count (%d s warm-up), %d available processors%n",
+                name,
+                SCALING_SECONDS,
+                WARMUP_SECONDS,
+                processors);
+        double baseline = 0;
+        int baselineThreads = 0;
+        for (final String value : SCALING_THREADS.split(",")) {
+            final int threads = Integer.parseInt(value.trim());
+            final Scaling scaling = scalings.get();
+            final LongAdder transformed = new LongAdder();
+            final ExecutorService executor = Executors.newFixedThreadPool(threads);
+            final Stop stop = new Stop();
+            final double throughput;
+            final long[] perThread = new long[threads];
+            try {
+                final List<Future<Long>> workers = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                    final int thread = t;
+                    workers.add(executor.submit(() -> {
+                        try {
+                            final IntToLongFunction operation = scaling.operations.apply(thread);
+                            long messages = 0;
+                            while (!stop.stopped) {
+                                operation.applyAsLong((int) (messages & Integer.MAX_VALUE));
+                                messages++;
+                                transformed.increment();
+                            }
+                            return messages;
+                        } finally {
+                            stop.stopped = true;
+                        }
+                    }));
+                }
+                TimeUnit.SECONDS.sleep(WARMUP_SECONDS);
+                final long measureFromNanos = System.nanoTime();
+                final long measureFrom = transformed.sum();
+                TimeUnit.SECONDS.sleep(SCALING_SECONDS);
+                throughput = (transformed.sum() - measureFrom) * 1e9 / (System.nanoTime() - measureFromNanos);
+                stop.stopped = true;
+                long messages = 0;
+                for (int t = 0; t < threads; t++) {
+                    perThread[t] = workers.get(t).get(1, TimeUnit.MINUTES);
+                    messages += perThread[t];
+                }
+                scaling.check.accept(perThread, messages);
+            } finally {
+                stop.stopped = true;
+                executor.shutdownNow();
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            }
+            if (baselineThreads == 0) {
+                baseline = throughput;
+                baselineThreads = threads;
+            }
+            final double speedup = throughput / baseline;
+            final double efficiency = speedup * baselineThreads / threads;
+            System.out.printf(Locale.ROOT,
+                    "%s %3d threads: %,12.0f msg/s, speedup %5.2f, efficiency %3.0f %%%n",
+                    name,
+                    threads,
+                    throughput,
+                    speedup,
+                    efficiency * 100);
+            if (MIN_SCALING_EFFICIENCY > 0 && threads <= processors) {
+                assertTrue(efficiency >= MIN_SCALING_EFFICIENCY,
+                        () -> String.format(Locale.ROOT, "%d threads scaled with %.2f", threads, efficiency));
+            }
+        }
+    }
+
+    /**
+     * Runs the operations of the load threads until the duration is over, while the transformer is initialized with
+     * the configurations in turn, and prints the reports.
+     *
+     * @param operations creates the operation of a load thread, which transforms the i-th message, checks the output
+     *                   and returns the latency in nanoseconds.
+     * @return the number of transformed messages, including the warm-up.
+     */
+    private static <I> long run(
+            final @NotNull String name,
+            final @NotNull List<I> configurations,
+            final @NotNull Consumer<I> init,
+            final @NotNull IntFunction<IntToLongFunction> operations) throws Exception {
+        System.out.printf(Locale.ROOT,
+                "%s: %d threads, %d s (%d s warm-up), re-initialized every %d ms%n",
+                name,
+                THREADS,
+                DURATION_SECONDS,
+                WARMUP_SECONDS,
+                REINIT_INTERVAL_MILLIS);
+        final LongAdder transformed = new LongAdder();
+        final long startNanos = System.nanoTime();
+        final long measureFromNanos = startNanos + TimeUnit.SECONDS.toNanos(WARMUP_SECONDS);
+        final long endNanos = measureFromNanos + TimeUnit.SECONDS.toNanos(DURATION_SECONDS);
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS + 1);
+        final Stop stop = new Stop();
+        try (final GcPauses gcPauses = GcPauses.start()) {
+            final List<Future<LatencyHistogram>> workers = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                final int thread = t;
+                workers.add(executor.submit(() -> {
+                    try {
+                        final IntToLongFunction operation = operations.apply(thread);
+                        final LatencyHistogram histogram = new LatencyHistogram();
+                        boolean measuring = false;
+                        for (int i = 0; !stop.stopped; i++) {
+                            final long nanos = operation.applyAsLong(i & Integer.MAX_VALUE);
+                            transformed.increment();
+                            if (measuring || (measuring = System.nanoTime() - measureFromNanos >= 0)) {
+                                histogram.record(nanos);
+                            }
+                        }
+                        return histogram;
+                    } finally {
+                        // a failed load thread ends the run
+                        stop.stopped = true;
+                    }
+                }));
+            }
+            if (REINIT_INTERVAL_MILLIS > 0) {
+                executor.submit(() -> {
+                    for (int i = 1; !stop.stopped; i++) {
+                        Thread.sleep(REINIT_INTERVAL_MILLIS);
+                        init.accept(configurations.get(i % configurations.size()));
+                    }
+                    return null;
+                });
+            }
+
+            long intervalStartNanos = startNanos;
+            long intervalTransformed = 0;
+            long intervalGcCount = 0;
+            long intervalGcMillis = 0;
+            while (!stop.stopped && System.nanoTime() - endNanos < 0) {
+                TimeUnit.NANOSECONDS.sleep(Math.min(TimeUnit.SECONDS.toNanos(REPORT_INTERVAL_SECONDS),
+                        endNanos - System.nanoTime()));
+                final long nowNanos = System.nanoTime();
+                final long nowTransformed = transformed.sum();
+                System.out.printf(Locale.ROOT,
+                        "%s %5d s: %,12.0f msg/s, GC pauses %d (total %d ms, max %d ms)%n",
+                        name,
+                        TimeUnit.NANOSECONDS.toSeconds(nowNanos - startNanos),
+                        (nowTransformed - intervalTransformed) * 1e9 / (nowNanos - intervalStartNanos),
+                        gcPauses.getCount() - intervalGcCount,
+                        gcPauses.getTotalMillis() - intervalGcMillis,
+                        gcPauses.getAndResetIntervalMaxMillis());
+                intervalStartNanos = nowNanos;
+                intervalTransformed = nowTransformed;
+                intervalGcCount = gcPauses.getCount();
+                intervalGcMillis = gcPauses.getTotalMillis();
+            }
+            stop.stopped = true;
+            final long measuredNanos = System.nanoTime() - measureFromNanos;
+
+            final LatencyHistogram latencies = new LatencyHistogram();
+            for (final Future<LatencyHistogram> worker : workers) {
+                latencies.add(worker.get(1, TimeUnit.MINUTES));
+            }
+            System.out.printf(Locale.ROOT,
+                    "%s total: %,.0f msg/s, latency p50 %.1f us, p99 %.1f us, p999 %.1f us, max %.1f us, " +
+                            "GC pauses %d (total %d ms, max %d ms)%n",
+                    name,
+                    latencies.getCount() * 1e9 / measuredNanos,
+                    latencies.quantile(0.5) / 1e3,
+                    latencies.quantile(0.99) / 1e3,
+                    latencies.quantile(0.999) / 1e3,
+                    latencies.getMax() / 1e3,
+                    gcPauses.getCount(),
+                    gcPauses.getTotalMillis(),
+                    gcPauses.getMaxMillis());
+        } finally {
+            stop.stopped = true;
+            executor.shutdownNow();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        return transformed.sum();
+    }
+
+    /**
+     * Every configuration shares the counters of the transformer, so every message is counted once, no matter which
+     * configuration transformed it.
+     */
+    private static void assertCounted(
+            final @NotNull MetricRegistry metricRegistry,
+            final @NotNull String direction,
+            final long messages) {
+        final String prefix = TransformerMetrics.name(direction, new TestPubSubConnection().getId(), TRANSFORMER_ID);
+        assertEquals(0, metricRegistry.counter(MetricRegistry.name(prefix, "failed", "count")).getCount());
+        assertEquals(messages, metricRegistry.counter(MetricRegistry.name(prefix, "messages-in", "count")).getCount());
+    }
+
+    private static @NotNull List<TestCustomSetting> mqttToPubSubSettings(
+            final @NotNull List<String> destinations,
+            final boolean detailedMetrics) {
+        final List<TestCustomSetting> customSettings = new ArrayList<>();
+        customSettings.add(new TestCustomSetting("transformer-id", TRANSFORMER_ID));
+        customSettings.add(new TestCustomSetting("detailed-metrics", Boolean.toString(detailedMetrics)));
+        for (final String destination : destinations) {
+            customSettings.add(new TestCustomSetting("destination", destination));
+        }
+        return customSettings;
+    }
+
+    private static @NotNull List<TestCustomSetting> pubSubToMqttSettings(
+            final @NotNull String mqttTopic,
+            final int qos,
+            final boolean detailedMetrics) {
+        return List.of(new TestCustomSetting("transformer-id", TRANSFORMER_ID),
+                new TestCustomSetting("detailed-metrics", Boolean.toString(detailedMetrics)),
+                new TestCustomSetting("mqtt-topic", mqttTopic),
+                new TestCustomSetting("qos", Integer.toString(qos)));
+    }
+
+    private static @NotNull TestMqttToPubSubInput @NotNull [] mqttToPubSubInputs(final int thread) {
+        final Random random = new Random(thread);
+        final TestMqttToPubSubInput[] inputs = new TestMqttToPubSubInput[INPUTS_PER_THREAD];
+        for (int i = 0; i < inputs.length; i++) {
+            final List<TestUserProperty> userProperties = new ArrayList<>();
+            for (int p = 0; p < i % 8; p++) {
+                userProperties.add(new TestUserProperty("name-" + p, "value-" + p));
+            }
+            inputs[i] = new TestMqttToPubSubInput(new TestPublishPacket("load/device-" + thread + "-" + i + "/data",
+                    Qos.AT_LEAST_ONCE,
+                    false,
+                    payload(random, PAYLOAD_SIZES[i % PAYLOAD_SIZES.length]),
+                    userProperties));
+        }
+        return inputs;
+    }
+
+    private static @NotNull TestPubSubToMqttInput @NotNull [] pubSubToMqttInputs(final int thread) {
+        final Random random = new Random(thread);
+        final TestPubSubToMqttInput[] inputs = new TestPubSubToMqttInput[INPUTS_PER_THREAD];
+        for (int i = 0; i < inputs.length; i++) {
+            final Map<String, String> attributes = new HashMap<>();
+            for (int a = 0; a < i % 8; a++) {
+                attributes.put("name-" + a, "value-" + a);
+            }
+            final int size = PAYLOAD_SIZES[i % PAYLOAD_SIZES.length];
+            // an empty payload is the "no data" case of Pub/Sub
+            inputs[i] = new TestPubSubToMqttInput(new TestInboundPubSubMessage(size == 0 ? null : payload(random, size),
+                    Map.copyOf(attributes)));
+        }
+        return inputs;
+    }
+
+    private static @NotNull ByteBuffer payload(final @NotNull Random random, final int size) {
+        final byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * Checks without allocations that the messages went to the destinations of exactly one configuration.
+     */
+    private static void checkDestinations(final @NotNull List<OutboundPubSubMessage> messages) {
+        final List<String> expected = messages.size() == DESTINATIONS_A.size() ? DESTINATIONS_A : DESTINATIONS_B;
+        if (messages.size() != expected.size()) {
+            throw new AssertionError("Expected " + DESTINATIONS_A + " or " + DESTINATIONS_B + " but got " + messages);
+        }
+        for (int i = 0; i < messages.size(); i++) {
+            if (!expected.contains(messages.get(i).getTopicName())) {
+                throw new AssertionError("Expected only " + expected + " but got " + messages.get(i).getTopicName());
+            }
+        }
+    }
+
+    /**
+     * Checks that the MQTT topic and the QoS come from the same configuration.
+     */
+    private static void checkTopicAndQos(final @NotNull List<Publish> publishes) {
+        if (publishes.size() != 1) {
+            throw new AssertionError("Expected a single publish but got " + publishes.size());
+        }
+        final Publish publish = publishes.get(0);
+        final Qos expected = publish.getTopic().equals("load/a") ? Qos.AT_LEAST_ONCE : Qos.EXACTLY_ONCE;
+        if (!publish.getTopic().equals("load/a") && !publish.getTopic().equals("load/b") ||
+                publish.getQos() != expected) {
+            throw new AssertionError("Mixed configurations: topic " + publish.getTopic() + " with " +
+                    publish.getQos());
+        }
+    }
+
+    private static final class Stop {
+
+        private volatile boolean stopped;
+    }
+
+    /**
+     * A transformer for one thread count of a scaling test.
+     */
+    private static final class Scaling {
+
+        private final @NotNull IntFunction<IntToLongFunction> operations;
+        /**
+         * Checks the counters with the number of transformed messages per thread and in total.
+         */
+        private final @NotNull ObjLongConsumer<long[]> check;
+
+        private Scaling(
+                final @NotNull IntFunction<IntToLongFunction> operations,
+                final @NotNull ObjLongConsumer<long[]> check) {
+            this.operations = operations;
+            this.check = check;
+        }
+    }
+}
@@ -0,0 +1,377 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.Immutable;
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.hivemq.extension.sdk.api.packets.general.UserProperty;
+import com.hivemq.extensions.google.cloud.pubsub.api.model.CustomSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld.CustomSettingsParser.parseInt;
+
+/**
+ * Selects and limits the user properties that are forwarded as Pub/Sub attributes and the Pub/Sub attributes that are
+ * forwarded as user properties.
+ * <p>
+ * An allow or deny entry is either an exact name or a prefix followed by {@code *}. The exact names are kept in a hash
+ * set, the prefixes in a sorted array without redundant prefixes, so a name is looked up with one hash lookup and one
+ * binary search regardless of the number of entries. Denied names are never forwarded, and if allowed names are
+ * configured, only those are forwarded. Values over the size cap of a single attribute and attributes over the total
+ * size cap are truncated or dropped, sizes are counted in UTF-8 bytes.
+ *
+ * @since 4.53.0
+ */
+@Immutable
+final class AttributeFilter {
+
+    private static final @NotNull Logger LOG = LoggerFactory.getLogger(AttributeFilter.class);
+
+    static final @NotNull String ATTRIBUTE_ALLOW = "attribute-allow";
+    static final @NotNull String ATTRIBUTE_DENY = "attribute-deny";
+    static final @NotNull String ATTRIBUTE_MAX_BYTES = "attribute-max-bytes";
+    static final @NotNull String ATTRIBUTES_MAX_BYTES = "attributes-max-bytes";
+    static final @NotNull String ATTRIBUTE_OVERFLOW = "attribute-overflow";
+
+    /**
+     * The maximum size of a Pub/Sub attribute value in bytes.
+     */
+    static final int MAX_VALUE_BYTES = 1024;
+
+    static final @NotNull AttributeFilter NONE = new AttributeFilter(List.of(), List.of(), 0, 0, false);
+
+    /**
+     * The attributes that describe the data of a Pub/Sub message, see {@link #isReserved(String)}.
+     */
+    private static final @NotNull Set<String> RESERVED = Set.of(PayloadEnvelope.ENVELOPE,
+            PayloadBatch.BATCH_FORMAT,
+            PayloadBatch.BATCH_SIZE,
+            PayloadCompression.CONTENT_ENCODING,
+            PayloadSchema.PAYLOAD_SCHEMA,
+            PayloadEncryption.ENCRYPTION,
+            PayloadEncryption.KEY_ID,
+            PayloadEncryption.SIGNATURE);
+
+    private final @Nullable NameSet allowed;
+    private final @Nullable NameSet denied;
+    private final int maxBytes;
+    private final int totalMaxBytes;
+    private final boolean truncate;
+
+    /**
+     * @param allow         the allowed names or prefixes followed by {@code *}, all names are allowed if empty.
+     * @param deny          the denied names or prefixes followed by {@code *}.
+     * @param maxBytes      the maximum size of a single value, {@code 0} for no limit.
+     * @param totalMaxBytes the maximum size of all names and values, {@code 0} for no limit.
+     * @param truncate      whether values over a limit are truncated instead of dropped.
+     */
+    AttributeFilter(
+            final @NotNull List<String> allow,
+            final @NotNull List<String> deny,
+            final int maxBytes,
+            final int totalMaxBytes,
+            final boolean truncate) {
+        allowed = allow.isEmpty() ? null : new NameSet(allow);
+        denied = deny.isEmpty() ? null : new NameSet(deny);
+        this.maxBytes = maxBytes;
+        this.totalMaxBytes = totalMaxBytes;
+        this.truncate = truncate;
+    }
+
+    static @NotNull AttributeFilter of(final @NotNull CustomSettings customSettings) {
+        final List<String> allow = customSettings.getAllForName(ATTRIBUTE_ALLOW);
+        final List<String> deny = customSettings.getAllForName(ATTRIBUTE_DENY);
+        final int maxBytes = parseInt(customSettings, ATTRIBUTE_MAX_BYTES, 0);
+        final int totalMaxBytes = parseInt(customSettings, ATTRIBUTES_MAX_BYTES, 0);
+        if (allow.isEmpty() && deny.isEmpty() && maxBytes == 0 && totalMaxBytes == 0) {
+            return NONE;
+        }
+        final String overflow = customSettings.getFirst(ATTRIBUTE_OVERFLOW).map(String::trim).orElse("drop");
+        final boolean truncate = overflow.equalsIgnoreCase("truncate");
+        if (!truncate && !overflow.equalsIgnoreCase("drop")) {
+            LOG.warn("Unknown attribute overflow '{}', supported are 'drop' and 'truncate'. Attributes over the size " +
+                    "limits are dropped.", overflow);
+        }
+        return new AttributeFilter(allow, deny, maxBytes, totalMaxBytes, truncate);
+    }
+
+    /**
+     * @return {@code true} if all attributes are forwarded unchanged.
+     */
+    boolean isEmpty() {
+        return allowed == null && denied == null && maxBytes == 0 && totalMaxBytes == 0;
+    }
+
+    /**
+     * @return whether the name is one of the attributes that the MQTT-to-Pub/Sub transformer adds to describe the data,
+     *         like {@code envelope}, {@code batch-format} or the chunk attributes. User properties with these names
+     *         are never forwarded, so an MQTT client can not make the Pub/Sub-to-MQTT transformer misread the data.
+     */
+    static boolean isReserved(final @NotNull String name) {
+        return RESERVED.contains(name) || PayloadChunks.isChunkAttribute(name);
+    }
+
+    /**
+     * @return whether the name is allowed and not denied.
+     */
+    boolean isAllowed(final @NotNull String name) {
+        return (allowed == null || allowed.contains(name)) && (denied == null || !denied.contains(name));
+    }
+
+    /**
+     * Adds the forwarded user properties to the attributes, user properties with {@link #isReserved(String) reserved}
+     * names are dropped. Their total size is limited by {@link #limitTotal(OutboundAttributes, int, int)} once all
+     * attributes of the Pub/Sub messages are known.
+     */
+    void addTo(final @NotNull List<UserProperty> userProperties, final @NotNull OutboundAttributes attributes) {
+        for (final UserProperty userProperty : userProperties) {
+            final String name = userProperty.getName();
+            final String value = isReserved(name) ? null : filter(name, userProperty.getValue(), Integer.MAX_VALUE);
+            if (value != null) {
+                attributes.add(name, value);
+            }
+        }
+    }
+
+    /**
+     * Limits the total size of the attributes to {@code attributes-max-bytes}. The attributes that the transformer
+     * adds itself, like {@code mqtt-topic} and the topic segment and payload field attributes, are always sent, so
+     * their size is reserved and only the forwarded user properties are dropped or truncated, in their order.
+     *
+     * @param forwarded     the number of forwarded user properties at the start of the attributes, all later
+     *                      attributes are added by the transformer.
+     * @param reservedBytes the size of the attributes that are added to every Pub/Sub message later, e.g. the chunk
+     *                      attributes.
+     */
+    void limitTotal(final @NotNull OutboundAttributes attributes, final int forwarded, final int reservedBytes) {
+        if (totalMaxBytes == 0) {
+            return;
+        }
+        int remainingBytes = totalMaxBytes - reservedBytes;
+        for (int i = forwarded; i < attributes.size(); i++) {
+            remainingBytes -= utf8Length(attributes.name(i)) + utf8Length(attributes.value(i));
+        }
+        int kept = 0;
+        for (int i = 0; i < forwarded; i++) {
+            final String name = attributes.name(i);
+            if (isOverwritten(attributes, i)) {
+                // a later attribute with the same name replaces it, so it is never sent
+                continue;
+            }
+            final int limit = Math.min(maxBytes == 0 ? Integer.MAX_VALUE : maxBytes,
+                    remainingBytes - utf8Length(name));
+            final String value = limit < 0 ? null : limit(attributes.value(i), limit);
+            if (value != null) {
+                attributes.set(kept++, name, value);
+                remainingBytes -= utf8Length(name) + utf8Length(value);
+            }
+        }
+        attributes.remove(kept, forwarded);
+    }
+
+    /**
+     * @return the forwarded attributes, or the attributes themselves if all attributes are forwarded unchanged.
+     */
+    @NotNull Map<String, String> filter(final @NotNull Map<String, String> attributes) {
+        if (isEmpty()) {
+            return attributes;
+        }
+        final Map<String, String> filtered = new HashMap<>((int) (attributes.size() / 0.75f) + 1);
+        int remainingBytes = totalMaxBytes == 0 ? Integer.MAX_VALUE : totalMaxBytes;
+        for (final Map.Entry<String, String> attribute : attributes.entrySet()) {
+            final String name = attribute.getKey();
+            final String value = filter(name, attribute.getValue(), remainingBytes);
+            if (value != null) {
+                filtered.put(name, value);
+                if (totalMaxBytes != 0) {
+                    remainingBytes -= utf8Length(name) + utf8Length(value);
+                }
+            }
+        }
+        return filtered;
+    }
+
+    /**
+     * @return the value of an attribute that the transformer derives itself, limited to {@code attribute-max-bytes}
+     *         and to the {@link #MAX_VALUE_BYTES} of Pub/Sub, possibly truncated, or {@code null} if it is dropped.
+     */
+    @Nullable String limit(final @NotNull String value) {
+        return limit(value, maxBytes == 0 ? MAX_VALUE_BYTES : Math.min(maxBytes, MAX_VALUE_BYTES));
+    }
+
+    /**
+     * @return the forwarded, possibly truncated value or {@code null} if the attribute is not forwarded.
+     */
+    private @Nullable String filter(
+            final @NotNull String name,
+            final @NotNull String value,
+            final int remainingBytes) {
+        if (!isAllowed(name)) {
+            return null;
+        }
+        if (maxBytes == 0 && totalMaxBytes == 0) {
+            return value;
+        }
+        int limit = maxBytes == 0 ? Integer.MAX_VALUE : maxBytes;
+        if (totalMaxBytes != 0) {
+            limit = Math.min(limit, remainingBytes - utf8Length(name));
+            if (limit < 0) {
+                return null;
+            }
+        }
+        return limit(value, limit);
+    }
+
+    /**
+     * @return the value, its longest prefix within the bytes if values over the limit are truncated, or {@code null}
+     *         if they are dropped.
+     */
+    private @Nullable String limit(final @NotNull String value, final int limit) {
+        // a value has at most 3 bytes per char, so short values are not measured
+        if ((long) value.length() * 3 <= limit) {
+            return value;
+        }
+        final int end = utf8Prefix(value, limit);
+        if (end == value.length()) {
+            return value;
+        }
+        return truncate ? value.substring(0, end) : null;
+    }
+
+    private static boolean isOverwritten(final @NotNull OutboundAttributes attributes, final int index) {
+        final String name = attributes.name(index);
+        for (int i = index + 1; i < attributes.size(); i++) {
+            if (attributes.name(i).equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of bytes of the UTF-8 encoding of the text.
+     */
+    static int utf8Length(final @NotNull String text) {
+        int bytes = 0;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) &&
+                    i + 1 < text.length() &&
+                    Character.isLowSurrogate(text.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the number of chars of the longest prefix of the text whose UTF-8 encoding fits into the bytes, without
+     *         splitting a surrogate pair.
+     */
+    private static int utf8Prefix(final @NotNull String text, final int maxBytes) {
+        int bytes = 0;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            final int charBytes;
+            final int chars;
+            if (c < 0x80) {
+                charBytes = 1;
+                chars = 1;
+            } else if (c < 0x800) {
+                charBytes = 2;
+                chars = 1;
+            } else if (Character.isHighSurrogate(c) &&
+                    i + 1 < text.length() &&
+                    Character.isLowSurrogate(text.charAt(i + 1))) {
+                charBytes = 4;
+                chars = 2;
+            } else {
+                charBytes = 3;
+                chars = 1;
+            }
+            if (bytes + charBytes > maxBytes) {
+                return i;
+            }
+            bytes += charBytes;
+            i += chars - 1;
+        }
+        return text.length();
+    }
+
+    /**
+     * A set of exact names and name prefixes.
+     */
+    private static final class NameSet {
+
+        private final @NotNull Set<String> names = new HashSet<>();
+        /**
+         * Sorted, and no prefix is a prefix of another one, so only the greatest prefix that is not greater than a
+         * name can be a prefix of the name.
+         */
+        private final @NotNull String @NotNull [] prefixes;
+
+        private NameSet(final @NotNull List<String> entries) {
+            final List<String> prefixes = new ArrayList<>();
+            for (final String entry : entries) {
+                final String trimmed = entry.trim();
+                if (trimmed.endsWith("*")) {
+                    prefixes.add(trimmed.substring(0, trimmed.length() - 1));
+                } else if (!trimmed.isEmpty()) {
+                    names.add(trimmed);
+                }
+            }
+            prefixes.sort(null);
+            final List<String> minimal = new ArrayList<>(prefixes.size());
+            for (final String prefix : prefixes) {
+                // a sorted prefix directly precedes the prefixes it is a prefix of
+                if (minimal.isEmpty() || !prefix.startsWith(minimal.get(minimal.size() - 1))) {
+                    minimal.add(prefix);
+                }
+            }
+            this.prefixes = minimal.toArray(String[]::new);
+        }
+
+        private boolean contains(final @NotNull String name) {
+            if (names.contains(name)) {
+                return true;
+            }
+            if (prefixes.length == 0) {
+                return false;
+            }
+            final int index = Arrays.binarySearch(prefixes, name);
+            final int floor = index >= 0 ? index : -index - 2;
+            return floor >= 0 && name.startsWith(prefixes[floor]);
+        }
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.Immutable;
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.hivemq.extension.sdk.api.annotations.ThreadSafe;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Collects the MQTT PUBLISHes of each Pub/Sub topic into batches until a batch reaches its maximum number of messages,
+ * its maximum size or its linger time.
+ * <p>
+ * Every Pub/Sub topic has a fixed number of stripes, a thread always adds to the same stripe. A stripe holds an
+ * immutable linked list of the collected records that is extended and taken with a single compare-and-set, so adding
+ * never blocks and no record is lost when threads complete a batch concurrently.
+ * <p>
+ * The transformer can only emit Pub/Sub messages while it transforms an MQTT PUBLISH, so the linger time of all stripes
+ * of a Pub/Sub topic is checked whenever a record is added to the Pub/Sub topic, and the stripes of all Pub/Sub topics
+ * are swept by the thread that notices that half the linger time passed since the last sweep. So a Pub/Sub topic
+ * without further records does not keep its last batch open while other Pub/Sub topics have traffic.
+ * <p>
+ * When the transformer is initialized again, the open batches are handed over to the new accumulator and completed with
+ * the next MQTT PUBLISH. Records that are still added to the previous accumulator complete its batches at once. When
+ * the JVM shuts down, the accumulator is closed as well and its open batches are dropped.
+ *
+ * @since 4.53.0
+ */
+@ThreadSafe
+final class BatchAccumulator {
+
+    private static final int STRIPES = Integer.highestOneBit(Math.min(16, Runtime.getRuntime().availableProcessors()));
+    private static final long MIN_SWEEP_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final @NotNull AtomicLongFieldUpdater<BatchAccumulator> NEXT_SWEEP =
+            AtomicLongFieldUpdater.newUpdater(BatchAccumulator.class, "nextSweep");
+
+    private final @NotNull PayloadBatch.Format format;
+    private final int maxMessages;
+    private final int maxBytes;
+    private final long lingerNanos;
+    private final long sweepIntervalNanos;
+    private final @NotNull ConcurrentHashMap<String, AtomicReferenceArray<Batch>> stripesByTopic =
+            new ConcurrentHashMap<>();
+    private final @NotNull ConcurrentLinkedQueue<Batch> handedOver = new ConcurrentLinkedQueue<>();
+    private volatile long nextSweep;
+    private volatile boolean closed;
+
+    BatchAccumulator(
+            final @NotNull PayloadBatch.Format format,
+            final int maxMessages,
+            final int maxBytes,
+            final long lingerMillis) {
+        this.format = format;
+        this.maxMessages = Math.max(1, maxMessages);
+        this.maxBytes = maxBytes;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        sweepIntervalNanos = Math.max(MIN_SWEEP_INTERVAL_NANOS, lingerNanos / 2);
+        nextSweep = System.nanoTime() + sweepIntervalNanos;
+    }
+
+    @NotNull PayloadBatch.Format getFormat() {
+        return format;
+    }
+
+    /**
+     * Adds a record to the current batch of the Pub/Sub topic.
+     *
+     * @param pubSubTopic the Pub/Sub topic the record is sent to.
+     * @param mqttTopic   the UTF-8 encoded MQTT topic of the record, not used by every batch format.
+     * @param payload     the payload of the record, it is not copied until the batch is encoded.
+     * @param completed   the list the completed batches of the Pub/Sub topic are added to.
+     */
+    void add(
+            final @NotNull String pubSubTopic,
+            final byte @NotNull [] mqttTopic,
+            final @NotNull ByteBuffer payload,
+            final @NotNull List<Batch> completed) {
+        final AtomicReferenceArray<Batch> stripes =
+                stripesByTopic.computeIfAbsent(pubSubTopic, topic -> new AtomicReferenceArray<>(STRIPES));
+        final int index = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        final int size = format.encodedSize(mqttTopic, payload);
+        final long now = System.nanoTime();
+        while (true) {
+            final Batch current = stripes.get(index);
+            // a record never joins a batch that it would push over the size limit or that already lingered too long
+            final boolean replace = current != null && (current.bytes + size > maxBytes || isExpired(current, now));
+            final Batch next = current == null || replace ?
+                    new Batch(format, pubSubTopic, mqttTopic, payload, size, null, now) :
+                    new Batch(format, pubSubTopic, mqttTopic, payload, size, current, current.firstNanos);
+            final boolean complete = next.count >= maxMessages || next.bytes >= maxBytes;
+            if (stripes.compareAndSet(index, current, complete ? null : next)) {
+                if (replace) {
+                    completed.add(current);
+                }
+                if (complete) {
+                    completed.add(next);
+                }
+                break;
+            }
+        }
+        for (int i = 0; i < STRIPES; i++) {
+            final Batch lingering = stripes.get(i);
+            if (i != index && lingering != null && isExpired(lingering, now) &&
+                    stripes.compareAndSet(i, lingering, null)) {
+                completed.add(lingering);
+            }
+        }
+        if (closed) {
+            // the transformer was initialized again after the accumulator was handed over, so nobody else takes it
+            takeAll(completed);
+        }
+    }
+
+    /**
+     * Provides the batches that were handed over from a previous accumulator and, if the sweep is due, the batches of
+     * all Pub/Sub topics that reached their linger time.
+     *
+     * @param nowNanos  the current {@link System#nanoTime()}.
+     * @param completed the list the completed batches are added to.
+     */
+    void addExpired(final long nowNanos, final @NotNull List<Batch> completed) {
+        for (Batch batch = handedOver.poll(); batch != null; batch = handedOver.poll()) {
+            completed.add(batch);
+        }
+        final long nextSweep = this.nextSweep;
+        if (nowNanos - nextSweep < 0 || !NEXT_SWEEP.compareAndSet(this, nextSweep, nowNanos + sweepIntervalNanos)) {
+            return;
+        }
+        for (final AtomicReferenceArray<Batch> stripes : stripesByTopic.values()) {
+            for (int i = 0; i < STRIPES; i++) {
+                final Batch lingering = stripes.get(i);
+                if (lingering != null && isExpired(lingering, nowNanos) && stripes.compareAndSet(i, lingering, null)) {
+                    completed.add(lingering);
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes the open batches of the accumulator of the previous initialization of the transformer. They are provided
+     * by the next {@link #addExpired(long, List)} of this accumulator.
+     */
+    void handOver(final @NotNull BatchAccumulator previous) {
+        final List<Batch> open = new ArrayList<>();
+        previous.close(open);
+        handedOver.addAll(open);
+    }
+
+    /**
+     * Closes the accumulator of a previous initialization of the transformer or of a JVM that shuts down, records that
+     * are added afterwards complete their batch at once.
+     *
+     * @param open the list the open batches, including the ones that were handed over and not provided yet, are added
+     *             to.
+     */
+    void close(final @NotNull List<Batch> open) {
+        // set before the batches are taken, so a concurrent add either sees it or its record is taken here
+        closed = true;
+        for (Batch batch = handedOver.poll(); batch != null; batch = handedOver.poll()) {
+            open.add(batch);
+        }
+        takeAll(open);
+    }
+
+    private void takeAll(final @NotNull List<Batch> completed) {
+        for (final AtomicReferenceArray<Batch> stripes : stripesByTopic.values()) {
+            for (int i = 0; i < STRIPES; i++) {
+                final Batch open = stripes.get(i);
+                if (open != null && stripes.compareAndSet(i, open, null)) {
+                    completed.add(open);
+                }
+            }
+        }
+    }
+
+    private boolean isExpired(final @NotNull Batch batch, final long now) {
+        return now - batch.firstNanos >= lingerNanos;
+    }
+
+    /**
+     * A batch of records, represented by its latest record which links to the previous records of the batch.
+     */
+    @Immutable
+    static final class Batch {
+
+        private final @NotNull PayloadBatch.Format format;
+        private final @NotNull String pubSubTopic;
+        private final byte @NotNull [] mqttTopic;
+        private final @NotNull ByteBuffer payload;
+        private final int size;
+        private final @Nullable Batch previous;
+        private final int count;
+        private final int bytes;
+        private final long firstNanos;
+
+        private Batch(
+                final @NotNull PayloadBatch.Format format,
+                final @NotNull String pubSubTopic,
+                final byte @NotNull [] mqttTopic,
+                final @NotNull ByteBuffer payload,
+                final int size,
+                final @Nullable Batch previous,
+                final long firstNanos) {
+            this.format = format;
+            this.pubSubTopic = pubSubTopic;
+            this.mqttTopic = mqttTopic;
+            this.payload = payload;
+            this.size = size;
+            this.previous = previous;
+            this.count = previous == null ? 1 : previous.count + 1;
+            this.bytes = previous == null ? size : previous.bytes + size;
+            this.firstNanos = firstNanos;
+        }
+
+        /**
+         * @return the format of the accumulator the batch was collected by.
+         */
+        @NotNull PayloadBatch.Format getFormat() {
+            return format;
+        }
+
+        @NotNull String getPubSubTopic() {
+            return pubSubTopic;
+        }
+
+        /**
+         * @return the number of records in the batch.
+         */
+        int getCount() {
+            return count;
+        }
+
+        /**
+         * @return the encoded size of the batch in bytes.
+         */
+        int getBytes() {
+            return bytes;
+        }
+
+        byte @NotNull [] getMqttTopic() {
+            return mqttTopic;
+        }
+
+        @NotNull ByteBuffer getPayload() {
+            return payload;
+        }
+
+        /**
+         * @return the encoded size of this record in bytes.
+         */
+        int getSize() {
+            return size;
+        }
+
+        /**
+         * @return the batch without its latest record or {@code null} if this is the first record.
+         */
+        @Nullable Batch getPrevious() {
+            return previous;
+        }
+    }
+}
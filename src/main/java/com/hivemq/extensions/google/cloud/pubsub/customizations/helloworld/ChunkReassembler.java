@@ -0,0 +1,215 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.hivemq.extension.sdk.api.annotations.ThreadSafe;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Joins the chunks of {@link PayloadChunks} into the original payload.
+ * <p>
+ * The buffer of a payload is allocated with its total size when its first chunk arrives, and every chunk is copied to
+ * its offset outside the lock, so chunks of the same payload are copied concurrently. The pending payloads are bounded
+ * by their total size: a new payload evicts the oldest pending payloads until it fits, and payloads that are not
+ * complete within the timeout are dropped. Chunks that arrive again, e.g. after their acknowledgement deadline, are
+ * ignored: the ids of the joined payloads are remembered for the timeout, at most {@link #MAX_COMPLETED} of them, so a
+ * chunk that arrives after its payload was joined does not start a new payload that never completes.
+ *
+ * @since 4.53.0
+ */
+@ThreadSafe
+final class ChunkReassembler {
+
+    /**
+     * The maximum number of joined payloads whose ids are remembered, the oldest one is forgotten first.
+     */
+    static final int MAX_COMPLETED = 65_536;
+
+    private final long maxBytes;
+    private final long timeoutNanos;
+    /**
+     * The pending payloads in the order of their first chunk, which is also the order of their expiry.
+     */
+    private final @NotNull LinkedHashMap<String, Pending> pending = new LinkedHashMap<>();
+    /**
+     * The expiries of the ids of the joined payloads in the order they were joined, which is also the order of their
+     * expiry.
+     */
+    private final @NotNull LinkedHashMap<String, Long> completed = new LinkedHashMap<>();
+    private long pendingBytes;
+
+    /**
+     * @param maxBytes      the maximum total size of the pending payloads in bytes.
+     * @param timeoutMillis the time in milliseconds all chunks of a payload must arrive within.
+     */
+    ChunkReassembler(final long maxBytes, final long timeoutMillis) {
+        this.maxBytes = maxBytes;
+        // the expiries are compared by their difference, which must not overflow
+        this.timeoutNanos = Math.min(TimeUnit.MILLISECONDS.toNanos(timeoutMillis), Long.MAX_VALUE / 2);
+    }
+
+    /**
+     * Adds a chunk. The position and the limit of the data are not changed.
+     *
+     * @param attributes the attributes of the Pub/Sub message with the chunk attributes of {@link PayloadChunks}.
+     * @param data       the chunk.
+     * @param nowNanos   the current {@link System#nanoTime()}.
+     * @param metrics    counts the payloads that were dropped before they were complete.
+     * @return the joined payload if this was its last missing chunk, otherwise {@code null}.
+     * @throws IllegalArgumentException if the chunk attributes are invalid or do not match the data, or if the payload
+     *                                  is larger than the maximum size of the pending payloads.
+     */
+    @Nullable ByteBuffer add(
+            final @NotNull Map<String, String> attributes,
+            final @NotNull ByteBuffer data,
+            final long nowNanos,
+            final @NotNull TransformerMetrics metrics) {
+        final String messageId = attributes.get(PayloadChunks.CHUNK_MESSAGE_ID);
+        final int totalBytes = parse(attributes, PayloadChunks.CHUNK_TOTAL_BYTES);
+        final int count = parse(attributes, PayloadChunks.CHUNK_COUNT);
+        final int index = parse(attributes, PayloadChunks.CHUNK_INDEX);
+        if (messageId == null || count == 0 || count > totalBytes || index >= count) {
+            throw new IllegalArgumentException("Invalid chunk " + index + " of " + count + " with " + totalBytes +
+                    " bytes of message '" + messageId + "'.");
+        }
+        final int chunkBytes = PayloadChunks.chunkBytes(totalBytes, count);
+        final int offset = index * chunkBytes;
+        final int length = data.remaining();
+        if (length != Math.min(chunkBytes, totalBytes - offset)) {
+            throw new IllegalArgumentException("Chunk " + index + " of message '" + messageId + "' has " + length +
+                    " bytes, expected " + Math.min(chunkBytes, totalBytes - offset) + ".");
+        }
+
+        final Pending message;
+        synchronized (this) {
+            expire(nowNanos, metrics);
+            expireCompleted(nowNanos);
+            Pending existing = pending.get(messageId);
+            if (existing == null && completed.containsKey(messageId)) {
+                // a redelivery of a chunk of a payload that was already joined
+                return null;
+            }
+            if (existing == null) {
+                // the flags of the received chunks are counted as well, as there may be as many chunks as bytes
+                final long bytes = (long) totalBytes + count;
+                if (bytes > maxBytes) {
+                    throw new IllegalArgumentException("The message '" + messageId + "' of " + totalBytes +
+                            " bytes exceeds the maximum of " + maxBytes + " bytes of pending chunks.");
+                }
+                final Iterator<Pending> oldest = pending.values().iterator();
+                while (pendingBytes + bytes > maxBytes) {
+                    pendingBytes -= oldest.next().bytes();
+                    oldest.remove();
+                    metrics.limited(TransformerMetrics.CHUNKS_EXPIRED);
+                }
+                existing = new Pending(totalBytes, count, nowNanos + timeoutNanos);
+                pending.put(messageId, existing);
+                pendingBytes += bytes;
+            } else if (existing.data.length != totalBytes || existing.received.length != count) {
+                throw new IllegalArgumentException("Chunk " + index + " of message '" + messageId +
+                        "' does not match its previous chunks.");
+            }
+            if (existing.received[index]) {
+                // a redelivery of a chunk that was already added
+                return null;
+            }
+            existing.received[index] = true;
+            message = existing;
+        }
+        // every chunk has its own range of the array
+        data.duplicate().get(message.data, offset, length);
+        synchronized (this) {
+            message.copied++;
+            if (message.copied < count || !pending.remove(messageId, message)) {
+                return null;
+            }
+            pendingBytes -= message.bytes();
+            if (completed.size() == MAX_COMPLETED) {
+                final Iterator<Long> oldest = completed.values().iterator();
+                oldest.next();
+                oldest.remove();
+            }
+            completed.put(messageId, nowNanos + timeoutNanos);
+        }
+        return ByteBuffer.wrap(message.data).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return the number of payloads whose chunks are not complete yet.
+     */
+    synchronized int getPending() {
+        return pending.size();
+    }
+
+    private void expire(final long nowNanos, final @NotNull TransformerMetrics metrics) {
+        final Iterator<Pending> oldest = pending.values().iterator();
+        while (oldest.hasNext()) {
+            final Pending message = oldest.next();
+            if (message.expiresAtNanos - nowNanos > 0) {
+                return;
+            }
+            pendingBytes -= message.bytes();
+            oldest.remove();
+            metrics.limited(TransformerMetrics.CHUNKS_EXPIRED);
+        }
+    }
+
+    private void expireCompleted(final long nowNanos) {
+        final Iterator<Long> oldest = completed.values().iterator();
+        while (oldest.hasNext() && oldest.next() - nowNanos <= 0) {
+            oldest.remove();
+        }
+    }
+
+    private static int parse(final @NotNull Map<String, String> attributes, final @NotNull String name) {
+        final String value = attributes.get(name);
+        try {
+            final int parsed = value == null ? -1 : Integer.parseInt(value);
+            if (parsed >= 0) {
+                return parsed;
+            }
+        } catch (final NumberFormatException ignored) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Invalid chunk attribute '" + name + "' with value '" + value + "'.");
+    }
+
+    private static final class Pending {
+
+        private final byte @NotNull [] data;
+        private final boolean @NotNull [] received;
+        private final long expiresAtNanos;
+        private int copied;
+
+        private Pending(final int totalBytes, final int count, final long expiresAtNanos) {
+            data = new byte[totalBytes];
+            received = new boolean[count];
+            this.expiresAtNanos = expiresAtNanos;
+        }
+
+        private long bytes() {
+            return (long) data.length + received.length;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.hivemq.extensions.google.cloud.pubsub.api.model.CustomSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Parses single custom settings. Invalid values are logged and replaced by their defaults.
+ *
+ * @since 4.53.0
+ */
+final class CustomSettingsParser {
+
+    private static final @NotNull Logger LOG = LoggerFactory.getLogger(CustomSettingsParser.class);
+
+    private CustomSettingsParser() {
+    }
+
+    static int parseInt(final @NotNull CustomSettings customSettings, final @NotNull String name, final int defaultValue) {
+        return (int) parseLong(customSettings, name, defaultValue, Integer.MAX_VALUE);
+    }
+
+    static long parseLong(
+            final @NotNull CustomSettings customSettings,
+            final @NotNull String name,
+            final long defaultValue) {
+        return parseLong(customSettings, name, defaultValue, Long.MAX_VALUE);
+    }
+
+    private static long parseLong(
+            final @NotNull CustomSettings customSettings,
+            final @NotNull String name,
+            final long defaultValue,
+            final long maxValue) {
+        final String value = customSettings.getFirst(name).orElse(null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            final long parsed = Long.parseLong(value.trim());
+            if (parsed >= 0 && parsed <= maxValue) {
+                return parsed;
+            }
+        } catch (final NumberFormatException ignored) {
+            // reported below
+        }
+        LOG.warn("Could not parse custom setting '{}' with value '{}'. Using default {}.", name, value, defaultValue);
+        return defaultValue;
+    }
+
+    static boolean parseBoolean(
+            final @NotNull CustomSettings customSettings,
+            final @NotNull String name,
+            final boolean defaultValue) {
+        final String value = customSettings.getFirst(name).orElse(null);
+        if (value == null) {
+            return defaultValue;
+        }
+        switch (value.trim().toLowerCase(Locale.ROOT)) {
+            case "true":
+                return true;
+            case "false":
+                return false;
+            default:
+                LOG.warn("Could not parse custom setting '{}' with value '{}'. Using default {}.",
+                        name,
+                        value,
+                        defaultValue);
+                return defaultValue;
+        }
+    }
+
+    /**
+     * @return the schema loaded from the file the custom setting points to or {@code null} if the setting is absent or
+     *         the file can not be loaded.
+     */
+    static @Nullable PayloadSchema parseSchema(
+            final @NotNull CustomSettings customSettings,
+            final @NotNull String name) {
+        final String file = customSettings.getFirst(name).filter(value -> !value.isBlank()).orElse(null);
+        if (file == null) {
+            return null;
+        }
+        try {
+            return PayloadSchema.load(Path.of(file.trim()));
+        } catch (final IOException | IllegalArgumentException e) {
+            LOG.error("Could not load schema '{}' from custom setting '{}'. Payloads are not transcoded. Reason: {}",
+                    file,
+                    name,
+                    e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return the secret keys of the keystore that the `keystore-file` custom setting points to, opened with the
+     *         `keystore-password` custom setting, or no keys if the setting is absent or the keystore can not be
+     *         loaded.
+     */
+    static @NotNull Map<String, SecretKey> parseKeys(final @NotNull CustomSettings customSettings) {
+        final String file = customSettings.getFirst(PayloadEncryption.KEYSTORE_FILE)
+                .filter(value -> !value.isBlank())
+                .orElse(null);
+        if (file == null) {
+            return Map.of();
+        }
+        final char[] password = customSettings.getFirst(PayloadEncryption.KEYSTORE_PASSWORD).orElse("").toCharArray();
+        try {
+            return PayloadEncryption.loadKeys(Path.of(file.trim()), password);
+        } catch (final IOException | GeneralSecurityException | IllegalArgumentException e) {
+            LOG.error("Could not load keystore '{}' from custom setting '{}'. Reason: {}",
+                    file,
+                    PayloadEncryption.KEYSTORE_FILE,
+                    e.getMessage());
+            return Map.of();
+        } finally {
+            Arrays.fill(password, '\0');
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.ThreadSafe;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the 64 bit keys of recently seen messages for a limited time, to detect redeliveries.
+ * <p>
+ * The cache is a set-associative table of primitive {@code long} arrays, so an entry needs 16 bytes and no object.
+ * Every key maps to a bucket of {@link #WAYS} slots. A new key takes an empty or expired slot of its bucket, or else
+ * evicts the slot that expires first, so the memory never grows beyond the configured number of entries. The table is
+ * split into segments with their own lock, as every lookup also writes.
+ *
+ * @since 4.53.0
+ */
+@ThreadSafe
+final class DedupCache {
+
+    static final int MISS = 0;
+    static final int HIT = 1;
+    static final int MISS_EVICTED = 2;
+
+    /**
+     * Never returned by the hash functions, so it marks a message without a key.
+     */
+    static final long NO_KEY = 0;
+
+    static final int WAYS = 8;
+    private static final int MAX_SEGMENTS = 16;
+
+    private static final long C1 = 0x9E3779B97F4A7C15L;
+    private static final long C2 = 0xC2B2AE3D27D4EB4FL;
+
+    private final long ttlNanos;
+    private final int entries;
+    private final @NotNull Segment @NotNull [] segments;
+    private final int bucketsPerSegment;
+
+    /**
+     * @param maxEntries the maximum number of remembered keys, rounded down to a power of two of at least
+     *                   {@link #WAYS}.
+     * @param ttlMillis  the time in milliseconds a key is remembered.
+     */
+    DedupCache(final int maxEntries, final long ttlMillis) {
+        // the expiries are compared by their difference, which must not overflow
+        this.ttlNanos = Math.min(TimeUnit.MILLISECONDS.toNanos(ttlMillis), Long.MAX_VALUE / 2);
+        final int buckets = Integer.highestOneBit(Math.max(maxEntries, WAYS)) / WAYS;
+        final int segmentCount = Math.min(MAX_SEGMENTS, buckets);
+        bucketsPerSegment = buckets / segmentCount;
+        segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(bucketsPerSegment * WAYS);
+        }
+        entries = buckets * WAYS;
+    }
+
+    /**
+     * @return the number of entries the cache can hold.
+     */
+    int getEntries() {
+        return entries;
+    }
+
+    /**
+     * Looks up the key and remembers it if it is not present.
+     *
+     * @param key      the key of the message, e.g. from {@link #hash(ByteBuffer)}.
+     * @param nowNanos the current {@link System#nanoTime()}.
+     * @return {@link #HIT} if the key was seen within the time to live, {@link #MISS} if it was not, and
+     *         {@link #MISS_EVICTED} if it was not and another key that had not expired yet was evicted for it.
+     */
+    int check(final long key, final long nowNanos) {
+        // the empty slots contain 0, so 0 can not be a key
+        final long k = key == 0 ? C1 : key;
+        final long mixed = k * C2;
+        final Segment segment = segments[(int) (mixed >>> 60) & (segments.length - 1)];
+        final int bucket = ((int) (mixed >>> 32) & (bucketsPerSegment - 1)) * WAYS;
+        final long expiresAt = nowNanos + ttlNanos;
+        synchronized (segment) {
+            final long[] keys = segment.keys;
+            final long[] expiries = segment.expiries;
+            int victim = bucket;
+            for (int i = bucket; i < bucket + WAYS; i++) {
+                final long slot = keys[i];
+                if (slot == k && expiries[i] - nowNanos > 0) {
+                    return HIT;
+                }
+                if (slot == 0 || expiries[i] - expiries[victim] < 0) {
+                    victim = i;
+                    if (slot == 0) {
+                        // an empty slot is never followed by a used slot of the bucket
+                        break;
+                    }
+                }
+            }
+            final boolean evicted = keys[victim] != 0 && expiries[victim] - nowNanos > 0;
+            keys[victim] = k;
+            expiries[victim] = expiresAt;
+            return evicted ? MISS_EVICTED : MISS;
+        }
+    }
+
+    /**
+     * Forgets a key that {@link #check(long, long)} remembered, so the next message with the key is not a duplicate,
+     * e.g. because the message with the key could not be transformed.
+     *
+     * @param key      the key of the message.
+     * @param nowNanos the current {@link System#nanoTime()}.
+     */
+    void forget(final long key, final long nowNanos) {
+        final long k = key == 0 ? C1 : key;
+        final long mixed = k * C2;
+        final Segment segment = segments[(int) (mixed >>> 60) & (segments.length - 1)];
+        final int bucket = ((int) (mixed >>> 32) & (bucketsPerSegment - 1)) * WAYS;
+        synchronized (segment) {
+            for (int i = bucket; i < bucket + WAYS; i++) {
+                if (segment.keys[i] == k) {
+                    // expired instead of emptied, as an empty slot must not be followed by a used slot of the bucket
+                    segment.expiries[i] = nowNanos;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return a 64 bit hash of the bytes between the position and the limit of the buffer.
+     */
+    static long hash(final @NotNull ByteBuffer data) {
+        final int limit = data.limit();
+        long hash = C1 ^ (limit - data.position());
+        int i = data.position();
+        for (; i + Long.BYTES <= limit; i += Long.BYTES) {
+            hash = Long.rotateLeft(hash ^ data.getLong(i) * C2, 31) * C1;
+        }
+        long tail = 0;
+        for (; i < limit; i++) {
+            tail = (tail << 8) | (data.get(i) & 0xFF);
+        }
+        return mix(hash ^ tail * C2);
+    }
+
+    /**
+     * @return a 64 bit hash of the characters of the text.
+     */
+    static long hash(final @NotNull CharSequence text) {
+        long hash = C2 ^ text.length();
+        for (int i = 0; i < text.length(); i++) {
+            hash = Long.rotateLeft(hash ^ text.charAt(i) * C1, 23) * C2;
+        }
+        return mix(hash);
+    }
+
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash == NO_KEY ? C1 : hash;
+    }
+
+    private static final class Segment {
+
+        private final long @NotNull [] keys;
+        private final long @NotNull [] expiries;
+
+        private Segment(final int slots) {
+            keys = new long[slots];
+            expiries = new long[slots];
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.Immutable;
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.hivemq.extension.sdk.api.packets.general.Qos;
+import com.hivemq.extension.sdk.api.services.builder.PublishBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Selects the QoS, the retained flag and the message expiry of the MQTT PUBLISHes of a Pub/Sub message.
+ * <p>
+ * A rule has the format {@code <attribute> = <value> -> <option>[, <option>]...} with the options {@code qos=<0|1|2>},
+ * {@code retain=<true|false>} and {@code expiry=<seconds>}. The rules are compiled into one hash map per attribute
+ * name from the attribute value to the index of the first matching rule, so a Pub/Sub message is matched with one
+ * lookup per distinct attribute name of the rules. An option that no matching rule sets is taken from the configured
+ * attribute, for example the {@code qos} and {@code retained} attributes of the {@link MqttToPubSubHelloWorldTransformer},
+ * and otherwise from the static {@code qos} custom setting.
+ * <p>
+ * The attribute values of the QoS and the retained flag are looked up in constant tables instead of being parsed, and
+ * all combinations without a message expiry are preallocated.
+ *
+ * @since 4.53.0
+ */
+@Immutable
+final class DeliveryRules {
+
+    private static final @NotNull Logger LOG = LoggerFactory.getLogger(DeliveryRules.class);
+
+    private static final @NotNull Map<String, Qos> QOS_VALUES =
+            Map.of("0", Qos.AT_MOST_ONCE, "1", Qos.AT_LEAST_ONCE, "2", Qos.EXACTLY_ONCE);
+    private static final @NotNull Map<String, Boolean> RETAIN_VALUES = Map.of("true", true, "false", false);
+    private static final long NO_EXPIRY = -1;
+    private static final int NO_RULE = Integer.MAX_VALUE;
+
+    /**
+     * The deliveries without a message expiry, indexed by the QoS number plus one and the retained flag plus one.
+     */
+    private static final @NotNull Delivery @NotNull [] @NotNull [] DELIVERIES = new Delivery[4][3];
+
+    static {
+        for (int qos = 0; qos < 4; qos++) {
+            for (int retain = 0; retain < 3; retain++) {
+                DELIVERIES[qos][retain] = new Delivery(qos == 0 ? null : Qos.valueOf(qos - 1),
+                        retain == 0 ? null : retain == 2,
+                        NO_EXPIRY);
+            }
+        }
+    }
+
+    private final @NotNull String @NotNull [] ruleAttributes;
+    private final @NotNull Map<String, Integer> @NotNull [] ruleValues;
+    private final @NotNull Delivery @NotNull [] rules;
+    private final @Nullable Qos defaultQos;
+    private final @Nullable String qosAttribute;
+    private final @Nullable String retainAttribute;
+    private final @Nullable String expiryAttribute;
+    private final @NotNull Delivery defaultDelivery;
+
+    /**
+     * @param rules           the rules in the format {@code <attribute> = <value> -> <option>[, <option>]...}. Invalid
+     *                        rules are logged and ignored.
+     * @param defaultQos      the QoS if neither a rule nor the QoS attribute select one, {@code null} keeps the QoS of
+     *                        the publish builder.
+     * @param qosAttribute    the attribute with the QoS number or {@code null}.
+     * @param retainAttribute the attribute with the retained flag or {@code null}.
+     * @param expiryAttribute the attribute with the message expiry in seconds or {@code null}.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    DeliveryRules(
+            final @NotNull List<String> rules,
+            final @Nullable Qos defaultQos,
+            final @Nullable String qosAttribute,
+            final @Nullable String retainAttribute,
+            final @Nullable String expiryAttribute) {
+        final Map<String, Map<String, Integer>> valuesByAttribute = new LinkedHashMap<>();
+        final List<Delivery> compiled = new ArrayList<>(rules.size());
+        for (final String rule : rules) {
+            try {
+                final int arrow = rule.indexOf(TopicRouter.ROUTE_SEPARATOR);
+                final int equals = rule.indexOf('=');
+                if (arrow == -1 || equals == -1 || equals > arrow) {
+                    throw new IllegalArgumentException(
+                            "It must have the format '<attribute> = <value> -> <option>[, <option>]...'.");
+                }
+                final String attribute = rule.substring(0, equals).trim();
+                final String value = rule.substring(equals + 1, arrow).trim();
+                if (attribute.isEmpty()) {
+                    throw new IllegalArgumentException("The attribute name must not be empty.");
+                }
+                final Delivery delivery = compileOptions(rule.substring(arrow + TopicRouter.ROUTE_SEPARATOR.length()));
+                // the first rule for an attribute value wins
+                valuesByAttribute.computeIfAbsent(attribute, name -> new HashMap<>())
+                        .putIfAbsent(value, compiled.size());
+                compiled.add(delivery);
+            } catch (final IllegalArgumentException e) {
+                LOG.warn("Ignoring delivery rule '{}'. {}", rule, e.getMessage());
+            }
+        }
+        ruleAttributes = valuesByAttribute.keySet().toArray(String[]::new);
+        ruleValues = valuesByAttribute.values().toArray(new Map[0]);
+        this.rules = compiled.toArray(Delivery[]::new);
+        this.defaultQos = defaultQos;
+        this.qosAttribute = qosAttribute;
+        this.retainAttribute = retainAttribute;
+        this.expiryAttribute = expiryAttribute;
+        defaultDelivery = delivery(defaultQos, null, NO_EXPIRY);
+    }
+
+    /**
+     * @return the delivery of the MQTT PUBLISHes of a Pub/Sub message with the attributes.
+     */
+    @NotNull Delivery resolve(final @NotNull Map<String, String> attributes) {
+        int ruleIndex = NO_RULE;
+        for (int i = 0; i < ruleAttributes.length; i++) {
+            final String value = attributes.get(ruleAttributes[i]);
+            if (value != null) {
+                final Integer index = ruleValues[i].get(value);
+                if (index != null && index < ruleIndex) {
+                    ruleIndex = index;
+                }
+            }
+        }
+        final Delivery rule = ruleIndex == NO_RULE ? null : rules[ruleIndex];
+        if (qosAttribute == null && retainAttribute == null && expiryAttribute == null) {
+            return rule == null ? defaultDelivery : rule;
+        }
+
+        Qos qos = rule == null ? null : rule.qos;
+        if (qos == null) {
+            qos = qosAttribute == null ? null : lookup(QOS_VALUES, attributes.get(qosAttribute));
+            if (qos == null) {
+                qos = defaultQos;
+            }
+        }
+        Boolean retain = rule == null ? null : rule.retain;
+        if (retain == null && retainAttribute != null) {
+            retain = lookup(RETAIN_VALUES, attributes.get(retainAttribute));
+        }
+        long expiry = rule == null ? NO_EXPIRY : rule.expiry;
+        if (expiry == NO_EXPIRY && expiryAttribute != null) {
+            expiry = parseExpiry(attributes.get(expiryAttribute));
+        }
+        return delivery(qos, retain, expiry);
+    }
+
+    private static @NotNull Delivery compileOptions(final @NotNull String options) {
+        Qos qos = null;
+        Boolean retain = null;
+        long expiry = NO_EXPIRY;
+        for (final String option : options.split(",")) {
+            final int equals = option.indexOf('=');
+            final String name = equals == -1 ? option.trim() : option.substring(0, equals).trim();
+            final String value = equals == -1 ? "" : option.substring(equals + 1).trim();
+            switch (name.toLowerCase(Locale.ROOT)) {
+                case "qos":
+                    qos = QOS_VALUES.get(value);
+                    if (qos == null) {
+                        throw new IllegalArgumentException("'" + value + "' is not a QoS level.");
+                    }
+                    break;
+                case "retain":
+                    retain = RETAIN_VALUES.get(value.toLowerCase(Locale.ROOT));
+                    if (retain == null) {
+                        throw new IllegalArgumentException("'" + value + "' is neither 'true' nor 'false'.");
+                    }
+                    break;
+                case "expiry":
+                    expiry = parseExpiry(value);
+                    if (expiry == NO_EXPIRY) {
+                        throw new IllegalArgumentException("'" + value + "' is not a message expiry in seconds.");
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option '" + name +
+                            "', supported are qos, retain and expiry.");
+            }
+        }
+        return delivery(qos, retain, expiry);
+    }
+
+    private static <V> @Nullable V lookup(final @NotNull Map<String, V> table, final @Nullable String value) {
+        // the immutable maps do not accept null keys
+        return value == null ? null : table.get(value);
+    }
+
+    private static long parseExpiry(final @Nullable String value) {
+        if (value == null) {
+            return NO_EXPIRY;
+        }
+        try {
+            final long expiry = Long.parseLong(value.trim());
+            // the message expiry interval of MQTT is a four byte integer
+            return expiry >= 0 && expiry <= 0xFFFF_FFFFL ? expiry : NO_EXPIRY;
+        } catch (final NumberFormatException e) {
+            return NO_EXPIRY;
+        }
+    }
+
+    private static @NotNull Delivery delivery(
+            final @Nullable Qos qos,
+            final @Nullable Boolean retain,
+            final long expiry) {
+        if (expiry != NO_EXPIRY) {
+            return new Delivery(qos, retain, expiry);
+        }
+        return DELIVERIES[qos == null ? 0 : qos.getQosNumber() + 1][retain == null ? 0 : retain ? 2 : 1];
+    }
+
+    /**
+     * The QoS, the retained flag and the message expiry of an MQTT PUBLISH, each of them optional.
+     */
+    @Immutable
+    static final class Delivery {
+
+        private final @Nullable Qos qos;
+        private final @Nullable Boolean retain;
+        private final long expiry;
+
+        private Delivery(final @Nullable Qos qos, final @Nullable Boolean retain, final long expiry) {
+            this.qos = qos;
+            this.retain = retain;
+            this.expiry = expiry;
+        }
+
+        void applyTo(final @NotNull PublishBuilder publishBuilder) {
+            if (qos != null) {
+                publishBuilder.qos(qos);
+            }
+            if (retain != null) {
+                publishBuilder.retain(retain);
+            }
+            if (expiry != NO_EXPIRY) {
+                publishBuilder.messageExpiryInterval(expiry);
+            }
+        }
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.Immutable;
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.hivemq.extension.sdk.api.packets.publish.PublishPacket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Decides whether an MQTT PUBLISH is dropped before any Pub/Sub message is built for it.
+ * <p>
+ * A rule has the format {@code [<name>:] <condition> [&& <condition>]...} and drops an MQTT PUBLISH if all of its
+ * conditions match. The rules are compiled once into an array of conditions per rule, so testing an MQTT PUBLISH only
+ * evaluates the conditions until the first one that does not match. Supported conditions are:
+ * <ul>
+ *     <li>{@code topic = <mqtt-topic-filter>} and {@code topic != <mqtt-topic-filter>}</li>
+ *     <li>{@code qos <op> <0|1|2>} with one of the operators {@code =, !=, <, <=, >, >=}</li>
+ *     <li>{@code retain = <true|false>}</li>
+ *     <li>{@code user-property:<name>} and {@code user-property:<name> (= | !=) <value>}</li>
+ *     <li>{@code payload-size <op> <bytes>} with one of the operators {@code =, !=, <, <=, >, >=}</li>
+ *     <li>{@code payload-prefix = <text>} and {@code payload-prefix != <text>}, compared with the UTF-8 bytes</li>
+ * </ul>
+ *
+ * @since 4.53.0
+ */
+@Immutable
+final class DropFilter {
+
+    private static final @NotNull Logger LOG = LoggerFactory.getLogger(DropFilter.class);
+
+    static final @NotNull DropFilter NONE = new DropFilter(List.of());
+
+    private static final @NotNull String CONDITION_SEPARATOR = "&&";
+    private static final @NotNull String USER_PROPERTY = "user-property:";
+    private static final @NotNull String @NotNull [] OPERATORS = {"!=", "<=", ">=", "=", "<", ">"};
+    private static final @NotNull Pattern NAME = Pattern.compile("[A-Za-z0-9_.-]+");
+
+    private final @NotNull String @NotNull [] names;
+    private final @NotNull Condition @NotNull [] @NotNull [] rules;
+
+    /**
+     * @param rules the rules in the format {@code [<name>:] <condition> [&& <condition>]...}. A name consists of
+     *              letters, digits, {@code _}, {@code .} and {@code -}, rules without a name are named
+     *              {@code rule-<index>}. Invalid rules are logged and ignored.
+     */
+    DropFilter(final @NotNull List<String> rules) {
+        final List<String> names = new ArrayList<>(rules.size());
+        final List<Condition[]> compiled = new ArrayList<>(rules.size());
+        for (int i = 0; i < rules.size(); i++) {
+            final String rule = rules.get(i);
+            try {
+                final int separator = rule.indexOf(':');
+                // a colon of a user property condition does not separate a name
+                final boolean named = separator != -1 &&
+                        NAME.matcher(rule.substring(0, separator).trim()).matches() &&
+                        !rule.substring(0, separator + 1).trim().equals(USER_PROPERTY);
+                final String name = named ? rule.substring(0, separator).trim() : "rule-" + i;
+                compiled.add(compile(named ? rule.substring(separator + 1) : rule));
+                names.add(name);
+            } catch (final IllegalArgumentException e) {
+                LOG.warn("Ignoring drop rule '{}'. {}", rule, e.getMessage());
+            }
+        }
+        this.names = names.toArray(String[]::new);
+        this.rules = compiled.toArray(Condition[][]::new);
+    }
+
+    /**
+     * @return {@code true} if no rule is configured.
+     */
+    boolean isEmpty() {
+        return rules.length == 0;
+    }
+
+    /**
+     * @param publishPacket the MQTT PUBLISH.
+     * @param payload       the payload of the MQTT PUBLISH or {@code null} if it has none.
+     * @return the name of the first rule that drops the MQTT PUBLISH or {@code null} if it is not dropped.
+     */
+    @Nullable String match(final @NotNull PublishPacket publishPacket, final @Nullable ByteBuffer payload) {
+        rules:
+        for (int i = 0; i < rules.length; i++) {
+            for (final Condition condition : rules[i]) {
+                if (!condition.test(publishPacket, payload)) {
+                    continue rules;
+                }
+            }
+            return names[i];
+        }
+        return null;
+    }
+
+    private static @NotNull Condition @NotNull [] compile(final @NotNull String rule) {
+        final String[] parts = rule.split(CONDITION_SEPARATOR, -1);
+        final Condition[] conditions = new Condition[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            conditions[i] = compileCondition(parts[i].trim());
+        }
+        return conditions;
+    }
+
+    private static @NotNull Condition compileCondition(final @NotNull String condition) {
+        String operator = null;
+        int index = -1;
+        for (final String candidate : OPERATORS) {
+            final int candidateIndex = condition.indexOf(candidate);
+            if (candidateIndex != -1 && (index == -1 || candidateIndex < index)) {
+                operator = candidate;
+                index = candidateIndex;
+            }
+        }
+        final String field = (index == -1 ? condition : condition.substring(0, index)).trim();
+        final String value = index == -1 ? null : condition.substring(index + operator.length()).trim();
+        final boolean negated = "!=".equals(operator);
+
+        if (field.startsWith(USER_PROPERTY)) {
+            final String name = field.substring(USER_PROPERTY.length()).trim();
+            if (name.isEmpty()) {
+                throw new IllegalArgumentException("The user property name must not be empty.");
+            }
+            if (value == null) {
+                return (publishPacket, payload) -> publishPacket.getUserProperties().getFirst(name).isPresent();
+            }
+            requireEquality(condition, operator);
+            return (publishPacket, payload) -> publishPacket.getUserProperties()
+                    .getAllForName(name)
+                    .contains(value) != negated;
+        }
+        if (value == null) {
+            throw new IllegalArgumentException("The condition '" + condition + "' has no operator.");
+        }
+        switch (field.toLowerCase(Locale.ROOT)) {
+            case "topic":
+                requireEquality(condition, operator);
+                if (!TopicRouter.isValidTopicFilter(value)) {
+                    throw new IllegalArgumentException("'" + value + "' is not a valid MQTT topic filter.");
+                }
+                final String[] levels = value.split("/", -1);
+                return (publishPacket, payload) -> matchesTopicFilter(levels, publishPacket.getTopic()) != negated;
+            case "qos":
+                final long qos = parseNumber(value, 2);
+                final String qosOperator = operator;
+                return (publishPacket, payload) -> compare(publishPacket.getQos().getQosNumber(), qosOperator, qos);
+            case "retain":
+                requireEquality(condition, operator);
+                if (!value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false")) {
+                    throw new IllegalArgumentException("'" + value + "' is neither 'true' nor 'false'.");
+                }
+                final boolean retain = Boolean.parseBoolean(value) != negated;
+                return (publishPacket, payload) -> publishPacket.getRetain() == retain;
+            case "payload-size":
+                final long size = parseNumber(value, Integer.MAX_VALUE);
+                final String sizeOperator = operator;
+                return (publishPacket, payload) -> compare(payload == null ? 0 : payload.remaining(),
+                        sizeOperator,
+                        size);
+            case "payload-prefix":
+                requireEquality(condition, operator);
+                final byte[] prefix = value.getBytes(StandardCharsets.UTF_8);
+                return (publishPacket, payload) -> startsWith(payload, prefix) != negated;
+            default:
+                throw new IllegalArgumentException("Unknown field '" + field +
+                        "', supported are topic, qos, retain, user-property:<name>, payload-size and payload-prefix.");
+        }
+    }
+
+    private static void requireEquality(final @NotNull String condition, final @NotNull String operator) {
+        if (!operator.equals("=") && !operator.equals("!=")) {
+            throw new IllegalArgumentException("The condition '" + condition + "' only supports '=' and '!='.");
+        }
+    }
+
+    private static long parseNumber(final @NotNull String value, final long max) {
+        try {
+            final long number = Long.parseLong(value);
+            if (number >= 0 && number <= max) {
+                return number;
+            }
+        } catch (final NumberFormatException ignored) {
+            // reported below
+        }
+        throw new IllegalArgumentException("'" + value + "' is not a number between 0 and " + max + ".");
+    }
+
+    private static boolean compare(final long actual, final @NotNull String operator, final long expected) {
+        switch (operator) {
+            case "=":
+                return actual == expected;
+            case "!=":
+                return actual != expected;
+            case "<":
+                return actual < expected;
+            case "<=":
+                return actual <= expected;
+            case ">":
+                return actual > expected;
+            default:
+                return actual >= expected;
+        }
+    }
+
+    private static boolean startsWith(final @Nullable ByteBuffer payload, final byte @NotNull [] prefix) {
+        if (payload == null) {
+            return prefix.length == 0;
+        }
+        if (payload.remaining() < prefix.length) {
+            return false;
+        }
+        final int position = payload.position();
+        for (int i = 0; i < prefix.length; i++) {
+            if (payload.get(position + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Matches an MQTT topic against the levels of an MQTT topic filter without splitting the topic.
+     */
+    static boolean matchesTopicFilter(final @NotNull String @NotNull [] levels, final @NotNull String topic) {
+        if (topic.startsWith("$") && (levels[0].equals("+") || levels[0].equals("#"))) {
+            return false;
+        }
+        int start = 0;
+        for (int i = 0; i < levels.length; i++) {
+            final String level = levels[i];
+            if (level.equals("#")) {
+                return true;
+            }
+            if (start > topic.length()) {
+                return false;
+            }
+            int end = topic.indexOf('/', start);
+            if (end == -1) {
+                end = topic.length();
+            }
+            if (!level.equals("+") && (end - start != level.length() || !topic.startsWith(level, start))) {
+                return false;
+            }
+            start = end + 1;
+        }
+        return start > topic.length();
+    }
+
+    @FunctionalInterface
+    private interface Condition {
+
+        boolean test(@NotNull PublishPacket publishPacket, @Nullable ByteBuffer payload);
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.ThreadSafe;
+import org.slf4j.Logger;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Logs the failures of a transformer without letting a storm of failing messages flood the log.
+ * <p>
+ * Within every interval, only the first failures are logged with their stack trace. The further failures are only
+ * counted per cause, and the first failure after the interval logs a summary of them. There is no background thread,
+ * so the summary of the last interval of a storm is only logged with the next failure.
+ *
+ * @since 4.53.0
+ */
+@ThreadSafe
+final class ErrorLog {
+
+    static final @NotNull String ERROR_LOG_LIMIT = "error-log-limit";
+    static final @NotNull String ERROR_LOG_INTERVAL_MS = "error-log-interval-ms";
+
+    static final int DEFAULT_ERROR_LOG_LIMIT = 10;
+    static final long DEFAULT_ERROR_LOG_INTERVAL_MS = 60_000;
+
+    private final @NotNull Logger log;
+    private final int limit;
+    private final long intervalNanos;
+    private final @NotNull AtomicLong intervalStart;
+    private final @NotNull AtomicInteger logged = new AtomicInteger();
+    private final @NotNull ConcurrentHashMap<String, AtomicInteger> suppressed = new ConcurrentHashMap<>();
+
+    /**
+     * @param log        the logger of the transformer.
+     * @param limit      the number of failures that are logged per interval.
+     * @param intervalMs the interval in milliseconds.
+     */
+    ErrorLog(final @NotNull Logger log, final int limit, final long intervalMs) {
+        this.log = log;
+        this.limit = limit;
+        intervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, intervalMs));
+        intervalStart = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Counts the failure in the metrics and logs it, if the limit of the current interval is not reached.
+     *
+     * @param format    the message format of the log statement.
+     * @param arguments the arguments of the message format.
+     * @return whether the failure was logged.
+     */
+    boolean failed(
+            final @NotNull TransformerMetrics metrics,
+            final @NotNull Throwable cause,
+            final @NotNull String format,
+            final @NotNull Object @NotNull ... arguments) {
+        metrics.failed(cause);
+        final long now = System.nanoTime();
+        final long start = intervalStart.get();
+        if (now - start >= intervalNanos && intervalStart.compareAndSet(start, now)) {
+            logged.set(0);
+            logSummary(now - start);
+        }
+        final int count = logged.incrementAndGet();
+        if (count <= limit) {
+            final Object[] argumentsAndCause = Arrays.copyOf(arguments, arguments.length + 1);
+            // a throwable as last argument is logged with its stack trace
+            argumentsAndCause[arguments.length] = cause;
+            log.error(format, argumentsAndCause);
+            if (count == limit) {
+                log.warn("Logged {} failures within {} ms, further failures are only counted until the interval ends.",
+                        limit,
+                        TimeUnit.NANOSECONDS.toMillis(intervalNanos));
+            }
+            return true;
+        }
+        AtomicInteger counter = suppressed.get(causeName(cause));
+        if (counter == null) {
+            counter = suppressed.computeIfAbsent(causeName(cause), name -> new AtomicInteger());
+        }
+        counter.incrementAndGet();
+        return false;
+    }
+
+    private void logSummary(final long elapsedNanos) {
+        final StringBuilder causes = new StringBuilder();
+        int total = 0;
+        for (final Map.Entry<String, AtomicInteger> entry : suppressed.entrySet()) {
+            final int count = entry.getValue().getAndSet(0);
+            if (count > 0) {
+                if (total > 0) {
+                    causes.append(", ");
+                }
+                causes.append(entry.getKey()).append('=').append(count);
+                total += count;
+            }
+        }
+        if (total > 0) {
+            log.error("{} further failures were not logged within the last {} ms: {}",
+                    total,
+                    TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                    causes);
+        }
+    }
+
+    /**
+     * @return the simple name of the class of the exception, or its full name if the class is anonymous.
+     */
+    static @NotNull String causeName(final @NotNull Throwable cause) {
+        final String simpleName = cause.getClass().getSimpleName();
+        return simpleName.isEmpty() ? cause.getClass().getName() : simpleName;
+    }
+}
@@ -0,0 +1,381 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Scans UTF-8 encoded JSON directly in a {@link ByteBuffer} without building a tree of the document.
+ * <p>
+ * All positions are absolute indexes into the buffer, the position and limit of the buffer are never changed. Values
+ * are only skipped by their structure, so the scanner finds the bounds of values but does not fully validate them.
+ *
+ * @since 4.53.0
+ */
+final class JsonScanner {
+
+    private JsonScanner() {
+    }
+
+    interface ValueConsumer {
+
+        /**
+         * @param start the index of the first byte of the value.
+         * @param end   the index after the last byte of the value.
+         */
+        void accept(int start, int end);
+    }
+
+    interface MemberConsumer {
+
+        /**
+         * @param nameStart  the index of the first byte of the name, after the opening quote.
+         * @param nameEnd    the index of the closing quote of the name.
+         * @param valueStart the index of the first byte of the value.
+         * @param valueEnd   the index after the last byte of the value.
+         */
+        void accept(int nameStart, int nameEnd, int valueStart, int valueEnd);
+    }
+
+    /**
+     * @return the index of the first byte at or after the index that is not JSON whitespace.
+     */
+    static int skipWhitespace(final @NotNull ByteBuffer json, int index, final int limit) {
+        while (index < limit) {
+            final byte b = json.get(index);
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                break;
+            }
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * @param index the index of the first byte of the value.
+     * @return the index after the last byte of the value.
+     * @throws IllegalArgumentException if the value is truncated.
+     */
+    static int skipValue(final @NotNull ByteBuffer json, final int index, final int limit) {
+        if (index >= limit) {
+            throw new IllegalArgumentException("Expected a JSON value at offset " + index + ".");
+        }
+        final byte first = json.get(index);
+        if (first == '"') {
+            return skipString(json, index, limit);
+        }
+        if (first != '{' && first != '[') {
+            int end = index;
+            while (end < limit) {
+                final byte b = json.get(end);
+                if (b == ',' || b == ']' || b == '}' || b == ' ' || b == '\n' || b == '\r' || b == '\t') {
+                    break;
+                }
+                end++;
+            }
+            if (end == index) {
+                throw new IllegalArgumentException("Expected a JSON value at offset " + index + ".");
+            }
+            return end;
+        }
+        int depth = 0;
+        int i = index;
+        while (i < limit) {
+            final byte b = json.get(i);
+            if (b == '"') {
+                i = skipString(json, i, limit);
+                continue;
+            }
+            if (b == '{' || b == '[') {
+                depth++;
+            } else if (b == '}' || b == ']') {
+                if (--depth == 0) {
+                    return i + 1;
+                }
+            }
+            i++;
+        }
+        throw new IllegalArgumentException("Unterminated JSON " + (first == '{' ? "object" : "array") +
+                " starting at offset " + index + ".");
+    }
+
+    private static int skipString(final @NotNull ByteBuffer json, final int index, final int limit) {
+        int i = index + 1;
+        while (i < limit) {
+            final byte b = json.get(i);
+            if (b == '\\') {
+                i += 2;
+            } else if (b == '"') {
+                return i + 1;
+            } else {
+                i++;
+            }
+        }
+        throw new IllegalArgumentException("Unterminated JSON string starting at offset " + index + ".");
+    }
+
+    /**
+     * Passes the bounds of every element of the JSON array between the position and the limit of the buffer to the
+     * consumer.
+     *
+     * @throws IllegalArgumentException if the buffer does not contain a JSON array.
+     */
+    static void forEachElement(final @NotNull ByteBuffer json, final @NotNull ValueConsumer consumer) {
+        final int limit = json.limit();
+        int index = skipWhitespace(json, json.position(), limit);
+        if (index >= limit || json.get(index) != '[') {
+            throw new IllegalArgumentException("Expected a JSON array at offset " + index + ".");
+        }
+        index = skipWhitespace(json, index + 1, limit);
+        if (index < limit && json.get(index) == ']') {
+            return;
+        }
+        while (true) {
+            final int end = skipValue(json, index, limit);
+            consumer.accept(index, end);
+            index = skipWhitespace(json, end, limit);
+            if (index >= limit) {
+                throw new IllegalArgumentException("Unterminated JSON array.");
+            }
+            final byte b = json.get(index);
+            if (b == ']') {
+                return;
+            }
+            if (b != ',') {
+                throw new IllegalArgumentException("Expected ',' or ']' at offset " + index + ".");
+            }
+            index = skipWhitespace(json, index + 1, limit);
+        }
+    }
+
+    /**
+     * Finds a member of the JSON object between the indexes.
+     *
+     * @param name the UTF-8 encoded name of the member.
+     * @return the index of the first byte of the value of the member or {@code -1} if the JSON value is not an object
+     *         or has no member with the name.
+     * @throws IllegalArgumentException if the object is truncated.
+     */
+    static int findMember(
+            final @NotNull ByteBuffer json,
+            final int start,
+            final int end,
+            final byte @NotNull [] name) {
+        int index = skipWhitespace(json, start, end);
+        if (index >= end || json.get(index) != '{') {
+            return -1;
+        }
+        index = skipWhitespace(json, index + 1, end);
+        while (index < end && json.get(index) == '"') {
+            final int nameEnd = skipString(json, index, end);
+            final boolean match = equalsName(json, index + 1, nameEnd - 1, name);
+            index = skipWhitespace(json, nameEnd, end);
+            if (index >= end || json.get(index) != ':') {
+                throw new IllegalArgumentException("Expected ':' at offset " + index + ".");
+            }
+            index = skipWhitespace(json, index + 1, end);
+            if (match) {
+                return index;
+            }
+            index = skipWhitespace(json, skipValue(json, index, end), end);
+            if (index < end && json.get(index) == ',') {
+                index = skipWhitespace(json, index + 1, end);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Passes the bounds of the name and the value of every member of the JSON object between the indexes to the
+     * consumer.
+     *
+     * @return the index after the closing brace of the object or {@code -1} if the JSON value is not an object.
+     * @throws IllegalArgumentException if the object is malformed.
+     */
+    static int forEachMember(
+            final @NotNull ByteBuffer json,
+            final int start,
+            final int end,
+            final @NotNull MemberConsumer consumer) {
+        int index = skipWhitespace(json, start, end);
+        if (index >= end || json.get(index) != '{') {
+            return -1;
+        }
+        index = skipWhitespace(json, index + 1, end);
+        if (index < end && json.get(index) == '}') {
+            return index + 1;
+        }
+        while (true) {
+            if (index >= end || json.get(index) != '"') {
+                throw new IllegalArgumentException("Expected a member name at offset " + index + ".");
+            }
+            final int nameEnd = skipString(json, index, end);
+            final int valueStart = skipWhitespace(json, nameEnd, end);
+            if (valueStart >= end || json.get(valueStart) != ':') {
+                throw new IllegalArgumentException("Expected ':' at offset " + valueStart + ".");
+            }
+            final int value = skipWhitespace(json, valueStart + 1, end);
+            final int valueEnd = skipValue(json, value, end);
+            consumer.accept(index + 1, nameEnd - 1, value, valueEnd);
+            index = skipWhitespace(json, valueEnd, end);
+            if (index >= end) {
+                throw new IllegalArgumentException("Unterminated JSON object.");
+            }
+            final byte b = json.get(index);
+            if (b == '}') {
+                return index + 1;
+            }
+            if (b != ',') {
+                throw new IllegalArgumentException("Expected ',' or '}' at offset " + index + ".");
+            }
+            index = skipWhitespace(json, index + 1, end);
+        }
+    }
+
+    /**
+     * @param start the index of the first byte of the name, after the opening quote.
+     * @param end   the index of the closing quote of the name.
+     * @param name  the UTF-8 encoded name.
+     * @return whether the JSON member name equals the name.
+     */
+    static boolean equalsName(
+            final @NotNull ByteBuffer json,
+            final int start,
+            final int end,
+            final byte @NotNull [] name) {
+        if (end - start == name.length) {
+            for (int i = 0; i < name.length; i++) {
+                if (json.get(start + i) != name[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        // only a name with escape sequences can differ in length from its UTF-8 encoding and still be equal
+        return hasEscape(json, start, end) &&
+                decodeString(json, start - 1, end + 1).equals(new String(name, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param index the index of the first byte of a JSON value.
+     * @return the text of a string, number or boolean value or {@code null} if the value is {@code null}, an object or
+     *         an array.
+     */
+    static @Nullable String scalarText(final @NotNull ByteBuffer json, final int index, final int limit) {
+        final int end = skipValue(json, index, limit);
+        final byte first = json.get(index);
+        if (first == '"') {
+            return decodeString(json, index, end);
+        }
+        if (first == '{' || first == '[' || first == 'n') {
+            return null;
+        }
+        return decodeUtf8(json, index, end);
+    }
+
+    /**
+     * @param start the index of the opening quote of the string.
+     * @param end   the index after the closing quote of the string.
+     * @return the string with all escape sequences resolved.
+     */
+    static @NotNull String decodeString(final @NotNull ByteBuffer json, final int start, final int end) {
+        int escape = -1;
+        for (int i = start + 1; i < end - 1; i++) {
+            if (json.get(i) == '\\') {
+                escape = i;
+                break;
+            }
+        }
+        if (escape == -1) {
+            return decodeUtf8(json, start + 1, end - 1);
+        }
+        final StringBuilder builder = new StringBuilder(end - start);
+        builder.append(decodeUtf8(json, start + 1, escape));
+        int i = escape;
+        while (i < end - 1) {
+            final byte b = json.get(i);
+            if (b != '\\') {
+                int next = i;
+                while (next < end - 1 && json.get(next) != '\\') {
+                    next++;
+                }
+                builder.append(decodeUtf8(json, i, next));
+                i = next;
+                continue;
+            }
+            final byte escaped = json.get(i + 1);
+            switch (escaped) {
+                case 'b':
+                    builder.append('\b');
+                    break;
+                case 'f':
+                    builder.append('\f');
+                    break;
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'u':
+                    if (i + 6 > end - 1) {
+                        throw new IllegalArgumentException("Truncated unicode escape at offset " + i + ".");
+                    }
+                    builder.append((char) Integer.parseInt(decodeUtf8(json, i + 2, i + 6), 16));
+                    i += 4;
+                    break;
+                default:
+                    builder.append((char) escaped);
+            }
+            i += 2;
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return whether the JSON string between the indexes contains an escape sequence.
+     */
+    static boolean hasEscape(final @NotNull ByteBuffer json, final int start, final int end) {
+        for (int i = start; i < end; i++) {
+            if (json.get(i) == '\\') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the text of the UTF-8 encoded bytes between the indexes.
+     */
+    static @NotNull String decodeUtf8(final @NotNull ByteBuffer json, final int start, final int end) {
+        if (json.hasArray()) {
+            return new String(json.array(), json.arrayOffset() + start, end - start, StandardCharsets.UTF_8);
+        }
+        final byte[] bytes = new byte[end - start];
+        final ByteBuffer view = json.duplicate();
+        view.limit(end).position(start);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.hivemq.extension.sdk.api.annotations.ThreadSafe;
+import com.hivemq.extensions.google.cloud.pubsub.api.model.CustomSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+import static com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld.CustomSettingsParser.parseKeys;
+import static com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld.CustomSettingsParser.parseLong;
+
+/**
+ * The secret keys of the keystore of the `keystore-file` custom setting by their key id.
+ * <p>
+ * A key id that is not in the keystore, for example because the sender switched to a key that was added to the
+ * keystore afterwards, reads the keystore again. The keystore is read at most once per
+ * `keystore-reload-interval-ms` by the single thread that wins the compare-and-set of the next reload time, so
+ * messages with unknown key ids can not make every thread read the file.
+ *
+ * @since 4.53.0
+ */
+@ThreadSafe
+final class KeyStoreKeys {
+
+    private static final @NotNull Logger LOG = LoggerFactory.getLogger(KeyStoreKeys.class);
+
+    static final @NotNull String KEYSTORE_RELOAD_INTERVAL_MS = "keystore-reload-interval-ms";
+    static final long DEFAULT_KEYSTORE_RELOAD_INTERVAL_MS = 10_000;
+
+    private static final @NotNull AtomicLongFieldUpdater<KeyStoreKeys> NEXT_RELOAD =
+            AtomicLongFieldUpdater.newUpdater(KeyStoreKeys.class, "nextReload");
+
+    private final @Nullable Path file;
+    private final @NotNull String password;
+    private final long reloadIntervalNanos;
+    private volatile @NotNull Map<String, SecretKey> keys;
+    private volatile long nextReload;
+
+    private KeyStoreKeys(
+            final @Nullable Path file,
+            final @NotNull String password,
+            final long reloadIntervalNanos,
+            final @NotNull Map<String, SecretKey> keys) {
+        this.file = file;
+        this.password = password;
+        this.reloadIntervalNanos = reloadIntervalNanos;
+        this.keys = keys;
+        nextReload = System.nanoTime() + reloadIntervalNanos;
+    }
+
+    /**
+     * Loads the keystore of the custom settings. If the keystore can not be loaded, an error is logged and the
+     * keystore is read again when the first key is looked up after the reload interval.
+     */
+    static @NotNull KeyStoreKeys of(final @NotNull CustomSettings customSettings) {
+        final Path file = customSettings.getFirst(PayloadEncryption.KEYSTORE_FILE)
+                .filter(value -> !value.isBlank())
+                .map(value -> Path.of(value.trim()))
+                .orElse(null);
+        final long reloadIntervalMs =
+                parseLong(customSettings, KEYSTORE_RELOAD_INTERVAL_MS, DEFAULT_KEYSTORE_RELOAD_INTERVAL_MS);
+        return new KeyStoreKeys(file,
+                customSettings.getFirst(PayloadEncryption.KEYSTORE_PASSWORD).orElse(""),
+                TimeUnit.MILLISECONDS.toNanos(reloadIntervalMs),
+                parseKeys(customSettings));
+    }
+
+    /**
+     * @return the key with the key id, read again from the keystore if it is unknown and the reload interval passed
+     *         since the last read, or {@code null} if the keystore has no such key.
+     */
+    @Nullable SecretKey get(final @NotNull String keyId, final long nowNanos) {
+        final SecretKey key = keys.get(keyId);
+        if (key != null || file == null) {
+            return key;
+        }
+        final long nextReload = this.nextReload;
+        if (nowNanos - nextReload < 0 ||
+                !NEXT_RELOAD.compareAndSet(this, nextReload, nowNanos + reloadIntervalNanos)) {
+            return null;
+        }
+        final char[] chars = password.toCharArray();
+        try {
+            keys = PayloadEncryption.loadKeys(file, chars);
+            LOG.info("Reloaded keystore '{}' because it had no secret key '{}'.", file, keyId);
+        } catch (final IOException | GeneralSecurityException e) {
+            LOG.warn("Could not reload keystore '{}', the previous keys stay active. Reason: {}",
+                    file,
+                    e.getMessage());
+        } finally {
+            Arrays.fill(chars, '\0');
+        }
+        return keys.get(keyId);
+    }
+}
@@ -18,9 +18,9 @@ package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
 
 import com.hivemq.extension.sdk.api.annotations.NotNull;
 import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.hivemq.extension.sdk.api.packets.general.UserProperty;
 import com.hivemq.extension.sdk.api.packets.publish.PublishPacket;
 import com.hivemq.extensions.google.cloud.pubsub.api.builders.OutboundPubSubMessageBuilder;
-import com.hivemq.extensions.google.cloud.pubsub.api.model.CustomSettings;
 import com.hivemq.extensions.google.cloud.pubsub.api.model.OutboundPubSubMessage;
 import com.hivemq.extensions.google.cloud.pubsub.api.model.PubSubConnection;
 import com.hivemq.extensions.google.cloud.pubsub.api.transformers.MqttToPubSubInitInput;
@@ -30,25 +30,66 @@ import com.hivemq.extensions.google.cloud.pubsub.api.transformers.MqttToPubSubTr
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.crypto.SecretKey;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * This example {@link MqttToPubSubTransformer} accepts an MQTT PUBLISH and tries to create a new Pub/Sub message from it.
  * <p>
  * The example performs the following computational steps:
  * <ol>
- *     <li> Read the Pub/Sub topics from the `destination` custom setting. </li>
+ *     <li> Read the Pub/Sub topics from the `destination` custom setting once during initialization. </li>
+ *     <li> Replace the custom settings with the ones from the file of the `rules-file` custom setting, and apply
+ *          every change of the file without re-initialization. </li>
+ *     <li> Drop the MQTT PUBLISH if it matches a `drop` custom setting
+ *          (`[&lt;name&gt;:] &lt;condition&gt; [&amp;&amp; &lt;condition&gt;]...`) and count it per rule. </li>
+ *     <li> Drop the MQTT PUBLISH if it is not one of every `sample-one-in` MQTT PUBLISHes of its `rate-limit-key`, and
+ *          drop it or send it only to the `rate-limit-overflow-topic` if its key exceeds the `rate-limit`. </li>
+ *     <li> Add the Pub/Sub topics of every `route` custom setting (`&lt;mqtt-topic-filter&gt; -&gt; &lt;pubsub-topic&gt;`)
+ *          whose MQTT topic filter matches the MQTT topic. </li>
  *     <li> Create a new Pub/Sub message for each Pub/Sub topic that contains the following information: </li>
  *         <ul>
- *             <li> The payload as data. </li>
+ *             <li> The payload as data, transcoded to the Avro binary encoding if the `transcode-schema` custom
+ *                  setting is set and the payload is a JSON object of the schema, or wrapped into a `json` or
+ *                  `binary` envelope with the MQTT topic, QoS, retained flag, message expiry and the allowed user
+ *                  properties if the `envelope` custom setting is set, and compressed with the `compression` custom
+ *                  setting if it has at least `compression-min-bytes`. </li>
  *             <li> The MQTT topic as a Pub/Sub attribute. </li>
  *             <li> The retained flag as a Pub/Sub attribute. </li>
  *             <li> The quality of service as a Pub/Sub attribute. </li>
- *             <li> All present user properties as Pub/Sub attributes. </li>
+ *             <li> All present user properties as Pub/Sub attributes, selected by the `attribute-allow` and
+ *                  `attribute-deny` custom settings and limited by the `attribute-max-bytes` and
+ *                  `attributes-max-bytes` custom settings. User properties with the names of the attributes below
+ *                  that describe the data are dropped. </li>
+ *             <li> The MQTT topic levels of every `segment-attribute` custom setting
+ *                  (`segment[&lt;index&gt;] -&gt; &lt;attribute-name&gt;`) as Pub/Sub attributes. </li>
+ *             <li> The MQTT topic level of the `ordering-key` custom setting (`segment[&lt;index&gt;]`) as ordering
+ *                  key. </li>
+ *             <li> The fields of a JSON payload of every `payload-attribute` custom setting
+ *                  (`&lt;json-pointer&gt; -&gt; &lt;attribute-name&gt;`) as Pub/Sub attributes. </li>
+ *             <li> The full name of the schema as `payload-schema` Pub/Sub attribute, if the payload is transcoded. </li>
+ *             <li> The envelope format as `envelope` Pub/Sub attribute, if the payload is wrapped. </li>
+ *             <li> The compression algorithm as `content-encoding` Pub/Sub attribute, if the payload is compressed. </li>
+ *             <li> The `encryption` and `key-id` Pub/Sub attributes, if the data is encrypted with AES-GCM or signed
+ *                  with HMAC-SHA256 (then with a `signature` Pub/Sub attribute) by the key of the `encryption-key-id`
+ *                  custom setting from the keystore of the `keystore-file` custom setting. </li>
  *         </ul>
+ *     <li> If the data exceeds the `chunk-max-bytes` custom setting, create a Pub/Sub message for every chunk of the
+ *          data instead, with the `chunk-message-id`, `chunk-index`, `chunk-count` and `chunk-total-bytes` Pub/Sub
+ *          attributes and the chunk message id as ordering key. The chunks share the memory of the data. </li>
+ *     <li> Alternatively, if the `batch-format` custom setting is set, add the MQTT topic and the payload to a batch per
+ *          Pub/Sub topic and create a single Pub/Sub message from a batch when it is complete. Count the MQTT
+ *          PUBLISHes of the batches that are still open when the JVM shuts down as dropped. </li>
  *      <li> Provide the messages to the extension for publishing. </li>
+ *      <li> Count failures per cause and log only the first `error-log-limit` failures per `error-log-interval-ms`
+ *           with their stack trace. If the `dead-letter-topic` custom setting is set, send the MQTT topic and payload
+ *           of a failed message with its `error-cause` and `error-message` attributes to that Pub/Sub topic. </li>
  * </ol>
  * <p>
  * An example `google-cloud-pubsub-configuration.xml` file that enables this transformer is provided in `{@code src/main/resources}`.
@@ -59,13 +100,62 @@ import java.util.List;
 public class MqttToPubSubHelloWorldTransformer implements MqttToPubSubTransformer {
 
     private static final @NotNull Logger LOG = LoggerFactory.getLogger(MqttToPubSubHelloWorldTransformer.class);
-    @Nullable CustomSettings customSettings;
+    private static final @NotNull ByteBuffer EMPTY_PAYLOAD = ByteBuffer.allocate(0).asReadOnlyBuffer();
+    private static final int MAX_ERROR_MESSAGE_LENGTH = 256;
+
+    private static final @NotNull TransformerState<MqttToPubSubSettings> UNINITIALIZED =
+            new TransformerState<>(MqttToPubSubSettings.EMPTY,
+                    TransformerMetrics.NONE,
+                    new ErrorLog(LOG, ErrorLog.DEFAULT_ERROR_LOG_LIMIT, ErrorLog.DEFAULT_ERROR_LOG_INTERVAL_MS),
+                    null);
+
+    /**
+     * Replaced at once by {@link #init} and by changes of the rules file, and read once per message by the worker
+     * threads.
+     */
+    final @NotNull AtomicReference<TransformerState<MqttToPubSubSettings>> state =
+            new AtomicReference<>(UNINITIALIZED);
+    /**
+     * Whether the shutdown hook that counts the records of the open batches is registered, which happens with the first
+     * initialization that enables batching.
+     */
+    private final @NotNull AtomicBoolean shutdownHook = new AtomicBoolean();
 
     @Override
     public void init(final @NotNull MqttToPubSubInitInput input) {
         try {
             final PubSubConnection pubSubConnection = input.getPubSubConnection();
-            this.customSettings = input.getCustomSettings();
+            final TransformerState<MqttToPubSubSettings> previous = state.get();
+            final RulesFile previousRulesFile = previous.getRulesFile();
+            if (previousRulesFile != null) {
+                previousRulesFile.close();
+            }
+            final RulesFile rulesFile = RulesFile.of(input.getCustomSettings());
+            final MqttToPubSubSettings settings = MqttToPubSubSettings.of(
+                    rulesFile != null ? rulesFile.loadOrConfigured() : input.getCustomSettings());
+            final TransformerMetrics metrics = TransformerMetrics.of(input.getMetricRegistry(),
+                    TransformerMetrics.MQTT_TO_PUBSUB,
+                    pubSubConnection.getId(),
+                    settings.getTransformerId(),
+                    settings.isDetailedMetrics());
+            final ErrorLog errorLog = new ErrorLog(LOG, settings.getErrorLogLimit(), settings.getErrorLogIntervalMs());
+            // the settings, metrics and error log are published together, so no message mixes two initializations
+            state.set(new TransformerState<>(settings, metrics, errorLog, rulesFile));
+            handOverBatches(previous.getSettings().getBatchAccumulator(), settings.getBatchAccumulator(), metrics);
+            if (settings.getBatchAccumulator() != null && shutdownHook.compareAndSet(false, true)) {
+                // the open batches can only be sent by a later MQTT PUBLISH, so they are lost when HiveMQ stops
+                Runtime.getRuntime()
+                        .addShutdownHook(new Thread(this::dropOpenBatches, "mqtt-to-pubsub-open-batches"));
+            }
+            if (rulesFile != null) {
+                // the new settings are built on the watching thread and replace the previous ones at once, unless a
+                // new initialization replaced the rules file in the meantime
+                rulesFile.watch("mqtt-to-pubsub-rules-file-" + settings.getTransformerId(),
+                        customSettings -> state.updateAndGet(current -> current.getRulesFile() != rulesFile ?
+                                current :
+                                current.withSettings(MqttToPubSubSettings.reload(customSettings,
+                                        current.getSettings()))));
+            }
             LOG.info(
                     "MQTT-To-PubSub-Hello-World-Transformer for pubsub connection '{}' and project '{}' initialized.",
                     pubSubConnection.getId(),
@@ -79,37 +169,487 @@ public class MqttToPubSubHelloWorldTransformer implements MqttToPubSubTransforme
     public void transformMqttToPubSub(
             final @NotNull MqttToPubSubInput mqttToPubSubInput,
             final @NotNull MqttToPubSubOutput mqttToPubSubOutput) {
+        // read once, so a new initialization or a reload of the rules file never mixes two states within a message
+        final TransformerState<MqttToPubSubSettings> state = this.state.get();
+        final MqttToPubSubSettings settings = state.getSettings();
+        final TransformerMetrics metrics = state.getMetrics();
+        final long startNanos = System.nanoTime();
         try {
             final PublishPacket publishPacket = mqttToPubSubInput.getPublishPacket();
             final String mqttTopic = publishPacket.getTopic();
+            final ByteBuffer mqttPayload = publishPacket.getPayload().orElse(null);
+            final int bytesIn = mqttPayload == null ? 0 : mqttPayload.remaining();
 
-            final List<String> pubSubTopics;
-            if (customSettings != null) {
-                pubSubTopics = customSettings.getAllForName("destination");
+            final DropFilter dropFilter = settings.getDropFilter();
+            if (!dropFilter.isEmpty()) {
+                final String rule = dropFilter.match(publishPacket, mqttPayload);
+                if (rule != null) {
+                    // dropped before the routing and before any builder is created
+                    mqttToPubSubOutput.setOutboundPubSubMessages(List.of());
+                    metrics.dropped(rule);
+                    metrics.transformed(startNanos, bytesIn, 0, 0, 0);
+                    return;
+                }
+            }
+            final RateLimiter rateLimiter = settings.getRateLimiter();
+            String[] pubSubTopics = null;
+            if (rateLimiter != null) {
+                final int result = rateLimiter.acquire(rateLimiter.keyOf(publishPacket), startNanos);
+                if (result != RateLimiter.FORWARD) {
+                    pubSubTopics = settings.getRateLimitOverflowTopics();
+                    if (result == RateLimiter.SAMPLED_OUT || pubSubTopics == null) {
+                        mqttToPubSubOutput.setOutboundPubSubMessages(List.of());
+                        metrics.limited(result == RateLimiter.SAMPLED_OUT ?
+                                TransformerMetrics.SAMPLED_OUT :
+                                TransformerMetrics.RATE_LIMITED_DROPPED);
+                        metrics.transformed(startNanos, bytesIn, 0, 0, 0);
+                        return;
+                    }
+                    metrics.limited(TransformerMetrics.RATE_LIMITED_DOWNGRADED);
+                }
+            }
+            if (pubSubTopics == null) {
+                pubSubTopics = settings.getRouter().route(mqttTopic);
+            }
+
+            final List<OutboundPubSubMessage> outboundPubSubMessages = new ArrayList<>(pubSubTopics.length);
+            if (pubSubTopics.length == 0) {
+                mqttToPubSubOutput.setOutboundPubSubMessages(outboundPubSubMessages);
+                metrics.transformed(startNanos, bytesIn, 0, 0, 0);
+                return;
+            }
+
+            final BatchAccumulator batchAccumulator = settings.getBatchAccumulator();
+            if (batchAccumulator != null &&
+                    addToBatches(state,
+                            batchAccumulator,
+                            mqttTopic,
+                            mqttPayload != null ? mqttPayload : EMPTY_PAYLOAD,
+                            pubSubTopics,
+                            mqttToPubSubOutput,
+                            startNanos)) {
+                return;
+            }
+
+            // the attributes and the payload are the same for all destinations, so they are only read once
+            final OutboundAttributes attributes = OutboundAttributes.get();
+            final AttributeFilter attributeFilter = settings.getAttributeFilter();
+            if (attributeFilter.isEmpty()) {
+                for (final UserProperty userProperty : publishPacket.getUserProperties().asList()) {
+                    // the attributes that describe the data are only set by the transformer itself
+                    if (!AttributeFilter.isReserved(userProperty.getName())) {
+                        attributes.add(userProperty.getName(), userProperty.getValue());
+                    }
+                }
+            } else {
+                attributeFilter.addTo(publishPacket.getUserProperties().asList(), attributes);
+            }
+            final int forwarded = attributes.size();
+            final TopicSegments topicSegments = settings.getTopicSegments();
+            if (!topicSegments.isEmpty()) {
+                topicSegments.extract(mqttTopic, attributes);
+            }
+            final PayloadFields payloadFields = settings.getPayloadFields();
+            if (mqttPayload != null && !payloadFields.isEmpty()) {
+                final int limited = payloadFields.extract(mqttPayload, attributes, attributeFilter);
+                if (limited > 0) {
+                    metrics.limited(TransformerMetrics.PAYLOAD_ATTRIBUTES_LIMITED, limited);
+                }
+            }
+            //attributes with the same name from user properties will be overwritten here
+            attributes.add(OutboundAttributes.MQTT_TOPIC, mqttTopic);
+            attributes.add(OutboundAttributes.RETAINED, OutboundAttributes.retainedValue(publishPacket.getRetain()));
+            attributes.add(OutboundAttributes.QOS, OutboundAttributes.qosValue(publishPacket.getQos()));
+            final PayloadEnvelope.Format envelope = settings.getEnvelope();
+            final ByteBuffer data = envelope != null ?
+                    wrap(settings, envelope, publishPacket, mqttPayload, attributes) :
+                    transcode(settings, mqttPayload, attributes);
+            final ByteBuffer payload = encrypt(settings, compress(settings, data, attributes), attributes);
+            final int payloadBytes = payload == null ? 0 : payload.remaining();
+            final int chunkMaxBytes = settings.getChunkMaxBytes();
+            final int chunks;
+            if (payload != null && chunkMaxBytes > 0 && payloadBytes > chunkMaxBytes) {
+                chunks = PayloadChunks.count(payloadBytes, chunkMaxBytes);
+                metrics.limited(TransformerMetrics.CHUNKED);
             } else {
-                pubSubTopics = Collections.emptyList();
+                chunks = 0;
             }
+            attributeFilter.limitTotal(attributes,
+                    forwarded,
+                    chunks == 0 ? 0 : PayloadChunks.attributeBytes(chunks, payloadBytes));
 
-            final List<OutboundPubSubMessage> outboundPubSubMessages = new ArrayList<>();
-            for (final String pubSubTopic : pubSubTopics) {
+            final int last = pubSubTopics.length - 1;
+            int sent = 0;
+            for (int i = 0; i <= last; i++) {
+                final int firstMessage = outboundPubSubMessages.size();
                 try {
-                    final OutboundPubSubMessageBuilder builder = mqttToPubSubOutput.newOutboundPubSubMessageBuilder();
-                    builder.topicName(pubSubTopic);
-                    publishPacket.getUserProperties().asList()
-                            .forEach(userProperty -> builder.attribute(userProperty.getName(), userProperty.getValue()));
-                    //attributes with the same name from user properties will be overwritten here
-                    builder.attribute("mqtt-topic", mqttTopic);
-                    builder.attribute("retained", String.valueOf(publishPacket.getRetain()));
-                    builder.attribute("qos", String.valueOf(publishPacket.getQos().getQosNumber()));
-                    publishPacket.getPayload().ifPresent(builder::data);
-                    outboundPubSubMessages.add(builder.build());
+                    if (chunks > 0) {
+                        // every destination gets its own chunk message id, so a subscriber of several destinations
+                        // never mixes up their chunks
+                        addChunks(settings,
+                                pubSubTopics[i],
+                                attributes,
+                                Objects.requireNonNull(payload),
+                                chunks,
+                                PayloadChunks.newMessageId(),
+                                mqttToPubSubOutput,
+                                outboundPubSubMessages);
+                    } else {
+                        final OutboundPubSubMessageBuilder builder =
+                                mqttToPubSubOutput.newOutboundPubSubMessageBuilder();
+                        builder.topicName(pubSubTopics[i]);
+                        attributes.applyTo(builder);
+                        if (payload != null) {
+                            // the payload is never copied: every builder gets its own view of the same memory, as
+                            // reading the payload may move the position of the buffer, only the last builder gets the
+                            // buffer itself
+                            builder.data(i == last ? payload : payload.duplicate());
+                        }
+                        outboundPubSubMessages.add(builder.build());
+                    }
+                    metrics.sentTo(pubSubTopics[i]);
+                    sent++;
                 } catch (final Exception e) {
-                    LOG.error("Could not create a Google Cloud Pub/Sub message from MQTT message with topic '{}' because", mqttTopic, e);
+                    // a destination gets all chunks or none
+                    outboundPubSubMessages.subList(firstMessage, outboundPubSubMessages.size()).clear();
+                    state.getErrorLog().failed(metrics,
+                            e,
+                            "Could not create a Google Cloud Pub/Sub message from MQTT message with topic '{}' because",
+                            mqttTopic);
+                    deadLetter(state,
+                            mqttToPubSubInput,
+                            pubSubTopics[i],
+                            e,
+                            mqttToPubSubOutput,
+                            outboundPubSubMessages);
                 }
             }
+            final int attributeCount = attributes.size();
+            attributes.clear();
             mqttToPubSubOutput.setOutboundPubSubMessages(outboundPubSubMessages);
+            final int messagesOut = outboundPubSubMessages.size();
+            metrics.transformed(startNanos, bytesIn, messagesOut, (long) payloadBytes * sent, attributeCount);
         } catch (final Exception e) {
-            LOG.error("MQTT to Google Cloud Pub/Sub transformation failed: ", e);
+            state.getErrorLog().failed(metrics, e, "MQTT to Google Cloud Pub/Sub transformation failed: ");
+            if (settings.getDeadLetterTopic() != null) {
+                final List<OutboundPubSubMessage> deadLetters = new ArrayList<>(1);
+                deadLetter(state, mqttToPubSubInput, null, e, mqttToPubSubOutput, deadLetters);
+                mqttToPubSubOutput.setOutboundPubSubMessages(deadLetters);
+            }
+        }
+    }
+
+    /**
+     * Adds a message with the original MQTT topic and payload and the cause of the failure for the dead letter topic,
+     * if one is configured.
+     *
+     * @param pubSubTopic the Pub/Sub topic whose message could not be created or {@code null} if the whole
+     *                    transformation failed.
+     */
+    private static void deadLetter(
+            final @NotNull TransformerState<MqttToPubSubSettings> state,
+            final @NotNull MqttToPubSubInput mqttToPubSubInput,
+            final @Nullable String pubSubTopic,
+            final @NotNull Exception cause,
+            final @NotNull MqttToPubSubOutput mqttToPubSubOutput,
+            final @NotNull List<OutboundPubSubMessage> outboundPubSubMessages) {
+        final MqttToPubSubSettings settings = state.getSettings();
+        final String deadLetterTopic = settings.getDeadLetterTopic();
+        final TransformerMetrics metrics = state.getMetrics();
+        if (deadLetterTopic == null) {
+            return;
+        }
+        try {
+            final PublishPacket publishPacket = mqttToPubSubInput.getPublishPacket();
+            final OutboundPubSubMessageBuilder builder = mqttToPubSubOutput.newOutboundPubSubMessageBuilder();
+            builder.topicName(deadLetterTopic);
+            builder.attribute(OutboundAttributes.MQTT_TOPIC, publishPacket.getTopic());
+            builder.attribute(OutboundAttributes.RETAINED, OutboundAttributes.retainedValue(publishPacket.getRetain()));
+            builder.attribute(OutboundAttributes.QOS, OutboundAttributes.qosValue(publishPacket.getQos()));
+            builder.attribute(OutboundAttributes.ERROR_CAUSE, ErrorLog.causeName(cause));
+            final String message = cause.getMessage();
+            if (message != null) {
+                builder.attribute(OutboundAttributes.ERROR_MESSAGE, truncate(message));
+            }
+            if (pubSubTopic != null) {
+                builder.attribute(OutboundAttributes.ERROR_DESTINATION, pubSubTopic);
+            }
+            final ByteBuffer payload = publishPacket.getPayload().orElse(null);
+            if (settings.getEncryptionError() != null || settings.getEncryption() != null) {
+                // the payload never leaves the broker unprotected, the attributes of the thread may still be in use
+                final OutboundAttributes attributes = new OutboundAttributes();
+                // the authenticated attributes are already set on the builder, they are repeated for the encryption
+                attributes.add(OutboundAttributes.MQTT_TOPIC, publishPacket.getTopic());
+                attributes.add(OutboundAttributes.RETAINED,
+                        OutboundAttributes.retainedValue(publishPacket.getRetain()));
+                attributes.add(OutboundAttributes.QOS, OutboundAttributes.qosValue(publishPacket.getQos()));
+                final ByteBuffer data = encrypt(settings, payload, attributes);
+                attributes.applyTo(builder);
+                if (data != null) {
+                    builder.data(data);
+                }
+            } else if (payload != null) {
+                builder.data(payload);
+            }
+            outboundPubSubMessages.add(builder.build());
+            metrics.deadLettered();
+        } catch (final Exception e) {
+            state.getErrorLog().failed(metrics,
+                    e,
+                    "Could not create a Google Cloud Pub/Sub message for dead letter topic '{}' because",
+                    deadLetterTopic);
+        }
+    }
+
+    /**
+     * Adds a Pub/Sub message for every chunk of the payload, see {@link PayloadChunks}.
+     */
+    private static void addChunks(
+            final @NotNull MqttToPubSubSettings settings,
+            final @NotNull String pubSubTopic,
+            final @NotNull OutboundAttributes attributes,
+            final @NotNull ByteBuffer payload,
+            final int chunks,
+            final @NotNull String messageId,
+            final @NotNull MqttToPubSubOutput mqttToPubSubOutput,
+            final @NotNull List<OutboundPubSubMessage> outboundPubSubMessages) {
+        final String count = Integer.toString(chunks);
+        final String totalBytes = Integer.toString(payload.remaining());
+        // the ordering key keeps the chunks of a payload together and in order, unless one is configured
+        final boolean orderingKey = settings.isChunkOrderingKey() && !attributes.hasOrderingKey();
+        for (int index = 0; index < chunks; index++) {
+            final OutboundPubSubMessageBuilder builder = mqttToPubSubOutput.newOutboundPubSubMessageBuilder();
+            builder.topicName(pubSubTopic);
+            attributes.applyTo(builder);
+            builder.attribute(PayloadChunks.CHUNK_MESSAGE_ID, messageId);
+            builder.attribute(PayloadChunks.CHUNK_INDEX, Integer.toString(index));
+            builder.attribute(PayloadChunks.CHUNK_COUNT, count);
+            builder.attribute(PayloadChunks.CHUNK_TOTAL_BYTES, totalBytes);
+            if (orderingKey) {
+                builder.orderingKey(messageId);
+            }
+            // every chunk is a view of its range of the payload
+            builder.data(PayloadChunks.slice(payload, index, chunks));
+            outboundPubSubMessages.add(builder.build());
+        }
+    }
+
+    /**
+     * @return the text cut to {@link #MAX_ERROR_MESSAGE_LENGTH} characters, which always fit into the 1024 bytes of a
+     *         Pub/Sub attribute value.
+     */
+    private static @NotNull String truncate(final @NotNull String text) {
+        if (text.length() <= MAX_ERROR_MESSAGE_LENGTH) {
+            return text;
+        }
+        final int end = Character.isHighSurrogate(text.charAt(MAX_ERROR_MESSAGE_LENGTH - 1)) ?
+                MAX_ERROR_MESSAGE_LENGTH - 1 :
+                MAX_ERROR_MESSAGE_LENGTH;
+        return text.substring(0, end);
+    }
+
+    /**
+     * Adds the MQTT PUBLISH to the batches of its Pub/Sub topics and provides the batches that are complete.
+     *
+     * @return {@code false} if the MQTT PUBLISH can not be encoded in the batch format and must be sent on its own.
+     */
+    private static boolean addToBatches(
+            final @NotNull TransformerState<MqttToPubSubSettings> state,
+            final @NotNull BatchAccumulator batchAccumulator,
+            final @NotNull String mqttTopicName,
+            final @NotNull ByteBuffer payload,
+            final @NotNull String @NotNull [] pubSubTopics,
+            final @NotNull MqttToPubSubOutput mqttToPubSubOutput,
+            final long startNanos) {
+        final PayloadBatch.Format format = batchAccumulator.getFormat();
+        final byte[] mqttTopic = format.encodeMqttTopic(mqttTopicName);
+        if (!format.canEncode(mqttTopic, payload)) {
+            return false;
+        }
+        final List<BatchAccumulator.Batch> batches = new ArrayList<>(1);
+        for (final String pubSubTopic : pubSubTopics) {
+            batchAccumulator.add(pubSubTopic, mqttTopic, payload, batches);
+        }
+        batchAccumulator.addExpired(System.nanoTime(), batches);
+
+        final MqttToPubSubSettings settings = state.getSettings();
+        final TransformerMetrics metrics = state.getMetrics();
+        final List<OutboundPubSubMessage> outboundPubSubMessages = new ArrayList<>(batches.size());
+        final OutboundAttributes attributes = OutboundAttributes.get();
+        long bytesOut = 0;
+        int attributeCount = 0;
+        for (final BatchAccumulator.Batch batch : batches) {
+            try {
+                attributes.clear();
+                // a batch that was handed over from a previous initialization keeps its format
+                attributes.add(PayloadBatch.BATCH_FORMAT, batch.getFormat().getName());
+                attributes.add(PayloadBatch.BATCH_SIZE, Integer.toString(batch.getCount()));
+                final ByteBuffer data = Objects.requireNonNull(encrypt(settings,
+                        compress(settings, PayloadBatch.encode(batch.getFormat(), batch), attributes),
+                        attributes));
+                final int dataBytes = data.remaining();
+                final OutboundPubSubMessageBuilder builder = mqttToPubSubOutput.newOutboundPubSubMessageBuilder();
+                builder.topicName(batch.getPubSubTopic());
+                attributes.applyTo(builder);
+                builder.data(data);
+                outboundPubSubMessages.add(builder.build());
+                bytesOut += dataBytes;
+                attributeCount = attributes.size();
+                metrics.sentTo(batch.getPubSubTopic());
+            } catch (final Exception e) {
+                metrics.limited(TransformerMetrics.BATCH_RECORDS_DROPPED, batch.getCount());
+                state.getErrorLog().failed(metrics,
+                        e,
+                        "Could not create a Google Cloud Pub/Sub message from a batch of {} MQTT messages for Pub/Sub topic '{}' because",
+                        batch.getCount(),
+                        batch.getPubSubTopic());
+            }
+        }
+        attributes.clear();
+        mqttToPubSubOutput.setOutboundPubSubMessages(outboundPubSubMessages);
+        metrics.transformed(startNanos, payload.remaining(), outboundPubSubMessages.size(), bytesOut, attributeCount);
+        return true;
+    }
+
+    /**
+     * Hands the open batches of the previous initialization over to the new batch accumulator. If batching is disabled
+     * now, the open batches can not be sent and their records are dropped.
+     */
+    private static void handOverBatches(
+            final @Nullable BatchAccumulator previous,
+            final @Nullable BatchAccumulator batchAccumulator,
+            final @NotNull TransformerMetrics metrics) {
+        if (previous == null || previous == batchAccumulator) {
+            return;
+        }
+        if (batchAccumulator != null) {
+            batchAccumulator.handOver(previous);
+            return;
+        }
+        dropOpenBatches(previous, metrics, "batching was disabled");
+    }
+
+    /**
+     * Closes the batch accumulator of the current initialization when the JVM shuts down and counts the records of its
+     * open batches as dropped.
+     */
+    void dropOpenBatches() {
+        final TransformerState<MqttToPubSubSettings> state = this.state.get();
+        final BatchAccumulator batchAccumulator = state.getSettings().getBatchAccumulator();
+        if (batchAccumulator != null) {
+            dropOpenBatches(batchAccumulator, state.getMetrics(), "HiveMQ stops");
+        }
+    }
+
+    private static void dropOpenBatches(
+            final @NotNull BatchAccumulator batchAccumulator,
+            final @NotNull TransformerMetrics metrics,
+            final @NotNull String reason) {
+        final List<BatchAccumulator.Batch> open = new ArrayList<>();
+        batchAccumulator.close(open);
+        int records = 0;
+        for (final BatchAccumulator.Batch batch : open) {
+            records += batch.getCount();
+        }
+        if (records > 0) {
+            metrics.limited(TransformerMetrics.BATCH_RECORDS_DROPPED, records);
+            LOG.warn("Dropped {} MQTT messages of open batches, because {}.", records, reason);
+        }
+    }
+
+    /**
+     * @return the envelope with the MQTT topic, QoS, retained flag, message expiry interval, allowed user properties
+     *         and payload of the MQTT PUBLISH.
+     */
+    private static @NotNull ByteBuffer wrap(
+            final @NotNull MqttToPubSubSettings settings,
+            final @NotNull PayloadEnvelope.Format envelope,
+            final @NotNull PublishPacket publishPacket,
+            final @Nullable ByteBuffer payload,
+            final @NotNull OutboundAttributes attributes) {
+        final ByteBuffer data = PayloadEnvelope.encode(envelope,
+                publishPacket.getTopic(),
+                publishPacket.getQos(),
+                publishPacket.getRetain(),
+                publishPacket.getMessageExpiryInterval().orElse(PayloadEnvelope.NO_EXPIRY),
+                publishPacket.getUserProperties().asList(),
+                settings.getAttributeFilter(),
+                payload);
+        attributes.add(PayloadEnvelope.ENVELOPE, envelope.getName());
+        return data;
+    }
+
+    /**
+     * @return the payload in the Avro binary encoding if a schema is configured and the payload is a JSON object of the
+     *         schema, the payload otherwise.
+     */
+    private static @Nullable ByteBuffer transcode(
+            final @NotNull MqttToPubSubSettings settings,
+            final @Nullable ByteBuffer payload,
+            final @NotNull OutboundAttributes attributes) {
+        final PayloadSchema schema = settings.getTranscodeSchema();
+        if (payload == null || schema == null) {
+            return payload;
+        }
+        final ByteBuffer binary = schema.encode(payload);
+        if (binary == null) {
+            return payload;
+        }
+        attributes.add(PayloadSchema.PAYLOAD_SCHEMA, schema.getFullName());
+        return binary;
+    }
+
+    /**
+     * @return the compressed payload if compression is configured and shrinks the payload, the payload otherwise.
+     */
+    private static @Nullable ByteBuffer compress(
+            final @NotNull MqttToPubSubSettings settings,
+            final @Nullable ByteBuffer payload,
+            final @NotNull OutboundAttributes attributes) {
+        final PayloadCompression.Algorithm compression = settings.getCompression();
+        if (payload == null || compression == null || payload.remaining() < settings.getCompressionMinBytes()) {
+            return payload;
+        }
+        final ByteBuffer compressed = PayloadCompression.compress(payload, compression);
+        if (compressed == null) {
+            return payload;
+        }
+        attributes.add(PayloadCompression.CONTENT_ENCODING, compression.getContentEncoding());
+        return compressed;
+    }
+
+    /**
+     * @return the payload encrypted with AES-GCM if configured, otherwise the payload, which is signed with
+     *         HMAC-SHA256 if configured.
+     * @throws IllegalStateException if the payload can not be protected as configured, so it is not sent at all.
+     */
+    private static @Nullable ByteBuffer encrypt(
+            final @NotNull MqttToPubSubSettings settings,
+            final @Nullable ByteBuffer payload,
+            final @NotNull OutboundAttributes attributes) throws GeneralSecurityException {
+        final String encryptionError = settings.getEncryptionError();
+        if (encryptionError != null) {
+            throw new IllegalStateException(encryptionError);
+        }
+        final PayloadEncryption.Mode encryption = settings.getEncryption();
+        if (encryption == null) {
+            return payload;
+        }
+        final SecretKey key = Objects.requireNonNull(settings.getEncryptionKey());
+        final String keyId = Objects.requireNonNull(settings.getEncryptionKeyId());
+        attributes.add(PayloadEncryption.ENCRYPTION, encryption.getName());
+        attributes.add(PayloadEncryption.KEY_ID, keyId);
+        // all attributes that describe the data are already added
+        final byte[] associatedData = PayloadEncryption.associatedData(attributes::find);
+        // a missing payload is protected as an empty one, so the receiver can tell that nothing was removed
+        final ByteBuffer protectedPayload = payload != null ? payload : EMPTY_PAYLOAD;
+        if (encryption == PayloadEncryption.Mode.AES_GCM) {
+            PayloadEncryption.countEncryption(Objects.requireNonNull(settings.getEncryptions()),
+                    settings.getEncryptionKeyMaxPayloads(),
+                    keyId);
+            return PayloadEncryption.encrypt(protectedPayload, key, associatedData);
         }
+        attributes.add(PayloadEncryption.SIGNATURE, PayloadEncryption.sign(protectedPayload, key, associatedData));
+        return payload;
     }
 }
@@ -0,0 +1,497 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.Immutable;
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.hivemq.extensions.google.cloud.pubsub.api.model.CustomSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.SecretKey;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld.CustomSettingsParser.parseBoolean;
+import static com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld.CustomSettingsParser.parseInt;
+import static com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld.CustomSettingsParser.parseKeys;
+import static com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld.CustomSettingsParser.parseLong;
+import static com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld.CustomSettingsParser.parseSchema;
+
+/**
+ * The custom settings of the {@link MqttToPubSubHelloWorldTransformer}, resolved during its initialization and whenever
+ * its rules file changes.
+ * <p>
+ * The transformer only reads this object per MQTT PUBLISH, so no custom setting is looked up or parsed on the hot path.
+ *
+ * @since 4.53.0
+ */
+@Immutable
+final class MqttToPubSubSettings {
+
+    private static final @NotNull Logger LOG = LoggerFactory.getLogger(MqttToPubSubSettings.class);
+
+    static final @NotNull String TRANSFORMER_ID = "transformer-id";
+    static final @NotNull String DETAILED_METRICS = "detailed-metrics";
+    static final @NotNull String DEAD_LETTER_TOPIC = "dead-letter-topic";
+    static final @NotNull String DROP = "drop";
+    static final @NotNull String RATE_LIMIT = "rate-limit";
+    static final @NotNull String RATE_LIMIT_BURST = "rate-limit-burst";
+    static final @NotNull String RATE_LIMIT_KEY = "rate-limit-key";
+    static final @NotNull String RATE_LIMIT_OVERFLOW_TOPIC = "rate-limit-overflow-topic";
+    static final @NotNull String RATE_LIMIT_IDLE_MS = "rate-limit-idle-ms";
+    static final @NotNull String SAMPLE_ONE_IN = "sample-one-in";
+    static final @NotNull String DESTINATION = "destination";
+    static final @NotNull String ROUTE = "route";
+    static final @NotNull String ROUTE_CACHE_SIZE = "route-cache-size";
+    static final @NotNull String SEGMENT_ATTRIBUTE = "segment-attribute";
+    static final @NotNull String ORDERING_KEY = "ordering-key";
+    static final @NotNull String PAYLOAD_ATTRIBUTE = "payload-attribute";
+    static final @NotNull String COMPRESSION = "compression";
+    static final @NotNull String COMPRESSION_MIN_BYTES = "compression-min-bytes";
+    static final @NotNull String BATCH_FORMAT = "batch-format";
+    static final @NotNull String BATCH_MAX_MESSAGES = "batch-max-messages";
+    static final @NotNull String BATCH_MAX_BYTES = "batch-max-bytes";
+    static final @NotNull String BATCH_LINGER_MS = "batch-linger-ms";
+    static final @NotNull String TRANSCODE_SCHEMA = "transcode-schema";
+    static final @NotNull String ENVELOPE = "envelope";
+    static final @NotNull String CHUNK_MAX_BYTES = "chunk-max-bytes";
+    static final @NotNull String CHUNK_ORDERING_KEY = "chunk-ordering-key";
+    static final @NotNull String ENCRYPTION = "encryption";
+    static final @NotNull String ENCRYPTION_KEY_ID = "encryption-key-id";
+    static final @NotNull String ENCRYPTION_KEY_MAX_PAYLOADS = "encryption-key-max-payloads";
+
+    static final @NotNull String DEFAULT_TRANSFORMER_ID = "default";
+    static final @NotNull String DEFAULT_RATE_LIMIT_KEY = "topic";
+    static final long DEFAULT_RATE_LIMIT_IDLE_MS = 60_000;
+    static final int DEFAULT_ROUTE_CACHE_SIZE = 10_000;
+    static final int DEFAULT_COMPRESSION_MIN_BYTES = 1024;
+    static final int DEFAULT_BATCH_MAX_MESSAGES = 100;
+    static final int DEFAULT_BATCH_MAX_BYTES = 1024 * 1024;
+    static final long DEFAULT_BATCH_LINGER_MS = 50;
+
+    static final @NotNull MqttToPubSubSettings EMPTY = new MqttToPubSubSettings(StaticCustomSettings.EMPTY, null);
+
+    private final @NotNull String transformerId;
+    private final boolean detailedMetrics;
+    private final int errorLogLimit;
+    private final long errorLogIntervalMs;
+    private final @Nullable String deadLetterTopic;
+    private final @NotNull DropFilter dropFilter;
+    private final @Nullable RateLimiter rateLimiter;
+    private final @NotNull String @Nullable [] rateLimitOverflowTopics;
+    private final @NotNull String @NotNull [] destinations;
+    private final @NotNull TopicRouter router;
+    private final @NotNull TopicSegments topicSegments;
+    private final @NotNull PayloadFields payloadFields;
+    private final @Nullable PayloadCompression.Algorithm compression;
+    private final int compressionMinBytes;
+    private final @Nullable BatchAccumulator batchAccumulator;
+    private final @Nullable PayloadSchema transcodeSchema;
+    private final @Nullable PayloadEnvelope.Format envelope;
+    private final int chunkMaxBytes;
+    private final boolean chunkOrderingKey;
+    private final @Nullable PayloadEncryption.Mode encryption;
+    private final @Nullable String encryptionKeyId;
+    private final @Nullable SecretKey encryptionKey;
+    private final @Nullable AtomicLong encryptions;
+    private final long encryptionKeyMaxPayloads;
+    private final @Nullable String encryptionError;
+    private final @NotNull AttributeFilter attributeFilter;
+
+    private MqttToPubSubSettings(
+            final @NotNull CustomSettings customSettings,
+            final @Nullable MqttToPubSubSettings previous) {
+        transformerId = customSettings.getFirst(TRANSFORMER_ID)
+                .map(String::trim)
+                .filter(id -> !id.isEmpty())
+                .orElse(DEFAULT_TRANSFORMER_ID);
+        detailedMetrics = parseBoolean(customSettings, DETAILED_METRICS, false);
+        errorLogLimit = parseInt(customSettings, ErrorLog.ERROR_LOG_LIMIT, ErrorLog.DEFAULT_ERROR_LOG_LIMIT);
+        errorLogIntervalMs =
+                parseLong(customSettings, ErrorLog.ERROR_LOG_INTERVAL_MS, ErrorLog.DEFAULT_ERROR_LOG_INTERVAL_MS);
+        deadLetterTopic = customSettings.getFirst(DEAD_LETTER_TOPIC)
+                .map(String::trim)
+                .filter(topic -> !topic.isEmpty())
+                .orElse(null);
+        dropFilter = new DropFilter(customSettings.getAllForName(DROP));
+        // the buckets and the pending batches are kept when the settings are reloaded
+        rateLimiter = previous != null ? previous.rateLimiter : parseRateLimiter(customSettings);
+        rateLimitOverflowTopics = customSettings.getFirst(RATE_LIMIT_OVERFLOW_TOPIC)
+                .map(String::trim)
+                .filter(topic -> !topic.isEmpty())
+                .map(topic -> new String[]{topic})
+                .orElse(null);
+        destinations = customSettings.getAllForName(DESTINATION).toArray(String[]::new);
+        router = new TopicRouter(destinations,
+                customSettings.getAllForName(ROUTE),
+                parseInt(customSettings, ROUTE_CACHE_SIZE, DEFAULT_ROUTE_CACHE_SIZE));
+        topicSegments = new TopicSegments(customSettings.getAllForName(SEGMENT_ATTRIBUTE),
+                customSettings.getFirst(ORDERING_KEY).orElse(null));
+        payloadFields = new PayloadFields(customSettings.getAllForName(PAYLOAD_ATTRIBUTE));
+        compression = parseCompression(customSettings.getFirst(COMPRESSION).orElse(null));
+        compressionMinBytes = parseInt(customSettings, COMPRESSION_MIN_BYTES, DEFAULT_COMPRESSION_MIN_BYTES);
+        batchAccumulator = previous != null ? previous.batchAccumulator : parseBatchAccumulator(customSettings);
+        transcodeSchema = parseSchema(customSettings, TRANSCODE_SCHEMA);
+        envelope = parseEnvelope(customSettings.getFirst(ENVELOPE).orElse(null));
+        chunkMaxBytes = parseChunkMaxBytes(parseInt(customSettings, CHUNK_MAX_BYTES, 0));
+        chunkOrderingKey = parseBoolean(customSettings, CHUNK_ORDERING_KEY, true);
+        final String encryptionName = customSettings.getFirst(ENCRYPTION)
+                .map(String::trim)
+                .filter(name -> !name.isEmpty() && !name.equalsIgnoreCase("none"))
+                .orElse(null);
+        encryption = PayloadEncryption.Mode.fromName(encryptionName);
+        encryptionKeyId = customSettings.getFirst(ENCRYPTION_KEY_ID)
+                .map(String::trim)
+                .filter(id -> !id.isEmpty())
+                .orElse(null);
+        // the keystore is read again with every reload, so a new key can be added before it is selected
+        encryptionKey = encryption != null && encryptionKeyId != null ?
+                parseKeys(customSettings).get(encryptionKeyId) :
+                null;
+        encryptions = encryption == PayloadEncryption.Mode.AES_GCM && encryptionKey != null ?
+                PayloadEncryption.encryptions(encryptionKey) :
+                null;
+        encryptionKeyMaxPayloads = parseEncryptionKeyMaxPayloads(parseLong(customSettings,
+                ENCRYPTION_KEY_MAX_PAYLOADS,
+                PayloadEncryption.MAX_ENCRYPTIONS));
+        encryptionError = encryptionError(encryptionName, encryption, encryptionKeyId, encryptionKey);
+        attributeFilter = AttributeFilter.of(customSettings);
+    }
+
+    static @NotNull MqttToPubSubSettings of(final @NotNull CustomSettings customSettings) {
+        return new MqttToPubSubSettings(customSettings, null);
+    }
+
+    /**
+     * Resolves the custom settings of a changed rules file. The rate limiter and the batch accumulator of the previous
+     * settings are kept, so no bucket and no pending batch is lost. Their custom settings, like the transformer id, the
+     * metrics and the error log custom settings, only take effect when the transformer is initialized again.
+     */
+    static @NotNull MqttToPubSubSettings reload(
+            final @NotNull CustomSettings customSettings,
+            final @NotNull MqttToPubSubSettings previous) {
+        return new MqttToPubSubSettings(customSettings, previous);
+    }
+
+    private static @Nullable RateLimiter parseRateLimiter(final @NotNull CustomSettings customSettings) {
+        final int messagesPerSecond = parseInt(customSettings, RATE_LIMIT, 0);
+        final int sampleOneIn = parseInt(customSettings, SAMPLE_ONE_IN, 1);
+        if (messagesPerSecond == 0 && sampleOneIn <= 1) {
+            return null;
+        }
+        final String key = customSettings.getFirst(RATE_LIMIT_KEY).map(String::trim).orElse(DEFAULT_RATE_LIMIT_KEY);
+        try {
+            return new RateLimiter(key,
+                    messagesPerSecond,
+                    parseInt(customSettings, RATE_LIMIT_BURST, Math.max(1, messagesPerSecond)),
+                    sampleOneIn,
+                    parseLong(customSettings, RATE_LIMIT_IDLE_MS, DEFAULT_RATE_LIMIT_IDLE_MS));
+        } catch (final IllegalArgumentException e) {
+            LOG.warn("{} MQTT publish messages are not rate limited or sampled.", e.getMessage());
+            return null;
+        }
+    }
+
+    private static @Nullable BatchAccumulator parseBatchAccumulator(final @NotNull CustomSettings customSettings) {
+        final PayloadBatch.Format batchFormat = parseBatchFormat(customSettings.getFirst(BATCH_FORMAT).orElse(null));
+        return batchFormat == null ?
+                null :
+                new BatchAccumulator(batchFormat,
+                        parseInt(customSettings, BATCH_MAX_MESSAGES, DEFAULT_BATCH_MAX_MESSAGES),
+                        parseInt(customSettings, BATCH_MAX_BYTES, DEFAULT_BATCH_MAX_BYTES),
+                        parseLong(customSettings, BATCH_LINGER_MS, DEFAULT_BATCH_LINGER_MS));
+    }
+
+    private static @Nullable PayloadCompression.Algorithm parseCompression(final @Nullable String compression) {
+        if (compression == null || compression.isBlank() || compression.trim().equalsIgnoreCase("none")) {
+            return null;
+        }
+        final PayloadCompression.Algorithm algorithm =
+                PayloadCompression.Algorithm.fromContentEncoding(compression.trim());
+        if (algorithm == null) {
+            LOG.warn("Unknown compression '{}', supported are 'none', 'gzip' and 'deflate'. Payloads are not compressed.",
+                    compression);
+        }
+        return algorithm;
+    }
+
+    private static @Nullable PayloadBatch.Format parseBatchFormat(final @Nullable String batchFormat) {
+        if (batchFormat == null || batchFormat.isBlank() || batchFormat.trim().equalsIgnoreCase("none")) {
+            return null;
+        }
+        final PayloadBatch.Format format = PayloadBatch.Format.fromName(batchFormat.trim());
+        if (format == null) {
+            LOG.warn("Unknown batch format '{}', supported are 'none', 'length-prefixed' and 'newline'. MQTT publish " +
+                    "messages are not batched.", batchFormat);
+        }
+        return format;
+    }
+
+    private static @Nullable PayloadEnvelope.Format parseEnvelope(final @Nullable String envelope) {
+        if (envelope == null || envelope.isBlank() || envelope.trim().equalsIgnoreCase("none")) {
+            return null;
+        }
+        final PayloadEnvelope.Format format = PayloadEnvelope.Format.fromName(envelope.trim());
+        if (format == null) {
+            LOG.warn("Unknown envelope '{}', supported are 'none', 'json' and 'binary'. Payloads are not wrapped.",
+                    envelope);
+        }
+        return format;
+    }
+
+    private static int parseChunkMaxBytes(final int chunkMaxBytes) {
+        if (chunkMaxBytes > PayloadChunks.MAX_CHUNK_BYTES) {
+            LOG.warn("The custom setting '{}' with value '{}' exceeds the maximum message size of Pub/Sub. Using {}.",
+                    CHUNK_MAX_BYTES,
+                    chunkMaxBytes,
+                    PayloadChunks.MAX_CHUNK_BYTES);
+            return PayloadChunks.MAX_CHUNK_BYTES;
+        }
+        return chunkMaxBytes;
+    }
+
+    private static long parseEncryptionKeyMaxPayloads(final long encryptionKeyMaxPayloads) {
+        if (encryptionKeyMaxPayloads > PayloadEncryption.MAX_ENCRYPTIONS) {
+            LOG.warn("The custom setting '{}' with value '{}' exceeds the payloads a key can safely encrypt with " +
+                            "random IVs. Using {}.",
+                    ENCRYPTION_KEY_MAX_PAYLOADS,
+                    encryptionKeyMaxPayloads,
+                    PayloadEncryption.MAX_ENCRYPTIONS);
+            return PayloadEncryption.MAX_ENCRYPTIONS;
+        }
+        return encryptionKeyMaxPayloads;
+    }
+
+    /**
+     * @return why the payloads can not be protected as configured or {@code null} if they can or are not protected.
+     *         Payloads are never sent unprotected if the `encryption` custom setting is set.
+     */
+    private static @Nullable String encryptionError(
+            final @Nullable String name,
+            final @Nullable PayloadEncryption.Mode encryption,
+            final @Nullable String keyId,
+            final @Nullable SecretKey key) {
+        if (name == null) {
+            return null;
+        }
+        final String error;
+        if (encryption == null) {
+            error = "Unknown encryption '" + name + "', supported are 'none', 'aes-gcm' and 'hmac-sha256'.";
+        } else if (keyId == null) {
+            error = "The custom setting '" + ENCRYPTION_KEY_ID + "' is required for encryption '" + name + "'.";
+        } else if (key == null) {
+            error = "No secret key '" + keyId + "' in the keystore of custom setting '" +
+                    PayloadEncryption.KEYSTORE_FILE + "'.";
+        } else {
+            return null;
+        }
+        LOG.error("{} MQTT publish messages are not sent until the custom settings are fixed.", error);
+        return error;
+    }
+
+    /**
+     * @return the rules that drop MQTT PUBLISHes before they are routed.
+     */
+    @NotNull DropFilter getDropFilter() {
+        return dropFilter;
+    }
+
+    /**
+     * @return the limiter that rate limits and samples MQTT PUBLISHes per key or {@code null} if they are neither rate
+     *         limited nor sampled.
+     */
+    @Nullable RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * @return the Pub/Sub topic that MQTT PUBLISHes over the rate limit are sent to instead of their routes as single
+     *         element array, or {@code null} if they are dropped. The array must not be modified.
+     */
+    @NotNull String @Nullable [] getRateLimitOverflowTopics() {
+        return rateLimitOverflowTopics;
+    }
+
+    /**
+     * @return the Pub/Sub topics every MQTT PUBLISH is forwarded to, regardless of the routes. The array must not be
+     *         modified.
+     */
+    @NotNull String @NotNull [] getDestinations() {
+        return destinations;
+    }
+
+    /**
+     * @return the router that selects the Pub/Sub topics of an MQTT PUBLISH based on its MQTT topic.
+     */
+    @NotNull TopicRouter getRouter() {
+        return router;
+    }
+
+    /**
+     * @return the rules that derive Pub/Sub attributes and the ordering key from the levels of the MQTT topic.
+     */
+    @NotNull TopicSegments getTopicSegments() {
+        return topicSegments;
+    }
+
+    /**
+     * @return the rules that extract Pub/Sub attributes from the fields of JSON payloads.
+     */
+    @NotNull PayloadFields getPayloadFields() {
+        return payloadFields;
+    }
+
+    /**
+     * @return the algorithm payloads are compressed with or {@code null} if payloads are not compressed.
+     */
+    @Nullable PayloadCompression.Algorithm getCompression() {
+        return compression;
+    }
+
+    /**
+     * @return the minimum payload size in bytes for compression.
+     */
+    int getCompressionMinBytes() {
+        return compressionMinBytes;
+    }
+
+    /**
+     * @return the accumulator that collects MQTT PUBLISHes into batches or {@code null} if they are not batched.
+     */
+    @Nullable BatchAccumulator getBatchAccumulator() {
+        return batchAccumulator;
+    }
+
+    /**
+     * @return the filter of the MQTT user properties that are forwarded as Pub/Sub attributes.
+     */
+    @NotNull AttributeFilter getAttributeFilter() {
+        return attributeFilter;
+    }
+
+    /**
+     * @return the schema JSON payloads are transcoded to the Avro binary encoding with or {@code null} if payloads are
+     *         not transcoded.
+     */
+    @Nullable PayloadSchema getTranscodeSchema() {
+        return transcodeSchema;
+    }
+
+    /**
+     * @return the format the MQTT PUBLISHes are wrapped into the data of the Pub/Sub messages with or {@code null} if
+     *         only the payload is sent as data.
+     */
+    @Nullable PayloadEnvelope.Format getEnvelope() {
+        return envelope;
+    }
+
+    /**
+     * @return the maximum size in bytes of the data of a Pub/Sub message, larger data is split into chunks, or
+     *         {@code 0} if data is never split.
+     */
+    int getChunkMaxBytes() {
+        return chunkMaxBytes;
+    }
+
+    /**
+     * @return whether the chunks of a payload get its chunk message id as ordering key, if no `ordering-key` is set.
+     */
+    boolean isChunkOrderingKey() {
+        return chunkOrderingKey;
+    }
+
+    /**
+     * @return how the payloads are protected or {@code null} if they are sent as they are.
+     */
+    @Nullable PayloadEncryption.Mode getEncryption() {
+        return encryption;
+    }
+
+    /**
+     * @return the alias of the key in the keystore that the payloads are protected with.
+     */
+    @Nullable String getEncryptionKeyId() {
+        return encryptionKeyId;
+    }
+
+    /**
+     * @return the key that the payloads are protected with or {@code null} if they are not protected.
+     */
+    @Nullable SecretKey getEncryptionKey() {
+        return encryptionKey;
+    }
+
+    /**
+     * @return the number of payloads that were encrypted with the AES-GCM key or {@code null} if payloads are not
+     *         encrypted.
+     */
+    @Nullable AtomicLong getEncryptions() {
+        return encryptions;
+    }
+
+    /**
+     * @return the maximum number of payloads the AES-GCM key encrypts.
+     */
+    long getEncryptionKeyMaxPayloads() {
+        return encryptionKeyMaxPayloads;
+    }
+
+    /**
+     * @return why the payloads can not be protected as configured, in which case no MQTT PUBLISH is sent, or
+     *         {@code null}.
+     */
+    @Nullable String getEncryptionError() {
+        return encryptionError;
+    }
+
+    /**
+     * @return the id that distinguishes the metrics of transformers of the same Pub/Sub connection.
+     */
+    @NotNull String getTransformerId() {
+        return transformerId;
+    }
+
+    /**
+     * @return whether the latency timer and the histograms of the transformer are enabled.
+     */
+    boolean isDetailedMetrics() {
+        return detailedMetrics;
+    }
+
+    /**
+     * @return the number of failures that are logged with their stack trace per interval.
+     */
+    int getErrorLogLimit() {
+        return errorLogLimit;
+    }
+
+    /**
+     * @return the interval in milliseconds of the error log limit.
+     */
+    long getErrorLogIntervalMs() {
+        return errorLogIntervalMs;
+    }
+
+    /**
+     * @return the Pub/Sub topic that MQTT PUBLISHes which could not be transformed are sent to or {@code null} if they
+     *         are dropped.
+     */
+    @Nullable String getDeadLetterTopic() {
+        return deadLetterTopic;
+    }
+}
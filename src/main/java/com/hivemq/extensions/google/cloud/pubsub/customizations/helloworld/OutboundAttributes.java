@@ -0,0 +1,168 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.hivemq.extension.sdk.api.packets.general.Qos;
+import com.hivemq.extensions.google.cloud.pubsub.api.builders.OutboundPubSubMessageBuilder;
+
+import java.util.Arrays;
+
+/**
+ * The attributes of the Pub/Sub messages that are created from one MQTT PUBLISH.
+ * <p>
+ * The attributes are collected once per MQTT PUBLISH and then applied to the builder of every destination. Instances
+ * are reused per thread via {@link #get()}, so collecting the attributes does not allocate.
+ *
+ * @since 4.53.0
+ */
+final class OutboundAttributes {
+
+    static final @NotNull String MQTT_TOPIC = "mqtt-topic";
+    static final @NotNull String RETAINED = "retained";
+    static final @NotNull String QOS = "qos";
+    static final @NotNull String ERROR_CAUSE = "error-cause";
+    static final @NotNull String ERROR_MESSAGE = "error-message";
+    static final @NotNull String ERROR_DESTINATION = "error-destination";
+
+    private static final @NotNull String @NotNull [] QOS_VALUES = {"0", "1", "2"};
+
+    private static final @NotNull ThreadLocal<OutboundAttributes> THREAD_LOCAL =
+            ThreadLocal.withInitial(OutboundAttributes::new);
+
+    private @NotNull String @NotNull [] names = new String[16];
+    private @NotNull String @NotNull [] values = new String[16];
+    private int size;
+    private @Nullable String orderingKey;
+
+    /**
+     * Only for messages off the hot path, e.g. dead letters, that are created while the instance of the current thread
+     * is in use. Everything else uses {@link #get()}.
+     */
+    OutboundAttributes() {
+    }
+
+    /**
+     * @return the cleared instance of the current thread.
+     */
+    static @NotNull OutboundAttributes get() {
+        final OutboundAttributes attributes = THREAD_LOCAL.get();
+        attributes.clear();
+        return attributes;
+    }
+
+    static @NotNull String retainedValue(final boolean retained) {
+        return retained ? "true" : "false";
+    }
+
+    static @NotNull String qosValue(final @NotNull Qos qos) {
+        return QOS_VALUES[qos.getQosNumber()];
+    }
+
+    /**
+     * Adds an attribute. Attributes that are added later overwrite earlier attributes with the same name.
+     */
+    void add(final @NotNull String name, final @NotNull String value) {
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        names[size] = name;
+        values[size] = value;
+        size++;
+    }
+
+    /**
+     * Replaces the attribute at the index.
+     */
+    void set(final int index, final @NotNull String name, final @NotNull String value) {
+        names[index] = name;
+        values[index] = value;
+    }
+
+    /**
+     * Removes the attributes from the index {@code from}, inclusive, to the index {@code to}, exclusive.
+     */
+    void remove(final int from, final int to) {
+        if (from == to) {
+            return;
+        }
+        System.arraycopy(names, to, names, from, size - to);
+        System.arraycopy(values, to, values, from, size - to);
+        final int newSize = size - (to - from);
+        Arrays.fill(names, newSize, size, null);
+        Arrays.fill(values, newSize, size, null);
+        size = newSize;
+    }
+
+    /**
+     * @return the value of the attribute with the name that the Pub/Sub messages get, which is the last one added, or
+     *         {@code null} if there is none.
+     */
+    @Nullable String find(final @NotNull String name) {
+        for (int i = size - 1; i >= 0; i--) {
+            if (names[i].equals(name)) {
+                return values[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sets the ordering key of the Pub/Sub messages.
+     */
+    void orderingKey(final @NotNull String orderingKey) {
+        this.orderingKey = orderingKey;
+    }
+
+    /**
+     * @return whether the ordering key of the Pub/Sub messages is set.
+     */
+    boolean hasOrderingKey() {
+        return orderingKey != null;
+    }
+
+    int size() {
+        return size;
+    }
+
+    @NotNull String name(final int index) {
+        return names[index];
+    }
+
+    @NotNull String value(final int index) {
+        return values[index];
+    }
+
+    void applyTo(final @NotNull OutboundPubSubMessageBuilder builder) {
+        for (int i = 0; i < size; i++) {
+            builder.attribute(names[i], values[i]);
+        }
+        if (orderingKey != null) {
+            builder.orderingKey(orderingKey);
+        }
+    }
+
+    void clear() {
+        // release the references, the strings belong to the previous MQTT PUBLISH
+        Arrays.fill(names, 0, size, null);
+        Arrays.fill(values, 0, size, null);
+        size = 0;
+        orderingKey = null;
+    }
+}
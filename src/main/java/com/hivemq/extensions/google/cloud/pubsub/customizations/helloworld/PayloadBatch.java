@@ -0,0 +1,196 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes many MQTT PUBLISHes into the data of a single Pub/Sub message and decodes them again.
+ * <p>
+ * The {@code length-prefixed} format keeps the MQTT topic of every record and can carry any payload. Every record
+ * consists of the 2 byte length of the UTF-8 encoded MQTT topic, the MQTT topic, the 4 byte length of the payload and
+ * the payload, all lengths are big-endian like in MQTT itself. The {@code newline} format only contains the payloads,
+ * each terminated by a line feed, so it can only carry payloads without line feeds.
+ *
+ * @since 4.53.0
+ */
+final class PayloadBatch {
+
+    static final @NotNull String BATCH_FORMAT = "batch-format";
+    static final @NotNull String BATCH_SIZE = "batch-size";
+
+    private static final int MAX_TOPIC_LENGTH = 0xFFFF;
+    private static final byte @NotNull [] NO_MQTT_TOPIC = new byte[0];
+
+    private PayloadBatch() {
+    }
+
+    enum Format {
+        LENGTH_PREFIXED("length-prefixed"),
+        NEWLINE("newline");
+
+        private final @NotNull String name;
+
+        Format(final @NotNull String name) {
+            this.name = name;
+        }
+
+        @NotNull String getName() {
+            return name;
+        }
+
+        static @Nullable Format fromName(final @Nullable String name) {
+            if (name == null) {
+                return null;
+            }
+            for (final Format format : values()) {
+                if (format.name.equalsIgnoreCase(name)) {
+                    return format;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return the MQTT topic as it is encoded in the records of this format.
+         */
+        byte @NotNull [] encodeMqttTopic(final @NotNull String mqttTopic) {
+            return this == LENGTH_PREFIXED ? mqttTopic.getBytes(StandardCharsets.UTF_8) : NO_MQTT_TOPIC;
+        }
+
+        /**
+         * @return {@code true} if a record with the MQTT topic and payload can be encoded in this format.
+         */
+        boolean canEncode(final byte @NotNull [] mqttTopic, final @NotNull ByteBuffer payload) {
+            if (this == LENGTH_PREFIXED) {
+                return mqttTopic.length <= MAX_TOPIC_LENGTH;
+            }
+            for (int i = payload.position(); i < payload.limit(); i++) {
+                if (payload.get(i) == '\n') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return the size in bytes of a record with the MQTT topic and payload in this format.
+         */
+        int encodedSize(final byte @NotNull [] mqttTopic, final @NotNull ByteBuffer payload) {
+            return this == LENGTH_PREFIXED ? 2 + mqttTopic.length + 4 + payload.remaining() : payload.remaining() + 1;
+        }
+    }
+
+    interface RecordConsumer {
+
+        /**
+         * @param mqttTopic the MQTT topic of the record or {@code null} if the format does not contain MQTT topics.
+         * @param payload   a read-only view of the payload of the record within the data of the Pub/Sub message.
+         */
+        void accept(@Nullable String mqttTopic, @NotNull ByteBuffer payload);
+    }
+
+    /**
+     * @param format the format of the batch.
+     * @param batch  the batch of records.
+     * @return the encoded records of the batch in the order they were added.
+     */
+    static @NotNull ByteBuffer encode(final @NotNull Format format, final @NotNull BatchAccumulator.Batch batch) {
+        final byte[] data = new byte[batch.getBytes()];
+        // the batch links from the latest to the first record, so the records are written from the end of the data
+        int end = data.length;
+        for (BatchAccumulator.Batch record = batch; record != null; record = record.getPrevious()) {
+            int index = end - record.getSize();
+            end = index;
+            final ByteBuffer payload = record.getPayload();
+            final int payloadLength = payload.remaining();
+            if (format == Format.LENGTH_PREFIXED) {
+                final byte[] mqttTopic = record.getMqttTopic();
+                data[index++] = (byte) (mqttTopic.length >>> 8);
+                data[index++] = (byte) mqttTopic.length;
+                System.arraycopy(mqttTopic, 0, data, index, mqttTopic.length);
+                index += mqttTopic.length;
+                data[index++] = (byte) (payloadLength >>> 24);
+                data[index++] = (byte) (payloadLength >>> 16);
+                data[index++] = (byte) (payloadLength >>> 8);
+                data[index++] = (byte) payloadLength;
+                payload.duplicate().get(data, index, payloadLength);
+            } else {
+                payload.duplicate().get(data, index, payloadLength);
+                data[index + payloadLength] = '\n';
+            }
+        }
+        return ByteBuffer.wrap(data).asReadOnlyBuffer();
+    }
+
+    /**
+     * Passes every record of the data to the consumer, the payloads are not copied.
+     *
+     * @param format   the format of the batch.
+     * @param data     the data of the Pub/Sub message.
+     * @param consumer the consumer of the records.
+     * @throws IllegalArgumentException if the data is not a valid batch of the format.
+     */
+    static void decode(
+            final @NotNull Format format,
+            final @NotNull ByteBuffer data,
+            final @NotNull RecordConsumer consumer) {
+        final ByteBuffer view = data.asReadOnlyBuffer();
+        int index = view.position();
+        final int limit = view.limit();
+        while (index < limit) {
+            if (format == Format.LENGTH_PREFIXED) {
+                if (limit - index < 2) {
+                    throw new IllegalArgumentException("Truncated MQTT topic length in batch at offset " + index + ".");
+                }
+                final int topicLength = ((view.get(index) & 0xFF) << 8) | (view.get(index + 1) & 0xFF);
+                index += 2;
+                if (limit - index < topicLength + 4) {
+                    throw new IllegalArgumentException("Truncated MQTT topic in batch at offset " + index + ".");
+                }
+                final byte[] mqttTopic = new byte[topicLength];
+                view.position(index);
+                view.get(mqttTopic);
+                index += topicLength;
+                final int payloadLength = view.getInt(index);
+                index += 4;
+                if (payloadLength < 0 || limit - index < payloadLength) {
+                    throw new IllegalArgumentException("Truncated payload in batch at offset " + index + ".");
+                }
+                consumer.accept(new String(mqttTopic, StandardCharsets.UTF_8), slice(view, index, payloadLength));
+                index += payloadLength;
+            } else {
+                int end = index;
+                while (end < limit && view.get(end) != '\n') {
+                    end++;
+                }
+                consumer.accept(null, slice(view, index, end - index));
+                index = end + 1;
+            }
+        }
+    }
+
+    private static @NotNull ByteBuffer slice(final @NotNull ByteBuffer view, final int index, final int length) {
+        final ByteBuffer slice = view.duplicate();
+        slice.limit(index + length).position(index);
+        return slice.slice();
+    }
+}
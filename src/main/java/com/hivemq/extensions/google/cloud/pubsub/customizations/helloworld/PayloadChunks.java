@@ -0,0 +1,123 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Splits payloads that exceed the maximum message size of Pub/Sub into chunks, which the {@link ChunkReassembler}
+ * joins again.
+ * <p>
+ * A payload of {@code total} bytes is split into {@code count} chunks of {@code ceil(total / count)} bytes, only the
+ * last chunk may be smaller. The chunks are views of the payload, so it is never copied. Every chunk carries the
+ * attributes {@code chunk-message-id}, {@code chunk-index}, {@code chunk-count} and {@code chunk-total-bytes}, from
+ * which the size and the offset of every chunk follow.
+ *
+ * @since 4.53.0
+ */
+final class PayloadChunks {
+
+    static final @NotNull String CHUNK_MESSAGE_ID = "chunk-message-id";
+    static final @NotNull String CHUNK_INDEX = "chunk-index";
+    static final @NotNull String CHUNK_COUNT = "chunk-count";
+    static final @NotNull String CHUNK_TOTAL_BYTES = "chunk-total-bytes";
+
+    /**
+     * The largest chunk, which leaves room for the attributes within the 10 MB of a Pub/Sub message.
+     */
+    static final int MAX_CHUNK_BYTES = 9 * 1024 * 1024;
+
+    /**
+     * The length of the text of a {@link UUID}.
+     */
+    private static final int MESSAGE_ID_LENGTH = 36;
+
+    private PayloadChunks() {
+    }
+
+    /**
+     * @return the number of chunks of at most {@code maxChunkBytes} for a payload of {@code totalBytes}.
+     */
+    static int count(final int totalBytes, final int maxChunkBytes) {
+        return (int) ((totalBytes + (long) maxChunkBytes - 1) / maxChunkBytes);
+    }
+
+    /**
+     * @return the size of every chunk but the last one, which is never larger than the maximum chunk size the count
+     *         was calculated with.
+     */
+    static int chunkBytes(final int totalBytes, final int count) {
+        return (int) ((totalBytes + (long) count - 1) / count);
+    }
+
+    /**
+     * @return the chunk of the payload between its position and its limit as a view that shares its memory.
+     */
+    static @NotNull ByteBuffer slice(final @NotNull ByteBuffer payload, final int index, final int count) {
+        final int totalBytes = payload.remaining();
+        final int chunkBytes = chunkBytes(totalBytes, count);
+        final int start = payload.position() + index * chunkBytes;
+        return PayloadSplit.slice(payload, start, Math.min(start + chunkBytes, payload.limit()));
+    }
+
+    /**
+     * @param chunks     the number of chunks of the payload.
+     * @param totalBytes the size of the payload.
+     * @return the size of the chunk attributes of every chunk of the payload, in UTF-8 bytes.
+     */
+    static int attributeBytes(final int chunks, final int totalBytes) {
+        return CHUNK_MESSAGE_ID.length() + MESSAGE_ID_LENGTH +
+                CHUNK_INDEX.length() + Integer.toString(chunks - 1).length() +
+                CHUNK_COUNT.length() + Integer.toString(chunks).length() +
+                CHUNK_TOTAL_BYTES.length() + Integer.toString(totalBytes).length();
+    }
+
+    /**
+     * @return a random id for the chunks of one payload. The ids are not secure random numbers, so creating them does
+     *         not contend between threads.
+     */
+    static @NotNull String newMessageId() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        return new UUID(random.nextLong(), random.nextLong()).toString();
+    }
+
+    /**
+     * @return whether the attribute only describes a chunk, so it must not become a user property of the joined
+     *         payload.
+     */
+    static boolean isChunkAttribute(final @NotNull String name) {
+        return name.equals(CHUNK_MESSAGE_ID) ||
+                name.equals(CHUNK_INDEX) ||
+                name.equals(CHUNK_COUNT) ||
+                name.equals(CHUNK_TOTAL_BYTES);
+    }
+
+    /**
+     * @return the attributes without the chunk attributes.
+     */
+    static @NotNull Map<String, String> withoutChunkAttributes(final @NotNull Map<String, String> attributes) {
+        final Map<String, String> filtered = new HashMap<>(attributes);
+        filtered.keySet().removeIf(PayloadChunks::isChunkAttribute);
+        return filtered;
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses and decompresses payloads with gzip or deflate (zlib).
+ * <p>
+ * The payloads are read directly from their {@link ByteBuffer}s. The {@link Deflater}, {@link Inflater} and the
+ * output buffers are reused per thread, so only the final result is allocated.
+ *
+ * @since 4.53.0
+ */
+final class PayloadCompression {
+
+    static final @NotNull String CONTENT_ENCODING = "content-encoding";
+
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int GZIP_HEADER_SIZE = 10;
+    private static final int GZIP_TRAILER_SIZE = 8;
+    private static final byte @NotNull [] GZIP_HEADER = {
+            (byte) 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    /**
+     * The maximum capacity of the output buffer that is kept per thread, larger outputs are allocated per payload.
+     */
+    private static final int MAX_RETAINED_CAPACITY = 1024 * 1024;
+
+    private static final @NotNull ThreadLocal<Codecs> CODECS = ThreadLocal.withInitial(Codecs::new);
+
+    enum Algorithm {
+        GZIP("gzip"),
+        DEFLATE("deflate");
+
+        private final @NotNull String contentEncoding;
+
+        Algorithm(final @NotNull String contentEncoding) {
+            this.contentEncoding = contentEncoding;
+        }
+
+        @NotNull String getContentEncoding() {
+            return contentEncoding;
+        }
+
+        static @Nullable Algorithm fromContentEncoding(final @Nullable String contentEncoding) {
+            if (contentEncoding == null) {
+                return null;
+            }
+            for (final Algorithm algorithm : values()) {
+                if (algorithm.contentEncoding.equalsIgnoreCase(contentEncoding)) {
+                    return algorithm;
+                }
+            }
+            return null;
+        }
+    }
+
+    private PayloadCompression() {
+    }
+
+    /**
+     * @param payload   the payload to compress, its position is not changed.
+     * @param algorithm the compression algorithm.
+     * @return the compressed payload or {@code null} if the compressed payload would not be smaller.
+     */
+    static @Nullable ByteBuffer compress(final @NotNull ByteBuffer payload, final @NotNull Algorithm algorithm) {
+        final Codecs codecs = CODECS.get();
+        final int headerSize = algorithm == Algorithm.GZIP ? GZIP_HEADER_SIZE : 0;
+        final int trailerSize = algorithm == Algorithm.GZIP ? GZIP_TRAILER_SIZE : 0;
+        // the result is only useful if it is smaller than the payload
+        final int limit = payload.remaining() - trailerSize;
+        if (limit <= headerSize) {
+            return null;
+        }
+        final ByteBuffer output = codecs.output(limit);
+        output.put(GZIP_HEADER, 0, headerSize);
+
+        final Deflater deflater = algorithm == Algorithm.GZIP ? codecs.rawDeflater : codecs.zlibDeflater;
+        try {
+            deflater.setInput(payload.duplicate());
+            deflater.finish();
+            while (!deflater.finished()) {
+                if (!output.hasRemaining()) {
+                    return null;
+                }
+                deflater.deflate(output);
+            }
+        } finally {
+            deflater.reset();
+        }
+
+        if (algorithm == Algorithm.GZIP) {
+            if (output.remaining() < GZIP_TRAILER_SIZE) {
+                return null;
+            }
+            final CRC32 crc = codecs.crc;
+            crc.reset();
+            crc.update(payload.duplicate());
+            output.order(ByteOrder.LITTLE_ENDIAN);
+            output.putInt((int) crc.getValue());
+            output.putInt(payload.remaining());
+        }
+        output.flip();
+        final byte[] result = new byte[output.remaining()];
+        output.get(result);
+        return ByteBuffer.wrap(result);
+    }
+
+    /**
+     * @param data      the compressed data, its position is not changed.
+     * @param algorithm the compression algorithm.
+     * @param maxBytes  the maximum size of the decompressed payload.
+     * @return the decompressed payload.
+     * @throws DataFormatException if the data is malformed or its decompressed size exceeds the maximum size.
+     */
+    static @NotNull ByteBuffer decompress(
+            final @NotNull ByteBuffer data,
+            final @NotNull Algorithm algorithm,
+            final int maxBytes) throws DataFormatException {
+        final Codecs codecs = CODECS.get();
+        final ByteBuffer input = data.duplicate();
+        final Inflater inflater;
+        final ByteBuffer output;
+        int expectedCrc = 0;
+        if (algorithm == Algorithm.GZIP) {
+            inflater = codecs.rawInflater;
+            readGzipHeader(input);
+            if (input.remaining() < GZIP_TRAILER_SIZE) {
+                throw new DataFormatException("Truncated gzip data.");
+            }
+            final ByteBuffer trailer = input.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            trailer.position(input.limit() - GZIP_TRAILER_SIZE);
+            expectedCrc = trailer.getInt();
+            final long size = Integer.toUnsignedLong(trailer.getInt());
+            if (size > maxBytes) {
+                throw new DataFormatException("Decompressed payload exceeds the maximum of " + maxBytes + " bytes.");
+            }
+            input.limit(input.limit() - GZIP_TRAILER_SIZE);
+            // the trailer tells the exact size, so the result can be inflated in place
+            output = ByteBuffer.allocate((int) size);
+        } else {
+            inflater = codecs.zlibInflater;
+            output = codecs.output(Math.min(maxBytes, Math.max(64, data.remaining() * 4)));
+        }
+
+        ByteBuffer result = output;
+        try {
+            inflater.setInput(input);
+            while (!inflater.finished()) {
+                if (!result.hasRemaining()) {
+                    if (algorithm == Algorithm.GZIP) {
+                        // the output is sized exactly, so the data must end here
+                        if (inflater.inflate(codecs.probe) != 0 || !inflater.finished()) {
+                            throw new DataFormatException("The gzip size does not match the decompressed size.");
+                        }
+                        break;
+                    }
+                    if (result.limit() >= maxBytes) {
+                        throw new DataFormatException(
+                                "Decompressed payload exceeds the maximum of " + maxBytes + " bytes.");
+                    }
+                    result = codecs.grow(result, maxBytes);
+                }
+                if (inflater.inflate(result) == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("Truncated " + algorithm.getContentEncoding() + " data.");
+                }
+            }
+        } finally {
+            inflater.reset();
+        }
+        result.flip();
+
+        if (algorithm == Algorithm.GZIP) {
+            final CRC32 crc = codecs.crc;
+            crc.reset();
+            crc.update(result.duplicate());
+            if (result.limit() != result.capacity() || (int) crc.getValue() != expectedCrc) {
+                throw new DataFormatException("The gzip size or checksum does not match the decompressed payload.");
+            }
+            return result;
+        }
+        final byte[] bytes = new byte[result.remaining()];
+        result.get(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private static void readGzipHeader(final @NotNull ByteBuffer input) throws DataFormatException {
+        final ByteBuffer header = input.order(ByteOrder.LITTLE_ENDIAN);
+        if (header.remaining() < GZIP_HEADER_SIZE ||
+                (header.getShort() & 0xffff) != GZIP_MAGIC ||
+                header.get() != Deflater.DEFLATED) {
+            throw new DataFormatException("Not in gzip format.");
+        }
+        final int flags = header.get() & 0xff;
+        // modification time, extra flags and operating system
+        header.position(header.position() + 6);
+        try {
+            if ((flags & FEXTRA) != 0) {
+                final int length = header.getShort() & 0xffff;
+                header.position(header.position() + length);
+            }
+            if ((flags & FNAME) != 0) {
+                skipZeroTerminated(header);
+            }
+            if ((flags & FCOMMENT) != 0) {
+                skipZeroTerminated(header);
+            }
+            if ((flags & FHCRC) != 0) {
+                header.getShort();
+            }
+        } catch (final RuntimeException e) {
+            throw new DataFormatException("Truncated gzip header.");
+        }
+    }
+
+    private static void skipZeroTerminated(final @NotNull ByteBuffer buffer) {
+        //noinspection StatementWithEmptyBody
+        while (buffer.get() != 0) {
+        }
+    }
+
+    private static final class Codecs {
+
+        final @NotNull Deflater rawDeflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        final @NotNull Deflater zlibDeflater = new Deflater(Deflater.DEFAULT_COMPRESSION, false);
+        final @NotNull Inflater rawInflater = new Inflater(true);
+        final @NotNull Inflater zlibInflater = new Inflater(false);
+        final @NotNull CRC32 crc = new CRC32();
+        final byte @NotNull [] probe = new byte[1];
+        private @NotNull ByteBuffer output = ByteBuffer.allocate(8 * 1024);
+
+        /**
+         * @return the cleared output buffer of this thread, limited to the given capacity. Larger buffers than
+         *         {@link #MAX_RETAINED_CAPACITY} are not kept for the next payload.
+         */
+        @NotNull ByteBuffer output(final int capacity) {
+            if (output.capacity() < capacity) {
+                final ByteBuffer allocated = ByteBuffer.allocate(capacity);
+                if (capacity > MAX_RETAINED_CAPACITY) {
+                    return allocated;
+                }
+                output = allocated;
+            }
+            output.clear().limit(capacity);
+            return output.order(ByteOrder.BIG_ENDIAN);
+        }
+
+        @NotNull ByteBuffer grow(final @NotNull ByteBuffer current, final int maxCapacity) {
+            final int capacity = (int) Math.min(maxCapacity, current.limit() * 2L);
+            final ByteBuffer grown = ByteBuffer.allocate(capacity);
+            current.flip();
+            grown.put(current);
+            if (capacity <= MAX_RETAINED_CAPACITY) {
+                output = grown;
+            }
+            return grown;
+        }
+    }
+}
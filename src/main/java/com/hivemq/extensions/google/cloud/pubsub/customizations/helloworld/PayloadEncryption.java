@@ -0,0 +1,378 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.GCMParameterSpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.SignatureException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Encrypts payloads with AES-GCM or signs them with HMAC-SHA256, and decrypts respectively verifies them.
+ * <p>
+ * Encrypted data consists of the random 12 byte IV, the ciphertext and the 16 byte authentication tag. Signed data is
+ * the unchanged payload, the Base64 encoded signature is sent as {@code signature} attribute. The {@code key-id}
+ * attribute names the key in the keystore, so the receiver finds the right key after the sender switched to a new
+ * one. The {@code key-id} attribute, the MQTT metadata attributes and all attributes that tell the receiver how to read
+ * the data, like {@code envelope} and {@code content-encoding}, are authenticated together with the payload, as
+ * additional authenticated data of AES-GCM respectively as the start of the HMAC input, so none of them can be added,
+ * changed or removed without the receiver noticing it.
+ * <p>
+ * Random 96 bit IVs only keep the probability of an IV collision, which would reveal the authentication key of AES-GCM,
+ * below 2^-32 for up to 2^32 payloads per key. The payloads are therefore counted per key in this JVM, a warning is
+ * logged at half of the limit, and the key refuses to encrypt more payloads than the limit.
+ * <p>
+ * The payloads are read from and the results are written to {@link ByteBuffer}s without intermediate arrays. The
+ * {@link Cipher}, the {@link Mac} and the {@link SecureRandom} are reused per thread, so only the result is allocated.
+ *
+ * @since 4.53.0
+ */
+final class PayloadEncryption {
+
+    private static final @NotNull Logger LOG = LoggerFactory.getLogger(PayloadEncryption.class);
+
+    static final @NotNull String KEYSTORE_FILE = "keystore-file";
+    static final @NotNull String KEYSTORE_PASSWORD = "keystore-password";
+
+    static final @NotNull String ENCRYPTION = "encryption";
+    static final @NotNull String KEY_ID = "key-id";
+    static final @NotNull String SIGNATURE = "signature";
+
+    /**
+     * The attributes that are authenticated together with the payload, see {@link #associatedData(Function)}. The chunk
+     * attributes are not included, as the chunks are joined before the data is decrypted or verified.
+     */
+    private static final @NotNull String @NotNull [] AUTHENTICATED_ATTRIBUTES = {
+            KEY_ID,
+            OutboundAttributes.MQTT_TOPIC,
+            OutboundAttributes.QOS,
+            OutboundAttributes.RETAINED,
+            PayloadEnvelope.ENVELOPE,
+            PayloadBatch.BATCH_FORMAT,
+            PayloadBatch.BATCH_SIZE,
+            PayloadCompression.CONTENT_ENCODING,
+            PayloadSchema.PAYLOAD_SCHEMA};
+
+    static final int IV_BYTES = 12;
+    static final int TAG_BYTES = 16;
+    private static final int MAC_BYTES = 32;
+
+    /**
+     * The maximum number of payloads a key encrypts with random IVs.
+     */
+    static final long MAX_ENCRYPTIONS = 1L << 32;
+
+    private static final @NotNull ThreadLocal<Ciphers> CIPHERS = ThreadLocal.withInitial(Ciphers::new);
+    /**
+     * The encrypted payloads by the SHA-256 of the key, so all transformers that use a key share its count and the
+     * count survives reloads of the keystore without keeping the key itself.
+     */
+    private static final @NotNull Map<String, AtomicLong> ENCRYPTIONS = new ConcurrentHashMap<>();
+
+    enum Mode {
+        AES_GCM("aes-gcm"),
+        HMAC_SHA256("hmac-sha256");
+
+        private final @NotNull String name;
+
+        Mode(final @NotNull String name) {
+            this.name = name;
+        }
+
+        @NotNull String getName() {
+            return name;
+        }
+
+        static @Nullable Mode fromName(final @Nullable String name) {
+            if (name == null) {
+                return null;
+            }
+            for (final Mode mode : values()) {
+                if (mode.name.equalsIgnoreCase(name)) {
+                    return mode;
+                }
+            }
+            return null;
+        }
+    }
+
+    private PayloadEncryption() {
+    }
+
+    /**
+     * Loads the secret keys of a keystore. The type of the keystore (PKCS12, JCEKS or JKS) is detected from the file,
+     * and the keys must be protected with the password of the keystore.
+     *
+     * @return the secret keys by their alias, which is their key id.
+     * @throws IOException              if the file can not be read or the password is wrong.
+     * @throws GeneralSecurityException if the keystore or one of its secret keys can not be loaded.
+     */
+    static @NotNull Map<String, SecretKey> loadKeys(final @NotNull Path file, final char @NotNull [] password)
+            throws IOException, GeneralSecurityException {
+        final KeyStore keyStore = KeyStore.getInstance(file.toFile(), password);
+        final Map<String, SecretKey> keys = new HashMap<>();
+        for (final Enumeration<String> aliases = keyStore.aliases(); aliases.hasMoreElements(); ) {
+            final String alias = aliases.nextElement();
+            if (keyStore.entryInstanceOf(alias, KeyStore.SecretKeyEntry.class)) {
+                keys.put(alias, (SecretKey) keyStore.getKey(alias, password));
+            }
+        }
+        return Map.copyOf(keys);
+    }
+
+    /**
+     * @return the number of payloads that were encrypted with the key in this JVM.
+     */
+    static @NotNull AtomicLong encryptions(final @NotNull SecretKey key) {
+        final byte[] encoded = key.getEncoded();
+        final String fingerprint;
+        try {
+            fingerprint = Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(encoded));
+        } catch (final GeneralSecurityException e) {
+            throw new IllegalStateException("SHA-256 is not supported by this JVM.", e);
+        } finally {
+            Arrays.fill(encoded, (byte) 0);
+        }
+        return ENCRYPTIONS.computeIfAbsent(fingerprint, ignored -> new AtomicLong());
+    }
+
+    /**
+     * Counts a payload that is encrypted with a key.
+     *
+     * @param encryptions    the number of payloads that were encrypted with the key, see
+     *                       {@link #encryptions(SecretKey)}.
+     * @param maxEncryptions the maximum number of payloads the key encrypts.
+     * @param keyId          the key id of the key.
+     * @throws InvalidKeyException if the key already encrypted the maximum number of payloads.
+     */
+    static void countEncryption(
+            final @NotNull AtomicLong encryptions,
+            final long maxEncryptions,
+            final @NotNull String keyId) throws InvalidKeyException {
+        final long count = encryptions.incrementAndGet();
+        if (count > maxEncryptions) {
+            throw new InvalidKeyException("The secret key '" + keyId + "' already encrypted " + maxEncryptions +
+                    " payloads, a new key must be used.");
+        }
+        if (count == maxEncryptions / 2) {
+            LOG.warn("The secret key '{}' encrypted {} payloads, half of its limit of {}. Switch to a new key before " +
+                    "the limit is reached.", keyId, count, maxEncryptions);
+        }
+    }
+
+    /**
+     * @param attributes the value of an attribute by its name, {@code null} if the attribute is missing.
+     * @return the {@link #AUTHENTICATED_ATTRIBUTES} that are authenticated together with the payload, each as its
+     *         length in UTF-8 bytes in 4 bytes, or {@code -1} if the attribute is missing, followed by its UTF-8 bytes.
+     */
+    static byte @NotNull [] associatedData(final @NotNull Function<String, String> attributes) {
+        final byte[][] values = new byte[AUTHENTICATED_ATTRIBUTES.length][];
+        int size = 0;
+        for (int i = 0; i < values.length; i++) {
+            values[i] = utf8(attributes.apply(AUTHENTICATED_ATTRIBUTES[i]));
+            size += Integer.BYTES + (values[i] == null ? 0 : values[i].length);
+        }
+        final ByteBuffer associatedData = ByteBuffer.allocate(size);
+        for (final byte[] value : values) {
+            if (value == null) {
+                associatedData.putInt(-1);
+            } else {
+                associatedData.putInt(value.length).put(value);
+            }
+        }
+        return associatedData.array();
+    }
+
+    /**
+     * @param payload        the payload to encrypt, its position is not changed.
+     * @param key            the AES key.
+     * @param associatedData the authenticated attributes, see {@link #associatedData(Function)}.
+     * @return the IV, the ciphertext and the authentication tag.
+     * @throws GeneralSecurityException if the key is not a valid AES key.
+     */
+    static @NotNull ByteBuffer encrypt(
+            final @NotNull ByteBuffer payload,
+            final @NotNull SecretKey key,
+            final byte @NotNull [] associatedData) throws GeneralSecurityException {
+        final Ciphers ciphers = CIPHERS.get();
+        final byte[] iv = ciphers.iv;
+        // a random IV per payload, see countEncryption for the limit per key
+        ciphers.random.nextBytes(iv);
+        final Cipher cipher = ciphers.aesGcm;
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BYTES * 8, iv));
+        cipher.updateAAD(associatedData);
+        final ByteBuffer data = ByteBuffer.allocate(IV_BYTES + cipher.getOutputSize(payload.remaining()));
+        data.put(iv);
+        cipher.doFinal(payload.duplicate(), data);
+        data.flip();
+        return data;
+    }
+
+    /**
+     * @param data           the IV, the ciphertext and the authentication tag, its position is not changed.
+     * @param key            the AES key the data was encrypted with.
+     * @param associatedData the authenticated attributes, see {@link #associatedData(Function)}.
+     * @return the decrypted payload.
+     * @throws AEADBadTagException      if the data or the authenticated attributes were modified or the data was
+     *                                  encrypted with a different key.
+     * @throws GeneralSecurityException if the key is not a valid AES key.
+     */
+    static @NotNull ByteBuffer decrypt(
+            final @NotNull ByteBuffer data,
+            final @NotNull SecretKey key,
+            final byte @NotNull [] associatedData) throws GeneralSecurityException {
+        if (data.remaining() < IV_BYTES + TAG_BYTES) {
+            throw new AEADBadTagException("Truncated encrypted data.");
+        }
+        final Ciphers ciphers = CIPHERS.get();
+        final ByteBuffer input = data.duplicate();
+        input.get(ciphers.iv);
+        final Cipher cipher = ciphers.aesGcm;
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BYTES * 8, ciphers.iv));
+        cipher.updateAAD(associatedData);
+        final ByteBuffer payload = ByteBuffer.allocate(cipher.getOutputSize(input.remaining()));
+        cipher.doFinal(input, payload);
+        payload.flip();
+        return payload;
+    }
+
+    /**
+     * @param payload        the payload to sign, its position is not changed.
+     * @param key            the HMAC key.
+     * @param associatedData the authenticated attributes, see {@link #associatedData(Function)}.
+     * @return the Base64 encoded HMAC-SHA256 of the authenticated attributes and the payload.
+     * @throws InvalidKeyException if the key can not be used for HMAC.
+     */
+    static @NotNull String sign(
+            final @NotNull ByteBuffer payload,
+            final @NotNull SecretKey key,
+            final byte @NotNull [] associatedData) throws InvalidKeyException {
+        final Ciphers ciphers = CIPHERS.get();
+        return Base64.getEncoder().encodeToString(ciphers.mac(associatedData, payload, key));
+    }
+
+    /**
+     * @param data           the signed payload, its position is not changed.
+     * @param key            the HMAC key the data was signed with.
+     * @param signature      the Base64 encoded HMAC-SHA256 of the authenticated attributes and the data.
+     * @param associatedData the authenticated attributes, see {@link #associatedData(Function)}.
+     * @throws SignatureException  if the signature does not match the authenticated attributes and the data.
+     * @throws InvalidKeyException if the key can not be used for HMAC.
+     */
+    static void verify(
+            final @NotNull ByteBuffer data,
+            final @NotNull SecretKey key,
+            final @NotNull String signature,
+            final byte @NotNull [] associatedData) throws SignatureException, InvalidKeyException {
+        final byte[] received;
+        try {
+            received = Base64.getDecoder().decode(signature);
+        } catch (final IllegalArgumentException e) {
+            throw new SignatureException("The signature is not Base64 encoded.");
+        }
+        // compared in constant time, so the time does not reveal how much of a forged signature is correct
+        if (!MessageDigest.isEqual(received, CIPHERS.get().mac(associatedData, data, key))) {
+            throw new SignatureException("The signature does not match the data.");
+        }
+    }
+
+    /**
+     * @return the attributes without the attributes that only describe the protection of the data.
+     */
+    static @NotNull Map<String, String> withoutEncryptionAttributes(final @NotNull Map<String, String> attributes) {
+        final Map<String, String> filtered = new HashMap<>(attributes);
+        filtered.remove(ENCRYPTION);
+        filtered.remove(KEY_ID);
+        filtered.remove(SIGNATURE);
+        return filtered;
+    }
+
+    private static byte @Nullable [] utf8(final @Nullable String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static final class Ciphers {
+
+        final @NotNull Cipher aesGcm;
+        final @NotNull Mac hmac;
+        final @NotNull SecureRandom random;
+        final byte @NotNull [] iv = new byte[IV_BYTES];
+        private final byte @NotNull [] mac = new byte[MAC_BYTES];
+        private @Nullable SecretKey macKey;
+
+        Ciphers() {
+            try {
+                aesGcm = Cipher.getInstance("AES/GCM/NoPadding");
+                hmac = Mac.getInstance("HmacSHA256");
+                // a DRBG per thread, the default native generator of Linux is shared by all threads
+                random = SecureRandom.getInstance("DRBG");
+            } catch (final GeneralSecurityException e) {
+                throw new IllegalStateException("AES-GCM, HMAC-SHA256 or DRBG is not supported by this JVM.", e);
+            }
+        }
+
+        /**
+         * @return the HMAC of the authenticated attributes and the data in an array of this thread, which is
+         *         overwritten by the next call.
+         */
+        byte @NotNull [] mac(
+                final byte @NotNull [] associatedData,
+                final @NotNull ByteBuffer data,
+                final @NotNull SecretKey key) throws InvalidKeyException {
+            // initializing the MAC derives the inner and outer pads, which is only repeated when the key changes
+            if (key != macKey) {
+                macKey = null;
+                hmac.init(key);
+                macKey = key;
+            }
+            // the attributes start with their lengths, so they can not be confused with the data
+            hmac.update(associatedData);
+            hmac.update(data.duplicate());
+            try {
+                hmac.doFinal(mac, 0);
+            } catch (final ShortBufferException e) {
+                throw new IllegalStateException(e);
+            }
+            return mac;
+        }
+    }
+}
@@ -0,0 +1,638 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.Immutable;
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.hivemq.extension.sdk.api.packets.general.Qos;
+import com.hivemq.extension.sdk.api.packets.general.UserProperty;
+import com.hivemq.extension.sdk.api.services.builder.PublishBuilder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Wraps the MQTT topic, QoS, retained flag, message expiry interval, user properties and payload of an MQTT PUBLISH
+ * into the data of a single Pub/Sub message and unwraps them again. Only the user properties that the attribute filter
+ * allows are wrapped.
+ * <p>
+ * The {@code json} format is a JSON object with the members {@code topic}, {@code qos}, {@code retain},
+ * {@code message_expiry_interval} (only if present), {@code user_properties} (an array of objects with {@code name}
+ * and {@code value}) and {@code payload} (base64 encoded), so it can be written to BigQuery or read by Dataflow
+ * without the attributes. The {@code binary} format starts with the version {@code 1} and a flags byte (bits 0-1 QoS,
+ * bit 2 retain, bit 3 message expiry present), followed by the 4 byte message expiry interval if present, the 2 byte
+ * length of the UTF-8 encoded MQTT topic, the MQTT topic, the 4 byte number of user properties, the 2 byte length
+ * prefixed name and value of every user property, the 4 byte length of the payload and the payload, all big-endian
+ * like in MQTT itself.
+ * <p>
+ * The envelope is serialized into a growable buffer that is reused per thread, so neither a builder nor a tree is
+ * created per MQTT PUBLISH. Only the finished envelope is copied once into the data of the Pub/Sub message, as the
+ * data is read after the transformation.
+ *
+ * @since 4.53.0
+ */
+final class PayloadEnvelope {
+
+    static final @NotNull String ENVELOPE = "envelope";
+
+    /**
+     * The value of an absent message expiry interval.
+     */
+    static final long NO_EXPIRY = -1;
+
+    private static final int BINARY_VERSION = 1;
+    private static final int RETAIN_FLAG = 0b100;
+    private static final int EXPIRY_FLAG = 0b1000;
+    private static final int MAX_STRING_LENGTH = 0xFFFF;
+
+    private static final byte @NotNull [] TOPIC = utf8("topic");
+    private static final byte @NotNull [] QOS = utf8("qos");
+    private static final byte @NotNull [] RETAIN = utf8("retain");
+    private static final byte @NotNull [] MESSAGE_EXPIRY_INTERVAL = utf8("message_expiry_interval");
+    private static final byte @NotNull [] USER_PROPERTIES = utf8("user_properties");
+    private static final byte @NotNull [] NAME = utf8("name");
+    private static final byte @NotNull [] VALUE = utf8("value");
+    private static final byte @NotNull [] PAYLOAD = utf8("payload");
+    private static final byte @NotNull [] BASE64 =
+            utf8("ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/");
+    private static final byte @NotNull [] HEX = utf8("0123456789abcdef");
+
+    private static final @NotNull ThreadLocal<Output> OUTPUT = ThreadLocal.withInitial(Output::new);
+
+    private PayloadEnvelope() {
+    }
+
+    enum Format {
+        JSON("json"),
+        BINARY("binary");
+
+        private final @NotNull String name;
+
+        Format(final @NotNull String name) {
+            this.name = name;
+        }
+
+        @NotNull String getName() {
+            return name;
+        }
+
+        static @Nullable Format fromName(final @Nullable String name) {
+            if (name == null) {
+                return null;
+            }
+            for (final Format format : values()) {
+                if (format.name.equalsIgnoreCase(name)) {
+                    return format;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @param messageExpiryInterval the message expiry interval in seconds or {@link #NO_EXPIRY}.
+     * @param attributeFilter       selects the user properties by name. Their sizes are not limited, as the limits
+     *                              only exist for Pub/Sub attributes.
+     * @param payload               the payload or {@code null} if the MQTT PUBLISH has none. Its position is not
+     *                              changed.
+     * @return a read-only buffer with the envelope.
+     * @throws IllegalArgumentException if a string is too long for the binary format.
+     */
+    static @NotNull ByteBuffer encode(
+            final @NotNull Format format,
+            final @NotNull String mqttTopic,
+            final @NotNull Qos qos,
+            final boolean retain,
+            final long messageExpiryInterval,
+            final @NotNull List<? extends UserProperty> userProperties,
+            final @NotNull AttributeFilter attributeFilter,
+            final @Nullable ByteBuffer payload) {
+        final Output output = OUTPUT.get();
+        try {
+            if (format == Format.JSON) {
+                encodeJson(output,
+                        mqttTopic,
+                        qos,
+                        retain,
+                        messageExpiryInterval,
+                        userProperties,
+                        attributeFilter,
+                        payload);
+            } else {
+                encodeBinary(output,
+                        mqttTopic,
+                        qos,
+                        retain,
+                        messageExpiryInterval,
+                        userProperties,
+                        attributeFilter,
+                        payload);
+            }
+            return ByteBuffer.wrap(Arrays.copyOf(output.bytes, output.size)).asReadOnlyBuffer();
+        } finally {
+            output.reset();
+        }
+    }
+
+    /**
+     * @param data the envelope between the position and the limit of the buffer. The position is not changed.
+     * @throws IllegalArgumentException if the data is not a valid envelope of the format.
+     */
+    static @NotNull Message decode(final @NotNull Format format, final @NotNull ByteBuffer data) {
+        try {
+            return format == Format.JSON ? decodeJson(data) : decodeBinary(data);
+        } catch (final IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated " + format.getName() + " envelope.", e);
+        }
+    }
+
+    private static void encodeJson(
+            final @NotNull Output output,
+            final @NotNull String mqttTopic,
+            final @NotNull Qos qos,
+            final boolean retain,
+            final long messageExpiryInterval,
+            final @NotNull List<? extends UserProperty> userProperties,
+            final @NotNull AttributeFilter attributeFilter,
+            final @Nullable ByteBuffer payload) {
+        final int payloadLength = payload == null ? 0 : payload.remaining();
+        // avoids growing the buffer step by step for large payloads
+        output.ensureCapacity(128 + (payloadLength + 2) / 3 * 4);
+        output.ascii("{\"topic\":");
+        output.jsonString(mqttTopic);
+        output.ascii(",\"qos\":");
+        output.put('0' + qos.getQosNumber());
+        output.ascii(retain ? ",\"retain\":true" : ",\"retain\":false");
+        if (messageExpiryInterval != NO_EXPIRY) {
+            output.ascii(",\"message_expiry_interval\":");
+            output.decimal(messageExpiryInterval);
+        }
+        output.ascii(",\"user_properties\":[");
+        boolean first = true;
+        for (final UserProperty userProperty : userProperties) {
+            if (!attributeFilter.isAllowed(userProperty.getName())) {
+                continue;
+            }
+            output.ascii(first ? "{\"name\":" : ",{\"name\":");
+            first = false;
+            output.jsonString(userProperty.getName());
+            output.ascii(",\"value\":");
+            output.jsonString(userProperty.getValue());
+            output.put('}');
+        }
+        output.ascii("],\"payload\":\"");
+        if (payload != null) {
+            output.base64(payload);
+        }
+        output.ascii("\"}");
+    }
+
+    private static void encodeBinary(
+            final @NotNull Output output,
+            final @NotNull String mqttTopic,
+            final @NotNull Qos qos,
+            final boolean retain,
+            final long messageExpiryInterval,
+            final @NotNull List<? extends UserProperty> userProperties,
+            final @NotNull AttributeFilter attributeFilter,
+            final @Nullable ByteBuffer payload) {
+        final int payloadLength = payload == null ? 0 : payload.remaining();
+        output.ensureCapacity(64 + payloadLength);
+        output.put(BINARY_VERSION);
+        output.put(qos.getQosNumber() |
+                (retain ? RETAIN_FLAG : 0) |
+                (messageExpiryInterval != NO_EXPIRY ? EXPIRY_FLAG : 0));
+        if (messageExpiryInterval != NO_EXPIRY) {
+            output.putInt((int) messageExpiryInterval);
+        }
+        output.binaryString(mqttTopic);
+        final int countIndex = output.size;
+        output.putInt(0);
+        int count = 0;
+        for (final UserProperty userProperty : userProperties) {
+            if (attributeFilter.isAllowed(userProperty.getName())) {
+                output.binaryString(userProperty.getName());
+                output.binaryString(userProperty.getValue());
+                count++;
+            }
+        }
+        output.setInt(countIndex, count);
+        output.putInt(payloadLength);
+        if (payload != null) {
+            output.ensureCapacity(payloadLength);
+            payload.duplicate().get(output.bytes, output.size, payloadLength);
+            output.size += payloadLength;
+        }
+    }
+
+    private static @NotNull Message decodeJson(final @NotNull ByteBuffer data) {
+        final JsonMessage message = new JsonMessage();
+        final int end = JsonScanner.forEachMember(data,
+                data.position(),
+                data.limit(),
+                (nameStart, nameEnd, valueStart, valueEnd) -> {
+                    if (JsonScanner.equalsName(data, nameStart, nameEnd, TOPIC)) {
+                        message.mqttTopic = string(data, valueStart, valueEnd);
+                    } else if (JsonScanner.equalsName(data, nameStart, nameEnd, QOS)) {
+                        message.qos = qos(parseLong(data, valueStart, valueEnd));
+                    } else if (JsonScanner.equalsName(data, nameStart, nameEnd, RETAIN)) {
+                        message.retain = data.get(valueStart) == 't';
+                    } else if (JsonScanner.equalsName(data, nameStart, nameEnd, MESSAGE_EXPIRY_INTERVAL)) {
+                        message.messageExpiryInterval = expiry(parseLong(data, valueStart, valueEnd));
+                    } else if (JsonScanner.equalsName(data, nameStart, nameEnd, USER_PROPERTIES)) {
+                        final ByteBuffer array = data.duplicate();
+                        array.limit(valueEnd).position(valueStart);
+                        JsonScanner.forEachElement(array, (start, elementEnd) -> {
+                            final int name = JsonScanner.findMember(data, start, elementEnd, NAME);
+                            final int value = JsonScanner.findMember(data, start, elementEnd, VALUE);
+                            if (name == -1 || value == -1) {
+                                throw new IllegalArgumentException("User property without name or value at offset " +
+                                        start + ".");
+                            }
+                            message.userProperties.add(Map.entry(string(data, name, elementEnd),
+                                    string(data, value, elementEnd)));
+                        });
+                    } else if (JsonScanner.equalsName(data, nameStart, nameEnd, PAYLOAD)) {
+                        message.payload = base64(data, valueStart, valueEnd);
+                    }
+                    // unknown members are ignored, so later versions can add members
+                });
+        if (end == -1) {
+            throw new IllegalArgumentException("The envelope is not a JSON object.");
+        }
+        if (message.mqttTopic == null) {
+            throw new IllegalArgumentException("The envelope has no topic.");
+        }
+        return new Message(message.mqttTopic,
+                message.qos,
+                message.retain,
+                message.messageExpiryInterval,
+                message.userProperties,
+                message.payload);
+    }
+
+    private static @NotNull Message decodeBinary(final @NotNull ByteBuffer data) {
+        final ByteBuffer view = data.asReadOnlyBuffer();
+        int index = view.position();
+        final int limit = view.limit();
+        if (limit - index < 2 || view.get(index) != BINARY_VERSION) {
+            throw new IllegalArgumentException("Unknown binary envelope version.");
+        }
+        final int flags = view.get(index + 1);
+        index += 2;
+        long messageExpiryInterval = NO_EXPIRY;
+        if ((flags & EXPIRY_FLAG) != 0) {
+            messageExpiryInterval = view.getInt(index) & 0xFFFF_FFFFL;
+            index += 4;
+        }
+        final int topicEnd = stringEnd(view, index, limit);
+        final String mqttTopic = JsonScanner.decodeUtf8(view, index + 2, topicEnd);
+        index = topicEnd;
+        final int count = view.getInt(index);
+        index += 4;
+        if (count < 0 || count > (limit - index) / 4) {
+            throw new IllegalArgumentException("Invalid number of user properties " + count + ".");
+        }
+        final List<Map.Entry<String, String>> userProperties = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final int nameEnd = stringEnd(view, index, limit);
+            final int valueEnd = stringEnd(view, nameEnd, limit);
+            userProperties.add(Map.entry(JsonScanner.decodeUtf8(view, index + 2, nameEnd),
+                    JsonScanner.decodeUtf8(view, nameEnd + 2, valueEnd)));
+            index = valueEnd;
+        }
+        final int payloadLength = view.getInt(index);
+        index += 4;
+        if (payloadLength < 0 || limit - index != payloadLength) {
+            throw new IllegalArgumentException("Invalid payload length " + payloadLength + " in binary envelope.");
+        }
+        view.limit(limit).position(index);
+        return new Message(mqttTopic,
+                qos(flags & 0b11),
+                (flags & RETAIN_FLAG) != 0,
+                messageExpiryInterval,
+                userProperties,
+                view.slice());
+    }
+
+    /**
+     * @param index the index of the 2 byte length of a string in the binary format.
+     * @return the index after the string.
+     */
+    private static int stringEnd(final @NotNull ByteBuffer view, final int index, final int limit) {
+        final int length = view.getShort(index) & 0xFFFF;
+        if (limit - index - 2 < length) {
+            throw new IllegalArgumentException("Truncated string in binary envelope at offset " + index + ".");
+        }
+        return index + 2 + length;
+    }
+
+    private static @NotNull String string(final @NotNull ByteBuffer json, final int index, final int limit) {
+        if (json.get(index) != '"') {
+            throw new IllegalArgumentException("Expected a JSON string at offset " + index + ".");
+        }
+        return JsonScanner.decodeString(json, index, JsonScanner.skipValue(json, index, limit));
+    }
+
+    private static long parseLong(final @NotNull ByteBuffer json, final int start, final int end) {
+        try {
+            return Long.parseLong(JsonScanner.decodeUtf8(json, start, end));
+        } catch (final NumberFormatException e) {
+            throw new IllegalArgumentException("Expected an integer at offset " + start + ".");
+        }
+    }
+
+    private static @NotNull Qos qos(final long qos) {
+        if (qos < 0 || qos > 2) {
+            throw new IllegalArgumentException("Invalid QoS " + qos + ".");
+        }
+        return Qos.valueOf((int) qos);
+    }
+
+    private static long expiry(final long messageExpiryInterval) {
+        // the message expiry interval of MQTT is a four byte integer
+        if (messageExpiryInterval < 0 || messageExpiryInterval > 0xFFFF_FFFFL) {
+            throw new IllegalArgumentException("Invalid message expiry interval " + messageExpiryInterval + ".");
+        }
+        return messageExpiryInterval;
+    }
+
+    private static @NotNull ByteBuffer base64(final @NotNull ByteBuffer json, final int start, final int end) {
+        if (json.get(start) != '"') {
+            throw new IllegalArgumentException("Expected a base64 string at offset " + start + ".");
+        }
+        if (JsonScanner.hasEscape(json, start + 1, end - 1)) {
+            // e.g. an escaped '/'
+            return ByteBuffer.wrap(Base64.getDecoder().decode(JsonScanner.decodeString(json, start, end)))
+                    .asReadOnlyBuffer();
+        }
+        final ByteBuffer base64 = json.duplicate();
+        base64.limit(end - 1).position(start + 1);
+        return Base64.getDecoder().decode(base64).asReadOnlyBuffer();
+    }
+
+    private static byte @NotNull [] utf8(final @NotNull String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The MQTT PUBLISH of an envelope.
+     */
+    @Immutable
+    static final class Message {
+
+        private final @NotNull String mqttTopic;
+        private final @NotNull Qos qos;
+        private final boolean retain;
+        private final long messageExpiryInterval;
+        private final @NotNull List<Map.Entry<String, String>> userProperties;
+        private final @NotNull ByteBuffer payload;
+
+        private Message(
+                final @NotNull String mqttTopic,
+                final @NotNull Qos qos,
+                final boolean retain,
+                final long messageExpiryInterval,
+                final @NotNull List<Map.Entry<String, String>> userProperties,
+                final @NotNull ByteBuffer payload) {
+            this.mqttTopic = mqttTopic;
+            this.qos = qos;
+            this.retain = retain;
+            this.messageExpiryInterval = messageExpiryInterval;
+            this.userProperties = userProperties;
+            this.payload = payload;
+        }
+
+        @NotNull String getMqttTopic() {
+            return mqttTopic;
+        }
+
+        @NotNull Qos getQos() {
+            return qos;
+        }
+
+        boolean isRetain() {
+            return retain;
+        }
+
+        /**
+         * @return the message expiry interval in seconds or {@link #NO_EXPIRY}.
+         */
+        long getMessageExpiryInterval() {
+            return messageExpiryInterval;
+        }
+
+        @NotNull List<Map.Entry<String, String>> getUserProperties() {
+            return userProperties;
+        }
+
+        /**
+         * @return a read-only view of the payload.
+         */
+        @NotNull ByteBuffer getPayload() {
+            return payload.duplicate();
+        }
+
+        void applyTo(final @NotNull PublishBuilder publishBuilder) {
+            publishBuilder.topic(mqttTopic).qos(qos).retain(retain).payload(payload.duplicate());
+            if (messageExpiryInterval != NO_EXPIRY) {
+                publishBuilder.messageExpiryInterval(messageExpiryInterval);
+            }
+            for (final Map.Entry<String, String> userProperty : userProperties) {
+                publishBuilder.userProperty(userProperty.getKey(), userProperty.getValue());
+            }
+        }
+    }
+
+    /**
+     * The members of a JSON envelope while it is scanned, as they can occur in any order.
+     */
+    private static final class JsonMessage {
+
+        private @Nullable String mqttTopic;
+        private @NotNull Qos qos = Qos.AT_MOST_ONCE;
+        private boolean retain;
+        private long messageExpiryInterval = NO_EXPIRY;
+        private final @NotNull List<Map.Entry<String, String>> userProperties = new ArrayList<>();
+        private @NotNull ByteBuffer payload = ByteBuffer.allocate(0).asReadOnlyBuffer();
+    }
+
+    /**
+     * A growable byte array that is reused per thread. Arrays that grew beyond {@link #MAX_RETAINED_CAPACITY} are
+     * released after use, so a single large payload does not stay allocated per thread.
+     */
+    private static final class Output {
+
+        private static final int INITIAL_CAPACITY = 1024;
+        private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+        private byte @NotNull [] bytes = new byte[INITIAL_CAPACITY];
+        private int size;
+
+        private void ensureCapacity(final int additional) {
+            if (bytes.length - size < additional) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + additional));
+            }
+        }
+
+        private void reset() {
+            size = 0;
+            if (bytes.length > MAX_RETAINED_CAPACITY) {
+                bytes = new byte[INITIAL_CAPACITY];
+            }
+        }
+
+        private void put(final int b) {
+            ensureCapacity(1);
+            bytes[size++] = (byte) b;
+        }
+
+        private void putInt(final int value) {
+            ensureCapacity(4);
+            setInt(size, value);
+            size += 4;
+        }
+
+        private void setInt(final int index, final int value) {
+            bytes[index] = (byte) (value >>> 24);
+            bytes[index + 1] = (byte) (value >>> 16);
+            bytes[index + 2] = (byte) (value >>> 8);
+            bytes[index + 3] = (byte) value;
+        }
+
+        private void ascii(final @NotNull String text) {
+            ensureCapacity(text.length());
+            for (int i = 0; i < text.length(); i++) {
+                bytes[size++] = (byte) text.charAt(i);
+            }
+        }
+
+        private void decimal(final long value) {
+            ensureCapacity(20);
+            final int start = size;
+            long rest = value;
+            do {
+                bytes[size++] = (byte) ('0' + rest % 10);
+                rest /= 10;
+            } while (rest != 0);
+            // the digits were written from the least significant one
+            for (int i = start, j = size - 1; i < j; i++, j--) {
+                final byte digit = bytes[i];
+                bytes[i] = bytes[j];
+                bytes[j] = digit;
+            }
+        }
+
+        private void jsonString(final @NotNull String text) {
+            // a character takes at most 6 bytes as a unicode escape
+            ensureCapacity(text.length() * 6 + 2);
+            bytes[size++] = '"';
+            utf8(text, true);
+            bytes[size++] = '"';
+        }
+
+        /**
+         * @throws IllegalArgumentException if the UTF-8 encoded string is longer than {@link #MAX_STRING_LENGTH}.
+         */
+        private void binaryString(final @NotNull String text) {
+            ensureCapacity(text.length() * 3 + 2);
+            final int lengthIndex = size;
+            size += 2;
+            utf8(text, false);
+            final int length = size - lengthIndex - 2;
+            if (length > MAX_STRING_LENGTH) {
+                throw new IllegalArgumentException("A string of " + length + " UTF-8 bytes does not fit into the " +
+                        "binary envelope, the maximum is " + MAX_STRING_LENGTH + ".");
+            }
+            bytes[lengthIndex] = (byte) (length >>> 8);
+            bytes[lengthIndex + 1] = (byte) length;
+        }
+
+        /**
+         * Writes the UTF-8 encoding of the text, the capacity must have been ensured. Unpaired surrogates are replaced
+         * by '?' like {@link String#getBytes(java.nio.charset.Charset)} does.
+         */
+        private void utf8(final @NotNull String text, final boolean escape) {
+            for (int i = 0; i < text.length(); i++) {
+                final char c = text.charAt(i);
+                if (c < 0x80) {
+                    if (escape && (c == '"' || c == '\\')) {
+                        bytes[size++] = '\\';
+                        bytes[size++] = (byte) c;
+                    } else if (escape && c < 0x20) {
+                        bytes[size++] = '\\';
+                        bytes[size++] = 'u';
+                        bytes[size++] = '0';
+                        bytes[size++] = '0';
+                        bytes[size++] = HEX[c >>> 4];
+                        bytes[size++] = HEX[c & 0xF];
+                    } else {
+                        bytes[size++] = (byte) c;
+                    }
+                } else if (c < 0x800) {
+                    bytes[size++] = (byte) (0xC0 | (c >>> 6));
+                    bytes[size++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) &&
+                        i + 1 < text.length() &&
+                        Character.isLowSurrogate(text.charAt(i + 1))) {
+                    final int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                    bytes[size++] = (byte) (0xF0 | (codePoint >>> 18));
+                    bytes[size++] = (byte) (0x80 | ((codePoint >>> 12) & 0x3F));
+                    bytes[size++] = (byte) (0x80 | ((codePoint >>> 6) & 0x3F));
+                    bytes[size++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    bytes[size++] = '?';
+                } else {
+                    bytes[size++] = (byte) (0xE0 | (c >>> 12));
+                    bytes[size++] = (byte) (0x80 | ((c >>> 6) & 0x3F));
+                    bytes[size++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+        }
+
+        /**
+         * Writes the standard base64 encoding with padding of the bytes between the position and the limit.
+         */
+        private void base64(final @NotNull ByteBuffer data) {
+            final int start = data.position();
+            final int end = data.limit();
+            ensureCapacity((end - start + 2) / 3 * 4);
+            int i = start;
+            for (; i + 3 <= end; i += 3) {
+                final int bits = (data.get(i) & 0xFF) << 16 | (data.get(i + 1) & 0xFF) << 8 | (data.get(i + 2) & 0xFF);
+                bytes[size++] = BASE64[bits >>> 18];
+                bytes[size++] = BASE64[(bits >>> 12) & 0x3F];
+                bytes[size++] = BASE64[(bits >>> 6) & 0x3F];
+                bytes[size++] = BASE64[bits & 0x3F];
+            }
+            final int rest = end - i;
+            if (rest > 0) {
+                final int bits = (data.get(i) & 0xFF) << 16 | (rest == 2 ? (data.get(i + 1) & 0xFF) << 8 : 0);
+                bytes[size++] = BASE64[bits >>> 18];
+                bytes[size++] = BASE64[(bits >>> 12) & 0x3F];
+                bytes[size++] = rest == 2 ? BASE64[(bits >>> 6) & 0x3F] : (byte) '=';
+                bytes[size++] = '=';
+            }
+        }
+    }
+}
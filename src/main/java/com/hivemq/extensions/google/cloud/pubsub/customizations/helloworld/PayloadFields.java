@@ -0,0 +1,336 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.Immutable;
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Extracts fields of JSON payloads as Pub/Sub attributes, so Pub/Sub subscriptions can filter by them.
+ * <p>
+ * A rule has the format {@code <json-pointer> -> <attribute-name>}, e.g. {@code /device/type -> deviceType}. The JSON
+ * pointers (RFC 6901) are compiled into a tree of their reference tokens, and the payload is scanned once from the
+ * start: only the members and elements on the path of a pointer are entered, all other values are skipped by their
+ * structure, and the scan stops as soon as every field is found. Strings are decoded, numbers and booleans are used as
+ * they are, objects and arrays as their JSON text. Fields that are missing or {@code null} are skipped, and so are the
+ * remaining fields of a payload that is not valid JSON. Values over the size cap of a single attribute are truncated or
+ * dropped like forwarded user properties, see {@link AttributeFilter#limit(String)}.
+ *
+ * @since 4.53.0
+ */
+@Immutable
+final class PayloadFields {
+
+    private static final @NotNull Logger LOG = LoggerFactory.getLogger(PayloadFields.class);
+
+    static final @NotNull PayloadFields NONE = new PayloadFields(List.of());
+
+    private final @NotNull Token root = new Token("", -1);
+    private final int fields;
+
+    /**
+     * @param rules the rules in the format {@code <json-pointer> -> <attribute-name>}. Invalid rules are logged and
+     *              ignored.
+     */
+    PayloadFields(final @NotNull List<String> rules) {
+        int fields = 0;
+        for (final String rule : rules) {
+            final int separator = rule.lastIndexOf(TopicRouter.ROUTE_SEPARATOR);
+            final String name = separator == -1 ?
+                    "" :
+                    rule.substring(separator + TopicRouter.ROUTE_SEPARATOR.length()).trim();
+            if (name.isEmpty()) {
+                LOG.warn("Ignoring payload attribute '{}', it must have the format " +
+                        "'<json-pointer> -> <attribute-name>'.", rule);
+                continue;
+            }
+            try {
+                final Token token = add(root, rule.substring(0, separator).trim());
+                if (token.field == -1) {
+                    token.field = fields++;
+                }
+                token.attributeNames.add(name);
+            } catch (final IllegalArgumentException e) {
+                LOG.warn("Ignoring payload attribute '{}'. {}", rule, e.getMessage());
+            }
+        }
+        this.fields = fields;
+    }
+
+    /**
+     * @return {@code true} if no field is extracted.
+     */
+    boolean isEmpty() {
+        return fields == 0;
+    }
+
+    /**
+     * Adds the fields of the JSON payload between the position and the limit of the buffer as attributes. The position
+     * and the limit of the buffer are not changed.
+     *
+     * @param attributeFilter limits the size of the values.
+     * @return the number of values that were truncated or dropped because they were over the size cap.
+     */
+    int extract(
+            final @NotNull ByteBuffer payload,
+            final @NotNull OutboundAttributes attributes,
+            final @NotNull AttributeFilter attributeFilter) {
+        final int limit = payload.limit();
+        final int start = JsonScanner.skipWhitespace(payload, payload.position(), limit);
+        if (start >= limit || (payload.get(start) != '{' && payload.get(start) != '[')) {
+            return 0;
+        }
+        final Scan scan = new Scan(fields, attributeFilter);
+        try {
+            scan(payload, start, limit, root, attributes, scan);
+        } catch (final IllegalArgumentException | IndexOutOfBoundsException e) {
+            // not JSON, the fields found so far are kept
+        }
+        return scan.limited;
+    }
+
+    /**
+     * @param index the index of the first byte of the value.
+     * @return the index after the value or {@code -1} if all fields were found and the scan stopped.
+     */
+    private static int scan(
+            final @NotNull ByteBuffer json,
+            final int index,
+            final int limit,
+            final @NotNull Token token,
+            final @NotNull OutboundAttributes attributes,
+            final @NotNull Scan scan) {
+        final byte first = json.get(index);
+        final boolean container = first == '{' || first == '[';
+        // only the first of duplicate members is used
+        if (token.field != -1 && !scan.found[token.field]) {
+            scan.found[token.field] = true;
+            final int end = JsonScanner.skipValue(json, index, limit);
+            final String text =
+                    container ? JsonScanner.decodeUtf8(json, index, end) : JsonScanner.scalarText(json, index, end);
+            if (text != null) {
+                final String value = scan.attributeFilter.limit(text);
+                // values within the limit are returned as they are
+                if (value != text) {
+                    scan.limited++;
+                }
+                if (value != null) {
+                    for (final String attributeName : token.attributeNames) {
+                        attributes.add(attributeName, value);
+                    }
+                }
+            }
+            if (--scan.remaining == 0) {
+                return -1;
+            }
+            if (token.children.length == 0 || !container) {
+                return end;
+            }
+        }
+        if (token.children.length == 0 || !container) {
+            return JsonScanner.skipValue(json, index, limit);
+        }
+        return first == '{' ?
+                scanObject(json, index, limit, token, attributes, scan) :
+                scanArray(json, index, limit, token, attributes, scan);
+    }
+
+    /**
+     * @return the index after the closing brace of the object or {@code -1} if the scan stopped.
+     */
+    private static int scanObject(
+            final @NotNull ByteBuffer json,
+            final int start,
+            final int limit,
+            final @NotNull Token token,
+            final @NotNull OutboundAttributes attributes,
+            final @NotNull Scan scan) {
+        int index = JsonScanner.skipWhitespace(json, start + 1, limit);
+        if (index < limit && json.get(index) == '}') {
+            return index + 1;
+        }
+        while (true) {
+            if (index >= limit || json.get(index) != '"') {
+                throw new IllegalArgumentException("Expected a member name at offset " + index + ".");
+            }
+            final int nameEnd = JsonScanner.skipValue(json, index, limit);
+            Token child = null;
+            for (final Token candidate : token.children) {
+                if (JsonScanner.equalsName(json, index + 1, nameEnd - 1, candidate.name)) {
+                    child = candidate;
+                    break;
+                }
+            }
+            index = JsonScanner.skipWhitespace(json, nameEnd, limit);
+            if (index >= limit || json.get(index) != ':') {
+                throw new IllegalArgumentException("Expected ':' at offset " + index + ".");
+            }
+            index = JsonScanner.skipWhitespace(json, index + 1, limit);
+            final int valueEnd = child == null ?
+                    JsonScanner.skipValue(json, index, limit) :
+                    scan(json, index, limit, child, attributes, scan);
+            if (valueEnd == -1) {
+                return -1;
+            }
+            index = JsonScanner.skipWhitespace(json, valueEnd, limit);
+            if (index >= limit) {
+                throw new IllegalArgumentException("Unterminated JSON object.");
+            }
+            final byte b = json.get(index);
+            if (b == '}') {
+                return index + 1;
+            }
+            if (b != ',') {
+                throw new IllegalArgumentException("Expected ',' or '}' at offset " + index + ".");
+            }
+            index = JsonScanner.skipWhitespace(json, index + 1, limit);
+        }
+    }
+
+    /**
+     * @return the index after the closing bracket of the array or {@code -1} if the scan stopped.
+     */
+    private static int scanArray(
+            final @NotNull ByteBuffer json,
+            final int start,
+            final int limit,
+            final @NotNull Token token,
+            final @NotNull OutboundAttributes attributes,
+            final @NotNull Scan scan) {
+        int index = JsonScanner.skipWhitespace(json, start + 1, limit);
+        if (index < limit && json.get(index) == ']') {
+            return index + 1;
+        }
+        for (int element = 0; ; element++) {
+            Token child = null;
+            if (element <= token.maxIndex) {
+                for (final Token candidate : token.children) {
+                    if (candidate.index == element) {
+                        child = candidate;
+                        break;
+                    }
+                }
+            }
+            final int valueEnd = child == null ?
+                    JsonScanner.skipValue(json, index, limit) :
+                    scan(json, index, limit, child, attributes, scan);
+            if (valueEnd == -1) {
+                return -1;
+            }
+            index = JsonScanner.skipWhitespace(json, valueEnd, limit);
+            if (index >= limit) {
+                throw new IllegalArgumentException("Unterminated JSON array.");
+            }
+            final byte b = json.get(index);
+            if (b == ']') {
+                return index + 1;
+            }
+            if (b != ',') {
+                throw new IllegalArgumentException("Expected ',' or ']' at offset " + index + ".");
+            }
+            index = JsonScanner.skipWhitespace(json, index + 1, limit);
+        }
+    }
+
+    private static @NotNull Token add(final @NotNull Token root, final @NotNull String pointer) {
+        if (!pointer.startsWith("/")) {
+            throw new IllegalArgumentException("The JSON pointer '" + pointer + "' must start with '/'.");
+        }
+        Token token = root;
+        int start = 1;
+        while (true) {
+            final int end = pointer.indexOf('/', start);
+            final String reference = pointer.substring(start, end == -1 ? pointer.length() : end);
+            token = token.child(reference.replace("~1", "/").replace("~0", "~"));
+            if (end == -1) {
+                return token;
+            }
+            start = end + 1;
+        }
+    }
+
+    private static final class Token {
+
+        private final @NotNull String reference;
+        /**
+         * The UTF-8 encoded member name of the reference token.
+         */
+        private final byte @NotNull [] name;
+        /**
+         * The array index of the reference token or {@code -1} if it is not a valid array index.
+         */
+        private final int index;
+        private @NotNull Token @NotNull [] children = new Token[0];
+        private int maxIndex = -1;
+        private int field = -1;
+        private final @NotNull List<String> attributeNames = new ArrayList<>(1);
+
+        private Token(final @NotNull String reference, final int index) {
+            this.reference = reference;
+            this.name = reference.getBytes(StandardCharsets.UTF_8);
+            this.index = index;
+        }
+
+        private @NotNull Token child(final @NotNull String reference) {
+            for (final Token child : children) {
+                if (child.reference.equals(reference)) {
+                    return child;
+                }
+            }
+            final Token child = new Token(reference, arrayIndex(reference));
+            children = Arrays.copyOf(children, children.length + 1);
+            children[children.length - 1] = child;
+            maxIndex = Math.max(maxIndex, child.index);
+            return child;
+        }
+
+        private static int arrayIndex(final @NotNull String reference) {
+            if (reference.isEmpty() || reference.length() > 9 ||
+                    (reference.length() > 1 && reference.charAt(0) == '0')) {
+                return -1;
+            }
+            for (int i = 0; i < reference.length(); i++) {
+                if (reference.charAt(i) < '0' || reference.charAt(i) > '9') {
+                    return -1;
+                }
+            }
+            return Integer.parseInt(reference);
+        }
+    }
+
+    private static final class Scan {
+
+        private final boolean @NotNull [] found;
+        private final @NotNull AttributeFilter attributeFilter;
+        private int remaining;
+        private int limited;
+
+        private Scan(final int fields, final @NotNull AttributeFilter attributeFilter) {
+            found = new boolean[fields];
+            this.attributeFilter = attributeFilter;
+            remaining = fields;
+        }
+    }
+}
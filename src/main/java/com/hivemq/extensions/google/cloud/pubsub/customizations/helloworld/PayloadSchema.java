@@ -0,0 +1,608 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.Immutable;
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A flat record schema in the Avro schema format that transcodes JSON objects to the Avro binary encoding and back.
+ * <p>
+ * Supported are records whose fields have the types {@code boolean}, {@code int}, {@code long}, {@code float},
+ * {@code double} and {@code string}, and unions of one of these types with {@code null}. JSON is read with the
+ * {@link JsonScanner} in a single pass that only remembers the bounds of the values of the fields, strings without
+ * escape sequences are copied byte for byte. The output buffers are reused per thread, so only the result is
+ * allocated.
+ *
+ * @since 4.53.0
+ */
+@Immutable
+final class PayloadSchema {
+
+    /**
+     * The Pub/Sub attribute that contains the full name of the schema of a transcoded payload.
+     */
+    static final @NotNull String PAYLOAD_SCHEMA = "payload-schema";
+
+    /**
+     * The maximum capacity of the output buffer that is kept per thread, larger outputs are allocated per payload.
+     */
+    private static final int MAX_RETAINED_CAPACITY = 1024 * 1024;
+
+    private static final byte @NotNull [] TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+    private static final byte @NotNull [] FALSE = "false".getBytes(StandardCharsets.US_ASCII);
+    private static final byte @NotNull [] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+    private static final byte @NotNull [] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    enum Type {
+        BOOLEAN,
+        INT,
+        LONG,
+        FLOAT,
+        DOUBLE,
+        STRING
+    }
+
+    @Immutable
+    private static final class Field {
+
+        private final @NotNull String name;
+        private final byte @NotNull [] utf8Name;
+        /**
+         * The name as JSON member name including the quotes and the colon, e.g. {@code "name":}.
+         */
+        private final byte @NotNull [] jsonName;
+        private final @NotNull Type type;
+        /**
+         * The index of {@code null} in the union of the field or {@code -1} if the field is not nullable.
+         */
+        private final int nullIndex;
+
+        private Field(final @NotNull String name, final @NotNull Type type, final int nullIndex) {
+            this.name = name;
+            this.utf8Name = name.getBytes(StandardCharsets.UTF_8);
+            final Output output = new Output(utf8Name.length + 3);
+            output.writeJsonString(ByteBuffer.wrap(utf8Name), 0, utf8Name.length);
+            output.write((byte) ':');
+            this.jsonName = Arrays.copyOf(output.bytes, output.length);
+            this.type = type;
+            this.nullIndex = nullIndex;
+        }
+    }
+
+    private final @NotNull String fullName;
+    private final @NotNull Field @NotNull [] fields;
+    private final @NotNull ThreadLocal<Scratch> scratch;
+
+    private PayloadSchema(final @NotNull String fullName, final @NotNull Field @NotNull [] fields) {
+        this.fullName = fullName;
+        this.fields = fields;
+        this.scratch = ThreadLocal.withInitial(() -> new Scratch(fields.length));
+    }
+
+    /**
+     * @return the full name of the record, including its namespace.
+     */
+    @NotNull String getFullName() {
+        return fullName;
+    }
+
+    /**
+     * @param file the Avro schema file of a record.
+     * @return the schema.
+     * @throws IOException              if the file can not be read.
+     * @throws IllegalArgumentException if the file does not contain a supported record schema.
+     */
+    static @NotNull PayloadSchema load(final @NotNull Path file) throws IOException {
+        return parse(ByteBuffer.wrap(Files.readAllBytes(file)));
+    }
+
+    /**
+     * @param json the Avro schema of a record.
+     * @return the schema.
+     * @throws IllegalArgumentException if the JSON is not a supported record schema.
+     */
+    static @NotNull PayloadSchema parse(final @NotNull ByteBuffer json) {
+        final int limit = json.limit();
+        if (!"record".equals(member(json, json.position(), limit, "type"))) {
+            throw new IllegalArgumentException("The schema must be of type 'record'.");
+        }
+        final String name = member(json, json.position(), limit, "name");
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("The schema must have a name.");
+        }
+        final String namespace = member(json, json.position(), limit, "namespace");
+        final int fieldsIndex = JsonScanner.findMember(json, json.position(), limit, utf8("fields"));
+        if (fieldsIndex == -1) {
+            throw new IllegalArgumentException("The schema must have fields.");
+        }
+        final List<Field> fields = new ArrayList<>();
+        final ByteBuffer fieldsJson = json.duplicate();
+        fieldsJson.limit(JsonScanner.skipValue(json, fieldsIndex, limit)).position(fieldsIndex);
+        JsonScanner.forEachElement(fieldsJson, (start, end) -> fields.add(parseField(json, start, end)));
+        return new PayloadSchema(namespace == null || namespace.isEmpty() ? name : namespace + "." + name,
+                fields.toArray(Field[]::new));
+    }
+
+    private static @NotNull Field parseField(final @NotNull ByteBuffer json, final int start, final int end) {
+        final String name = member(json, start, end, "name");
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("Every field of the schema must have a name.");
+        }
+        final int typeIndex = JsonScanner.findMember(json, start, end, utf8("type"));
+        if (typeIndex == -1) {
+            throw new IllegalArgumentException("The field '" + name + "' must have a type.");
+        }
+        if (json.get(typeIndex) != '[') {
+            return new Field(name, parseType(name, JsonScanner.scalarText(json, typeIndex, end)), -1);
+        }
+        final List<String> union = new ArrayList<>();
+        final ByteBuffer unionJson = json.duplicate();
+        unionJson.limit(JsonScanner.skipValue(json, typeIndex, end)).position(typeIndex);
+        JsonScanner.forEachElement(unionJson, (typeStart, typeEnd) -> union.add(JsonScanner.scalarText(json,
+                typeStart,
+                typeEnd)));
+        final int nullIndex = union.indexOf("null");
+        if (union.size() != 2 || nullIndex == -1) {
+            throw new IllegalArgumentException("The union type of the field '" + name +
+                    "' must consist of 'null' and one other type.");
+        }
+        return new Field(name, parseType(name, union.get(1 - nullIndex)), nullIndex);
+    }
+
+    private static @NotNull Type parseType(final @NotNull String field, final @Nullable String type) {
+        if (type != null) {
+            for (final Type value : Type.values()) {
+                if (value.name().equalsIgnoreCase(type)) {
+                    return value;
+                }
+            }
+        }
+        throw new IllegalArgumentException("The type '" + type + "' of the field '" + field +
+                "' is not supported, supported are boolean, int, long, float, double, string and unions with null.");
+    }
+
+    private static @Nullable String member(
+            final @NotNull ByteBuffer json,
+            final int start,
+            final int end,
+            final @NotNull String name) {
+        final int index = JsonScanner.findMember(json, start, end, utf8(name));
+        return index == -1 ? null : JsonScanner.scalarText(json, index, end);
+    }
+
+    private static byte @NotNull [] utf8(final @NotNull String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Encodes a JSON object with the Avro binary encoding of the schema.
+     *
+     * @param json the UTF-8 encoded JSON object.
+     * @return the encoded record or {@code null} if the JSON is not an object that matches the schema: every member
+     *         must be a field of the schema with a value of the type of the field, and every field that is not
+     *         nullable must be present.
+     */
+    @Nullable ByteBuffer encode(final @NotNull ByteBuffer json) {
+        final Scratch scratch = this.scratch.get();
+        final int[] valueStarts = scratch.valueStarts;
+        final int[] valueEnds = scratch.valueEnds;
+        Arrays.fill(valueStarts, -1);
+        scratch.matches = true;
+        scratch.json = json;
+        final int limit = json.limit();
+        final int end;
+        try {
+            end = JsonScanner.forEachMember(json, json.position(), limit, scratch);
+        } catch (final IllegalArgumentException e) {
+            return null;
+        } finally {
+            scratch.json = null;
+        }
+        if (end == -1 || !scratch.matches || JsonScanner.skipWhitespace(json, end, limit) != limit) {
+            return null;
+        }
+
+        final Output output = scratch.output;
+        output.length = 0;
+        for (int i = 0; i < fields.length; i++) {
+            final Field field = fields[i];
+            final int start = valueStarts[i];
+            final boolean isNull = start == -1 || equalsLiteral(json, start, valueEnds[i], NULL);
+            if (field.nullIndex != -1) {
+                output.writeLong(isNull ? field.nullIndex : 1 - field.nullIndex);
+                if (isNull) {
+                    continue;
+                }
+            } else if (isNull) {
+                return null;
+            }
+            if (!writeValue(field.type, json, start, valueEnds[i], output)) {
+                return null;
+            }
+        }
+        return output.copyAndRelease(scratch);
+    }
+
+    private static boolean writeValue(
+            final @NotNull Type type,
+            final @NotNull ByteBuffer json,
+            final int start,
+            final int end,
+            final @NotNull Output output) {
+        final byte first = json.get(start);
+        switch (type) {
+            case BOOLEAN:
+                if (equalsLiteral(json, start, end, TRUE)) {
+                    output.write((byte) 1);
+                    return true;
+                }
+                if (equalsLiteral(json, start, end, FALSE)) {
+                    output.write((byte) 0);
+                    return true;
+                }
+                return false;
+            case INT:
+            case LONG:
+                final long value;
+                try {
+                    value = parseLong(json, start, end);
+                } catch (final NumberFormatException e) {
+                    return false;
+                }
+                if (type == Type.INT && (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)) {
+                    return false;
+                }
+                output.writeLong(value);
+                return true;
+            case FLOAT:
+            case DOUBLE:
+                if (first != '-' && (first < '0' || first > '9')) {
+                    return false;
+                }
+                final double number;
+                try {
+                    number = Double.parseDouble(JsonScanner.decodeUtf8(json, start, end));
+                } catch (final NumberFormatException e) {
+                    return false;
+                }
+                if (!Double.isFinite(number)) {
+                    return false;
+                }
+                if (type == Type.FLOAT) {
+                    output.writeFixed(Float.floatToIntBits((float) number), 4);
+                } else {
+                    output.writeFixed(Double.doubleToLongBits(number), 8);
+                }
+                return true;
+            case STRING:
+                if (first != '"') {
+                    return false;
+                }
+                if (JsonScanner.hasEscape(json, start + 1, end - 1)) {
+                    final byte[] bytes = JsonScanner.decodeString(json, start, end).getBytes(StandardCharsets.UTF_8);
+                    output.writeLong(bytes.length);
+                    output.write(ByteBuffer.wrap(bytes), 0, bytes.length);
+                } else {
+                    output.writeLong(end - start - 2);
+                    output.write(json, start + 1, end - 1);
+                }
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean equalsLiteral(
+            final @NotNull ByteBuffer json,
+            final int start,
+            final int end,
+            final byte @NotNull [] literal) {
+        if (end - start != literal.length) {
+            return false;
+        }
+        for (int i = 0; i < literal.length; i++) {
+            if (json.get(start + i) != literal[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long parseLong(final @NotNull ByteBuffer json, final int start, final int end) {
+        final boolean negative = json.get(start) == '-';
+        int i = negative ? start + 1 : start;
+        if (i == end) {
+            throw new NumberFormatException();
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            final int digit = json.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException();
+            }
+            // accumulated negatively, as the range of negative values is larger
+            if (value < (Long.MIN_VALUE + digit) / 10) {
+                throw new NumberFormatException();
+            }
+            value = value * 10 - digit;
+        }
+        if (!negative) {
+            if (value == Long.MIN_VALUE) {
+                throw new NumberFormatException();
+            }
+            return -value;
+        }
+        return value;
+    }
+
+    /**
+     * Decodes a record in the Avro binary encoding of the schema to a JSON object.
+     *
+     * @param binary the encoded record.
+     * @return the UTF-8 encoded JSON object with the fields in the order of the schema.
+     * @throws IllegalArgumentException if the binary is not a record of the schema.
+     */
+    @NotNull ByteBuffer decode(final @NotNull ByteBuffer binary) {
+        final Scratch scratch = this.scratch.get();
+        final Output output = scratch.output;
+        output.length = 0;
+        final Input input = new Input(binary);
+        output.write((byte) '{');
+        for (int i = 0; i < fields.length; i++) {
+            final Field field = fields[i];
+            if (i > 0) {
+                output.write((byte) ',');
+            }
+            output.write(ByteBuffer.wrap(field.jsonName), 0, field.jsonName.length);
+            if (field.nullIndex != -1) {
+                final long index = input.readLong();
+                if (index == field.nullIndex) {
+                    output.write(ByteBuffer.wrap(NULL), 0, NULL.length);
+                    continue;
+                }
+                if (index != 1 - field.nullIndex) {
+                    throw new IllegalArgumentException("Invalid union index " + index + " of field '" + field.name +
+                            "'.");
+                }
+            }
+            switch (field.type) {
+                case BOOLEAN:
+                    final byte[] literal = input.readByte() != 0 ? TRUE : FALSE;
+                    output.write(ByteBuffer.wrap(literal), 0, literal.length);
+                    break;
+                case INT:
+                case LONG:
+                    output.writeAscii(Long.toString(input.readLong()));
+                    break;
+                case FLOAT:
+                    output.writeNumber(Float.intBitsToFloat((int) input.readFixed(4)), field);
+                    break;
+                case DOUBLE:
+                    output.writeNumber(Double.longBitsToDouble(input.readFixed(8)), field);
+                    break;
+                case STRING:
+                    final long length = input.readLong();
+                    if (length < 0 || length > input.remaining()) {
+                        throw new IllegalArgumentException("Invalid length " + length + " of field '" + field.name +
+                                "'.");
+                    }
+                    output.writeJsonString(binary, input.index, input.index + (int) length);
+                    input.index += (int) length;
+                    break;
+            }
+        }
+        output.write((byte) '}');
+        if (input.remaining() != 0) {
+            throw new IllegalArgumentException(input.remaining() + " unexpected bytes after the record.");
+        }
+        return output.copyAndRelease(scratch);
+    }
+
+    /**
+     * The per thread state of the schema, it collects the bounds of the values of the fields while a JSON object is
+     * scanned.
+     */
+    private final class Scratch implements JsonScanner.MemberConsumer {
+
+        private final int @NotNull [] valueStarts;
+        private final int @NotNull [] valueEnds;
+        private @NotNull Output output = new Output(256);
+        private boolean matches;
+        private @Nullable ByteBuffer json;
+
+        private Scratch(final int fieldCount) {
+            valueStarts = new int[fieldCount];
+            valueEnds = new int[fieldCount];
+        }
+
+        @Override
+        public void accept(final int nameStart, final int nameEnd, final int valueStart, final int valueEnd) {
+            final ByteBuffer json = this.json;
+            for (int i = 0; i < fields.length; i++) {
+                if (JsonScanner.equalsName(json, nameStart, nameEnd, fields[i].utf8Name)) {
+                    valueStarts[i] = valueStart;
+                    valueEnds[i] = valueEnd;
+                    return;
+                }
+            }
+            matches = false;
+        }
+    }
+
+    private static final class Input {
+
+        private final @NotNull ByteBuffer binary;
+        private int index;
+
+        private Input(final @NotNull ByteBuffer binary) {
+            this.binary = binary;
+            this.index = binary.position();
+        }
+
+        private int remaining() {
+            return binary.limit() - index;
+        }
+
+        private byte readByte() {
+            if (index >= binary.limit()) {
+                throw new IllegalArgumentException("Truncated record.");
+            }
+            return binary.get(index++);
+        }
+
+        /**
+         * @return the zig-zag encoded variable length integer.
+         */
+        private long readLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                final byte b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return (value >>> 1) ^ -(value & 1);
+                }
+            }
+            throw new IllegalArgumentException("Invalid variable length integer.");
+        }
+
+        /**
+         * @return the little-endian fixed length integer.
+         */
+        private long readFixed(final int bytes) {
+            long value = 0;
+            for (int i = 0; i < bytes; i++) {
+                value |= (long) (readByte() & 0xFF) << (8 * i);
+            }
+            return value;
+        }
+    }
+
+    private static final class Output {
+
+        private byte @NotNull [] bytes;
+        private int length;
+
+        private Output(final int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        private void ensureCapacity(final int additional) {
+            if (length + additional > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + additional));
+            }
+        }
+
+        private void write(final byte b) {
+            ensureCapacity(1);
+            bytes[length++] = b;
+        }
+
+        private void write(final @NotNull ByteBuffer source, final int start, final int end) {
+            ensureCapacity(end - start);
+            final ByteBuffer view = source.duplicate();
+            view.limit(end).position(start);
+            view.get(bytes, length, end - start);
+            length += end - start;
+        }
+
+        private void writeAscii(final @NotNull String value) {
+            ensureCapacity(value.length());
+            for (int i = 0; i < value.length(); i++) {
+                bytes[length++] = (byte) value.charAt(i);
+            }
+        }
+
+        /**
+         * Writes the zig-zag encoded variable length integer.
+         */
+        private void writeLong(final long value) {
+            ensureCapacity(10);
+            long zigZag = (value << 1) ^ (value >> 63);
+            while ((zigZag & ~0x7FL) != 0) {
+                bytes[length++] = (byte) ((zigZag & 0x7F) | 0x80);
+                zigZag >>>= 7;
+            }
+            bytes[length++] = (byte) zigZag;
+        }
+
+        /**
+         * Writes the little-endian fixed length integer.
+         */
+        private void writeFixed(final long value, final int size) {
+            ensureCapacity(size);
+            for (int i = 0; i < size; i++) {
+                bytes[length++] = (byte) (value >>> (8 * i));
+            }
+        }
+
+        private void writeNumber(final double value, final @NotNull Field field) {
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                throw new IllegalArgumentException("The value " + value + " of field '" + field.name +
+                        "' can not be represented in JSON.");
+            }
+            writeAscii(field.type == Type.FLOAT ? Float.toString((float) value) : Double.toString(value));
+        }
+
+        /**
+         * Writes the UTF-8 encoded string between the indexes as JSON string, only quotes, backslashes and control
+         * characters are escaped.
+         */
+        private void writeJsonString(final @NotNull ByteBuffer source, final int start, final int end) {
+            ensureCapacity(end - start + 2);
+            bytes[length++] = '"';
+            for (int i = start; i < end; i++) {
+                final byte b = source.get(i);
+                if (b == '"' || b == '\\') {
+                    ensureCapacity(2 + end - i);
+                    bytes[length++] = '\\';
+                    bytes[length++] = b;
+                } else if (b >= 0 && b < 0x20) {
+                    ensureCapacity(6 + end - i);
+                    bytes[length++] = '\\';
+                    bytes[length++] = 'u';
+                    bytes[length++] = '0';
+                    bytes[length++] = '0';
+                    bytes[length++] = HEX[b >> 4];
+                    bytes[length++] = HEX[b & 0xF];
+                } else {
+                    bytes[length++] = b;
+                }
+            }
+            ensureCapacity(1);
+            bytes[length++] = '"';
+        }
+
+        private @NotNull ByteBuffer copyAndRelease(final @NotNull Scratch scratch) {
+            final ByteBuffer result = ByteBuffer.wrap(Arrays.copyOf(bytes, length));
+            if (bytes.length > MAX_RETAINED_CAPACITY) {
+                scratch.output = new Output(256);
+            }
+            return result;
+        }
+    }
+}
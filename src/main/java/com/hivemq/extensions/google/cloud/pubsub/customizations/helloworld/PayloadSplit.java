@@ -0,0 +1,100 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Splits the data of a Pub/Sub message into the elements of a JSON array or into lines.
+ * <p>
+ * The data is scanned once from start to end, no element is copied or parsed into a tree, so splitting only needs
+ * memory for the bounds of the current element.
+ *
+ * @since 4.53.0
+ */
+final class PayloadSplit {
+
+    private PayloadSplit() {
+    }
+
+    enum Mode {
+        JSON_ARRAY("json-array"),
+        NEWLINE("newline");
+
+        private final @NotNull String name;
+
+        Mode(final @NotNull String name) {
+            this.name = name;
+        }
+
+        static @Nullable Mode fromName(final @Nullable String name) {
+            if (name == null) {
+                return null;
+            }
+            for (final Mode mode : values()) {
+                if (mode.name.equalsIgnoreCase(name)) {
+                    return mode;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Passes the bounds of every element to the consumer. Lines are passed without their line break, blank lines are
+     * skipped.
+     *
+     * @throws IllegalArgumentException if the mode is {@link Mode#JSON_ARRAY} and the data is not a JSON array.
+     */
+    static void split(
+            final @NotNull Mode mode,
+            final @NotNull ByteBuffer data,
+            final @NotNull JsonScanner.ValueConsumer consumer) {
+        if (mode == Mode.JSON_ARRAY) {
+            JsonScanner.forEachElement(data, consumer);
+            return;
+        }
+        final int limit = data.limit();
+        int start = data.position();
+        while (start < limit) {
+            int end = start;
+            while (end < limit && data.get(end) != '\n') {
+                end++;
+            }
+            final int next = end + 1;
+            if (end > start && data.get(end - 1) == '\r') {
+                end--;
+            }
+            if (JsonScanner.skipWhitespace(data, start, end) < end) {
+                consumer.accept(start, end);
+            }
+            start = next;
+        }
+    }
+
+    /**
+     * @return a view of the element between the indexes that shares the memory of the data.
+     */
+    static @NotNull ByteBuffer slice(final @NotNull ByteBuffer data, final int start, final int end) {
+        final ByteBuffer slice = data.duplicate();
+        slice.limit(end).position(start);
+        return slice.slice();
+    }
+}
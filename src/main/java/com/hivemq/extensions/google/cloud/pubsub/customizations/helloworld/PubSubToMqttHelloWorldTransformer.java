@@ -16,12 +16,10 @@
 
 package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
 
-import com.codahale.metrics.Counter;
 import com.hivemq.extension.sdk.api.annotations.NotNull;
 import com.hivemq.extension.sdk.api.annotations.Nullable;
-import com.hivemq.extension.sdk.api.packets.general.Qos;
 import com.hivemq.extension.sdk.api.services.builder.PublishBuilder;
-import com.hivemq.extensions.google.cloud.pubsub.api.model.CustomSettings;
+import com.hivemq.extension.sdk.api.services.publish.Publish;
 import com.hivemq.extensions.google.cloud.pubsub.api.model.InboundPubSubMessage;
 import com.hivemq.extensions.google.cloud.pubsub.api.model.PubSubConnection;
 import com.hivemq.extensions.google.cloud.pubsub.api.transformers.PubSubToMqttInitInput;
@@ -31,25 +29,63 @@ import com.hivemq.extensions.google.cloud.pubsub.api.transformers.PubSubToMqttTr
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.crypto.SecretKey;
 import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.SignatureException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * This example {@link PubSubToMqttTransformer} accepts a Google Cloud Pub/Sub message and tries to create a new MQTT PUBLISH from it.
  * <p>
  * The example performs the following computational steps:
  * <ol>
+ *     <li> Replace the custom settings with the ones from the file of the `rules-file` custom setting, and apply
+ *          every change of the file without re-initialization. </li>
+ *     <li> Join the data of Pub/Sub messages with a `chunk-message-id` attribute until all chunks of the data arrived,
+ *          within `chunk-reassembly-timeout-ms` and `chunk-reassembly-max-bytes`. </li>
+ *     <li> Decrypt the data of Pub/Sub messages with an `aes-gcm` `encryption` attribute, or verify the `signature`
+ *          attribute of Pub/Sub messages with an `hmac-sha256` `encryption` attribute, with the key of their `key-id`
+ *          attribute from the keystore of the `keystore-file` custom setting. If the `encryption-required` custom
+ *          setting is `true`, reject Pub/Sub messages that are neither encrypted nor signed. </li>
  *     <li> Create a new MQTT publish message that contains the following information: </li>
  *         <ul>
- *             <li> The Pub/Sub topic as the MQTT topic. </li>
- *             <li> The QoS from the custom settings configuration as the MQTT QoS </li>
- *             <li> The data as payload, if present </li>
- *             <li> All present Pub/Sub attributes as MQTT user properties. </li>
+ *             <li> The MQTT topic from the `mqtt-topic` template (e.g. `devices/${attr:device-id}/cmd`), rendered with the
+ *                  Pub/Sub attributes. </li>
+ *             <li> The QoS, the retained flag and the message expiry of the first matching `delivery-rule` custom
+ *                  setting (`&lt;attribute&gt; = &lt;value&gt; -&gt; qos=&lt;0|1|2&gt;, retain=&lt;true|false&gt;,
+ *                  expiry=&lt;seconds&gt;`), otherwise from the attributes of the `qos-attribute`, `retain-attribute`
+ *                  and `message-expiry-attribute` custom settings, and otherwise the QoS from the `qos` custom
+ *                  setting. </li>
+ *             <li> The data as payload, if present. Data with a `gzip` or `deflate` `content-encoding` attribute is
+ *                  decompressed. Data with a `payload-schema` attribute that names the schema of the `transcode-schema`
+ *                  custom setting is transcoded from the Avro binary encoding to JSON. </li>
+ *             <li> All present Pub/Sub attributes as MQTT user properties, selected by the `attribute-allow` and
+ *                  `attribute-deny` custom settings and limited by the `attribute-max-bytes` and
+ *                  `attributes-max-bytes` custom settings. </li>
  *         </ul>
+ *      <li> Alternatively, if the Pub/Sub message has an `envelope` attribute and the `unwrap-envelope` custom setting
+ *           is `true`, restore the MQTT topic, QoS, retained flag, message expiry, user properties and payload
+ *           of the MQTT publish message from the decompressed data. </li>
+ *      <li> Alternatively, if the Pub/Sub message has a `batch-format` attribute, create an MQTT publish message
+ *           for every record of the batch. The `mqtt-topic` attribute of a record is its own MQTT topic. </li>
+ *      <li> Alternatively, if the `split` custom setting is set, create an MQTT publish message for every element of a
+ *           JSON array or for every line of the data. </li>
+ *      <li> Skip Pub/Sub messages whose key from the `dedup` custom setting (the hash of the data or an attribute) was
+ *           seen within `dedup-ttl-ms`. </li>
  *      <li> Increment a metric for every Pub/Sub message that has no data set. </li>
+ *      <li> Increment a metric for every Pub/Sub message that lacks an attribute of the MQTT topic template. </li>
  *      <li> Provide the MQTT publish message to the extension for publication. </li>
+ *      <li> Count failures per cause and log only the first `error-log-limit` failures per `error-log-interval-ms`
+ *           with their stack trace. </li>
  * </ol>
  * <p>
  * An example `google-cloud-pubsub-configuration.xml` file that enables this transformer is provided in `{@code src/main/resources}`.
@@ -62,17 +98,57 @@ public class PubSubToMqttHelloWorldTransformer implements PubSubToMqttTransforme
     private static final @NotNull Logger LOG = LoggerFactory.getLogger(PubSubToMqttHelloWorldTransformer.class);
 
     public static final @NotNull String MISSING_DATA_COUNTER_NAME = "com.hivemq.extensions.google-cloud-pubsub.customizations.pubsub-to-mqtt.transformer.missing-data.count";
+    public static final @NotNull String MISSING_TOPIC_ATTRIBUTE_COUNTER_NAME = "com.hivemq.extensions.google-cloud-pubsub.customizations.pubsub-to-mqtt.transformer.missing-topic-attribute.count";
 
-    private @Nullable Counter missingValueCounter;
-    @Nullable CustomSettings customSettings;
+    /**
+     * The payload of MQTT PUBLISHes for Pub/Sub messages without data. It is shared, as an empty read-only buffer can
+     * neither be modified nor read.
+     */
+    private static final @NotNull ByteBuffer EMPTY_PAYLOAD = ByteBuffer.allocate(0).asReadOnlyBuffer();
+
+    private static final @NotNull TransformerState<PubSubToMqttSettings> UNINITIALIZED =
+            new TransformerState<>(PubSubToMqttSettings.EMPTY,
+                    TransformerMetrics.NONE,
+                    new ErrorLog(LOG, ErrorLog.DEFAULT_ERROR_LOG_LIMIT, ErrorLog.DEFAULT_ERROR_LOG_INTERVAL_MS),
+                    null);
+
+    /**
+     * Replaced at once by {@link #init} and by changes of the rules file, and read once per message by the worker
+     * threads.
+     */
+    final @NotNull AtomicReference<TransformerState<PubSubToMqttSettings>> state =
+            new AtomicReference<>(UNINITIALIZED);
 
     @Override
     public void init(final @NotNull PubSubToMqttInitInput input) {
         try {
             final PubSubConnection pubSubConnection = input.getPubSubConnection();
-            this.customSettings = input.getCustomSettings();
+            final RulesFile previousRulesFile = state.get().getRulesFile();
+            if (previousRulesFile != null) {
+                previousRulesFile.close();
+            }
+            final RulesFile rulesFile = RulesFile.of(input.getCustomSettings());
+            final PubSubToMqttSettings settings = PubSubToMqttSettings.of(
+                    rulesFile != null ? rulesFile.loadOrConfigured() : input.getCustomSettings());
             // build any custom metrics based on your business logic and needs
-            this.missingValueCounter = input.getMetricRegistry().counter(MISSING_DATA_COUNTER_NAME);
+            final TransformerMetrics metrics = TransformerMetrics.of(input.getMetricRegistry(),
+                    TransformerMetrics.PUBSUB_TO_MQTT,
+                    pubSubConnection.getId(),
+                    settings.getTransformerId(),
+                    settings.isDetailedMetrics(),
+                    settings.getDedupCache() != null);
+            final ErrorLog errorLog = new ErrorLog(LOG, settings.getErrorLogLimit(), settings.getErrorLogIntervalMs());
+            // the settings, metrics and error log are published together, so no message mixes two initializations
+            state.set(new TransformerState<>(settings, metrics, errorLog, rulesFile));
+            if (rulesFile != null) {
+                // the new settings are built on the watching thread and replace the previous ones at once, unless a
+                // new initialization replaced the rules file in the meantime
+                rulesFile.watch("pubsub-to-mqtt-rules-file-" + settings.getTransformerId(),
+                        customSettings -> state.updateAndGet(current -> current.getRulesFile() != rulesFile ?
+                                current :
+                                current.withSettings(PubSubToMqttSettings.reload(customSettings,
+                                        current.getSettings()))));
+            }
             LOG.info(
                     "PubSub-To-MQTT-Hello-World-Transformer for pubsub connection '{}' and project '{}' initialized.",
                     pubSubConnection.getId(),
@@ -87,35 +163,355 @@ public class PubSubToMqttHelloWorldTransformer implements PubSubToMqttTransforme
             final @NotNull PubSubToMqttInput pubSubToMqttInput,
             final @NotNull PubSubToMqttOutput pubSubToMqttOutput) {
 
+        // read once, so a new initialization or a reload of the rules file never mixes two states within a message
+        final TransformerState<PubSubToMqttSettings> state = this.state.get();
+        final PubSubToMqttSettings settings = state.getSettings();
+        final TransformerMetrics metrics = state.getMetrics();
+        final long startNanos = System.nanoTime();
+        long dedupKey = DedupCache.NO_KEY;
         try {
             final InboundPubSubMessage pubSubMessage = pubSubToMqttInput.getInboundPubSubMessage();
+            final Map<String, String> messageAttributes = pubSubMessage.getAttributes();
+            final ByteBuffer messageData = pubSubMessage.getData().orElse(null);
+            final int bytesIn = messageData == null ? 0 : messageData.remaining();
+
+            Map<String, String> attributes = messageAttributes;
+            ByteBuffer data = messageData;
+            if (messageData != null && messageAttributes.containsKey(PayloadChunks.CHUNK_MESSAGE_ID)) {
+                data = settings.getChunkReassembler().add(messageAttributes, messageData, startNanos, metrics);
+                if (data == null) {
+                    // the chunk is kept until the other chunks of the data arrive
+                    pubSubToMqttOutput.setPublishes(List.of());
+                    metrics.transformed(startNanos, bytesIn, 0, 0, messageAttributes.size());
+                    return;
+                }
+                // the joined data is transformed like the data of a single Pub/Sub message
+                metrics.limited(TransformerMetrics.CHUNKS_REASSEMBLED);
+                attributes = PayloadChunks.withoutChunkAttributes(messageAttributes);
+            }
+            dedupKey = dedupKey(settings, data, attributes);
+            if (dedupKey != DedupCache.NO_KEY && isDuplicate(settings, dedupKey, startNanos, metrics)) {
+                // a redelivery of a message that was already published, e.g. after its acknowledgement deadline, the
+                // key belongs to that message and is kept
+                dedupKey = DedupCache.NO_KEY;
+                pubSubToMqttOutput.setPublishes(List.of());
+                metrics.transformed(startNanos, bytesIn, 0, 0, attributes.size());
+                return;
+            }
+            final PayloadEncryption.Mode encryption =
+                    PayloadEncryption.Mode.fromName(attributes.get(PayloadEncryption.ENCRYPTION));
+            if (encryption != null) {
+                data = decrypt(settings, encryption, data, attributes);
+                attributes = PayloadEncryption.withoutEncryptionAttributes(attributes);
+            } else if (settings.isEncryptionRequired()) {
+                throw new SecurityException("The Pub/Sub message is neither encrypted nor signed.");
+            }
+            final PayloadCompression.Algorithm contentEncoding =
+                    PayloadCompression.Algorithm.fromContentEncoding(attributes.get(PayloadCompression.CONTENT_ENCODING));
+            ByteBuffer payload;
+            if (data == null) {
+                //the publishBuilder requires at least an empty payload.
+                payload = EMPTY_PAYLOAD;
+                metrics.missingData();
+            } else if (contentEncoding != null) {
+                payload = PayloadCompression.decompress(data, contentEncoding, settings.getDecompressionMaxBytes());
+            } else {
+                // the data is a read-only view of the received message, so it is forwarded without copying it
+                payload = data;
+            }
+            final PayloadEnvelope.Format envelope = settings.isUnwrapEnvelope() ?
+                    PayloadEnvelope.Format.fromName(attributes.get(PayloadEnvelope.ENVELOPE)) :
+                    null;
+            if (envelope != null) {
+                // the envelope restores the original MQTT PUBLISH, so the topic template, the delivery rules and the
+                // attributes do not apply
+                final PayloadEnvelope.Message message = PayloadEnvelope.decode(envelope, payload);
+                final PublishBuilder publishBuilder = pubSubToMqttOutput.newPublishBuilder();
+                message.applyTo(publishBuilder);
+                pubSubToMqttOutput.setPublishes(List.of(publishBuilder.build()));
+                metrics.transformed(startNanos, bytesIn, 1, message.getPayload().remaining(), attributes.size());
+                return;
+            }
+            final ByteBuffer transcoded = transcode(settings, payload, attributes);
+            final boolean isTranscoded = transcoded != null;
+            if (transcoded != null) {
+                payload = transcoded;
+            }
+
+            // the filtered attributes are only forwarded as user properties, the MQTT topic is rendered from all
+            final Map<String, String> userProperties = settings.getAttributeFilter().filter(attributes);
+            final PayloadBatch.Format batchFormat =
+                    PayloadBatch.Format.fromName(attributes.get(PayloadBatch.BATCH_FORMAT));
+            if (batchFormat != null) {
+                final List<Publish> publishes =
+                        splitBatch(settings,
+                                metrics,
+                                batchFormat,
+                                payload,
+                                attributes,
+                                userProperties,
+                                contentEncoding != null,
+                                pubSubToMqttOutput);
+                pubSubToMqttOutput.setPublishes(publishes);
+                metrics.transformed(startNanos, bytesIn, publishes.size(), payload.remaining(), attributes.size());
+                return;
+            }
+            final PayloadSplit.Mode split = settings.getSplit();
+            if (split != null) {
+                final List<Publish> publishes =
+                        splitElements(settings,
+                                metrics,
+                                split,
+                                payload,
+                                attributes,
+                                userProperties,
+                                contentEncoding != null,
+                                isTranscoded,
+                                pubSubToMqttOutput);
+                pubSubToMqttOutput.setPublishes(publishes);
+                metrics.transformed(startNanos, bytesIn, publishes.size(), payload.remaining(), attributes.size());
+                return;
+            }
+
             final PublishBuilder publishBuilder = pubSubToMqttOutput.newPublishBuilder()
-                    .topic("mqtt/topic");
-
-            if (customSettings != null) {
-                final Optional<String> qosOptional = customSettings.getFirst("qos");
-                qosOptional.ifPresent(qosAsString -> {
-                    try {
-                        final int qosAsInt = Integer.parseInt(qosAsString);
-                        publishBuilder.qos(Qos.valueOf(qosAsInt));
-                    } catch (final IllegalArgumentException e) {
-                        LOG.debug("Could not parse qos from custom settings. Using default qos 0. ", e);
-                        publishBuilder.qos(Qos.AT_MOST_ONCE);
-                    }
-                });
-            }
-
-            pubSubMessage.getData()
-                    .ifPresentOrElse(publishBuilder::payload, () -> {
-                        //the publishBuilder requires at least an empty payload.
-                        publishBuilder.payload(ByteBuffer.wrap(new byte[0]));
-                        Objects.requireNonNull(missingValueCounter).inc();
-                    });
-            pubSubMessage.getAttributes().forEach(publishBuilder::userProperty);
+                    .topic(renderMqttTopic(settings, metrics, attributes));
+
+            final DeliveryRules.Delivery delivery = settings.getDeliveryRules().resolve(attributes);
+            delivery.applyTo(publishBuilder);
+            final int bytesOut = payload.remaining();
+            publishBuilder.payload(payload);
+            for (final Map.Entry<String, String> attribute : userProperties.entrySet()) {
+                // the content encoding and the schema only describe the Pub/Sub data, the MQTT payload is already
+                // decompressed and transcoded
+                if (!describesData(attribute.getKey(), contentEncoding != null, isTranscoded)) {
+                    publishBuilder.userProperty(attribute.getKey(), attribute.getValue());
+                }
+            }
             pubSubToMqttOutput.setPublishes(List.of(publishBuilder.build()));
+            metrics.transformed(startNanos, bytesIn, 1, bytesOut, attributes.size());
 
         } catch (final Exception e) {
-            LOG.error("Google Cloud Pub/Sub to MQTT transformation failed: ", e);
+            if (dedupKey != DedupCache.NO_KEY) {
+                // the message was not published, so its redelivery is transformed again instead of being skipped
+                Objects.requireNonNull(settings.getDedupCache()).forget(dedupKey, System.nanoTime());
+            }
+            state.getErrorLog().failed(metrics, e, "Google Cloud Pub/Sub to MQTT transformation failed: ");
+        }
+    }
+
+    /**
+     * @return the key of the Pub/Sub message in the deduplication cache or {@link DedupCache#NO_KEY} if messages are
+     *         not deduplicated or the message has no key.
+     */
+    private static long dedupKey(
+            final @NotNull PubSubToMqttSettings settings,
+            final @Nullable ByteBuffer data,
+            final @NotNull Map<String, String> attributes) {
+        if (settings.getDedupCache() == null) {
+            return DedupCache.NO_KEY;
+        }
+        final String dedupAttribute = settings.getDedupAttribute();
+        if (dedupAttribute != null) {
+            final String value = attributes.get(dedupAttribute);
+            return value == null ? DedupCache.NO_KEY : DedupCache.hash(value);
+        }
+        return data == null ? DedupCache.NO_KEY : DedupCache.hash(data);
+    }
+
+    /**
+     * @return {@code true} if the key of the Pub/Sub message was seen within the time to live of the deduplication
+     *         cache. Otherwise the key is remembered, and forgotten again if the message can not be transformed.
+     */
+    private static boolean isDuplicate(
+            final @NotNull PubSubToMqttSettings settings,
+            final long key,
+            final long nowNanos,
+            final @NotNull TransformerMetrics metrics) {
+        final int result = Objects.requireNonNull(settings.getDedupCache()).check(key, nowNanos);
+        metrics.deduplicated(result);
+        return result == DedupCache.HIT;
+    }
+
+    /**
+     * @return the decrypted data, or the data itself if it is only signed and the signature matches.
+     * @throws GeneralSecurityException if the key id is unknown, or if the data was modified or protected with a
+     *                                  different key.
+     */
+    private static @Nullable ByteBuffer decrypt(
+            final @NotNull PubSubToMqttSettings settings,
+            final @NotNull PayloadEncryption.Mode encryption,
+            final @Nullable ByteBuffer data,
+            final @NotNull Map<String, String> attributes) throws GeneralSecurityException {
+        final String keyId = attributes.get(PayloadEncryption.KEY_ID);
+        final SecretKey key = keyId == null ? null : settings.getDecryptionKeys().get(keyId, System.nanoTime());
+        if (key == null) {
+            throw new InvalidKeyException("No secret key '" + keyId + "' in the keystore.");
+        }
+        // an attribute that describes the data and was added, changed or removed fails the authentication
+        final byte[] associatedData = PayloadEncryption.associatedData(attributes::get);
+        // a missing payload was protected as an empty one
+        final ByteBuffer protectedData = data != null ? data : EMPTY_PAYLOAD;
+        if (encryption == PayloadEncryption.Mode.AES_GCM) {
+            return PayloadEncryption.decrypt(protectedData, key, associatedData);
+        }
+        final String signature = attributes.get(PayloadEncryption.SIGNATURE);
+        if (signature == null) {
+            throw new SignatureException("The signed Pub/Sub message has no signature.");
+        }
+        PayloadEncryption.verify(protectedData, key, signature, associatedData);
+        return data;
+    }
+
+    /**
+     * Creates an MQTT PUBLISH for every record of a batch that was created by the
+     * {@link MqttToPubSubHelloWorldTransformer}.
+     */
+    private static @NotNull List<Publish> splitBatch(
+            final @NotNull PubSubToMqttSettings settings,
+            final @NotNull TransformerMetrics metrics,
+            final @NotNull PayloadBatch.Format batchFormat,
+            final @NotNull ByteBuffer payload,
+            final @NotNull Map<String, String> attributes,
+            final @NotNull Map<String, String> userProperties,
+            final boolean decompressed,
+            final @NotNull PubSubToMqttOutput pubSubToMqttOutput) {
+        final List<Publish> publishes = new ArrayList<>();
+        final RecordAttributes recordAttributes = new RecordAttributes(attributes, OutboundAttributes.MQTT_TOPIC);
+        final DeliveryRules.Delivery delivery = settings.getDeliveryRules().resolve(attributes);
+        PayloadBatch.decode(batchFormat, payload, (recordMqttTopic, recordPayload) -> {
+            recordAttributes.value = recordMqttTopic;
+            final String mqttTopic = renderMqttTopic(settings, metrics, recordAttributes);
+            final PublishBuilder publishBuilder = pubSubToMqttOutput.newPublishBuilder().topic(mqttTopic);
+            delivery.applyTo(publishBuilder);
+            publishBuilder.payload(recordPayload);
+            for (final Map.Entry<String, String> attribute : userProperties.entrySet()) {
+                final String name = attribute.getKey();
+                // the batch attributes only describe the Pub/Sub message, not the single MQTT PUBLISHes
+                if (!name.equals(PayloadBatch.BATCH_FORMAT) &&
+                        !name.equals(PayloadBatch.BATCH_SIZE) &&
+                        !describesData(name, decompressed, false) &&
+                        !(recordMqttTopic != null && name.equals(OutboundAttributes.MQTT_TOPIC))) {
+                    publishBuilder.userProperty(name, attribute.getValue());
+                }
+            }
+            if (recordMqttTopic != null) {
+                publishBuilder.userProperty(OutboundAttributes.MQTT_TOPIC, recordMqttTopic);
+            }
+            publishes.add(publishBuilder.build());
+        });
+        return publishes;
+    }
+
+    /**
+     * Creates an MQTT PUBLISH for every element of the payload, see {@link PubSubToMqttSettings#getSplit()}.
+     */
+    private static @NotNull List<Publish> splitElements(
+            final @NotNull PubSubToMqttSettings settings,
+            final @NotNull TransformerMetrics metrics,
+            final @NotNull PayloadSplit.Mode split,
+            final @NotNull ByteBuffer payload,
+            final @NotNull Map<String, String> attributes,
+            final @NotNull Map<String, String> userProperties,
+            final boolean decompressed,
+            final boolean transcoded,
+            final @NotNull PubSubToMqttOutput pubSubToMqttOutput) {
+        final List<Publish> publishes = new ArrayList<>();
+        final String topicField = settings.getSplitTopicField();
+        final byte[] topicFieldName = settings.getSplitTopicFieldName();
+        final RecordAttributes elementAttributes = new RecordAttributes(attributes, topicField);
+        final DeliveryRules.Delivery delivery = settings.getDeliveryRules().resolve(attributes);
+        PayloadSplit.split(split, payload, (start, end) -> {
+            if (topicFieldName != null) {
+                final int value = JsonScanner.findMember(payload, start, end, topicFieldName);
+                elementAttributes.value = value == -1 ? null : JsonScanner.scalarText(payload, value, end);
+            }
+            final PublishBuilder publishBuilder =
+                    pubSubToMqttOutput.newPublishBuilder().topic(renderMqttTopic(settings, metrics, elementAttributes));
+            delivery.applyTo(publishBuilder);
+            publishBuilder.payload(PayloadSplit.slice(payload, start, end));
+            for (final Map.Entry<String, String> attribute : userProperties.entrySet()) {
+                if (!describesData(attribute.getKey(), decompressed, transcoded)) {
+                    publishBuilder.userProperty(attribute.getKey(), attribute.getValue());
+                }
+            }
+            publishes.add(publishBuilder.build());
+        });
+        return publishes;
+    }
+
+    /**
+     * @return the payload transcoded from the Avro binary encoding to JSON or {@code null} if the payload is not
+     *         encoded with the configured schema.
+     * @throws IllegalArgumentException if the payload is not a valid record of the schema.
+     */
+    private static @Nullable ByteBuffer transcode(
+            final @NotNull PubSubToMqttSettings settings,
+            final @NotNull ByteBuffer payload,
+            final @NotNull Map<String, String> attributes) {
+        final PayloadSchema schema = settings.getTranscodeSchema();
+        if (schema == null || !schema.getFullName().equals(attributes.get(PayloadSchema.PAYLOAD_SCHEMA))) {
+            return null;
+        }
+        return schema.decode(payload);
+    }
+
+    /**
+     * @return whether the attribute only describes the encoding of the Pub/Sub data that was already reverted, so it
+     *         must not become a user property.
+     */
+    private static boolean describesData(
+            final @NotNull String name,
+            final boolean decompressed,
+            final boolean transcoded) {
+        return (decompressed && name.equals(PayloadCompression.CONTENT_ENCODING)) ||
+                (transcoded && name.equals(PayloadSchema.PAYLOAD_SCHEMA));
+    }
+
+    /**
+     * @return the MQTT topic rendered from the template or the fallback MQTT topic if the template can not be rendered.
+     */
+    private static @NotNull String renderMqttTopic(
+            final @NotNull PubSubToMqttSettings settings,
+            final @NotNull TransformerMetrics metrics,
+            final @NotNull Map<String, String> attributes) {
+        final String mqttTopic = settings.getMqttTopic().render(attributes);
+        if (mqttTopic != null) {
+            return mqttTopic;
+        }
+        metrics.missingTopicAttribute();
+        return settings.getMqttTopicFallback();
+    }
+
+    /**
+     * The attributes of a Pub/Sub message with one attribute replaced by a value of a batch record or split element, so
+     * the MQTT topic template can be rendered per record without copying the attributes.
+     */
+    private static final class RecordAttributes extends AbstractMap<String, String> {
+
+        private final @NotNull Map<String, String> attributes;
+        private final @Nullable String name;
+        private @Nullable String value;
+
+        private RecordAttributes(final @NotNull Map<String, String> attributes, final @Nullable String name) {
+            this.attributes = attributes;
+            this.name = name;
+        }
+
+        @Override
+        public @Nullable String get(final @Nullable Object key) {
+            if (value != null && Objects.equals(name, key)) {
+                return value;
+            }
+            return attributes.get(key);
+        }
+
+        @Override
+        public @NotNull Set<Entry<String, String>> entrySet() {
+            final Map<String, String> copy = new HashMap<>(attributes);
+            if (name != null && value != null) {
+                copy.put(name, value);
+            }
+            return copy.entrySet();
         }
     }
 }
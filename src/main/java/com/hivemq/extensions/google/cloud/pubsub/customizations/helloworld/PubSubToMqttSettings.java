@@ -0,0 +1,383 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.Immutable;
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.hivemq.extension.sdk.api.packets.general.Qos;
+import com.hivemq.extensions.google.cloud.pubsub.api.model.CustomSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+import static com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld.CustomSettingsParser.parseBoolean;
+import static com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld.CustomSettingsParser.parseInt;
+import static com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld.CustomSettingsParser.parseLong;
+import static com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld.CustomSettingsParser.parseSchema;
+
+/**
+ * The custom settings of the {@link PubSubToMqttHelloWorldTransformer}, resolved during its initialization and whenever
+ * its rules file changes.
+ * <p>
+ * Invalid values are reported a single time while the settings are resolved and replaced by their defaults, so the
+ * transformer never parses or validates a custom setting per Pub/Sub message.
+ *
+ * @since 4.53.0
+ */
+@Immutable
+final class PubSubToMqttSettings {
+
+    private static final @NotNull Logger LOG = LoggerFactory.getLogger(PubSubToMqttSettings.class);
+
+    static final @NotNull String TRANSFORMER_ID = "transformer-id";
+    static final @NotNull String DETAILED_METRICS = "detailed-metrics";
+    static final @NotNull String QOS = "qos";
+    static final @NotNull String QOS_ATTRIBUTE = "qos-attribute";
+    static final @NotNull String RETAIN_ATTRIBUTE = "retain-attribute";
+    static final @NotNull String MESSAGE_EXPIRY_ATTRIBUTE = "message-expiry-attribute";
+    static final @NotNull String DELIVERY_RULE = "delivery-rule";
+    static final @NotNull String MQTT_TOPIC = "mqtt-topic";
+    static final @NotNull String MQTT_TOPIC_FALLBACK = "mqtt-topic-fallback";
+    static final @NotNull String DECOMPRESSION_MAX_BYTES = "decompression-max-bytes";
+    static final @NotNull String SPLIT = "split";
+    static final @NotNull String SPLIT_TOPIC_FIELD = "split-topic-field";
+    static final @NotNull String TRANSCODE_SCHEMA = "transcode-schema";
+    static final @NotNull String UNWRAP_ENVELOPE = "unwrap-envelope";
+    static final @NotNull String DEDUP = "dedup";
+    static final @NotNull String DEDUP_TTL_MS = "dedup-ttl-ms";
+    static final @NotNull String DEDUP_MAX_ENTRIES = "dedup-max-entries";
+    static final @NotNull String CHUNK_REASSEMBLY_MAX_BYTES = "chunk-reassembly-max-bytes";
+    static final @NotNull String CHUNK_REASSEMBLY_TIMEOUT_MS = "chunk-reassembly-timeout-ms";
+    static final @NotNull String ENCRYPTION_REQUIRED = "encryption-required";
+
+    static final @NotNull String DEFAULT_TRANSFORMER_ID = "default";
+    static final @NotNull String DEFAULT_MQTT_TOPIC = "mqtt/topic";
+    /**
+     * The maximum payload size of MQTT.
+     */
+    static final int DEFAULT_DECOMPRESSION_MAX_BYTES = 268_435_455;
+    /**
+     * The maximum acknowledgement deadline of Pub/Sub, after which a message is redelivered.
+     */
+    static final long DEFAULT_DEDUP_TTL_MS = 600_000;
+    static final int DEFAULT_DEDUP_MAX_ENTRIES = 131_072;
+    static final @NotNull String DEDUP_PAYLOAD = "payload";
+    static final @NotNull String DEDUP_ATTRIBUTE_PREFIX = "attribute:";
+    /**
+     * Twice the maximum payload size of MQTT, so the largest payload can be joined while another one is pending.
+     */
+    static final long DEFAULT_CHUNK_REASSEMBLY_MAX_BYTES = 536_870_912;
+    static final long DEFAULT_CHUNK_REASSEMBLY_TIMEOUT_MS = 60_000;
+
+    static final @NotNull PubSubToMqttSettings EMPTY = new PubSubToMqttSettings(StaticCustomSettings.EMPTY, null);
+
+    private final @NotNull String transformerId;
+    private final boolean detailedMetrics;
+    private final int errorLogLimit;
+    private final long errorLogIntervalMs;
+    private final @Nullable Qos qos;
+    private final @NotNull DeliveryRules deliveryRules;
+    private final @NotNull TopicTemplate mqttTopic;
+    private final @NotNull String mqttTopicFallback;
+    private final int decompressionMaxBytes;
+    private final @Nullable PayloadSplit.Mode split;
+    private final @Nullable String splitTopicField;
+    private final byte @Nullable [] splitTopicFieldName;
+    private final @Nullable PayloadSchema transcodeSchema;
+    private final boolean unwrapEnvelope;
+    private final @NotNull AttributeFilter attributeFilter;
+    private final @Nullable DedupCache dedupCache;
+    private final @Nullable String dedupAttribute;
+    private final @NotNull ChunkReassembler chunkReassembler;
+    private final @NotNull KeyStoreKeys decryptionKeys;
+    private final boolean encryptionRequired;
+
+    private PubSubToMqttSettings(
+            final @NotNull CustomSettings customSettings,
+            final @Nullable PubSubToMqttSettings previous) {
+        transformerId = customSettings.getFirst(TRANSFORMER_ID)
+                .map(String::trim)
+                .filter(id -> !id.isEmpty())
+                .orElse(DEFAULT_TRANSFORMER_ID);
+        detailedMetrics = parseBoolean(customSettings, DETAILED_METRICS, false);
+        errorLogLimit = parseInt(customSettings, ErrorLog.ERROR_LOG_LIMIT, ErrorLog.DEFAULT_ERROR_LOG_LIMIT);
+        errorLogIntervalMs =
+                parseLong(customSettings, ErrorLog.ERROR_LOG_INTERVAL_MS, ErrorLog.DEFAULT_ERROR_LOG_INTERVAL_MS);
+        qos = parseQos(customSettings.getFirst(QOS));
+        deliveryRules = new DeliveryRules(customSettings.getAllForName(DELIVERY_RULE),
+                qos,
+                parseAttributeName(customSettings, QOS_ATTRIBUTE),
+                parseAttributeName(customSettings, RETAIN_ATTRIBUTE),
+                parseAttributeName(customSettings, MESSAGE_EXPIRY_ATTRIBUTE));
+        mqttTopic = parseTopicTemplate(customSettings.getFirst(MQTT_TOPIC).orElse(DEFAULT_MQTT_TOPIC));
+        mqttTopicFallback = parseTopicFallback(customSettings.getFirst(MQTT_TOPIC_FALLBACK).orElse(DEFAULT_MQTT_TOPIC));
+        decompressionMaxBytes = parseInt(customSettings, DECOMPRESSION_MAX_BYTES, DEFAULT_DECOMPRESSION_MAX_BYTES);
+        split = parseSplit(customSettings.getFirst(SPLIT).orElse(null));
+        splitTopicField = customSettings.getFirst(SPLIT_TOPIC_FIELD).filter(field -> !field.isBlank()).orElse(null);
+        splitTopicFieldName = splitTopicField == null ? null : splitTopicField.getBytes(StandardCharsets.UTF_8);
+        transcodeSchema = parseSchema(customSettings, TRANSCODE_SCHEMA);
+        unwrapEnvelope = parseBoolean(customSettings, UNWRAP_ENVELOPE, false);
+        attributeFilter = AttributeFilter.of(customSettings);
+        final String dedup = customSettings.getFirst(DEDUP).map(String::trim).orElse("none");
+        if (previous != null) {
+            // the remembered keys are kept when the settings are reloaded
+            dedupCache = previous.dedupCache;
+            dedupAttribute = previous.dedupAttribute;
+        } else if (dedup.equalsIgnoreCase(DEDUP_PAYLOAD) ||
+                (dedup.startsWith(DEDUP_ATTRIBUTE_PREFIX) && dedup.length() > DEDUP_ATTRIBUTE_PREFIX.length())) {
+            dedupCache = new DedupCache(parseInt(customSettings, DEDUP_MAX_ENTRIES, DEFAULT_DEDUP_MAX_ENTRIES),
+                    parseLong(customSettings, DEDUP_TTL_MS, DEFAULT_DEDUP_TTL_MS));
+            dedupAttribute = dedup.startsWith(DEDUP_ATTRIBUTE_PREFIX) ?
+                    dedup.substring(DEDUP_ATTRIBUTE_PREFIX.length()) :
+                    null;
+        } else {
+            if (!dedup.isEmpty() && !dedup.equalsIgnoreCase("none")) {
+                LOG.warn("Unknown dedup '{}', supported are 'none', 'payload' and 'attribute:<name>'. Pub/Sub " +
+                        "messages are not deduplicated.", dedup);
+            }
+            dedupCache = null;
+            dedupAttribute = null;
+        }
+        // the pending chunks are kept when the settings are reloaded
+        chunkReassembler = previous != null ?
+                previous.chunkReassembler :
+                new ChunkReassembler(parseLong(customSettings,
+                        CHUNK_REASSEMBLY_MAX_BYTES,
+                        DEFAULT_CHUNK_REASSEMBLY_MAX_BYTES),
+                        parseLong(customSettings, CHUNK_REASSEMBLY_TIMEOUT_MS, DEFAULT_CHUNK_REASSEMBLY_TIMEOUT_MS));
+        // the keystore is read again with every reload, and when a key id is missing
+        decryptionKeys = KeyStoreKeys.of(customSettings);
+        encryptionRequired = parseBoolean(customSettings, ENCRYPTION_REQUIRED, false);
+    }
+
+    static @NotNull PubSubToMqttSettings of(final @NotNull CustomSettings customSettings) {
+        return new PubSubToMqttSettings(customSettings, null);
+    }
+
+    /**
+     * Resolves the custom settings of a changed rules file. The dedup cache and the chunk reassembler of the previous
+     * settings are kept, so no remembered key and no pending chunk is lost. Their custom settings, like the transformer
+     * id, the metrics and the error log custom settings, only take effect when the transformer is initialized again.
+     */
+    static @NotNull PubSubToMqttSettings reload(
+            final @NotNull CustomSettings customSettings,
+            final @NotNull PubSubToMqttSettings previous) {
+        return new PubSubToMqttSettings(customSettings, previous);
+    }
+
+    private static @NotNull TopicTemplate parseTopicTemplate(final @NotNull String template) {
+        try {
+            return TopicTemplate.parse(template);
+        } catch (final IllegalArgumentException e) {
+            LOG.warn("{} Using default MQTT topic '{}'.", e.getMessage(), DEFAULT_MQTT_TOPIC);
+            return TopicTemplate.parse(DEFAULT_MQTT_TOPIC);
+        }
+    }
+
+    private static @NotNull String parseTopicFallback(final @NotNull String fallback) {
+        if (fallback.isEmpty() || fallback.indexOf('+') != -1 || fallback.indexOf('#') != -1) {
+            LOG.warn("The fallback MQTT topic '{}' is not a valid MQTT topic. Using default MQTT topic '{}'.",
+                    fallback,
+                    DEFAULT_MQTT_TOPIC);
+            return DEFAULT_MQTT_TOPIC;
+        }
+        return fallback;
+    }
+
+    private static @Nullable PayloadSplit.Mode parseSplit(final @Nullable String split) {
+        if (split == null || split.isBlank() || split.trim().equalsIgnoreCase("none")) {
+            return null;
+        }
+        final PayloadSplit.Mode mode = PayloadSplit.Mode.fromName(split.trim());
+        if (mode == null) {
+            LOG.warn("Unknown split '{}', supported are 'none', 'json-array' and 'newline'. Pub/Sub messages are not " +
+                    "split.", split);
+        }
+        return mode;
+    }
+
+    private static @Nullable String parseAttributeName(
+            final @NotNull CustomSettings customSettings,
+            final @NotNull String name) {
+        return customSettings.getFirst(name).map(String::trim).filter(attribute -> !attribute.isEmpty()).orElse(null);
+    }
+
+    private static @Nullable Qos parseQos(final @NotNull Optional<String> qosOptional) {
+        if (qosOptional.isEmpty()) {
+            return null;
+        }
+        final String qosAsString = qosOptional.get();
+        try {
+            return Qos.valueOf(Integer.parseInt(qosAsString.trim()));
+        } catch (final IllegalArgumentException e) {
+            LOG.warn("Could not parse qos '{}' from custom settings. Using default qos 0.", qosAsString);
+            return Qos.AT_MOST_ONCE;
+        }
+    }
+
+    /**
+     * @return the QoS of every MQTT PUBLISH or {@code null} if the QoS of the publish builder is kept.
+     */
+    @Nullable Qos getQos() {
+        return qos;
+    }
+
+    /**
+     * @return the rules that select the QoS, the retained flag and the message expiry per Pub/Sub message, including the
+     *         static QoS.
+     */
+    @NotNull DeliveryRules getDeliveryRules() {
+        return deliveryRules;
+    }
+
+    /**
+     * @return the template of the MQTT topic.
+     */
+    @NotNull TopicTemplate getMqttTopic() {
+        return mqttTopic;
+    }
+
+    /**
+     * @return the MQTT topic that is used if the template can not be rendered for a Pub/Sub message.
+     */
+    @NotNull String getMqttTopicFallback() {
+        return mqttTopicFallback;
+    }
+
+    /**
+     * @return the maximum size in bytes of a decompressed payload.
+     */
+    int getDecompressionMaxBytes() {
+        return decompressionMaxBytes;
+    }
+
+    /**
+     * @return how the data of a Pub/Sub message is split into many MQTT PUBLISHes or {@code null} if every Pub/Sub
+     *         message becomes a single MQTT PUBLISH.
+     */
+    @Nullable PayloadSplit.Mode getSplit() {
+        return split;
+    }
+
+    /**
+     * @return the name of the JSON member of a split element that replaces the attribute with the same name when the
+     *         MQTT topic template is rendered or {@code null} if the attributes of the Pub/Sub message are used.
+     */
+    @Nullable String getSplitTopicField() {
+        return splitTopicField;
+    }
+
+    /**
+     * @return the UTF-8 encoded {@link #getSplitTopicField()}.
+     */
+    byte @Nullable [] getSplitTopicFieldName() {
+        return splitTopicFieldName;
+    }
+
+    /**
+     * @return the filter of the Pub/Sub attributes that are forwarded as MQTT user properties.
+     */
+    @NotNull AttributeFilter getAttributeFilter() {
+        return attributeFilter;
+    }
+
+    /**
+     * @return the schema of Pub/Sub messages in the Avro binary encoding that are transcoded to JSON or {@code null} if
+     *         payloads are not transcoded.
+     */
+    @Nullable PayloadSchema getTranscodeSchema() {
+        return transcodeSchema;
+    }
+
+    /**
+     * @return whether Pub/Sub messages with an `envelope` attribute are published as the MQTT PUBLISH of their
+     *         envelope.
+     */
+    boolean isUnwrapEnvelope() {
+        return unwrapEnvelope;
+    }
+
+    /**
+     * @return the cache of the keys of recently transformed Pub/Sub messages or {@code null} if redeliveries are not
+     *         detected.
+     */
+    @Nullable DedupCache getDedupCache() {
+        return dedupCache;
+    }
+
+    /**
+     * @return the attribute whose value is the key of a Pub/Sub message in the {@link #getDedupCache()} or
+     *         {@code null} if the key is the hash of the data.
+     */
+    @Nullable String getDedupAttribute() {
+        return dedupAttribute;
+    }
+
+    /**
+     * @return the reassembler that joins the chunks of payloads that the {@link MqttToPubSubHelloWorldTransformer}
+     *         split.
+     */
+    @NotNull ChunkReassembler getChunkReassembler() {
+        return chunkReassembler;
+    }
+
+    /**
+     * @return the keys of the keystore by their key id, which decrypt respectively verify the data of Pub/Sub messages
+     *         with an `encryption` attribute.
+     */
+    @NotNull KeyStoreKeys getDecryptionKeys() {
+        return decryptionKeys;
+    }
+
+    /**
+     * @return whether Pub/Sub messages without a supported `encryption` attribute are rejected.
+     */
+    boolean isEncryptionRequired() {
+        return encryptionRequired;
+    }
+
+    /**
+     * @return the id that distinguishes the metrics of transformers of the same Pub/Sub connection.
+     */
+    @NotNull String getTransformerId() {
+        return transformerId;
+    }
+
+    /**
+     * @return whether the latency timer and the histograms of the transformer are enabled.
+     */
+    boolean isDetailedMetrics() {
+        return detailedMetrics;
+    }
+
+    /**
+     * @return the number of failures that are logged with their stack trace per interval.
+     */
+    int getErrorLogLimit() {
+        return errorLogLimit;
+    }
+
+    /**
+     * @return the interval in milliseconds of the error log limit.
+     */
+    long getErrorLogIntervalMs() {
+        return errorLogIntervalMs;
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.hivemq.extension.sdk.api.annotations.ThreadSafe;
+import com.hivemq.extension.sdk.api.packets.publish.PublishPacket;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Limits the rate and samples the MQTT PUBLISHes per key, for example per device.
+ * <p>
+ * Every key has a token bucket that is implemented as a generic cell rate algorithm: the bucket is a single
+ * {@code long}, the time at which it would be empty again, and a message is admitted with a single compare-and-set of
+ * it. The buckets are kept in {@link #STRIPES} concurrent maps. Keys that were idle for the idle timeout are removed
+ * one stripe at a time by the thread that notices that the next stripe is due, so there is neither a global lock nor
+ * a background thread.
+ *
+ * @since 4.53.0
+ */
+@ThreadSafe
+final class RateLimiter {
+
+    static final int FORWARD = 0;
+    static final int SAMPLED_OUT = 1;
+    static final int LIMITED = 2;
+
+    static final int STRIPES = 64;
+
+    private static final @NotNull AtomicLongFieldUpdater<RateLimiter> NEXT_SWEEP =
+            AtomicLongFieldUpdater.newUpdater(RateLimiter.class, "nextSweep");
+
+    private enum KeyType {
+        TOPIC,
+        TOPIC_LEVEL,
+        USER_PROPERTY
+    }
+
+    private final @NotNull KeyType keyType;
+    private final @Nullable String keyName;
+    private final int keyLevel;
+    private final long intervalNanos;
+    private final long burstToleranceNanos;
+    private final int sampleOneIn;
+    private final long sweepIntervalNanos;
+    private final long idleNanos;
+    private final @NotNull ConcurrentHashMap<String, Bucket> @NotNull [] stripes;
+    private volatile long nextSweep;
+    private int nextStripe;
+
+    /**
+     * @param key               {@code topic}, {@code topic-level:<index>} or {@code user-property:<name>}.
+     * @param messagesPerSecond the admitted rate per key or {@code 0} if the rate is not limited.
+     * @param burst             the number of messages per key that are admitted at once after the key was idle.
+     * @param sampleOneIn       only every n-th message per key is forwarded, {@code 1} forwards all messages.
+     * @param idleMillis        the time after which the bucket of a key without messages is removed.
+     * @throws IllegalArgumentException if the key is not valid.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    RateLimiter(
+            final @NotNull String key,
+            final double messagesPerSecond,
+            final int burst,
+            final int sampleOneIn,
+            final long idleMillis) {
+        if (key.equals("topic")) {
+            keyType = KeyType.TOPIC;
+            keyName = null;
+            keyLevel = -1;
+        } else if (key.startsWith("topic-level:")) {
+            keyType = KeyType.TOPIC_LEVEL;
+            keyName = null;
+            try {
+                keyLevel = Integer.parseInt(key.substring("topic-level:".length()).trim());
+            } catch (final NumberFormatException e) {
+                throw new IllegalArgumentException("The topic level of the key '" + key + "' is not a number.");
+            }
+            if (keyLevel < 0) {
+                throw new IllegalArgumentException("The topic level of the key '" + key + "' is negative.");
+            }
+        } else if (key.startsWith("user-property:") && key.length() > "user-property:".length()) {
+            keyType = KeyType.USER_PROPERTY;
+            keyName = key.substring("user-property:".length());
+            keyLevel = -1;
+        } else {
+            throw new IllegalArgumentException("Unknown key '" + key +
+                    "', supported are 'topic', 'topic-level:<index>' and 'user-property:<name>'.");
+        }
+        intervalNanos = messagesPerSecond > 0 ? Math.max(1, (long) (1_000_000_000 / messagesPerSecond)) : 0;
+        burstToleranceNanos = intervalNanos * (Math.max(1, burst) - 1);
+        this.sampleOneIn = Math.max(1, sampleOneIn);
+        idleNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, idleMillis));
+        sweepIntervalNanos = Math.max(1, idleNanos / STRIPES);
+        stripes = new ConcurrentHashMap[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ConcurrentHashMap<>();
+        }
+        nextSweep = System.nanoTime() + sweepIntervalNanos;
+    }
+
+    /**
+     * @return the key of the MQTT PUBLISH. MQTT PUBLISHes without the topic level or user property share the key
+     *         {@code ""}.
+     */
+    @NotNull String keyOf(final @NotNull PublishPacket publishPacket) {
+        switch (keyType) {
+            case TOPIC_LEVEL:
+                final String topic = publishPacket.getTopic();
+                int start = 0;
+                for (int level = 0; level < keyLevel; level++) {
+                    start = topic.indexOf('/', start) + 1;
+                    if (start == 0) {
+                        return "";
+                    }
+                }
+                final int end = topic.indexOf('/', start);
+                return end == -1 ? topic.substring(start) : topic.substring(start, end);
+            case USER_PROPERTY:
+                return publishPacket.getUserProperties().getFirst(keyName).orElse("");
+            default:
+                return publishPacket.getTopic();
+        }
+    }
+
+    /**
+     * @param key      the key of the MQTT PUBLISH.
+     * @param nowNanos the current {@link System#nanoTime()}.
+     * @return {@link #FORWARD}, {@link #SAMPLED_OUT} if the MQTT PUBLISH is not one of the sampled ones, or
+     *         {@link #LIMITED} if the key exceeded its rate.
+     */
+    int acquire(final @NotNull String key, final long nowNanos) {
+        if (nowNanos - nextSweep >= 0) {
+            sweep(nowNanos);
+        }
+        final ConcurrentHashMap<String, Bucket> stripe = stripes[stripe(key)];
+        Bucket bucket = stripe.get(key);
+        if (bucket == null) {
+            bucket = stripe.computeIfAbsent(key, k -> new Bucket(nowNanos));
+        }
+        bucket.lastSeen = nowNanos;
+        if (sampleOneIn > 1 && Bucket.COUNT.getAndIncrement(bucket) % sampleOneIn != 0) {
+            return SAMPLED_OUT;
+        }
+        if (intervalNanos == 0) {
+            return FORWARD;
+        }
+        while (true) {
+            final long emptyAt = bucket.emptyAt;
+            final long start = emptyAt - nowNanos > 0 ? emptyAt : nowNanos;
+            if (start - nowNanos > burstToleranceNanos) {
+                return LIMITED;
+            }
+            if (Bucket.EMPTY_AT.compareAndSet(bucket, emptyAt, start + intervalNanos)) {
+                return FORWARD;
+            }
+        }
+    }
+
+    /**
+     * @return the number of keys that have a bucket.
+     */
+    int size() {
+        int size = 0;
+        for (final ConcurrentHashMap<String, Bucket> stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    private void sweep(final long nowNanos) {
+        final long nextSweep = this.nextSweep;
+        if (nowNanos - nextSweep < 0 || !NEXT_SWEEP.compareAndSet(this, nextSweep, nowNanos + sweepIntervalNanos)) {
+            // another thread sweeps
+            return;
+        }
+        // only the thread that won the compare-and-set reads and writes the stripe index
+        final int index = nextStripe;
+        nextStripe = (index + 1) % STRIPES;
+        stripes[index].values().removeIf(bucket -> nowNanos - bucket.lastSeen > idleNanos);
+    }
+
+    private static int stripe(final @NotNull String key) {
+        final int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+    }
+
+    private static final class Bucket {
+
+        private static final @NotNull AtomicLongFieldUpdater<Bucket> EMPTY_AT =
+                AtomicLongFieldUpdater.newUpdater(Bucket.class, "emptyAt");
+        private static final @NotNull AtomicLongFieldUpdater<Bucket> COUNT =
+                AtomicLongFieldUpdater.newUpdater(Bucket.class, "count");
+
+        /**
+         * The time at which all tokens of the bucket are available again.
+         */
+        private volatile long emptyAt;
+        private volatile long count;
+        private volatile long lastSeen;
+
+        private Bucket(final long nowNanos) {
+            emptyAt = nowNanos;
+            lastSeen = nowNanos;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.hivemq.extension.sdk.api.annotations.ThreadSafe;
+import com.hivemq.extensions.google.cloud.pubsub.api.model.CustomSetting;
+import com.hivemq.extensions.google.cloud.pubsub.api.model.CustomSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * A file of custom settings that replace the custom settings of the same name from the extension configuration and
+ * that is reloaded whenever it changes.
+ * <p>
+ * Every line of the file is a custom setting {@code <name> = <value>}, split at the first {@code =}. Empty lines and
+ * lines that start with {@code #} are ignored. A name may occur multiple times, e.g. for multiple destinations.
+ * <p>
+ * The file is watched by a daemon thread with a {@link WatchService}. The thread waits until the file has not changed
+ * for {@link #SETTLE_MILLIS}, loads it and passes the merged custom settings to the listener, so the listener can
+ * build the new settings off the hot path and publish them at once. If the file can not be read, the previous custom
+ * settings stay active.
+ *
+ * @since 4.53.0
+ */
+@ThreadSafe
+final class RulesFile implements AutoCloseable {
+
+    private static final @NotNull Logger LOG = LoggerFactory.getLogger(RulesFile.class);
+
+    static final @NotNull String RULES_FILE = "rules-file";
+
+    static final long SETTLE_MILLIS = 100;
+
+    private final @NotNull Path file;
+    private final @NotNull CustomSettings configured;
+    // only accessed by the thread that initializes the transformer and then by the watching thread
+    private @Nullable String lastContent;
+    private volatile @Nullable WatchService watchService;
+    private volatile boolean closed;
+
+    private RulesFile(final @NotNull Path file, final @NotNull CustomSettings configured) {
+        this.file = file.toAbsolutePath().normalize();
+        this.configured = configured;
+    }
+
+    /**
+     * @return the rules file of the `rules-file` custom setting or {@code null} if the setting is absent.
+     */
+    static @Nullable RulesFile of(final @NotNull CustomSettings configured) {
+        return configured.getFirst(RULES_FILE)
+                .map(String::trim)
+                .filter(file -> !file.isEmpty())
+                .map(file -> new RulesFile(Path.of(file), configured))
+                .orElse(null);
+    }
+
+    @NotNull Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return the custom settings of the extension configuration, where the custom settings of the file replace the
+     *         ones with the same name.
+     * @throws IOException if the file can not be read.
+     */
+    @NotNull CustomSettings load() throws IOException {
+        final String content = Files.readString(file);
+        lastContent = content;
+        return merge(configured, parse(content));
+    }
+
+    /**
+     * @return the custom settings like {@link #load()} or the custom settings of the extension configuration if the
+     *         file can not be read.
+     */
+    @NotNull CustomSettings loadOrConfigured() {
+        try {
+            return load();
+        } catch (final IOException e) {
+            LOG.error("Could not load rules file '{}', only the custom settings of the configuration are used until " +
+                    "it can be loaded. Reason: {}", file, e.getMessage());
+            return configured;
+        }
+    }
+
+    /**
+     * Starts to watch the file. The listener is called on the watching thread for every change of the content of the
+     * file, never concurrently, and no longer after the rules file is closed.
+     *
+     * @param name the name of the watching thread.
+     */
+    void watch(final @NotNull String name, final @NotNull Consumer<@NotNull CustomSettings> listener) {
+        final Path directory = file.getParent();
+        final WatchService watchService;
+        try {
+            watchService = directory.getFileSystem().newWatchService();
+            try {
+                // editors often replace the file instead of modifying it
+                directory.register(watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+            } catch (final IOException e) {
+                watchService.close();
+                throw e;
+            }
+        } catch (final IOException e) {
+            LOG.error("Could not watch rules file '{}', changes are not reloaded. Reason: {}", file, e.getMessage());
+            return;
+        }
+        this.watchService = watchService;
+        final Thread thread = new Thread(() -> run(watchService, listener), name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        final WatchService watchService = this.watchService;
+        if (watchService != null) {
+            try {
+                // ends the watching thread
+                watchService.close();
+            } catch (final IOException e) {
+                LOG.debug("Could not close the watch service of rules file '{}'.", file, e);
+            }
+        }
+    }
+
+    private void run(
+            final @NotNull WatchService watchService,
+            final @NotNull Consumer<@NotNull CustomSettings> listener) {
+        final Path fileName = file.getFileName();
+        try {
+            while (true) {
+                boolean changed = false;
+                // a write often causes several events, e.g. truncate and append, which are collected into one reload
+                for (WatchKey key = watchService.take();
+                     key != null;
+                     key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) {
+                    for (final WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW || fileName.equals(event.context())) {
+                            changed = true;
+                        }
+                    }
+                    if (!key.reset()) {
+                        LOG.warn("The directory of rules file '{}' is no longer accessible. The rules are no longer " +
+                                "reloaded.", file);
+                        return;
+                    }
+                }
+                if (changed) {
+                    reload(listener);
+                }
+            }
+        } catch (final InterruptedException | ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+
+    private void reload(final @NotNull Consumer<@NotNull CustomSettings> listener) {
+        final String previousContent = lastContent;
+        final CustomSettings customSettings;
+        try {
+            customSettings = load();
+        } catch (final IOException e) {
+            LOG.warn("Could not reload rules file '{}', the previous rules stay active. Reason: {}",
+                    file,
+                    e.getMessage());
+            return;
+        }
+        if (closed || lastContent.equals(previousContent)) {
+            return;
+        }
+        try {
+            listener.accept(customSettings);
+            LOG.info("Reloaded rules file '{}'.", file);
+        } catch (final RuntimeException e) {
+            LOG.error("Could not apply rules file '{}', the previous rules stay active.", file, e);
+        }
+    }
+
+    static @NotNull List<CustomSetting> parse(final @NotNull String content) {
+        final List<CustomSetting> customSettings = new ArrayList<>();
+        final String[] lines = content.split("\\R");
+        for (int i = 0; i < lines.length; i++) {
+            final String line = lines[i].trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            final int separator = line.indexOf('=');
+            final String name = separator == -1 ? "" : line.substring(0, separator).trim();
+            if (name.isEmpty() || name.equals(RULES_FILE)) {
+                LOG.warn("Ignoring line {} '{}' of the rules file. Expected '<name> = <value>'.", i + 1, line);
+                continue;
+            }
+            customSettings.add(new Setting(name, line.substring(separator + 1).trim()));
+        }
+        return customSettings;
+    }
+
+    static @NotNull CustomSettings merge(
+            final @NotNull CustomSettings configured,
+            final @NotNull List<CustomSetting> overrides) {
+        final Set<String> names = new HashSet<>();
+        for (final CustomSetting override : overrides) {
+            names.add(override.getName());
+        }
+        final List<CustomSetting> merged = new ArrayList<>();
+        for (final CustomSetting customSetting : configured.asList()) {
+            if (!names.contains(customSetting.getName())) {
+                merged.add(customSetting);
+            }
+        }
+        merged.addAll(overrides);
+        return new StaticCustomSettings(merged);
+    }
+
+    private static final class Setting implements CustomSetting {
+
+        private final @NotNull String name;
+        private final @NotNull String value;
+
+        private Setting(final @NotNull String name, final @NotNull String value) {
+            this.name = name;
+            this.value = value;
+        }
+
+        @Override
+        public @NotNull String getName() {
+            return name;
+        }
+
+        @Override
+        public @NotNull String getValue() {
+            return value;
+        }
+    }
+}
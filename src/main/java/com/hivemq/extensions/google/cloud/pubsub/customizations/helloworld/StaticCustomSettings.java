@@ -0,0 +1,82 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.Immutable;
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extensions.google.cloud.pubsub.api.model.CustomSetting;
+import com.hivemq.extensions.google.cloud.pubsub.api.model.CustomSettings;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * An immutable list of custom settings that does not come from the extension configuration.
+ *
+ * @since 4.53.0
+ */
+@Immutable
+final class StaticCustomSettings implements CustomSettings {
+
+    static final @NotNull StaticCustomSettings EMPTY = new StaticCustomSettings(List.of());
+
+    private final @NotNull List<CustomSetting> customSettings;
+
+    StaticCustomSettings(final @NotNull List<? extends CustomSetting> customSettings) {
+        this.customSettings = List.copyOf(customSettings);
+    }
+
+    @Override
+    public @NotNull Optional<String> getFirst(final @NotNull String name) {
+        for (final CustomSetting customSetting : customSettings) {
+            if (customSetting.getName().equals(name)) {
+                return Optional.of(customSetting.getValue());
+            }
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public @NotNull List<@NotNull String> getAllForName(final @NotNull String name) {
+        return customSettings.stream()
+                .filter(customSetting -> customSetting.getName().equals(name))
+                .map(CustomSetting::getValue)
+                .collect(Collectors.toUnmodifiableList());
+    }
+
+    @Override
+    public @NotNull List<@NotNull CustomSetting> asList() {
+        return customSettings;
+    }
+
+    @Override
+    public @NotNull Map<String, String> asSingleValueMap() {
+        final Map<String, String> map = new LinkedHashMap<>();
+        for (final CustomSetting customSetting : customSettings) {
+            map.putIfAbsent(customSetting.getName(), customSetting.getValue());
+        }
+        return map;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return customSettings.isEmpty();
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.hivemq.extension.sdk.api.annotations.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Selects the Pub/Sub topics of an MQTT PUBLISH based on its MQTT topic.
+ * <p>
+ * The routes are compiled into a trie of topic levels, so the cost of a lookup depends on the number of levels of the
+ * MQTT topic and not on the number of routes. The results are kept in a bounded LRU cache, as most MQTT topics are
+ * published to repeatedly.
+ * <p>
+ * A route has the format {@code <mqtt-topic-filter> -> <pubsub-topic>} and supports the MQTT wildcards {@code +} and
+ * {@code #}. Like in MQTT, filters that start with a wildcard do not match topics that start with {@code $}.
+ *
+ * @since 4.53.0
+ */
+@ThreadSafe
+final class TopicRouter {
+
+    private static final @NotNull Logger LOG = LoggerFactory.getLogger(TopicRouter.class);
+
+    static final @NotNull String ROUTE_SEPARATOR = "->";
+    private static final int CACHE_SEGMENTS = 16;
+
+    private final @NotNull String @NotNull [] destinations;
+    private final @Nullable Node root;
+    private final @Nullable CacheSegment @NotNull [] cache;
+
+    /**
+     * @param destinations the Pub/Sub topics every MQTT PUBLISH is routed to.
+     * @param routes       the routes in the format {@code <mqtt-topic-filter> -> <pubsub-topic>}. Invalid routes are
+     *                     logged and ignored.
+     * @param cacheSize    the maximum amount of MQTT topics whose routing result is cached, 0 disables the cache.
+     */
+    TopicRouter(
+            final @NotNull String @NotNull [] destinations,
+            final @NotNull List<String> routes,
+            final int cacheSize) {
+        this.destinations = destinations;
+        this.root = compile(routes);
+        if (root == null || cacheSize <= 0) {
+            cache = new CacheSegment[0];
+        } else {
+            final int segments = Math.min(CACHE_SEGMENTS, cacheSize);
+            cache = new CacheSegment[segments];
+            for (int i = 0; i < segments; i++) {
+                cache[i] = new CacheSegment(Math.max(1, cacheSize / segments));
+            }
+        }
+    }
+
+    /**
+     * @param mqttTopic the topic of the MQTT PUBLISH.
+     * @return the Pub/Sub topics the MQTT PUBLISH is routed to. The array is shared and must not be modified.
+     */
+    @NotNull String @NotNull [] route(final @NotNull String mqttTopic) {
+        final Node root = this.root;
+        if (root == null) {
+            return destinations;
+        }
+        if (cache.length == 0) {
+            return match(root, mqttTopic);
+        }
+        final CacheSegment segment = cache[(mqttTopic.hashCode() & 0x7fff_ffff) % cache.length];
+        String[] result;
+        synchronized (segment) {
+            result = segment.get(mqttTopic);
+        }
+        if (result == null) {
+            result = match(root, mqttTopic);
+            synchronized (segment) {
+                segment.put(mqttTopic, result);
+            }
+        }
+        return result;
+    }
+
+    private @NotNull String @NotNull [] match(final @NotNull Node root, final @NotNull String mqttTopic) {
+        final Set<String> result = new LinkedHashSet<>(List.of(destinations));
+        match(root, mqttTopic, 0, !mqttTopic.startsWith("$"), result);
+        if (result.size() == destinations.length) {
+            return destinations;
+        }
+        return result.toArray(String[]::new);
+    }
+
+    private static void match(
+            final @NotNull Node node,
+            final @NotNull String mqttTopic,
+            final int levelStart,
+            final boolean wildcardsAllowed,
+            final @NotNull Set<String> result) {
+        // the multi-level wildcard also matches the parent level, e.g. "a/#" matches "a"
+        if (node.multiLevelWildcard != null && wildcardsAllowed) {
+            result.addAll(node.multiLevelWildcard.destinations);
+        }
+        if (levelStart > mqttTopic.length()) {
+            result.addAll(node.destinations);
+            return;
+        }
+        int levelEnd = mqttTopic.indexOf('/', levelStart);
+        if (levelEnd == -1) {
+            levelEnd = mqttTopic.length();
+        }
+        final Node child = node.children.get(mqttTopic.substring(levelStart, levelEnd));
+        if (child != null) {
+            match(child, mqttTopic, levelEnd + 1, true, result);
+        }
+        if (node.singleLevelWildcard != null && wildcardsAllowed) {
+            match(node.singleLevelWildcard, mqttTopic, levelEnd + 1, true, result);
+        }
+    }
+
+    private static @Nullable Node compile(final @NotNull List<String> routes) {
+        if (routes.isEmpty()) {
+            return null;
+        }
+        final Node root = new Node();
+        for (final String route : routes) {
+            final int separator = route.indexOf(ROUTE_SEPARATOR);
+            if (separator == -1) {
+                LOG.warn("Ignoring route '{}', it must have the format '<mqtt-topic-filter> -> <pubsub-topic>'.", route);
+                continue;
+            }
+            final String topicFilter = route.substring(0, separator).trim();
+            final String destination = route.substring(separator + ROUTE_SEPARATOR.length()).trim();
+            if (destination.isEmpty() || !isValidTopicFilter(topicFilter)) {
+                LOG.warn("Ignoring route '{}', it does not contain a valid MQTT topic filter and Pub/Sub topic.", route);
+                continue;
+            }
+            Node node = root;
+            for (final String level : topicFilter.split("/", -1)) {
+                switch (level) {
+                    case "+":
+                        if (node.singleLevelWildcard == null) {
+                            node.singleLevelWildcard = new Node();
+                        }
+                        node = node.singleLevelWildcard;
+                        break;
+                    case "#":
+                        if (node.multiLevelWildcard == null) {
+                            node.multiLevelWildcard = new Node();
+                        }
+                        node = node.multiLevelWildcard;
+                        break;
+                    default:
+                        node = node.children.computeIfAbsent(level, key -> new Node());
+                }
+            }
+            node.destinations.add(destination);
+        }
+        return root;
+    }
+
+    static boolean isValidTopicFilter(final @NotNull String topicFilter) {
+        if (topicFilter.isEmpty()) {
+            return false;
+        }
+        final String[] levels = topicFilter.split("/", -1);
+        for (int i = 0; i < levels.length; i++) {
+            final String level = levels[i];
+            if (level.equals("#")) {
+                if (i != levels.length - 1) {
+                    return false;
+                }
+            } else if (!level.equals("+") && (level.indexOf('#') != -1 || level.indexOf('+') != -1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class Node {
+
+        final @NotNull Map<String, Node> children = new HashMap<>();
+        final @NotNull List<String> destinations = new ArrayList<>(1);
+        @Nullable Node singleLevelWildcard;
+        @Nullable Node multiLevelWildcard;
+    }
+
+    private static final class CacheSegment extends LinkedHashMap<String, String[]> {
+
+        private final int capacity;
+
+        CacheSegment(final int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final @NotNull Map.Entry<String, String[]> eldest) {
+            return size() > capacity;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.Immutable;
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Derives Pub/Sub attributes and the ordering key from the levels of the MQTT topic.
+ * <p>
+ * A rule has the format {@code segment[<index>] -> <attribute-name>}, the ordering key has the format
+ * {@code segment[<index>]}. Indexes start at {@code 0}, negative indexes count from the last level, so
+ * {@code segment[-1]} is the last level. The rules are compiled into level indexes, and the MQTT topic is scanned once
+ * per MQTT PUBLISH into a reused array of level offsets, so neither {@link String#split(String)} nor a regex is used.
+ * Only the levels up to the highest index are scanned if no index is negative.
+ *
+ * @since 4.53.0
+ */
+@Immutable
+final class TopicSegments {
+
+    private static final @NotNull Logger LOG = LoggerFactory.getLogger(TopicSegments.class);
+
+    static final @NotNull TopicSegments NONE = new TopicSegments(List.of(), null);
+
+    private static final @NotNull String SEGMENT_PREFIX = "segment[";
+    private static final @NotNull ThreadLocal<int[]> LEVEL_STARTS = ThreadLocal.withInitial(() -> new int[16]);
+
+    private final int @NotNull [] attributeSegments;
+    private final @NotNull String @NotNull [] attributeNames;
+    private final int orderingKeySegment;
+    private final boolean orderingKey;
+    /**
+     * The number of levels that must be scanned, {@link Integer#MAX_VALUE} if an index counts from the last level.
+     */
+    private final int scannedLevels;
+
+    /**
+     * @param attributes  the rules in the format {@code segment[<index>] -> <attribute-name>}. Invalid rules are logged
+     *                    and ignored.
+     * @param orderingKey the level of the ordering key in the format {@code segment[<index>]} or {@code null} if
+     *                    messages have no ordering key. An invalid value is logged and ignored.
+     */
+    TopicSegments(final @NotNull List<String> attributes, final @Nullable String orderingKey) {
+        final List<String> names = new ArrayList<>(attributes.size());
+        final int[] segments = new int[attributes.size()];
+        for (final String attribute : attributes) {
+            final int separator = attribute.indexOf(TopicRouter.ROUTE_SEPARATOR);
+            final String name = separator == -1 ?
+                    "" :
+                    attribute.substring(separator + TopicRouter.ROUTE_SEPARATOR.length()).trim();
+            if (name.isEmpty()) {
+                LOG.warn("Ignoring segment attribute '{}', it must have the format 'segment[<index>] -> <attribute-name>'.",
+                        attribute);
+                continue;
+            }
+            try {
+                segments[names.size()] = parseSegment(attribute.substring(0, separator));
+                names.add(name);
+            } catch (final IllegalArgumentException e) {
+                LOG.warn("Ignoring segment attribute '{}'. {}", attribute, e.getMessage());
+            }
+        }
+        attributeNames = names.toArray(String[]::new);
+        attributeSegments = Arrays.copyOf(segments, names.size());
+
+        int orderingKeySegment = 0;
+        boolean hasOrderingKey = false;
+        if (orderingKey != null && !orderingKey.isBlank()) {
+            try {
+                orderingKeySegment = parseSegment(orderingKey);
+                hasOrderingKey = true;
+            } catch (final IllegalArgumentException e) {
+                LOG.warn("Ignoring ordering key '{}'. {}", orderingKey, e.getMessage());
+            }
+        }
+        this.orderingKeySegment = orderingKeySegment;
+        this.orderingKey = hasOrderingKey;
+
+        int scannedLevels = hasOrderingKey ? levelsFor(orderingKeySegment) : 0;
+        for (final int segment : attributeSegments) {
+            scannedLevels = Math.max(scannedLevels, levelsFor(segment));
+        }
+        this.scannedLevels = scannedLevels;
+    }
+
+    /**
+     * @return {@code true} if neither attributes nor an ordering key are derived.
+     */
+    boolean isEmpty() {
+        return attributeSegments.length == 0 && !orderingKey;
+    }
+
+    /**
+     * Adds the derived attributes and sets the ordering key. Levels that do not exist or are empty are skipped.
+     */
+    void extract(final @NotNull String mqttTopic, final @NotNull OutboundAttributes attributes) {
+        int[] starts = LEVEL_STARTS.get();
+        starts[0] = 0;
+        int levels = 1;
+        final int length = mqttTopic.length();
+        for (int i = 0; i < length && levels < scannedLevels; i++) {
+            if (mqttTopic.charAt(i) == '/') {
+                if (levels == starts.length) {
+                    starts = Arrays.copyOf(starts, levels * 2);
+                    LEVEL_STARTS.set(starts);
+                }
+                starts[levels++] = i + 1;
+            }
+        }
+        for (int i = 0; i < attributeSegments.length; i++) {
+            final String value = level(mqttTopic, starts, levels, attributeSegments[i]);
+            if (value != null) {
+                attributes.add(attributeNames[i], value);
+            }
+        }
+        if (orderingKey) {
+            final String value = level(mqttTopic, starts, levels, orderingKeySegment);
+            if (value != null) {
+                attributes.orderingKey(value);
+            }
+        }
+    }
+
+    private @Nullable String level(
+            final @NotNull String mqttTopic,
+            final int @NotNull [] starts,
+            final int levels,
+            final int segment) {
+        final int index = segment < 0 ? levels + segment : segment;
+        if (index < 0 || index >= levels) {
+            return null;
+        }
+        final int start = starts[index];
+        final int end;
+        if (index + 1 < levels) {
+            end = starts[index + 1] - 1;
+        } else {
+            // the scan may have stopped before the end of the MQTT topic
+            final int next = mqttTopic.indexOf('/', start);
+            end = next == -1 ? mqttTopic.length() : next;
+        }
+        return start == end ? null : mqttTopic.substring(start, end);
+    }
+
+    private static int levelsFor(final int segment) {
+        return segment < 0 ? Integer.MAX_VALUE : segment + 1;
+    }
+
+    private static int parseSegment(final @NotNull String value) {
+        final String segment = value.trim();
+        if (!segment.startsWith(SEGMENT_PREFIX) || !segment.endsWith("]")) {
+            throw new IllegalArgumentException("'" + segment + "' must have the format 'segment[<index>]'.");
+        }
+        try {
+            return Integer.parseInt(segment.substring(SEGMENT_PREFIX.length(), segment.length() - 1).trim());
+        } catch (final NumberFormatException e) {
+            throw new IllegalArgumentException("The index of '" + segment + "' is not a number.");
+        }
+    }
+}
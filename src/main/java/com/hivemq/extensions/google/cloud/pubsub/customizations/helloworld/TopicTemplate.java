@@ -0,0 +1,140 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.Immutable;
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An MQTT topic template like {@code devices/${attr:device-id}/cmd} whose placeholders are replaced by the values of
+ * Pub/Sub message attributes.
+ * <p>
+ * The template is parsed once into a list of segments. Rendering appends the segments to a thread-local
+ * {@link StringBuilder}, templates without placeholders and templates that consist of a single placeholder are
+ * rendered without copying at all.
+ *
+ * @since 4.53.0
+ */
+@Immutable
+final class TopicTemplate {
+
+    static final @NotNull String ATTRIBUTE_PREFIX = "attr:";
+
+    private static final @NotNull ThreadLocal<StringBuilder> STRING_BUILDER =
+            ThreadLocal.withInitial(() -> new StringBuilder(128));
+
+    /**
+     * The segments of the template, even indexes contain literal text, odd indexes contain attribute names.
+     */
+    private final @NotNull String @NotNull [] segments;
+    private final @NotNull String template;
+
+    private TopicTemplate(final @NotNull String template, final @NotNull String @NotNull [] segments) {
+        this.template = template;
+        this.segments = segments;
+    }
+
+    /**
+     * @param template the template to parse.
+     * @return the parsed template.
+     * @throws IllegalArgumentException if the template has an unterminated or unknown placeholder or if its literal
+     *                                  text contains MQTT wildcards.
+     */
+    static @NotNull TopicTemplate parse(final @NotNull String template) {
+        final List<String> segments = new ArrayList<>();
+        int index = 0;
+        while (true) {
+            final int start = template.indexOf("${", index);
+            if (start == -1) {
+                segments.add(validLiteral(template, template.substring(index)));
+                break;
+            }
+            final int end = template.indexOf('}', start);
+            if (end == -1) {
+                throw new IllegalArgumentException("Unterminated placeholder in MQTT topic template '" + template + "'.");
+            }
+            final String placeholder = template.substring(start + 2, end);
+            if (!placeholder.startsWith(ATTRIBUTE_PREFIX) || placeholder.length() == ATTRIBUTE_PREFIX.length()) {
+                throw new IllegalArgumentException("Unknown placeholder '${" + placeholder + "}' in MQTT topic template '" +
+                        template + "', only '${" + ATTRIBUTE_PREFIX + "<name>}' is supported.");
+            }
+            segments.add(validLiteral(template, template.substring(index, start)));
+            segments.add(placeholder.substring(ATTRIBUTE_PREFIX.length()));
+            index = end + 1;
+        }
+        if (segments.size() == 1 && segments.get(0).isEmpty()) {
+            throw new IllegalArgumentException("The MQTT topic template must not be empty.");
+        }
+        return new TopicTemplate(template, segments.toArray(String[]::new));
+    }
+
+    private static @NotNull String validLiteral(final @NotNull String template, final @NotNull String literal) {
+        if (!isValidTopicPart(literal)) {
+            throw new IllegalArgumentException("The MQTT topic template '" + template + "' must not contain wildcards.");
+        }
+        return literal;
+    }
+
+    /**
+     * @param attributes the attributes of the Pub/Sub message.
+     * @return the MQTT topic or {@code null} if an attribute of the template is missing or is not a valid part of an
+     *         MQTT topic.
+     */
+    @Nullable String render(final @NotNull Map<String, String> attributes) {
+        if (segments.length == 1) {
+            return segments[0];
+        }
+        if (segments.length == 3 && segments[0].isEmpty() && segments[2].isEmpty()) {
+            final String value = attributes.get(segments[1]);
+            return value == null || value.isEmpty() || !isValidTopicPart(value) ? null : value;
+        }
+        final StringBuilder builder = STRING_BUILDER.get();
+        builder.setLength(0);
+        for (int i = 0; i < segments.length; i++) {
+            if ((i & 1) == 0) {
+                builder.append(segments[i]);
+            } else {
+                final String value = attributes.get(segments[i]);
+                if (value == null || value.isEmpty() || !isValidTopicPart(value)) {
+                    return null;
+                }
+                builder.append(value);
+            }
+        }
+        return builder.toString();
+    }
+
+    private static boolean isValidTopicPart(final @NotNull String part) {
+        for (int i = 0; i < part.length(); i++) {
+            final char c = part.charAt(i);
+            if (c == '+' || c == '#' || c == '\u0000') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public @NotNull String toString() {
+        return template;
+    }
+}
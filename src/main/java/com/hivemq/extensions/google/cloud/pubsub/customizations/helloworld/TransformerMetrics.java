@@ -0,0 +1,309 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.hivemq.extension.sdk.api.annotations.ThreadSafe;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The latency and throughput metrics of a transformer, registered per Pub/Sub connection and transformer id.
+ * <p>
+ * Every transformation always updates the counters, which are striped and therefore do not contend between threads.
+ * The timer and the histograms keep samples in a reservoir, so they are only registered and updated if detailed metrics
+ * are enabled.
+ *
+ * @since 4.53.0
+ */
+@ThreadSafe
+final class TransformerMetrics {
+
+    static final @NotNull String PREFIX = "com.hivemq.extensions.google-cloud-pubsub.customizations";
+    static final @NotNull String MQTT_TO_PUBSUB = "mqtt-to-pubsub";
+    static final @NotNull String PUBSUB_TO_MQTT = "pubsub-to-mqtt";
+
+    static final @NotNull String SAMPLED_OUT = "sampled-out";
+    static final @NotNull String RATE_LIMITED_DROPPED = "rate-limited.dropped";
+    static final @NotNull String RATE_LIMITED_DOWNGRADED = "rate-limited.downgraded";
+    static final @NotNull String DEAD_LETTERED = "dead-lettered";
+    static final @NotNull String CHUNKED = "chunked";
+    static final @NotNull String CHUNKS_REASSEMBLED = "chunks.reassembled";
+    static final @NotNull String CHUNKS_EXPIRED = "chunks.expired";
+    static final @NotNull String BATCH_RECORDS_DROPPED = "batch.records-dropped";
+    static final @NotNull String PAYLOAD_ATTRIBUTES_LIMITED = "payload-attributes.limited";
+
+    /**
+     * The metrics of a transformer that was not initialized, they are not registered in the metric registry of HiveMQ.
+     */
+    static final @NotNull TransformerMetrics NONE =
+            new TransformerMetrics(new MetricRegistry(), "none", false, false, false);
+
+    private final @NotNull MetricRegistry metricRegistry;
+    private final @NotNull String prefix;
+    private final @NotNull Counter messagesIn;
+    private final @NotNull Counter messagesOut;
+    private final @NotNull Counter bytesIn;
+    private final @NotNull Counter bytesOut;
+    private final @NotNull Counter transformNanos;
+    private final @NotNull Counter failed;
+    private final @Nullable Timer transformTime;
+    private final @Nullable Histogram bytesInPerMessage;
+    private final @Nullable Histogram bytesOutPerMessage;
+    private final @Nullable Histogram messagesOutPerMessage;
+    private final @Nullable Histogram attributesPerMessage;
+    private final @NotNull ConcurrentHashMap<String, Counter> destinations = new ConcurrentHashMap<>();
+    private final @NotNull ConcurrentHashMap<String, Counter> drops = new ConcurrentHashMap<>();
+    private final @NotNull ConcurrentHashMap<String, Counter> limits = new ConcurrentHashMap<>();
+    private final @NotNull ConcurrentHashMap<Class<?>, Counter> errors = new ConcurrentHashMap<>();
+    private final @NotNull Counter @Nullable [] dedup;
+    private final @Nullable Counter missingData;
+    private final @Nullable Counter missingTopicAttribute;
+
+    private TransformerMetrics(
+            final @NotNull MetricRegistry metricRegistry,
+            final @NotNull String prefix,
+            final boolean detailed,
+            final boolean deduplicating,
+            final boolean pubSubToMqtt) {
+        this.metricRegistry = metricRegistry;
+        this.prefix = prefix;
+        messagesIn = metricRegistry.counter(MetricRegistry.name(prefix, "messages-in", "count"));
+        messagesOut = metricRegistry.counter(MetricRegistry.name(prefix, "messages-out", "count"));
+        bytesIn = metricRegistry.counter(MetricRegistry.name(prefix, "bytes-in", "count"));
+        bytesOut = metricRegistry.counter(MetricRegistry.name(prefix, "bytes-out", "count"));
+        transformNanos = metricRegistry.counter(MetricRegistry.name(prefix, "transform-nanos", "count"));
+        failed = metricRegistry.counter(MetricRegistry.name(prefix, "failed", "count"));
+        if (detailed) {
+            transformTime = metricRegistry.timer(MetricRegistry.name(prefix, "transform", "time"));
+            bytesInPerMessage = metricRegistry.histogram(MetricRegistry.name(prefix, "bytes-in"));
+            bytesOutPerMessage = metricRegistry.histogram(MetricRegistry.name(prefix, "bytes-out"));
+            messagesOutPerMessage = metricRegistry.histogram(MetricRegistry.name(prefix, "messages-out"));
+            attributesPerMessage = metricRegistry.histogram(MetricRegistry.name(prefix, "attributes"));
+        } else {
+            transformTime = null;
+            bytesInPerMessage = null;
+            bytesOutPerMessage = null;
+            messagesOutPerMessage = null;
+            attributesPerMessage = null;
+        }
+        // indexed by the results of DedupCache#check
+        dedup = deduplicating ?
+                new Counter[]{
+                        metricRegistry.counter(MetricRegistry.name(prefix, "dedup", "misses", "count")),
+                        metricRegistry.counter(MetricRegistry.name(prefix, "dedup", "hits", "count")),
+                        metricRegistry.counter(MetricRegistry.name(prefix, "dedup", "evictions", "count"))} :
+                null;
+        // the counters of the missing data are shared by all Pub/Sub to MQTT transformers
+        if (pubSubToMqtt) {
+            missingData = metricRegistry.counter(PubSubToMqttHelloWorldTransformer.MISSING_DATA_COUNTER_NAME);
+            missingTopicAttribute =
+                    metricRegistry.counter(PubSubToMqttHelloWorldTransformer.MISSING_TOPIC_ATTRIBUTE_COUNTER_NAME);
+        } else {
+            missingData = null;
+            missingTopicAttribute = null;
+        }
+    }
+
+    /**
+     * @param direction     {@link #MQTT_TO_PUBSUB} or {@link #PUBSUB_TO_MQTT}.
+     * @param connectionId  the id of the Pub/Sub connection of the transformer.
+     * @param transformerId the id of the transformer from the `transformer-id` custom setting.
+     * @param detailed      whether the timer and the histograms are registered.
+     */
+    static @NotNull TransformerMetrics of(
+            final @NotNull MetricRegistry metricRegistry,
+            final @NotNull String direction,
+            final @NotNull String connectionId,
+            final @NotNull String transformerId,
+            final boolean detailed) {
+        return of(metricRegistry, direction, connectionId, transformerId, detailed, false);
+    }
+
+    /**
+     * @param deduplicating whether the counters of the {@link DedupCache} are registered.
+     */
+    static @NotNull TransformerMetrics of(
+            final @NotNull MetricRegistry metricRegistry,
+            final @NotNull String direction,
+            final @NotNull String connectionId,
+            final @NotNull String transformerId,
+            final boolean detailed,
+            final boolean deduplicating) {
+        return new TransformerMetrics(metricRegistry,
+                name(direction, connectionId, transformerId),
+                detailed,
+                deduplicating,
+                PUBSUB_TO_MQTT.equals(direction));
+    }
+
+    /**
+     * @return the prefix of the names of the metrics of a transformer.
+     */
+    static @NotNull String name(
+            final @NotNull String direction,
+            final @NotNull String connectionId,
+            final @NotNull String transformerId) {
+        return MetricRegistry.name(PREFIX, direction, "transformer", connectionId, transformerId);
+    }
+
+    /**
+     * Records a transformed message.
+     *
+     * @param startNanos  the {@link System#nanoTime()} when the transformation started.
+     * @param bytesIn     the payload bytes of the transformed message.
+     * @param messagesOut the number of created messages.
+     * @param bytesOut    the payload bytes of all created messages.
+     * @param attributes  the number of attributes or user properties of the transformed message.
+     */
+    void transformed(
+            final long startNanos,
+            final long bytesIn,
+            final int messagesOut,
+            final long bytesOut,
+            final int attributes) {
+        final long nanos = System.nanoTime() - startNanos;
+        messagesIn.inc();
+        this.messagesOut.inc(messagesOut);
+        this.bytesIn.inc(bytesIn);
+        this.bytesOut.inc(bytesOut);
+        transformNanos.inc(nanos);
+        if (transformTime != null) {
+            transformTime.update(nanos, TimeUnit.NANOSECONDS);
+            bytesInPerMessage.update(bytesIn);
+            bytesOutPerMessage.update(bytesOut);
+            messagesOutPerMessage.update(messagesOut);
+            attributesPerMessage.update(attributes);
+        }
+    }
+
+    /**
+     * Records a message that could not be transformed, counted in total and per cause.
+     *
+     * @param cause the exception that caused the failure, counted by the name of its class.
+     */
+    void failed(final @NotNull Throwable cause) {
+        failed.inc();
+        Counter counter = errors.get(cause.getClass());
+        if (counter == null) {
+            counter = errors.computeIfAbsent(cause.getClass(),
+                    type -> metricRegistry.counter(MetricRegistry.name(prefix,
+                            "errors",
+                            ErrorLog.causeName(cause),
+                            "count")));
+        }
+        counter.inc();
+    }
+
+    /**
+     * Records a message that was sent to the dead letter topic.
+     */
+    void deadLettered() {
+        limited(DEAD_LETTERED);
+    }
+
+    /**
+     * Records a message that was created for the destination.
+     *
+     * @param destination the Pub/Sub topic of the message.
+     */
+    void sentTo(final @NotNull String destination) {
+        Counter counter = destinations.get(destination);
+        if (counter == null) {
+            counter = destinations.computeIfAbsent(destination,
+                    topic -> metricRegistry.counter(MetricRegistry.name(prefix, "destination", topic, "count")));
+        }
+        counter.inc();
+    }
+
+    /**
+     * Records a message that was dropped by a rule.
+     *
+     * @param rule the name of the rule that dropped the message.
+     */
+    void dropped(final @NotNull String rule) {
+        Counter counter = drops.get(rule);
+        if (counter == null) {
+            counter = drops.computeIfAbsent(rule,
+                    name -> metricRegistry.counter(MetricRegistry.name(prefix, "dropped", name, "count")));
+        }
+        counter.inc();
+    }
+
+    /**
+     * Records a message that was not forwarded to its routes as it is, e.g. by the {@link RateLimiter} or because it
+     * was split into chunks.
+     *
+     * @param outcome {@link #SAMPLED_OUT}, {@link #RATE_LIMITED_DROPPED}, {@link #RATE_LIMITED_DOWNGRADED},
+     *                {@link #DEAD_LETTERED}, {@link #CHUNKED}, {@link #CHUNKS_REASSEMBLED}, {@link #CHUNKS_EXPIRED} or
+     *                {@link #BATCH_RECORDS_DROPPED}.
+     */
+    void limited(final @NotNull String outcome) {
+        limited(outcome, 1);
+    }
+
+    /**
+     * Records many messages with the same outcome at once, e.g. the records of a batch.
+     */
+    void limited(final @NotNull String outcome, final long count) {
+        Counter counter = limits.get(outcome);
+        if (counter == null) {
+            counter = limits.computeIfAbsent(outcome,
+                    name -> metricRegistry.counter(MetricRegistry.name(prefix, name, "count")));
+        }
+        counter.inc(count);
+    }
+
+    /**
+     * Records a lookup in the {@link DedupCache}.
+     *
+     * @param result the result of {@link DedupCache#check(long, long)}.
+     */
+    void deduplicated(final int result) {
+        final Counter[] dedup = this.dedup;
+        if (dedup != null) {
+            dedup[result].inc();
+            if (result == DedupCache.MISS_EVICTED) {
+                dedup[DedupCache.MISS].inc();
+            }
+        }
+    }
+
+    /**
+     * Records a Pub/Sub message without data.
+     */
+    void missingData() {
+        if (missingData != null) {
+            missingData.inc();
+        }
+    }
+
+    /**
+     * Records a Pub/Sub message without the attribute of the `mqtt-topic` custom setting.
+     */
+    void missingTopicAttribute() {
+        if (missingTopicAttribute != null) {
+            missingTopicAttribute.inc();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.Immutable;
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+
+/**
+ * Everything a transformer reads per message: its settings, its metrics and its error log, and the rules file the
+ * settings are reloaded from.
+ * <p>
+ * The transformer replaces its state at once when it is initialized or its rules file changes, and reads it once per
+ * message. The state only references immutable or thread safe objects, so a message is always transformed with the
+ * settings, metrics and error log of the same initialization, and the worker threads share the state without any
+ * lock. The mutable scratch space of a transformation, like the {@link OutboundAttributes}, is confined to the worker
+ * thread instead.
+ *
+ * @param <S> the type of the settings.
+ * @since 4.53.0
+ */
+@Immutable
+final class TransformerState<S> {
+
+    private final @NotNull S settings;
+    private final @NotNull TransformerMetrics metrics;
+    private final @NotNull ErrorLog errorLog;
+    private final @Nullable RulesFile rulesFile;
+
+    TransformerState(
+            final @NotNull S settings,
+            final @NotNull TransformerMetrics metrics,
+            final @NotNull ErrorLog errorLog,
+            final @Nullable RulesFile rulesFile) {
+        this.settings = settings;
+        this.metrics = metrics;
+        this.errorLog = errorLog;
+        this.rulesFile = rulesFile;
+    }
+
+    /**
+     * @return the state with the settings of a changed rules file and the metrics and error log of this state.
+     */
+    @NotNull TransformerState<S> withSettings(final @NotNull S settings) {
+        return new TransformerState<>(settings, metrics, errorLog, rulesFile);
+    }
+
+    @NotNull S getSettings() {
+        return settings;
+    }
+
+    @NotNull TransformerMetrics getMetrics() {
+        return metrics;
+    }
+
+    @NotNull ErrorLog getErrorLog() {
+        return errorLog;
+    }
+
+    /**
+     * @return the rules file the settings are reloaded from or {@code null} if the `rules-file` custom setting is not
+     *         set.
+     */
+    @Nullable RulesFile getRulesFile() {
+        return rulesFile;
+    }
+}
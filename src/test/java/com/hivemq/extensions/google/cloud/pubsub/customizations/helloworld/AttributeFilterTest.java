@@ -0,0 +1,155 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @since 4.53.0
+ */
+class AttributeFilterTest {
+
+    @Test
+    void isAllowed_exactNamesAndPrefixes_denyWins() {
+        final AttributeFilter filter = new AttributeFilter(List.of("device-id", "meta.*", "x-*", "x-trace-*"),
+                List.of("meta.secret", "x-internal-*"),
+                0,
+                0,
+                false);
+
+        assertTrue(filter.isAllowed("device-id"));
+        assertTrue(filter.isAllowed("meta."));
+        assertTrue(filter.isAllowed("meta.source"));
+        assertTrue(filter.isAllowed("x-trace-id"));
+        assertTrue(filter.isAllowed("x-a"));
+        assertFalse(filter.isAllowed("device"));
+        assertFalse(filter.isAllowed("meta"));
+        assertFalse(filter.isAllowed("meta.secret"));
+        assertFalse(filter.isAllowed("x-internal-1"));
+        assertFalse(filter.isAllowed("y"));
+    }
+
+    @Test
+    void isAllowed_onlyDenied_othersAllowed() {
+        final AttributeFilter filter = new AttributeFilter(List.of(), List.of("debug", "goog*"), 0, 0, false);
+
+        assertTrue(filter.isAllowed("device-id"));
+        assertFalse(filter.isAllowed("debug"));
+        assertFalse(filter.isAllowed("googclient_x"));
+    }
+
+    @Test
+    void isReserved_attributesThatDescribeTheData_reserved() {
+        assertTrue(AttributeFilter.isReserved("envelope"));
+        assertTrue(AttributeFilter.isReserved("batch-format"));
+        assertTrue(AttributeFilter.isReserved("content-encoding"));
+        assertTrue(AttributeFilter.isReserved("key-id"));
+        assertTrue(AttributeFilter.isReserved("chunk-message-id"));
+        assertFalse(AttributeFilter.isReserved("mqtt-topic"));
+        assertFalse(AttributeFilter.isReserved("envelope-type"));
+    }
+
+    @Test
+    void filter_valueOverMaxBytes_droppedOrTruncated() {
+        final Map<String, String> attributes = Map.of("short", "abc", "long", "abcdef", "umlaut", "aäö");
+
+        assertEquals(Map.of("short", "abc"),
+                new AttributeFilter(List.of(), List.of(), 4, 0, false).filter(attributes));
+        // ä and ö take 2 bytes each, so only a and ä fit into 4 bytes
+        assertEquals(Map.of("short", "abc", "long", "abcd", "umlaut", "aä"),
+                new AttributeFilter(List.of(), List.of(), 4, 0, true).filter(attributes));
+    }
+
+    @Test
+    void filter_surrogatePair_notSplit() {
+        final Map<String, String> attributes = Map.of("emoji", "a😀b");
+
+        assertEquals(Map.of("emoji", "a"), new AttributeFilter(List.of(), List.of(), 4, 0, true).filter(attributes));
+        assertEquals(Map.of("emoji", "a😀"),
+                new AttributeFilter(List.of(), List.of(), 5, 0, true).filter(attributes));
+    }
+
+    @Test
+    void limitTotal_totalOverMaxBytes_laterPropertiesDroppedOrTruncated() {
+        final List<TestUserProperty> userProperties = List.of(new TestUserProperty("a", "1234"),
+                new TestUserProperty("b", "5678"),
+                new TestUserProperty("c", "9"));
+
+        assertEquals(Map.of("a", "1234", "c", "9"),
+                limitTotal(new AttributeFilter(List.of(), List.of(), 0, 8, false), userProperties, Map.of(), 0));
+        assertEquals(Map.of("a", "1234", "b", "56"),
+                limitTotal(new AttributeFilter(List.of(), List.of(), 0, 8, true), userProperties, Map.of(), 0));
+    }
+
+    @Test
+    void limitTotal_derivedAttributesAndReservedBytes_roomReserved() {
+        final List<TestUserProperty> userProperties = List.of(new TestUserProperty("a", "1234"),
+                new TestUserProperty("b", "5678"),
+                new TestUserProperty("qos", "overwritten"));
+        final AttributeFilter filter = new AttributeFilter(List.of(), List.of(), 0, 16, false);
+
+        // the derived attributes take 9 bytes, so only one user property fits
+        assertEquals(Map.of("a", "1234", "qos", "1", "x", "1234"),
+                limitTotal(filter, userProperties, Map.of("qos", "1", "x", "1234"), 0));
+        assertEquals(Map.of("qos", "1", "x", "1234"),
+                limitTotal(filter, userProperties, Map.of("qos", "1", "x", "1234"), 4));
+        // the derived attributes are sent even if they alone are over the limit
+        assertEquals(Map.of("x", "12345678901234567890"),
+                limitTotal(filter, userProperties, Map.of("x", "12345678901234567890"), 0));
+    }
+
+    @Test
+    void filter_noRules_sameMap() {
+        final Map<String, String> attributes = Map.of("a", "1");
+
+        assertTrue(AttributeFilter.NONE.isEmpty());
+        assertSame(attributes, AttributeFilter.NONE.filter(attributes));
+    }
+
+    @Test
+    void utf8Length_multiByteCharacters_counted() {
+        assertEquals(0, AttributeFilter.utf8Length(""));
+        assertEquals(1 + 2 + 3 + 4, AttributeFilter.utf8Length("aä€😀"));
+        // an unpaired surrogate is encoded as replacement character
+        assertEquals(3, AttributeFilter.utf8Length("\uD83D"));
+    }
+
+    private static @NotNull Map<String, String> limitTotal(
+            final @NotNull AttributeFilter filter,
+            final @NotNull List<TestUserProperty> userProperties,
+            final @NotNull Map<String, String> derivedAttributes,
+            final int reservedBytes) {
+        final OutboundAttributes attributes = OutboundAttributes.get();
+        filter.addTo(List.copyOf(userProperties), attributes);
+        final int forwarded = attributes.size();
+        derivedAttributes.forEach(attributes::add);
+        filter.limitTotal(attributes, forwarded, reservedBytes);
+        final TestOutboundPubSubMessageBuilder builder = new TestOutboundPubSubMessageBuilder();
+        builder.topicName("topic");
+        attributes.applyTo(builder);
+        attributes.clear();
+        return builder.build().attributes;
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @since 4.53.0
+ */
+class BatchAccumulatorTest {
+
+    private static final byte[] MQTT_TOPIC = "sensors/1".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void add_maxMessagesReached_batchCompleted() {
+        final BatchAccumulator accumulator =
+                new BatchAccumulator(PayloadBatch.Format.LENGTH_PREFIXED, 3, Integer.MAX_VALUE, 60_000);
+        final List<BatchAccumulator.Batch> completed = new ArrayList<>();
+
+        accumulator.add("topic-1", MQTT_TOPIC, payload(0), completed);
+        accumulator.add("topic-1", MQTT_TOPIC, payload(1), completed);
+        assertTrue(completed.isEmpty());
+        accumulator.add("topic-1", MQTT_TOPIC, payload(2), completed);
+
+        assertEquals(1, completed.size());
+        assertEquals("topic-1", completed.get(0).getPubSubTopic());
+        assertEquals(List.of("0", "1", "2"), records(completed.get(0)));
+    }
+
+    @Test
+    void add_maxBytesExceeded_previousBatchCompleted() {
+        // a record has 2 + 9 + 4 + 1 = 16 bytes
+        final BatchAccumulator accumulator = new BatchAccumulator(PayloadBatch.Format.LENGTH_PREFIXED, 100, 40, 60_000);
+        final List<BatchAccumulator.Batch> completed = new ArrayList<>();
+
+        accumulator.add("topic-1", MQTT_TOPIC, payload(0), completed);
+        accumulator.add("topic-1", MQTT_TOPIC, payload(1), completed);
+        assertTrue(completed.isEmpty());
+        accumulator.add("topic-1", MQTT_TOPIC, payload(2), completed);
+
+        assertEquals(1, completed.size());
+        assertEquals(32, completed.get(0).getBytes());
+        assertEquals(List.of("0", "1"), records(completed.get(0)));
+    }
+
+    @Test
+    void add_lingerTimeReached_batchCompletedWithNextRecord() throws InterruptedException {
+        final BatchAccumulator accumulator =
+                new BatchAccumulator(PayloadBatch.Format.LENGTH_PREFIXED, 100, Integer.MAX_VALUE, 1);
+        final List<BatchAccumulator.Batch> completed = new ArrayList<>();
+
+        accumulator.add("topic-1", MQTT_TOPIC, payload(0), completed);
+        Thread.sleep(5);
+        accumulator.add("topic-1", MQTT_TOPIC, payload(1), completed);
+
+        assertEquals(1, completed.size());
+        assertEquals(List.of("0"), records(completed.get(0)));
+    }
+
+    @Test
+    void add_differentPubSubTopics_separateBatches() {
+        final BatchAccumulator accumulator =
+                new BatchAccumulator(PayloadBatch.Format.LENGTH_PREFIXED, 2, Integer.MAX_VALUE, 60_000);
+        final List<BatchAccumulator.Batch> completed = new ArrayList<>();
+
+        accumulator.add("topic-1", MQTT_TOPIC, payload(0), completed);
+        accumulator.add("topic-2", MQTT_TOPIC, payload(1), completed);
+        assertTrue(completed.isEmpty());
+        accumulator.add("topic-2", MQTT_TOPIC, payload(2), completed);
+
+        assertEquals(1, completed.size());
+        assertEquals("topic-2", completed.get(0).getPubSubTopic());
+        assertEquals(List.of("1", "2"), records(completed.get(0)));
+    }
+
+    @Test
+    void addExpired_sweepDue_lingeringBatchesOfAllTopicsCompleted() throws InterruptedException {
+        final BatchAccumulator accumulator =
+                new BatchAccumulator(PayloadBatch.Format.LENGTH_PREFIXED, 100, Integer.MAX_VALUE, 10);
+        final List<BatchAccumulator.Batch> completed = new ArrayList<>();
+        accumulator.add("topic-1", MQTT_TOPIC, payload(0), completed);
+        accumulator.add("topic-2", MQTT_TOPIC, payload(1), completed);
+        Thread.sleep(20);
+        accumulator.add("topic-2", MQTT_TOPIC, payload(2), completed);
+        // only the lingering batch of the topic that the record was added to
+        assertEquals(1, completed.size());
+
+        final long now = System.nanoTime();
+        accumulator.addExpired(now, completed);
+        assertEquals(2, completed.size());
+        assertEquals("topic-1", completed.get(1).getPubSubTopic());
+        assertEquals(List.of("0"), records(completed.get(1)));
+        // the next sweep is due after half the linger time and completes the batch of topic-2 once it lingered
+        accumulator.addExpired(now + TimeUnit.MILLISECONDS.toNanos(4), completed);
+        assertEquals(2, completed.size());
+        accumulator.addExpired(now + TimeUnit.MILLISECONDS.toNanos(20), completed);
+        assertEquals(3, completed.size());
+        assertEquals(List.of("2"), records(completed.get(2)));
+    }
+
+    @Test
+    void handOver_openBatchesCompletedByNewAccumulator() {
+        final BatchAccumulator previous =
+                new BatchAccumulator(PayloadBatch.Format.NEWLINE, 100, Integer.MAX_VALUE, 60_000);
+        final BatchAccumulator accumulator =
+                new BatchAccumulator(PayloadBatch.Format.LENGTH_PREFIXED, 100, Integer.MAX_VALUE, 60_000);
+        final List<BatchAccumulator.Batch> completed = new ArrayList<>();
+        previous.add("topic-1", MQTT_TOPIC, payload(0), completed);
+
+        accumulator.handOver(previous);
+        accumulator.addExpired(System.nanoTime(), completed);
+
+        assertEquals(1, completed.size());
+        assertEquals(PayloadBatch.Format.NEWLINE, completed.get(0).getFormat());
+        // records that are still added to the previous accumulator are completed at once
+        previous.add("topic-1", MQTT_TOPIC, payload(1), completed);
+        assertEquals(2, completed.size());
+        assertEquals(1, completed.get(1).getCount());
+    }
+
+    @Test
+    void add_concurrently_noRecordLost() throws Exception {
+        final int threads = 8;
+        final int recordsPerThread = 10_000;
+        final BatchAccumulator accumulator =
+                new BatchAccumulator(PayloadBatch.Format.LENGTH_PREFIXED, 10, Integer.MAX_VALUE, 60_000);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        try {
+            final List<Future<List<BatchAccumulator.Batch>>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                futures.add(executor.submit(() -> {
+                    final List<BatchAccumulator.Batch> completed = new ArrayList<>();
+                    start.await();
+                    for (int i = 0; i < recordsPerThread; i++) {
+                        accumulator.add("topic-1", MQTT_TOPIC, payload(thread * recordsPerThread + i), completed);
+                    }
+                    return completed;
+                }));
+            }
+            start.countDown();
+
+            final Set<String> records = new HashSet<>();
+            int count = 0;
+            for (final Future<List<BatchAccumulator.Batch>> future : futures) {
+                for (final BatchAccumulator.Batch batch : future.get(30, TimeUnit.SECONDS)) {
+                    assertTrue(batch.getCount() <= 10);
+                    records.addAll(records(batch));
+                    count += batch.getCount();
+                }
+            }
+            // no record is completed twice and at most one incomplete batch per stripe remains
+            assertEquals(count, records.size());
+            assertTrue(records.size() > threads * recordsPerThread - 16 * 10, () -> records.size() + " records");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static @NotNull ByteBuffer payload(final int index) {
+        return ByteBuffer.wrap(Integer.toString(index).getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+    }
+
+    private static @NotNull List<String> records(final @NotNull BatchAccumulator.Batch batch) {
+        final List<String> records = new ArrayList<>();
+        PayloadBatch.decode(PayloadBatch.Format.LENGTH_PREFIXED,
+                PayloadBatch.encode(PayloadBatch.Format.LENGTH_PREFIXED, batch),
+                (mqttTopic, payload) -> records.add(StandardCharsets.UTF_8.decode(payload).toString()));
+        return records;
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.codahale.metrics.MetricRegistry;
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @since 4.53.0
+ */
+class ChunkReassemblerTest {
+
+    private static final String PREFIX =
+            "com.hivemq.extensions.google-cloud-pubsub.customizations.pubsub-to-mqtt.transformer.my-connection.my-id.";
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+    private final TransformerMetrics metrics =
+            TransformerMetrics.of(metricRegistry, TransformerMetrics.PUBSUB_TO_MQTT, "my-connection", "my-id", false);
+
+    @Test
+    void slice_equalChunksButLast_viewsOfPayload() {
+        final ByteBuffer payload = payload(12);
+        payload.position(2);
+
+        assertEquals(3, PayloadChunks.count(10, 4));
+        assertEquals(4, PayloadChunks.chunkBytes(10, 3));
+        assertEquals(ByteBuffer.wrap(new byte[]{2, 3, 4, 5}), PayloadChunks.slice(payload, 0, 3));
+        assertEquals(ByteBuffer.wrap(new byte[]{10, 11}), PayloadChunks.slice(payload, 2, 3));
+        assertSame(payload.array(), PayloadChunks.slice(payload, 1, 3).array());
+        assertEquals(2, payload.position());
+    }
+
+    @Test
+    void withoutChunkAttributes_otherAttributesKept() {
+        assertEquals(Map.of("mqtt-topic", "t"),
+                PayloadChunks.withoutChunkAttributes(Map.of("mqtt-topic",
+                        "t",
+                        PayloadChunks.CHUNK_MESSAGE_ID,
+                        "m",
+                        PayloadChunks.CHUNK_INDEX,
+                        "0",
+                        PayloadChunks.CHUNK_COUNT,
+                        "1",
+                        PayloadChunks.CHUNK_TOTAL_BYTES,
+                        "1")));
+    }
+
+    @Test
+    void add_chunksOutOfOrderAndRedelivered_joinedOnce() {
+        final ChunkReassembler reassembler = new ChunkReassembler(1024, 1000);
+        final ByteBuffer payload = payload(10);
+        final long now = System.nanoTime();
+
+        assertNull(add(reassembler, "m", payload, 2, 3, now));
+        assertNull(add(reassembler, "m", payload, 0, 3, now));
+        assertNull(add(reassembler, "m", payload, 0, 3, now));
+        final ByteBuffer joined = add(reassembler, "m", payload, 1, 3, now);
+
+        assertEquals(payload, joined);
+        assertTrue(joined.isReadOnly());
+        assertEquals(0, reassembler.getPending());
+        assertEquals(0, metricRegistry.counter(PREFIX + "chunks.expired.count").getCount());
+    }
+
+    @Test
+    void add_afterTimeout_incompletePayloadDropped() {
+        final ChunkReassembler reassembler = new ChunkReassembler(1024, 1000);
+        final ByteBuffer payload = payload(10);
+        final long now = System.nanoTime();
+
+        assertNull(add(reassembler, "m-1", payload, 0, 2, now));
+        assertNull(add(reassembler, "m-2", payload, 0, 2, now + 500 * MILLIS));
+        assertNull(add(reassembler, "m-1", payload, 1, 2, now + 1000 * MILLIS));
+
+        // the second chunk of m-1 started a new payload, which is still missing the first chunk
+        assertEquals(2, reassembler.getPending());
+        assertEquals(1, metricRegistry.counter(PREFIX + "chunks.expired.count").getCount());
+        assertEquals(payload, add(reassembler, "m-2", payload, 1, 2, now + 1000 * MILLIS));
+    }
+
+    @Test
+    void add_pendingBytesExceeded_oldestPayloadEvicted() {
+        final ChunkReassembler reassembler = new ChunkReassembler(30, 1000);
+        final ByteBuffer payload = payload(10);
+        final long now = System.nanoTime();
+
+        assertNull(add(reassembler, "m-1", payload, 0, 2, now));
+        assertNull(add(reassembler, "m-2", payload, 0, 2, now));
+        assertNull(add(reassembler, "m-3", payload, 0, 2, now));
+
+        assertEquals(2, reassembler.getPending());
+        assertEquals(1, metricRegistry.counter(PREFIX + "chunks.expired.count").getCount());
+        assertEquals(payload, add(reassembler, "m-3", payload, 1, 2, now));
+        assertNull(add(reassembler, "m-1", payload, 1, 2, now));
+    }
+
+    @Test
+    void add_chunkRedeliveredAfterJoined_ignoredUntilTimeout() {
+        final ChunkReassembler reassembler = new ChunkReassembler(30, 1000);
+        final ByteBuffer payload = payload(10);
+        final long now = System.nanoTime();
+
+        assertNull(add(reassembler, "m-1", payload, 0, 2, now));
+        assertEquals(payload, add(reassembler, "m-1", payload, 1, 2, now));
+        assertNull(add(reassembler, "m-2", payload, 0, 2, now));
+        assertNull(add(reassembler, "m-3", payload, 0, 2, now));
+        assertNull(add(reassembler, "m-1", payload, 0, 2, now + 500 * MILLIS));
+
+        // the late chunk neither started a new payload nor evicted a pending one
+        assertEquals(2, reassembler.getPending());
+        assertEquals(0, metricRegistry.counter(PREFIX + "chunks.expired.count").getCount());
+        assertEquals(payload, add(reassembler, "m-2", payload, 1, 2, now + 500 * MILLIS));
+        // after the timeout the id of the joined payload is forgotten
+        assertNull(add(reassembler, "m-1", payload, 0, 2, now + 1000 * MILLIS));
+        assertEquals(1, reassembler.getPending());
+    }
+
+    @Test
+    void add_invalidChunk_exception() {
+        final ChunkReassembler reassembler = new ChunkReassembler(20, 1000);
+        final ByteBuffer payload = payload(10);
+        final long now = System.nanoTime();
+
+        assertThrows(IllegalArgumentException.class,
+                () -> reassembler.add(Map.of(PayloadChunks.CHUNK_MESSAGE_ID, "m"), payload, now, metrics));
+        assertThrows(IllegalArgumentException.class,
+                () -> reassembler.add(attributes("m", 2, 2, "10"), payload, now, metrics));
+        assertThrows(IllegalArgumentException.class,
+                () -> reassembler.add(attributes("m", 0, 2, "x"), payload, now, metrics));
+        // the chunk does not have the size that follows from the total size
+        assertThrows(IllegalArgumentException.class,
+                () -> reassembler.add(attributes("m", 0, 2, "10"), payload, now, metrics));
+        assertThrows(IllegalArgumentException.class, () -> add(reassembler, "m", payload(20), 0, 2, now));
+
+        assertNull(add(reassembler, "m", payload, 0, 2, now));
+        assertThrows(IllegalArgumentException.class, () -> add(reassembler, "m", payload(12), 1, 3, now));
+        assertEquals(1, reassembler.getPending());
+    }
+
+    private @Nullable ByteBuffer add(
+            final @NotNull ChunkReassembler reassembler,
+            final @NotNull String messageId,
+            final @NotNull ByteBuffer payload,
+            final int index,
+            final int count,
+            final long nowNanos) {
+        return reassembler.add(attributes(messageId, index, count, Integer.toString(payload.remaining())),
+                PayloadChunks.slice(payload, index, count),
+                nowNanos,
+                metrics);
+    }
+
+    private static @NotNull Map<String, String> attributes(
+            final @NotNull String messageId,
+            final int index,
+            final int count,
+            final @NotNull String totalBytes) {
+        return Map.of(PayloadChunks.CHUNK_MESSAGE_ID,
+                messageId,
+                PayloadChunks.CHUNK_INDEX,
+                Integer.toString(index),
+                PayloadChunks.CHUNK_COUNT,
+                Integer.toString(count),
+                PayloadChunks.CHUNK_TOTAL_BYTES,
+                totalBytes);
+    }
+
+    private static @NotNull ByteBuffer payload(final int bytes) {
+        final byte[] payload = new byte[bytes];
+        for (int i = 0; i < bytes; i++) {
+            payload[i] = (byte) i;
+        }
+        return ByteBuffer.wrap(payload);
+    }
+}
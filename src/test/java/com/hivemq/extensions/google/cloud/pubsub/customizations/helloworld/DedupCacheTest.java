@@ -0,0 +1,157 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @since 4.53.0
+ */
+class DedupCacheTest {
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    void new_maxEntries_roundedDownToPowerOfTwo() {
+        assertEquals(DedupCache.WAYS, new DedupCache(0, 1000).getEntries());
+        assertEquals(1024, new DedupCache(1500, 1000).getEntries());
+        assertEquals(131_072, new DedupCache(131_072, 1000).getEntries());
+    }
+
+    @Test
+    void check_withinTimeToLive_hit() {
+        final DedupCache cache = new DedupCache(1024, 1000);
+        final long now = System.nanoTime();
+
+        assertEquals(DedupCache.MISS, cache.check(42, now));
+        assertEquals(DedupCache.HIT, cache.check(42, now + 999 * MILLIS));
+        assertEquals(DedupCache.MISS, cache.check(43, now));
+        assertEquals(DedupCache.MISS, cache.check(0, now));
+        assertEquals(DedupCache.HIT, cache.check(0, now));
+    }
+
+    @Test
+    void check_afterTimeToLive_missAndRemembered() {
+        final DedupCache cache = new DedupCache(1024, 1000);
+        final long now = System.nanoTime();
+        cache.check(42, now);
+
+        assertEquals(DedupCache.MISS, cache.check(42, now + 1000 * MILLIS));
+        assertEquals(DedupCache.HIT, cache.check(42, now + 1999 * MILLIS));
+    }
+
+    @Test
+    void forget_rememberedKey_missAgain() {
+        final DedupCache cache = new DedupCache(1024, 1000);
+        final long now = System.nanoTime();
+        cache.check(42, now);
+        cache.check(43, now);
+
+        cache.forget(42, now + MILLIS);
+        cache.forget(44, now + MILLIS);
+
+        assertEquals(DedupCache.MISS, cache.check(42, now + 2 * MILLIS));
+        assertEquals(DedupCache.HIT, cache.check(42, now + 3 * MILLIS));
+        assertEquals(DedupCache.HIT, cache.check(43, now + 3 * MILLIS));
+        assertEquals(DedupCache.MISS, cache.check(44, now + 3 * MILLIS));
+    }
+
+    @Test
+    void check_fullBucket_earliestExpiryEvicted() {
+        // a single bucket, so every key competes for the same slots
+        final DedupCache cache = new DedupCache(DedupCache.WAYS, 1000);
+        final long now = System.nanoTime();
+        for (int i = 0; i < DedupCache.WAYS; i++) {
+            assertEquals(DedupCache.MISS, cache.check(i + 1, now + i));
+        }
+
+        assertEquals(DedupCache.MISS_EVICTED, cache.check(100, now + DedupCache.WAYS));
+        assertEquals(DedupCache.HIT, cache.check(2, now + DedupCache.WAYS));
+        assertEquals(DedupCache.MISS_EVICTED, cache.check(1, now + DedupCache.WAYS));
+        // expired entries are replaced without an eviction
+        assertEquals(DedupCache.MISS, cache.check(200, now + 2000 * MILLIS));
+    }
+
+    @Test
+    void check_manyKeys_noAllocation() {
+        TestAllocations.assumeSupported();
+        final DedupCache cache = new DedupCache(65_536, 60_000);
+        final long now = System.nanoTime();
+        final ByteBuffer payload = ByteBuffer.wrap(new byte[1024]);
+        final long[] key = {0};
+
+        final long bytesPerRun = TestAllocations.bytesPerRun(100, () -> {
+            for (int i = 0; i < 1000; i++) {
+                cache.check(DedupCache.hash(payload) + key[0]++, now);
+            }
+        });
+
+        assertTrue(bytesPerRun < 1024, () -> bytesPerRun + " bytes allocated per 1000 checks");
+    }
+
+    @Test
+    void check_concurrentThreads_everyKeyMissedOnce() throws Exception {
+        final DedupCache cache = new DedupCache(1 << 20, 60_000);
+        final long now = System.nanoTime();
+        final AtomicInteger misses = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final Future<?>[] futures = new Future<?>[8];
+            for (int t = 0; t < futures.length; t++) {
+                futures[t] = executor.submit(() -> {
+                    for (int i = 0; i < 10_000; i++) {
+                        if (cache.check(DedupCache.hash(Integer.toString(i)), now) != DedupCache.HIT) {
+                            misses.incrementAndGet();
+                        }
+                    }
+                });
+            }
+            for (final Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(10_000, misses.get());
+    }
+
+    @Test
+    void hash_sameBytes_sameHash() {
+        final byte[] bytes = "redelivered message".getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer shifted = ByteBuffer.allocate(bytes.length + 3);
+        shifted.position(3);
+        shifted.put(bytes).position(3);
+
+        assertEquals(DedupCache.hash(ByteBuffer.wrap(bytes)), DedupCache.hash(shifted));
+        assertEquals(3, shifted.position());
+        assertNotEquals(DedupCache.hash(ByteBuffer.wrap(bytes)), DedupCache.hash(ByteBuffer.wrap(bytes, 0, 18)));
+        assertEquals(DedupCache.hash("message-1"), DedupCache.hash(new StringBuilder("message-1")));
+        assertNotEquals(DedupCache.hash("message-1"), DedupCache.hash("message-2"));
+    }
+}
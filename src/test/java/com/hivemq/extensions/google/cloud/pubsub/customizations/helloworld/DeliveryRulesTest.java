@@ -0,0 +1,114 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.packets.general.Qos;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @since 4.53.0
+ */
+class DeliveryRulesTest {
+
+    @Test
+    void resolve_rules_firstMatchingRuleApplied() {
+        final DeliveryRules rules = new DeliveryRules(List.of(
+                "type = telemetry -> qos=0",
+                "priority = high -> qos=2, retain=true",
+                "type = state -> retain=true, expiry=3600",
+                "type = telemetry -> qos=1"), Qos.AT_LEAST_ONCE, null, null, null);
+
+        final TestPublish telemetry = publish(rules.resolve(Map.of("type", "telemetry", "priority", "high")));
+        assertEquals(Qos.AT_MOST_ONCE, telemetry.qos);
+        assertFalse(telemetry.retain);
+
+        final TestPublish state = publish(rules.resolve(Map.of("type", "state")));
+        assertEquals(Qos.AT_MOST_ONCE, state.qos);
+        assertTrue(state.retain);
+        assertEquals(Long.valueOf(3600), state.messageExpiryInterval);
+
+        final TestPublish high = publish(rules.resolve(Map.of("type", "state", "priority", "high")));
+        assertEquals(Qos.EXACTLY_ONCE, high.qos);
+        assertTrue(high.retain);
+        assertNull(high.messageExpiryInterval);
+
+        assertEquals(Qos.AT_LEAST_ONCE, publish(rules.resolve(Map.of("type", "other"))).qos);
+    }
+
+    @Test
+    void resolve_attributes_roundTrippedSemanticsKept() {
+        final DeliveryRules rules = new DeliveryRules(List.of("type = telemetry -> qos=0"),
+                Qos.AT_LEAST_ONCE,
+                "qos",
+                "retained",
+                "expiry");
+
+        final TestPublish roundTripped =
+                publish(rules.resolve(Map.of("qos", "2", "retained", "true", "expiry", "60")));
+        assertEquals(Qos.EXACTLY_ONCE, roundTripped.qos);
+        assertTrue(roundTripped.retain);
+        assertEquals(Long.valueOf(60), roundTripped.messageExpiryInterval);
+
+        // the rule takes precedence over the attribute
+        assertEquals(Qos.AT_MOST_ONCE, publish(rules.resolve(Map.of("qos", "2", "type", "telemetry"))).qos);
+        // invalid attribute values fall back to the static QoS
+        final TestPublish invalid = publish(rules.resolve(Map.of("qos", "3", "retained", "yes", "expiry", "-1")));
+        assertEquals(Qos.AT_LEAST_ONCE, invalid.qos);
+        assertFalse(invalid.retain);
+        assertNull(invalid.messageExpiryInterval);
+    }
+
+    @Test
+    void resolve_withoutExpiry_preallocated() {
+        final DeliveryRules rules = new DeliveryRules(List.of(), null, "qos", "retained", null);
+
+        assertSame(rules.resolve(Map.of("qos", "1", "retained", "true")),
+                rules.resolve(Map.of("qos", "1", "retained", "true")));
+        assertSame(rules.resolve(Map.of()), rules.resolve(Map.of("qos", "x")));
+    }
+
+    @Test
+    void new_invalidRules_ignored() {
+        final DeliveryRules rules = new DeliveryRules(List.of(
+                "type -> qos=0",
+                "type = a",
+                " = a -> qos=0",
+                "type = a -> qos=3",
+                "type = a -> retain=maybe",
+                "type = a -> expiry=-5",
+                "type = a -> color=red"), Qos.EXACTLY_ONCE, null, null, null);
+
+        assertEquals(Qos.EXACTLY_ONCE, publish(rules.resolve(Map.of("type", "a"))).qos);
+    }
+
+    private static @NotNull TestPublish publish(final @NotNull DeliveryRules.Delivery delivery) {
+        final TestPublishBuilder publishBuilder = new TestPublishBuilder();
+        publishBuilder.topic("topic").payload(ByteBuffer.allocate(0));
+        delivery.applyTo(publishBuilder);
+        return publishBuilder.build();
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.hivemq.extension.sdk.api.packets.general.Qos;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @since 4.53.0
+ */
+class DropFilterTest {
+
+    @Test
+    void match_noRules_notDropped() {
+        assertTrue(DropFilter.NONE.isEmpty());
+        assertNull(match(DropFilter.NONE, packet("a/b", Qos.AT_MOST_ONCE, true, "x")));
+    }
+
+    @Test
+    void match_namedAndUnnamedRules_firstMatchingRuleReturned() {
+        final DropFilter filter = new DropFilter(List.of(
+                "heartbeats: topic = devices/+/heartbeat",
+                "retain = true && qos = 0",
+                "noise: qos < 1 && payload-size <= 2"));
+
+        assertEquals("heartbeats", match(filter, packet("devices/1/heartbeat", Qos.AT_LEAST_ONCE, true, "")));
+        assertEquals("rule-1", match(filter, packet("devices/1/state", Qos.AT_MOST_ONCE, true, "on")));
+        assertEquals("noise", match(filter, packet("devices/1/state", Qos.AT_MOST_ONCE, false, "on")));
+        assertNull(match(filter, packet("devices/1/state", Qos.AT_MOST_ONCE, false, "off")));
+        assertNull(match(filter, packet("devices/1/state", Qos.AT_LEAST_ONCE, true, "on")));
+    }
+
+    @Test
+    void match_topicFilters_mqttSemantics() {
+        final DropFilter filter = new DropFilter(List.of("topic = a/#", "topic = +/b/+", "topic != x/#"));
+
+        assertEquals("rule-0", match(filter, packet("a", Qos.AT_MOST_ONCE, false, "")));
+        assertEquals("rule-0", match(filter, packet("a/b/c", Qos.AT_MOST_ONCE, false, "")));
+        assertEquals("rule-1", match(filter, packet("x/b/c", Qos.AT_MOST_ONCE, false, "")));
+        assertEquals("rule-2", match(filter, packet("$SYS/b/c", Qos.AT_MOST_ONCE, false, "")));
+        assertNull(match(filter, packet("x/b", Qos.AT_MOST_ONCE, false, "")));
+        assertNull(match(filter, packet("x/b/c/d", Qos.AT_MOST_ONCE, false, "")));
+    }
+
+    @Test
+    void match_userPropertiesAndPayload_compared() {
+        final DropFilter filter = new DropFilter(List.of(
+                "user-property:type = heartbeat",
+                "debug: user-property:debug",
+                "pings: payload-prefix = PING",
+                "large: payload-size > 10"));
+
+        assertEquals("rule-0", match(filter, packet("t", "", new TestUserProperty("type", "heartbeat"))));
+        assertEquals("debug", match(filter, packet("t", "", new TestUserProperty("debug", ""))));
+        assertEquals("pings", match(filter, packet("t", "PING 1")));
+        assertEquals("large", match(filter, packet("t", "01234567890")));
+        assertNull(match(filter, packet("t", "PIN", new TestUserProperty("type", "data"))));
+        assertNull(filter.match(new TestPublishPacket("t", null), null));
+    }
+
+    @Test
+    void match_payloadPrefix_positionRespected() {
+        final DropFilter filter = new DropFilter(List.of("payload-prefix = {"));
+        final ByteBuffer payload = ByteBuffer.wrap("x{".getBytes(StandardCharsets.UTF_8));
+        payload.position(1);
+
+        assertEquals("rule-0", filter.match(new TestPublishPacket("t", payload), payload));
+        assertEquals(1, payload.position());
+    }
+
+    @Test
+    void new_invalidRules_ignored() {
+        final DropFilter filter = new DropFilter(List.of(
+                "topic = a/#/b",
+                "qos = 3",
+                "retain > true",
+                "color = red",
+                "payload-size",
+                "user-property: = x",
+                "payload-size < -1"));
+
+        assertTrue(filter.isEmpty());
+        assertFalse(new DropFilter(List.of("topic = #")).isEmpty());
+    }
+
+    private static @Nullable String match(
+            final @NotNull DropFilter filter,
+            final @NotNull TestPublishPacket publishPacket) {
+        return filter.match(publishPacket, publishPacket.payload);
+    }
+
+    private static @NotNull TestPublishPacket packet(
+            final @NotNull String topic,
+            final @NotNull Qos qos,
+            final boolean retain,
+            final @NotNull String payload) {
+        return new TestPublishPacket(topic,
+                qos,
+                retain,
+                ByteBuffer.wrap(payload.getBytes(StandardCharsets.UTF_8)),
+                List.of());
+    }
+
+    private static @NotNull TestPublishPacket packet(
+            final @NotNull String topic,
+            final @NotNull String payload,
+            final @NotNull TestUserProperty @NotNull ... userProperties) {
+        return new TestPublishPacket(topic,
+                Qos.AT_MOST_ONCE,
+                false,
+                ByteBuffer.wrap(payload.getBytes(StandardCharsets.UTF_8)),
+                List.of(userProperties));
+    }
+}
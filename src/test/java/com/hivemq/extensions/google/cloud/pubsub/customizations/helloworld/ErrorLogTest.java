@@ -0,0 +1,70 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @since 4.53.0
+ */
+class ErrorLogTest {
+
+    private static final String PREFIX =
+            "com.hivemq.extensions.google-cloud-pubsub.customizations.mqtt-to-pubsub.transformer.my-connection.my-id.";
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+    private final TransformerMetrics metrics =
+            TransformerMetrics.of(metricRegistry, TransformerMetrics.MQTT_TO_PUBSUB, "my-connection", "my-id", false);
+
+    @Test
+    void failed_overLimit_onlyCounted() {
+        final ErrorLog errorLog = new ErrorLog(LoggerFactory.getLogger(ErrorLogTest.class), 2, 60_000);
+
+        assertTrue(errorLog.failed(metrics, new IllegalStateException("1"), "Failure {}", 1));
+        assertTrue(errorLog.failed(metrics, new IllegalStateException("2"), "Failure {}", 2));
+        assertFalse(errorLog.failed(metrics, new IllegalStateException("3"), "Failure {}", 3));
+        assertFalse(errorLog.failed(metrics, new IllegalArgumentException("4"), "Failure {}", 4));
+
+        assertEquals(4, metricRegistry.counter(PREFIX + "failed.count").getCount());
+        assertEquals(3, metricRegistry.counter(PREFIX + "errors.IllegalStateException.count").getCount());
+        assertEquals(1, metricRegistry.counter(PREFIX + "errors.IllegalArgumentException.count").getCount());
+    }
+
+    @Test
+    void failed_afterInterval_loggedAgain() throws InterruptedException {
+        final ErrorLog errorLog = new ErrorLog(LoggerFactory.getLogger(ErrorLogTest.class), 1, 20);
+
+        assertTrue(errorLog.failed(metrics, new IllegalStateException("1"), "Failure"));
+        assertFalse(errorLog.failed(metrics, new IllegalStateException("2"), "Failure"));
+        Thread.sleep(30);
+
+        assertTrue(errorLog.failed(metrics, new IllegalStateException("3"), "Failure"));
+    }
+
+    @Test
+    void causeName_anonymousClass_fullName() {
+        assertEquals("IllegalStateException", ErrorLog.causeName(new IllegalStateException()));
+        final RuntimeException anonymous = new RuntimeException() {
+        };
+        assertEquals(anonymous.getClass().getName(), ErrorLog.causeName(anonymous));
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @since 4.53.0
+ */
+class JsonScannerTest {
+
+    @Test
+    void forEachElement_nestedValues_boundsFound() {
+        final ByteBuffer json = json(" [ {\"a\":[1,{\"b\":\"]}\"}]}, \"x\\\"y\" ,42,true , null,[] ] ");
+
+        assertEquals(List.of("{\"a\":[1,{\"b\":\"]}\"}]}", "\"x\\\"y\"", "42", "true", "null", "[]"), elements(json));
+    }
+
+    @Test
+    void forEachElement_emptyArray_noElements() {
+        assertEquals(List.of(), elements(json(" [ ] ")));
+    }
+
+    @Test
+    void forEachElement_notAnArray_exception() {
+        assertThrows(IllegalArgumentException.class, () -> elements(json("{\"a\":1}")));
+        assertThrows(IllegalArgumentException.class, () -> elements(json("[1,2")));
+        assertThrows(IllegalArgumentException.class, () -> elements(json("[{\"a\":1]")));
+        assertThrows(IllegalArgumentException.class, () -> elements(json("[1 2]")));
+    }
+
+    @Test
+    void findMember_topLevelMember_valueFound() {
+        final ByteBuffer json = json("{\"nested\":{\"device\":\"inner\"},\"de\\u0076ice\":\"x\",\"device\" : \"d-1\"}");
+
+        final int value = JsonScanner.findMember(json, 0, json.limit(), utf8("device"));
+
+        // the escaped name matches first
+        assertEquals("x", JsonScanner.scalarText(json, value, json.limit()));
+        assertEquals(-1, JsonScanner.findMember(json, 0, json.limit(), utf8("missing")));
+        assertEquals(-1, JsonScanner.findMember(json("[1]"), 0, 3, utf8("device")));
+    }
+
+    @Test
+    void forEachMember_object_boundsFound() {
+        final ByteBuffer json = json(" { \"a\" : [1,{\"b\":2}] , \"c\\\"\":\"}\"} tail");
+        final List<String> members = new ArrayList<>();
+
+        final int end = JsonScanner.forEachMember(json,
+                0,
+                json.limit(),
+                (nameStart, nameEnd, valueStart, valueEnd) -> members.add(text(json, nameStart, nameEnd) + "=" +
+                        text(json, valueStart, valueEnd)));
+
+        assertEquals(List.of("a=[1,{\"b\":2}]", "c\\\"=\"}\""), members);
+        assertEquals(" tail", text(json, end, json.limit()));
+        assertEquals(-1, JsonScanner.forEachMember(json("[1]"), 0, 3, (nameStart, nameEnd, valueStart, valueEnd) -> {
+        }));
+        assertThrows(IllegalArgumentException.class,
+                () -> JsonScanner.forEachMember(json("{\"a\" 1}"), 0, 8, (nameStart, nameEnd, valueStart, valueEnd) -> {
+                }));
+    }
+
+    @Test
+    void scalarText_values_decoded() {
+        assertEquals("a\"b\\c/\n\tä€😀", scalarText("\"a\\\"b\\\\c\\/\\n\\tä\\u20ac\\ud83d\\ude00\""));
+        assertEquals("-1.5e3", scalarText("-1.5e3"));
+        assertEquals("false", scalarText("false"));
+        assertNull(scalarText("null"));
+        assertNull(scalarText("{\"a\":1}"));
+        assertNull(scalarText("[1]"));
+    }
+
+    private static String scalarText(final @NotNull String value) {
+        final ByteBuffer json = json(value);
+        return JsonScanner.scalarText(json, 0, json.limit());
+    }
+
+    private static @NotNull List<String> elements(final @NotNull ByteBuffer json) {
+        final List<String> elements = new ArrayList<>();
+        JsonScanner.forEachElement(json,
+                (start, end) -> elements.add(StandardCharsets.UTF_8.decode(PayloadSplit.slice(json, start, end))
+                        .toString()));
+        return elements;
+    }
+
+    private static @NotNull String text(final @NotNull ByteBuffer json, final int start, final int end) {
+        return StandardCharsets.UTF_8.decode(PayloadSplit.slice(json, start, end)).toString();
+    }
+
+    private static @NotNull ByteBuffer json(final @NotNull String json) {
+        return ByteBuffer.wrap(utf8(json)).asReadOnlyBuffer();
+    }
+
+    private static byte @NotNull [] utf8(final @NotNull String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
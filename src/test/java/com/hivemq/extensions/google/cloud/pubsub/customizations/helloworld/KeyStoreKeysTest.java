@@ -0,0 +1,80 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * @since 4.53.0
+ */
+class KeyStoreKeysTest {
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    void get_unknownKeyId_reloadedOncePerInterval(final @TempDir @NotNull Path directory) throws Exception {
+        final Path file = TestKeyStore.write(directory.resolve("keys.p12"), Map.of("key-1", TestKeyStore.aesKey(1)));
+        final KeyStoreKeys keys = KeyStoreKeys.of(new TestCustomSettings(List.of(
+                new TestCustomSetting("keystore-file", file.toString()),
+                new TestCustomSetting("keystore-password", TestKeyStore.PASSWORD),
+                new TestCustomSetting("keystore-reload-interval-ms", "1000"))));
+        final long now = System.nanoTime();
+        assertNotNull(keys.get("key-1", now));
+
+        TestKeyStore.write(file, Map.of("key-1", TestKeyStore.aesKey(1), "key-2", TestKeyStore.aesKey(2)));
+        // the keystore was just loaded
+        assertNull(keys.get("key-2", now));
+        assertArrayEquals(TestKeyStore.aesKey(2).getEncoded(), keys.get("key-2", now + 1000 * MILLIS).getEncoded());
+
+        // an unknown key id reads the keystore again only after the interval
+        TestKeyStore.write(file, Map.of("key-3", TestKeyStore.aesKey(3)));
+        assertNull(keys.get("key-3", now + 1999 * MILLIS));
+        assertNotNull(keys.get("key-3", now + 2000 * MILLIS));
+        // removed keys are no longer used
+        assertNull(keys.get("key-1", now + 2000 * MILLIS));
+    }
+
+    @Test
+    void get_keystoreBroken_previousKeysKept(final @TempDir @NotNull Path directory) throws Exception {
+        final Path file = TestKeyStore.write(directory.resolve("keys.p12"), Map.of("key-1", TestKeyStore.aesKey(1)));
+        final KeyStoreKeys keys = KeyStoreKeys.of(new TestCustomSettings(List.of(
+                new TestCustomSetting("keystore-file", file.toString()),
+                new TestCustomSetting("keystore-password", TestKeyStore.PASSWORD),
+                new TestCustomSetting("keystore-reload-interval-ms", "0"))));
+
+        Files.writeString(file, "broken");
+
+        assertNull(keys.get("key-2", System.nanoTime()));
+        assertNotNull(keys.get("key-1", System.nanoTime()));
+    }
+
+    @Test
+    void get_noKeystore_noKeys() {
+        assertNull(KeyStoreKeys.of(new TestCustomSettings(List.of())).get("key-1", System.nanoTime()));
+    }
+}
@@ -15,8 +15,9 @@
  */
 package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
 
-import com.hivemq.extension.sdk.api.annotations.Immutable;
+import com.codahale.metrics.MetricRegistry;
 import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
 import com.hivemq.extension.sdk.api.packets.general.Qos;
 import com.hivemq.extension.sdk.api.packets.general.UserProperties;
 import com.hivemq.extension.sdk.api.packets.publish.PublishPacket;
@@ -27,14 +28,29 @@ import com.hivemq.extensions.google.cloud.pubsub.api.transformers.MqttToPubSubIn
 import com.hivemq.extensions.google.cloud.pubsub.api.transformers.MqttToPubSubOutput;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.stubbing.Answer;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.Mockito.*;
@@ -56,6 +72,7 @@ class MqttToPubSubHelloWorldTransformerTest {
     void initTransformer_customSettingsSet() {
         final MqttToPubSubInitInput initInput = mock(MqttToPubSubInitInput.class);
         when(initInput.getPubSubConnection()).thenReturn(new TestPubSubConnection());
+        when(initInput.getMetricRegistry()).thenReturn(new MetricRegistry());
         when(initInput.getCustomSettings()).thenReturn(new TestCustomSettings(
                 List.of(
                         new TestCustomSetting("settings-1", "value-1"),
@@ -65,13 +82,33 @@ class MqttToPubSubHelloWorldTransformerTest {
 
         transformer.init(initInput);
 
-        assertNotNull(transformer.customSettings);
+        assertNotSame(MqttToPubSubSettings.EMPTY, transformer.state.get().getSettings());
+    }
+
+    @Test
+    void initTransformer_destinationsResolved() {
+        final MqttToPubSubInitInput initInput = mock(MqttToPubSubInitInput.class);
+        when(initInput.getPubSubConnection()).thenReturn(new TestPubSubConnection());
+        when(initInput.getMetricRegistry()).thenReturn(new MetricRegistry());
+        when(initInput.getCustomSettings()).thenReturn(new TestCustomSettings(
+                List.of(
+                        new TestCustomSetting("destination", "topic-1"),
+                        new TestCustomSetting("settings-2", "value-2"),
+                        new TestCustomSetting("destination", "topic-2")
+                )
+        ));
+
+        transformer.init(initInput);
+
+        assertNotSame(MqttToPubSubSettings.EMPTY, transformer.state.get().getSettings());
+        assertArrayEquals(new String[]{"topic-1", "topic-2"}, transformer.state.get().getSettings().getDestinations());
     }
 
     @Test
     void initTransformer_initFailed_noException() {
         final MqttToPubSubInitInput initInput = mock(MqttToPubSubInitInput.class);
         when(initInput.getPubSubConnection()).thenReturn(new TestPubSubConnection());
+        when(initInput.getMetricRegistry()).thenReturn(new MetricRegistry());
         when(initInput.getCustomSettings()).thenThrow(new RuntimeException("TEST_EXCEPTION"));
 
         assertDoesNotThrow(() -> transformer.init(initInput));
@@ -115,6 +152,7 @@ class MqttToPubSubHelloWorldTransformerTest {
         //we init first to get customsettings
         final MqttToPubSubInitInput initInput = mock(MqttToPubSubInitInput.class);
         when(initInput.getPubSubConnection()).thenReturn(new TestPubSubConnection());
+        when(initInput.getMetricRegistry()).thenReturn(new MetricRegistry());
         when(initInput.getCustomSettings()).thenReturn(new TestCustomSettings(
                 List.of(
                         //we dont set pubsub-topic setting
@@ -149,6 +187,7 @@ class MqttToPubSubHelloWorldTransformerTest {
         //we init first to get customsettings
         final MqttToPubSubInitInput initInput = mock(MqttToPubSubInitInput.class);
         when(initInput.getPubSubConnection()).thenReturn(new TestPubSubConnection());
+        when(initInput.getMetricRegistry()).thenReturn(new MetricRegistry());
         when(initInput.getCustomSettings()).thenReturn(new TestCustomSettings(
                 List.of(
                         //we set pubsub-topic setting
@@ -176,7 +215,7 @@ class MqttToPubSubHelloWorldTransformerTest {
             return null;
         }).when(output).setOutboundPubSubMessages(anyList());
         when(output.newOutboundPubSubMessageBuilder()).thenReturn(messageBuilder);
-        when(messageBuilder.build()).thenReturn(new TestOutboundPubSubMessage());
+        when(messageBuilder.build()).thenReturn(new TestOutboundPubSubMessage("", Map.of(), null, null));
 
         transformer.transformMqttToPubSub(input, output);
 
@@ -190,6 +229,7 @@ class MqttToPubSubHelloWorldTransformerTest {
         //we init first to get customsettings
         final MqttToPubSubInitInput initInput = mock(MqttToPubSubInitInput.class);
         when(initInput.getPubSubConnection()).thenReturn(new TestPubSubConnection());
+        when(initInput.getMetricRegistry()).thenReturn(new MetricRegistry());
         when(initInput.getCustomSettings()).thenReturn(new TestCustomSettings(
                 List.of(
                         //we set pubsub-topic setting
@@ -206,9 +246,7 @@ class MqttToPubSubHelloWorldTransformerTest {
         final OutboundPubSubMessageBuilder messageBuilder = mock(OutboundPubSubMessageBuilder.class);
         final UserProperties userProperties = mock(UserProperties.class);
         when(publishPacket.getTopic()).thenReturn("my/mqtt/topic");
-        when(publishPacket.getQos())
-                .thenReturn(Qos.AT_LEAST_ONCE)
-                .thenThrow(new RuntimeException("TEST_EXCEPTION"));
+        when(publishPacket.getQos()).thenReturn(Qos.AT_LEAST_ONCE);
         when(publishPacket.getUserProperties()).thenReturn(userProperties);
         when(userProperties.asList()).thenReturn(List.of());
         when(input.getPublishPacket()).thenReturn(publishPacket);
@@ -219,7 +257,9 @@ class MqttToPubSubHelloWorldTransformerTest {
             return null;
         }).when(output).setOutboundPubSubMessages(anyList());
         when(output.newOutboundPubSubMessageBuilder()).thenReturn(messageBuilder);
-        when(messageBuilder.build()).thenReturn(new TestOutboundPubSubMessage());
+        when(messageBuilder.build())
+                .thenReturn(new TestOutboundPubSubMessage("", Map.of(), null, null))
+                .thenThrow(new RuntimeException("TEST_EXCEPTION"));
 
         transformer.transformMqttToPubSub(input, output);
 
@@ -227,31 +267,845 @@ class MqttToPubSubHelloWorldTransformerTest {
 
     }
 
-    private static class TestOutboundPubSubMessage implements OutboundPubSubMessage {
+    @Test
+    void transformMessage_manyDestinations_userPropertiesReadOnce() {
+        transformer.init(new TestMqttToPubSubInitInput(destinations(16)));
+        final TestPublishPacket publishPacket = publishPacket(20);
+        final TestMqttToPubSubOutput output = new TestMqttToPubSubOutput();
+
+        transformer.transformMqttToPubSub(new TestMqttToPubSubInput(publishPacket), output);
+
+        assertNotNull(output.outboundPubSubMessages);
+        assertEquals(16, output.outboundPubSubMessages.size());
+        assertEquals(1, publishPacket.getUserProperties().asListCalls);
+        for (final OutboundPubSubMessage message : output.outboundPubSubMessages) {
+            assertEquals(23, message.getAttributes().size());
+            assertEquals("my/mqtt/topic", message.getAttributes().get("mqtt-topic"));
+            assertEquals("true", message.getAttributes().get("retained"));
+            assertEquals("2", message.getAttributes().get("qos"));
+            assertEquals(100, message.getData().orElseThrow().remaining());
+        }
+    }
+
+    @Test
+    void transformMessage_manyDestinations_allocationPerMessageBounded() {
+        TestAllocations.assumeSupported();
+        transformer.init(new TestMqttToPubSubInitInput(destinations(16)));
+        final MqttToPubSubInput input = new TestMqttToPubSubInput(publishPacket(20));
+        // the builder does not allocate itself but keeps its arguments, so the measurement contains everything the
+        // transformer allocates per destination
+        final OutboundPubSubMessageBuilder builder = new NoOpOutboundPubSubMessageBuilder();
+        final MqttToPubSubOutput output = new TestMqttToPubSubOutput() {
+            @Override
+            public @NotNull OutboundPubSubMessageBuilder newOutboundPubSubMessageBuilder() {
+                return builder;
+            }
+        };
+        final long bytesPerMessage =
+                TestAllocations.bytesPerRun(20_000, () -> transformer.transformMqttToPubSub(input, output));
+
+        // the output list and a payload view per destination (~1 KiB), but no attribute values, optionals or lambdas
+        // per destination (~1.7 KiB before they were shared across destinations)
+        assertTrue(bytesPerMessage < 1_536, () -> bytesPerMessage + " bytes allocated per message");
+    }
+
+    @Test
+    void transformMessage_largePayload_notCopied() {
+        TestAllocations.assumeSupported();
+        transformer.init(new TestMqttToPubSubInitInput(destinations(4)));
+        final ByteBuffer payload = ByteBuffer.wrap(new byte[10 * 1024 * 1024]);
+        final MqttToPubSubInput input = new TestMqttToPubSubInput(new TestPublishPacket("firmware/device-1", payload));
+        final TestMqttToPubSubOutput output = new TestMqttToPubSubOutput();
+
+        final long bytesPerMessage =
+                TestAllocations.bytesPerRun(50, () -> transformer.transformMqttToPubSub(input, output));
+
+        // the 10 MiB payload reaches all 4 builders as views of the same memory
+        assertTrue(bytesPerMessage < 64 * 1024, () -> bytesPerMessage + " bytes allocated per message");
+        assertNotNull(output.outboundPubSubMessages);
+        for (final OutboundPubSubMessage message : output.outboundPubSubMessages) {
+            final ByteBuffer data = ((TestOutboundPubSubMessage) message).data;
+            assertNotNull(data);
+            assertEquals(payload.capacity(), data.remaining());
+        }
+    }
+
+    @Test
+    void transformMessage_batchFormat_oneMessagePerCompleteBatch() {
+        transformer.init(new TestMqttToPubSubInitInput(List.of(new TestCustomSetting("destination", "topic-1"),
+                new TestCustomSetting("destination", "topic-2"),
+                new TestCustomSetting("batch-format", "newline"),
+                new TestCustomSetting("batch-max-messages", "2"))));
+        final TestMqttToPubSubOutput output = new TestMqttToPubSubOutput();
+
+        transformer.transformMqttToPubSub(new TestMqttToPubSubInput(publishPacket("{\"t\":1}")), output);
+        assertNotNull(output.outboundPubSubMessages);
+        assertTrue(output.outboundPubSubMessages.isEmpty());
+
+        transformer.transformMqttToPubSub(new TestMqttToPubSubInput(publishPacket("{\"t\":2}")), output);
+        assertEquals(2, output.outboundPubSubMessages.size());
+        for (final OutboundPubSubMessage message : output.outboundPubSubMessages) {
+            assertEquals(Map.of("batch-format", "newline", "batch-size", "2"), message.getAttributes());
+            assertEquals("{\"t\":1}\n{\"t\":2}\n",
+                    StandardCharsets.UTF_8.decode(message.getData().orElseThrow()).toString());
+        }
+        assertEquals(Set.of("topic-1", "topic-2"),
+                output.outboundPubSubMessages.stream().map(OutboundPubSubMessage::getTopicName).collect(toSet()));
+
+        // a payload with a line feed can not be part of a newline batch
+        transformer.transformMqttToPubSub(new TestMqttToPubSubInput(publishPacket("line 1\nline 2")), output);
+        assertEquals(2, output.outboundPubSubMessages.size());
+        assertEquals("topic/test", output.outboundPubSubMessages.get(0).getAttributes().get("mqtt-topic"));
+    }
+
+    @Test
+    void transformMessage_otherTopicTraffic_expiredBatchOfQuietTopicSent() throws InterruptedException {
+        transformer.init(new TestMqttToPubSubInitInput(List.of(new TestCustomSetting("route", "quiet/# -> topic-quiet"),
+                new TestCustomSetting("route", "busy/# -> topic-busy"),
+                new TestCustomSetting("batch-format", "length-prefixed"),
+                new TestCustomSetting("batch-linger-ms", "10"))));
+        final TestMqttToPubSubOutput output = new TestMqttToPubSubOutput();
+        transformer.transformMqttToPubSub(new TestMqttToPubSubInput(new TestPublishPacket("quiet/1",
+                ByteBuffer.wrap("1".getBytes(StandardCharsets.UTF_8)))), output);
+        assertNotNull(output.outboundPubSubMessages);
+        assertTrue(output.outboundPubSubMessages.isEmpty());
+
+        Thread.sleep(50);
+        transformer.transformMqttToPubSub(new TestMqttToPubSubInput(new TestPublishPacket("busy/1",
+                ByteBuffer.wrap("2".getBytes(StandardCharsets.UTF_8)))), output);
+
+        assertEquals(1, output.outboundPubSubMessages.size());
+        final OutboundPubSubMessage message = output.outboundPubSubMessages.get(0);
+        assertEquals("topic-quiet", message.getTopicName());
+        assertEquals("1", message.getAttributes().get("batch-size"));
+    }
+
+    @Test
+    void init_again_openBatchesHandedOver() {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final List<TestCustomSetting> customSettings = List.of(new TestCustomSetting("destination", "topic-1"),
+                new TestCustomSetting("batch-format", "newline"),
+                new TestCustomSetting("batch-linger-ms", "60000"));
+        transformer.init(new TestMqttToPubSubInitInput(new TestCustomSettings(customSettings), metricRegistry));
+        final TestMqttToPubSubOutput output = new TestMqttToPubSubOutput();
+        transformer.transformMqttToPubSub(new TestMqttToPubSubInput(publishPacket("1")), output);
+        transformer.transformMqttToPubSub(new TestMqttToPubSubInput(publishPacket("2")), output);
+
+        transformer.init(new TestMqttToPubSubInitInput(new TestCustomSettings(customSettings), metricRegistry));
+        transformer.transformMqttToPubSub(new TestMqttToPubSubInput(publishPacket("3")), output);
+
+        assertNotNull(output.outboundPubSubMessages);
+        assertEquals(1, output.outboundPubSubMessages.size());
+        assertEquals("1\n2\n",
+                StandardCharsets.UTF_8.decode(output.outboundPubSubMessages.get(0).getData().orElseThrow()).toString());
+
+        // without batching, the open batches can not be sent any more
+        transformer.init(new TestMqttToPubSubInitInput(new TestCustomSettings(List.of(
+                new TestCustomSetting("destination", "topic-1"))), metricRegistry));
+        final String prefix =
+                "com.hivemq.extensions.google-cloud-pubsub.customizations.mqtt-to-pubsub.transformer.my-connection.default.";
+        assertEquals(1, metricRegistry.counter(prefix + "batch.records-dropped.count").getCount());
+    }
+
+    @Test
+    void dropOpenBatches_handedOverBatch_countedAndLaterRecordsSentAtOnce() {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final List<TestCustomSetting> customSettings = List.of(new TestCustomSetting("destination", "topic-1"),
+                new TestCustomSetting("batch-format", "newline"),
+                new TestCustomSetting("batch-linger-ms", "60000"));
+        transformer.init(new TestMqttToPubSubInitInput(new TestCustomSettings(customSettings), metricRegistry));
+        final TestMqttToPubSubOutput output = new TestMqttToPubSubOutput();
+        transformer.transformMqttToPubSub(new TestMqttToPubSubInput(publishPacket("1")), output);
+        transformer.transformMqttToPubSub(new TestMqttToPubSubInput(publishPacket("2")), output);
+        // the open batch is handed over to the second initialization, but not sent yet
+        transformer.init(new TestMqttToPubSubInitInput(new TestCustomSettings(customSettings), metricRegistry));
+
+        transformer.dropOpenBatches();
+
+        final String prefix =
+                "com.hivemq.extensions.google-cloud-pubsub.customizations.mqtt-to-pubsub.transformer.my-connection.default.";
+        assertEquals(2, metricRegistry.counter(prefix + "batch.records-dropped.count").getCount());
+        transformer.transformMqttToPubSub(new TestMqttToPubSubInput(publishPacket("3")), output);
+        assertNotNull(output.outboundPubSubMessages);
+        assertEquals(1, output.outboundPubSubMessages.size());
+        assertEquals("3\n",
+                StandardCharsets.UTF_8.decode(output.outboundPubSubMessages.get(0).getData().orElseThrow()).toString());
+    }
+
+    @Test
+    void transformMessage_metricsKeyedByConnectionAndTransformerId() {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        transformer.init(new TestMqttToPubSubInitInput(new TestCustomSettings(List.of(
+                new TestCustomSetting("destination", "topic-1"),
+                new TestCustomSetting("destination", "topic-2"),
+                new TestCustomSetting("transformer-id", "telemetry"))), metricRegistry));
+
+        transformer.transformMqttToPubSub(new TestMqttToPubSubInput(publishPacket("1234")), new TestMqttToPubSubOutput());
+
+        final String prefix =
+                "com.hivemq.extensions.google-cloud-pubsub.customizations.mqtt-to-pubsub.transformer.my-connection.telemetry.";
+        assertEquals(1, metricRegistry.counter(prefix + "messages-in.count").getCount());
+        assertEquals(2, metricRegistry.counter(prefix + "messages-out.count").getCount());
+        assertEquals(4, metricRegistry.counter(prefix + "bytes-in.count").getCount());
+        assertEquals(8, metricRegistry.counter(prefix + "bytes-out.count").getCount());
+        assertEquals(1, metricRegistry.counter(prefix + "destination.topic-1.count").getCount());
+        assertEquals(1, metricRegistry.counter(prefix + "destination.topic-2.count").getCount());
+    }
+
+    @Test
+    void transformMessage_dropRuleMatches_noBuilderCreated() {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        transformer.init(new TestMqttToPubSubInitInput(new TestCustomSettings(List.of(
+                new TestCustomSetting("destination", "topic-1"),
+                new TestCustomSetting("drop", "heartbeats: topic = devices/+/heartbeat"),
+                new TestCustomSetting("drop", "retain = true"))), metricRegistry));
+        final TestMqttToPubSubOutput output = new TestMqttToPubSubOutput() {
+            @Override
+            public @NotNull OutboundPubSubMessageBuilder newOutboundPubSubMessageBuilder() {
+                throw new AssertionError("dropped messages must not create builders");
+            }
+        };
+
+        transformer.transformMqttToPubSub(new TestMqttToPubSubInput(new TestPublishPacket("devices/1/heartbeat",
+                ByteBuffer.allocate(1))), output);
+        transformer.transformMqttToPubSub(new TestMqttToPubSubInput(new TestPublishPacket("devices/1/state",
+                Qos.AT_MOST_ONCE,
+                true,
+                null,
+                List.of())), output);
+
+        assertEquals(List.of(), output.outboundPubSubMessages);
+        final String prefix =
+                "com.hivemq.extensions.google-cloud-pubsub.customizations.mqtt-to-pubsub.transformer.my-connection.default.";
+        assertEquals(1, metricRegistry.counter(prefix + "dropped.heartbeats.count").getCount());
+        assertEquals(1, metricRegistry.counter(prefix + "dropped.rule-1.count").getCount());
+        assertEquals(2, metricRegistry.counter(prefix + "messages-in.count").getCount());
+        assertEquals(0, metricRegistry.counter(prefix + "messages-out.count").getCount());
+
+        final TestMqttToPubSubOutput forwarded = new TestMqttToPubSubOutput();
+        transformer.transformMqttToPubSub(new TestMqttToPubSubInput(publishPacket("1")), forwarded);
+        assertNotNull(forwarded.outboundPubSubMessages);
+        assertEquals(1, forwarded.outboundPubSubMessages.size());
+    }
+
+    @Test
+    void transformMessage_segmentAttributesAndOrderingKey_derivedFromTopic() {
+        transformer.init(new TestMqttToPubSubInitInput(new TestCustomSettings(List.of(
+                new TestCustomSetting("destination", "topic-1"),
+                new TestCustomSetting("segment-attribute", "segment[1] -> device-id"),
+                new TestCustomSetting("segment-attribute", "segment[0] -> mqtt-topic"),
+                new TestCustomSetting("ordering-key", "segment[1]"))), new MetricRegistry()));
+        final TestMqttToPubSubOutput output = new TestMqttToPubSubOutput();
+
+        transformer.transformMqttToPubSub(new TestMqttToPubSubInput(new TestPublishPacket("devices/d-42/state",
+                Qos.AT_MOST_ONCE,
+                false,
+                null,
+                List.of(new TestUserProperty("device-id", "spoofed")))), output);
+
+        assertNotNull(output.outboundPubSubMessages);
+        final OutboundPubSubMessage message = output.outboundPubSubMessages.get(0);
+        assertEquals("d-42", message.getAttributes().get("device-id"));
+        // the attributes of the extension are not overwritten
+        assertEquals("devices/d-42/state", message.getAttributes().get("mqtt-topic"));
+        assertEquals(Optional.of("d-42"), message.getOrderingKey());
+    }
+
+    @Test
+    void transformMessage_payloadAttributes_extractedFromJsonPayload() {
+        transformer.init(new TestMqttToPubSubInitInput(new TestCustomSettings(List.of(
+                new TestCustomSetting("destination", "topic-1"),
+                new TestCustomSetting("destination", "topic-2"),
+                new TestCustomSetting("payload-attribute", "/device/type -> deviceType"),
+                new TestCustomSetting("payload-attribute", "/severity -> severity"),
+                new TestCustomSetting("payload-attribute", "/topic -> mqtt-topic"))), new MetricRegistry()));
+        final TestMqttToPubSubOutput output = new TestMqttToPubSubOutput();
+        final String payload = "{\"severity\": \"high\", \"topic\": \"spoofed\", \"device\": {\"type\": \"pump\"}}";
+
+        transformer.transformMqttToPubSub(new TestMqttToPubSubInput(publishPacket(payload)), output);
+
+        assertNotNull(output.outboundPubSubMessages);
+        assertEquals(2, output.outboundPubSubMessages.size());
+        for (final OutboundPubSubMessage message : output.outboundPubSubMessages) {
+            assertEquals("pump", message.getAttributes().get("deviceType"));
+            assertEquals("high", message.getAttributes().get("severity"));
+            // the attributes of the extension are not overwritten
+            assertEquals("topic/test", message.getAttributes().get("mqtt-topic"));
+            assertEquals(payload, new String(message.getDataAsByteArray().orElseThrow(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void transformMessage_payloadAttributeOverMaxBytes_droppedAndCounted() {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        transformer.init(new TestMqttToPubSubInitInput(new TestCustomSettings(List.of(
+                new TestCustomSetting("destination", "topic-1"),
+                new TestCustomSetting("payload-attribute", "/device -> device"),
+                new TestCustomSetting("payload-attribute", "/severity -> severity"))), metricRegistry));
+        final TestMqttToPubSubOutput output = new TestMqttToPubSubOutput();
+        final String payload = "{\"severity\": \"high\", \"device\": \"" + "d".repeat(1025) + "\"}";
+
+        transformer.transformMqttToPubSub(new TestMqttToPubSubInput(publishPacket(payload)), output);
+
+        assertNotNull(output.outboundPubSubMessages);
+        assertEquals(1, output.outboundPubSubMessages.size());
+        final Map<String, String> attributes = output.outboundPubSubMessages.get(0).getAttributes();
+        assertEquals("high", attributes.get("severity"));
+        // Pub/Sub would reject the message, as the value is over the 1024 bytes of an attribute value
+        assertFalse(attributes.containsKey("device"));
+        final String prefix =
+                "com.hivemq.extensions.google-cloud-pubsub.customizations.mqtt-to-pubsub.transformer.my-connection.default.";
+        assertEquals(1, metricRegistry.counter(prefix + "payload-attributes.limited.count").getCount());
+    }
+
+    @Test
+    void transformMessage_jsonEnvelope_metadataAndPayloadInData() {
+        transformer.init(new TestMqttToPubSubInitInput(new TestCustomSettings(List.of(
+                new TestCustomSetting("destination", "topic-1"),
+                new TestCustomSetting("envelope", "json"))), new MetricRegistry()));
+        final TestMqttToPubSubOutput output = new TestMqttToPubSubOutput();
+
+        transformer.transformMqttToPubSub(new TestMqttToPubSubInput(new TestPublishPacket("topic/test",
+                Qos.AT_MOST_ONCE,
+                true,
+                ByteBuffer.wrap(new byte[]{1, 2, 3}),
+                List.of(new TestUserProperty("unit", "celsius")))), output);
+
+        assertNotNull(output.outboundPubSubMessages);
+        final OutboundPubSubMessage message = output.outboundPubSubMessages.get(0);
+        assertEquals("{\"topic\":\"topic/test\",\"qos\":0,\"retain\":true,\"user_properties\":[{\"name\":\"unit\"," +
+                "\"value\":\"celsius\"}],\"payload\":\"AQID\"}",
+                new String(message.getDataAsByteArray().orElseThrow(), StandardCharsets.UTF_8));
+        assertEquals("json", message.getAttributes().get("envelope"));
+        // the attributes are still set for subscription filters
+        assertEquals("topic/test", message.getAttributes().get("mqtt-topic"));
+        assertEquals("celsius", message.getAttributes().get("unit"));
+    }
+
+    @Test
+    void transformMessage_attributeFilter_userPropertiesFilteredAndCapped() {
+        transformer.init(new TestMqttToPubSubInitInput(new TestCustomSettings(List.of(
+                new TestCustomSetting("destination", "topic-1"),
+                new TestCustomSetting("attribute-allow", "device-*"),
+                new TestCustomSetting("attribute-allow", "trace"),
+                new TestCustomSetting("attribute-deny", "device-secret"),
+                new TestCustomSetting("attribute-max-bytes", "4"),
+                new TestCustomSetting("attribute-overflow", "truncate"))), new MetricRegistry()));
+        final TestMqttToPubSubOutput output = new TestMqttToPubSubOutput();
+
+        transformer.transformMqttToPubSub(new TestMqttToPubSubInput(new TestPublishPacket("my/topic",
+                Qos.AT_MOST_ONCE,
+                false,
+                null,
+                List.of(new TestUserProperty("device-id", "d-42"),
+                        new TestUserProperty("device-secret", "s"),
+                        new TestUserProperty("trace", "0123456789"),
+                        new TestUserProperty("other", "x")))), output);
+
+        assertNotNull(output.outboundPubSubMessages);
+        assertEquals(Map.of("device-id", "d-42",
+                "trace", "0123",
+                "mqtt-topic", "my/topic",
+                "retained", "false",
+                "qos", "0"), output.outboundPubSubMessages.get(0).getAttributes());
+    }
+
+    @Test
+    void transformMessage_attributesOverTotalMaxBytes_roomReservedForAttributesOfExtension() {
+        // mqtt-topic, retained and qos take 38 bytes, every user property 13 bytes
+        transformer.init(new TestMqttToPubSubInitInput(List.of(new TestCustomSetting("destination", "topic-1"),
+                new TestCustomSetting("attributes-max-bytes", "80"))));
+        final TestMqttToPubSubOutput output = new TestMqttToPubSubOutput();
+
+        transformer.transformMqttToPubSub(new TestMqttToPubSubInput(publishPacket(5)), output);
+
+        assertNotNull(output.outboundPubSubMessages);
+        assertEquals(1, output.outboundPubSubMessages.size());
+        assertEquals(Set.of("name-0", "name-1", "name-2", "mqtt-topic", "retained", "qos"),
+                output.outboundPubSubMessages.get(0).getAttributes().keySet());
+
+        // the 3 chunks of the payload add 96 bytes of chunk attributes to every chunk
+        transformer.init(new TestMqttToPubSubInitInput(List.of(new TestCustomSetting("destination", "topic-1"),
+                new TestCustomSetting("attributes-max-bytes", "176"),
+                new TestCustomSetting("chunk-max-bytes", "40"))));
+        final TestMqttToPubSubOutput chunked = new TestMqttToPubSubOutput();
+
+        transformer.transformMqttToPubSub(new TestMqttToPubSubInput(publishPacket(5)), chunked);
+
+        assertNotNull(chunked.outboundPubSubMessages);
+        assertEquals(3, chunked.outboundPubSubMessages.size());
+        for (final OutboundPubSubMessage message : chunked.outboundPubSubMessages) {
+            int bytes = 0;
+            for (final Map.Entry<String, String> attribute : message.getAttributes().entrySet()) {
+                bytes += attribute.getKey().length() + attribute.getValue().length();
+            }
+            assertTrue(bytes <= 176, "the attributes take " + bytes + " bytes");
+            assertTrue(message.getAttributes().containsKey("name-2"));
+            assertFalse(message.getAttributes().containsKey("name-3"));
+        }
+    }
+
+    @Test
+    void transformMessage_userPropertiesWithReservedNames_notForwarded() {
+        final List<TestUserProperty> userProperties = List.of(new TestUserProperty("envelope", "json"),
+                new TestUserProperty("batch-format", "length-prefixed"),
+                new TestUserProperty("batch-size", "1"),
+                new TestUserProperty("content-encoding", "gzip"),
+                new TestUserProperty("payload-schema", "sensors.Reading"),
+                new TestUserProperty("encryption", "hmac-sha256"),
+                new TestUserProperty("key-id", "key-1"),
+                new TestUserProperty("signature", "c2ln"),
+                new TestUserProperty("chunk-message-id", "m"),
+                new TestUserProperty("chunk-index", "0"),
+                new TestUserProperty("chunk-count", "2"),
+                new TestUserProperty("chunk-total-bytes", "10"),
+                new TestUserProperty("unit", "celsius"));
+        final TestCustomSetting destination = new TestCustomSetting("destination", "topic-1");
+        // without and with an attribute filter
+        for (final List<TestCustomSetting> customSettings : List.of(List.of(destination),
+                List.of(destination, new TestCustomSetting("attribute-deny", "debug")))) {
+            transformer.init(new TestMqttToPubSubInitInput(customSettings));
+            final TestMqttToPubSubOutput output = new TestMqttToPubSubOutput();
+
+            transformer.transformMqttToPubSub(new TestMqttToPubSubInput(new TestPublishPacket("my/topic",
+                    Qos.AT_MOST_ONCE,
+                    false,
+                    null,
+                    userProperties)), output);
+
+            assertNotNull(output.outboundPubSubMessages);
+            assertEquals(Map.of("unit", "celsius",
+                    "mqtt-topic", "my/topic",
+                    "retained", "false",
+                    "qos", "0"), output.outboundPubSubMessages.get(0).getAttributes());
+        }
+    }
+
+    @Test
+    void transformMessage_builderFails_deadLettered() {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        transformer.init(new TestMqttToPubSubInitInput(new TestCustomSettings(List.of(
+                new TestCustomSetting("destination", "topic-1"),
+                new TestCustomSetting("destination", "topic-2"),
+                new TestCustomSetting("dead-letter-topic", "dead-letters"))), metricRegistry));
+        final TestMqttToPubSubOutput output = new TestMqttToPubSubOutput() {
+            private boolean failed;
+
+            @Override
+            public @NotNull OutboundPubSubMessageBuilder newOutboundPubSubMessageBuilder() {
+                if (failed) {
+                    return super.newOutboundPubSubMessageBuilder();
+                }
+                failed = true;
+                return new TestOutboundPubSubMessageBuilder() {
+                    @Override
+                    public @NotNull TestOutboundPubSubMessage build() {
+                        throw new IllegalStateException("broken");
+                    }
+                };
+            }
+        };
+
+        transformer.transformMqttToPubSub(new TestMqttToPubSubInput(publishPacket("1234")), output);
+
+        assertNotNull(output.outboundPubSubMessages);
+        assertEquals(2, output.outboundPubSubMessages.size());
+        final OutboundPubSubMessage deadLetter = output.outboundPubSubMessages.get(0);
+        assertEquals("dead-letters", deadLetter.getTopicName());
+        assertEquals("topic/test", deadLetter.getAttributes().get("mqtt-topic"));
+        assertEquals("IllegalStateException", deadLetter.getAttributes().get("error-cause"));
+        assertEquals("broken", deadLetter.getAttributes().get("error-message"));
+        assertEquals("topic-1", deadLetter.getAttributes().get("error-destination"));
+        assertEquals(ByteBuffer.wrap("1234".getBytes(StandardCharsets.UTF_8)), deadLetter.getData().orElseThrow());
+        assertEquals("topic-2", output.outboundPubSubMessages.get(1).getTopicName());
+        final String prefix =
+                "com.hivemq.extensions.google-cloud-pubsub.customizations.mqtt-to-pubsub.transformer.my-connection.default.";
+        assertEquals(1, metricRegistry.counter(prefix + "dead-lettered.count").getCount());
+        assertEquals(1, metricRegistry.counter(prefix + "errors.IllegalStateException.count").getCount());
+        assertEquals(1, metricRegistry.counter(prefix + "failed.count").getCount());
+    }
+
+    @Test
+    void transformMessage_payloadExceedsChunkMaxBytes_chunksPerDestination() {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        transformer.init(new TestMqttToPubSubInitInput(new TestCustomSettings(List.of(
+                new TestCustomSetting("destination", "topic-1"),
+                new TestCustomSetting("destination", "topic-2"),
+                new TestCustomSetting("chunk-max-bytes", "4"))), metricRegistry));
+        final TestMqttToPubSubOutput output = new TestMqttToPubSubOutput();
+
+        transformer.transformMqttToPubSub(new TestMqttToPubSubInput(publishPacket("0123456789")), output);
+
+        assertNotNull(output.outboundPubSubMessages);
+        assertEquals(6, output.outboundPubSubMessages.size());
+        final String messageId1 =
+                output.outboundPubSubMessages.get(0).getAttributes().get(PayloadChunks.CHUNK_MESSAGE_ID);
+        final String messageId2 =
+                output.outboundPubSubMessages.get(3).getAttributes().get(PayloadChunks.CHUNK_MESSAGE_ID);
+        assertNotNull(messageId1);
+        assertNotNull(messageId2);
+        assertNotEquals(messageId1, messageId2);
+        final List<String> chunks = List.of("0123", "4567", "89");
+        for (int i = 0; i < 6; i++) {
+            final String messageId = i < 3 ? messageId1 : messageId2;
+            final OutboundPubSubMessage message = output.outboundPubSubMessages.get(i);
+            assertEquals(i < 3 ? "topic-1" : "topic-2", message.getTopicName());
+            final Map<String, String> attributes = message.getAttributes();
+            assertEquals("topic/test", attributes.get("mqtt-topic"));
+            assertEquals(messageId, attributes.get(PayloadChunks.CHUNK_MESSAGE_ID));
+            assertEquals(Integer.toString(i % 3), attributes.get(PayloadChunks.CHUNK_INDEX));
+            assertEquals("3", attributes.get(PayloadChunks.CHUNK_COUNT));
+            assertEquals("10", attributes.get(PayloadChunks.CHUNK_TOTAL_BYTES));
+            assertEquals(Optional.of(messageId), message.getOrderingKey());
+            assertEquals(chunks.get(i % 3),
+                    StandardCharsets.UTF_8.decode(message.getData().orElseThrow()).toString());
+        }
+        final String prefix =
+                "com.hivemq.extensions.google-cloud-pubsub.customizations.mqtt-to-pubsub.transformer.my-connection.default.";
+        assertEquals(1, metricRegistry.counter(prefix + "chunked.count").getCount());
+        assertEquals(6, metricRegistry.counter(prefix + "messages-out.count").getCount());
+        assertEquals(20, metricRegistry.counter(prefix + "bytes-out.count").getCount());
+
+        transformer.transformMqttToPubSub(new TestMqttToPubSubInput(publishPacket("0123")), output);
+        assertEquals(2, output.outboundPubSubMessages.size());
+        assertNull(output.outboundPubSubMessages.get(0).getAttributes().get(PayloadChunks.CHUNK_MESSAGE_ID));
+    }
+
+    @Test
+    void transformMessage_chunkBuilderFails_noChunksForDestination() {
+        transformer.init(new TestMqttToPubSubInitInput(List.of(new TestCustomSetting("destination", "topic-1"),
+                new TestCustomSetting("destination", "topic-2"),
+                new TestCustomSetting("chunk-max-bytes", "4"),
+                new TestCustomSetting("chunk-ordering-key", "false"))));
+        final TestMqttToPubSubOutput output = new TestMqttToPubSubOutput() {
+            private int builders;
+
+            @Override
+            public @NotNull OutboundPubSubMessageBuilder newOutboundPubSubMessageBuilder() {
+                if (++builders != 2) {
+                    return super.newOutboundPubSubMessageBuilder();
+                }
+                return new TestOutboundPubSubMessageBuilder() {
+                    @Override
+                    public @NotNull TestOutboundPubSubMessage build() {
+                        throw new IllegalStateException("broken");
+                    }
+                };
+            }
+        };
+
+        transformer.transformMqttToPubSub(new TestMqttToPubSubInput(publishPacket("0123456789")), output);
+
+        assertNotNull(output.outboundPubSubMessages);
+        assertEquals(3, output.outboundPubSubMessages.size());
+        for (final OutboundPubSubMessage message : output.outboundPubSubMessages) {
+            assertEquals("topic-2", message.getTopicName());
+            assertEquals(Optional.empty(), message.getOrderingKey());
+        }
+    }
+
+    @Test
+    void transformMessage_rateLimitExceeded_droppedOrDowngraded() {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        transformer.init(new TestMqttToPubSubInitInput(new TestCustomSettings(List.of(
+                new TestCustomSetting("destination", "topic-1"),
+                new TestCustomSetting("rate-limit", "1"),
+                new TestCustomSetting("rate-limit-burst", "2"),
+                new TestCustomSetting("rate-limit-key", "user-property:device-id"),
+                new TestCustomSetting("rate-limit-overflow-topic", "overflow"))), metricRegistry));
+
+        final List<String> topicNames = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            final TestMqttToPubSubOutput output = new TestMqttToPubSubOutput();
+            transformer.transformMqttToPubSub(new TestMqttToPubSubInput(new TestPublishPacket("devices/1",
+                    Qos.AT_MOST_ONCE,
+                    false,
+                    null,
+                    List.of(new TestUserProperty("device-id", "1")))), output);
+            assertNotNull(output.outboundPubSubMessages);
+            assertEquals(1, output.outboundPubSubMessages.size());
+            topicNames.add(output.outboundPubSubMessages.get(0).getTopicName());
+        }
+
+        assertEquals(List.of("topic-1", "topic-1", "overflow"), topicNames);
+        final String prefix =
+                "com.hivemq.extensions.google-cloud-pubsub.customizations.mqtt-to-pubsub.transformer.my-connection.default.";
+        assertEquals(1, metricRegistry.counter(prefix + "rate-limited.downgraded.count").getCount());
+        assertEquals(1, metricRegistry.counter(prefix + "destination.overflow.count").getCount());
+    }
+
+    @Test
+    void transformMessage_sampledOut_noBuilderCreated() {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        transformer.init(new TestMqttToPubSubInitInput(new TestCustomSettings(List.of(
+                new TestCustomSetting("destination", "topic-1"),
+                new TestCustomSetting("sample-one-in", "2"))), metricRegistry));
+
+        final TestMqttToPubSubOutput first = new TestMqttToPubSubOutput();
+        transformer.transformMqttToPubSub(new TestMqttToPubSubInput(publishPacket("1")), first);
+        final TestMqttToPubSubOutput second = new TestMqttToPubSubOutput() {
+            @Override
+            public @NotNull OutboundPubSubMessageBuilder newOutboundPubSubMessageBuilder() {
+                throw new AssertionError("sampled out messages must not create builders");
+            }
+        };
+        transformer.transformMqttToPubSub(new TestMqttToPubSubInput(publishPacket("2")), second);
+
+        assertNotNull(first.outboundPubSubMessages);
+        assertEquals(1, first.outboundPubSubMessages.size());
+        assertEquals(List.of(), second.outboundPubSubMessages);
+        final String prefix =
+                "com.hivemq.extensions.google-cloud-pubsub.customizations.mqtt-to-pubsub.transformer.my-connection.default.";
+        assertEquals(1, metricRegistry.counter(prefix + "sampled-out.count").getCount());
+    }
+
+    @Test
+    void transformMessage_rulesFileChanged_newDestinationsWithoutReinit(final @TempDir @NotNull Path directory)
+            throws Exception {
+        final Path rules = directory.resolve("pubsub.rules");
+        Files.writeString(rules, "destination = topic-2\nsample-one-in = 2\n");
+        transformer.init(new TestMqttToPubSubInitInput(List.of(new TestCustomSetting("destination", "topic-1"),
+                new TestCustomSetting("rules-file", rules.toString()))));
+        final MqttToPubSubSettings initial = transformer.state.get().getSettings();
+        assertArrayEquals(new String[]{"topic-2"}, initial.getDestinations());
+
+        Files.writeString(rules, "destination = topic-3\n");
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (transformer.state.get().getSettings() == initial && System.nanoTime() - deadline < 0) {
+            Thread.sleep(10);
+        }
+
+        final MqttToPubSubSettings reloaded = transformer.state.get().getSettings();
+        assertArrayEquals(new String[]{"topic-3"}, reloaded.getDestinations());
+        // the buckets of the rate limiter survive the reload
+        assertSame(initial.getRateLimiter(), reloaded.getRateLimiter());
+        final TestMqttToPubSubOutput output = new TestMqttToPubSubOutput();
+        transformer.transformMqttToPubSub(new TestMqttToPubSubInput(publishPacket("1")), output);
+        assertNotNull(output.outboundPubSubMessages);
+        assertEquals(List.of("topic-3"),
+                output.outboundPubSubMessages.stream().map(OutboundPubSubMessage::getTopicName).collect(toList()));
+    }
+
+    @Test
+    void transformMessage_encryptionKeyMissing_nothingSent(final @TempDir @NotNull Path directory) throws Exception {
+        final Path keyStore =
+                TestKeyStore.write(directory.resolve("keys.p12"), Map.of("key-1", TestKeyStore.aesKey(1)));
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        transformer.init(new TestMqttToPubSubInitInput(new TestCustomSettings(List.of(
+                new TestCustomSetting("destination", "topic-1"),
+                new TestCustomSetting("dead-letter-topic", "dead-letters"),
+                new TestCustomSetting("keystore-file", keyStore.toString()),
+                new TestCustomSetting("keystore-password", TestKeyStore.PASSWORD),
+                new TestCustomSetting("encryption", "aes-gcm"),
+                new TestCustomSetting("encryption-key-id", "key-2"))), metricRegistry));
+        assertNotNull(transformer.state.get().getSettings().getEncryptionError());
+        final TestMqttToPubSubOutput output = new TestMqttToPubSubOutput();
+
+        transformer.transformMqttToPubSub(new TestMqttToPubSubInput(publishPacket("1234")), output);
+
+        // neither the message nor its dead letter is sent unencrypted
+        assertTrue(output.outboundPubSubMessages == null || output.outboundPubSubMessages.isEmpty());
+        final String prefix =
+                "com.hivemq.extensions.google-cloud-pubsub.customizations.mqtt-to-pubsub.transformer.my-connection.default.";
+        assertEquals(0, metricRegistry.counter(prefix + "dead-lettered.count").getCount());
+        assertEquals(0, metricRegistry.counter(prefix + "messages-out.count").getCount());
+    }
+
+    @Test
+    void transformMessage_encryptionKeyMaxPayloadsReached_nothingSent(final @TempDir @NotNull Path directory)
+            throws Exception {
+        // a key of its own, as the encrypted payloads are counted per key for the whole JVM
+        final Path keyStore =
+                TestKeyStore.write(directory.resolve("keys.p12"), Map.of("key-7", TestKeyStore.aesKey(7)));
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final TestCustomSettings customSettings = new TestCustomSettings(List.of(
+                new TestCustomSetting("destination", "topic-1"),
+                new TestCustomSetting("dead-letter-topic", "dead-letters"),
+                new TestCustomSetting("keystore-file", keyStore.toString()),
+                new TestCustomSetting("keystore-password", TestKeyStore.PASSWORD),
+                new TestCustomSetting("encryption", "aes-gcm"),
+                new TestCustomSetting("encryption-key-id", "key-7"),
+                new TestCustomSetting("encryption-key-max-payloads", "2")));
+        transformer.init(new TestMqttToPubSubInitInput(customSettings, metricRegistry));
+        for (int i = 0; i < 2; i++) {
+            final TestMqttToPubSubOutput output = new TestMqttToPubSubOutput();
+            transformer.transformMqttToPubSub(new TestMqttToPubSubInput(publishPacket("1234")), output);
+            assertNotNull(output.outboundPubSubMessages);
+            assertEquals(1, output.outboundPubSubMessages.size());
+        }
+
+        // the count of the key survives the initialization
+        transformer.init(new TestMqttToPubSubInitInput(customSettings, metricRegistry));
+        final TestMqttToPubSubOutput output = new TestMqttToPubSubOutput();
+        transformer.transformMqttToPubSub(new TestMqttToPubSubInput(publishPacket("1234")), output);
+
+        // neither the message nor its dead letter is sent unencrypted
+        assertTrue(output.outboundPubSubMessages == null || output.outboundPubSubMessages.isEmpty());
+        final String prefix =
+                "com.hivemq.extensions.google-cloud-pubsub.customizations.mqtt-to-pubsub.transformer.my-connection.default.";
+        assertEquals(0, metricRegistry.counter(prefix + "dead-lettered.count").getCount());
+        // the message and its dead letter
+        assertEquals(2, metricRegistry.counter(prefix + "errors.InvalidKeyException.count").getCount());
+    }
+
+    @Test
+    void transformMessage_encryptionKeyIdChanged_nextKeyWithoutReinit(final @TempDir @NotNull Path directory)
+            throws Exception {
+        final Path keyStore =
+                TestKeyStore.write(directory.resolve("keys.p12"), Map.of("key-1", TestKeyStore.aesKey(1)));
+        final Path rules = directory.resolve("pubsub.rules");
+        Files.writeString(rules, "encryption-key-id = key-1\n");
+        transformer.init(new TestMqttToPubSubInitInput(List.of(new TestCustomSetting("destination", "topic-1"),
+                new TestCustomSetting("keystore-file", keyStore.toString()),
+                new TestCustomSetting("keystore-password", TestKeyStore.PASSWORD),
+                new TestCustomSetting("encryption", "aes-gcm"),
+                new TestCustomSetting("rules-file", rules.toString()))));
+        final MqttToPubSubSettings initial = transformer.state.get().getSettings();
+        assertEquals("key-1", initial.getEncryptionKeyId());
+
+        // the next key is added to the keystore first, the reload of the rules reads the keystore again
+        TestKeyStore.write(keyStore, Map.of("key-1", TestKeyStore.aesKey(1), "key-2", TestKeyStore.aesKey(2)));
+        Files.writeString(rules, "encryption-key-id = key-2\n");
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (transformer.state.get().getSettings() == initial && System.nanoTime() - deadline < 0) {
+            Thread.sleep(10);
+        }
+
+        final MqttToPubSubSettings reloaded = transformer.state.get().getSettings();
+        assertEquals("key-2", reloaded.getEncryptionKeyId());
+        assertNull(reloaded.getEncryptionError());
+        final TestMqttToPubSubOutput output = new TestMqttToPubSubOutput();
+        transformer.transformMqttToPubSub(new TestMqttToPubSubInput(publishPacket("1234")), output);
+        assertNotNull(output.outboundPubSubMessages);
+        final OutboundPubSubMessage pubSubMessage = output.outboundPubSubMessages.get(0);
+        assertEquals("key-2", pubSubMessage.getAttributes().get("key-id"));
+        final Map<String, String> attributes = pubSubMessage.getAttributes();
+        assertEquals(ByteBuffer.wrap("1234".getBytes(StandardCharsets.UTF_8)),
+                PayloadEncryption.decrypt(pubSubMessage.getData().orElseThrow(),
+                        TestKeyStore.aesKey(2),
+                        PayloadEncryption.associatedData(attributes::get)));
+    }
+
+    @Test
+    void transformMessage_concurrentReinit_everyMessageCountedOnceWithItsOwnState() throws Exception {
+        final int threads = 8;
+        final int reinits = 200;
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final List<TestCustomSetting> a = List.of(new TestCustomSetting("transformer-id", "a"),
+                new TestCustomSetting("destination", "a-1"),
+                new TestCustomSetting("destination", "a-2"));
+        final List<TestCustomSetting> b =
+                List.of(new TestCustomSetting("transformer-id", "b"), new TestCustomSetting("destination", "b-1"));
+        transformer.init(new TestMqttToPubSubInitInput(new TestCustomSettings(a), metricRegistry));
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicBoolean done = new AtomicBoolean();
+        try {
+            final List<Future<Long>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    long messages = 0;
+                    start.await();
+                    while (!done.get()) {
+                        final TestMqttToPubSubOutput output = new TestMqttToPubSubOutput();
+                        transformer.transformMqttToPubSub(new TestMqttToPubSubInput(publishPacket("1")), output);
+                        // the destinations of a message always come from one initialization
+                        final Set<Character> initializations = Objects.requireNonNull(output.outboundPubSubMessages)
+                                .stream()
+                                .map(message -> message.getTopicName().charAt(0))
+                                .collect(toSet());
+                        assertEquals(1, initializations.size());
+                        messages++;
+                    }
+                    return messages;
+                }));
+            }
+            start.countDown();
+            for (int i = 0; i < reinits; i++) {
+                transformer.init(new TestMqttToPubSubInitInput(new TestCustomSettings(i % 2 == 0 ? b : a),
+                        metricRegistry));
+            }
+            done.set(true);
+            long messages = 0;
+            for (final Future<Long> future : futures) {
+                messages += future.get(30, TimeUnit.SECONDS);
+            }
+
+            // every message is counted once, and by the metrics of the settings it was routed with
+            final String prefixA = TransformerMetrics.name(TransformerMetrics.MQTT_TO_PUBSUB, "my-connection", "a");
+            final String prefixB = TransformerMetrics.name(TransformerMetrics.MQTT_TO_PUBSUB, "my-connection", "b");
+            final long messagesA = metricRegistry.counter(prefixA + ".messages-in.count").getCount();
+            final long messagesB = metricRegistry.counter(prefixB + ".messages-in.count").getCount();
+            assertEquals(messages, messagesA + messagesB);
+            assertEquals(messagesA, metricRegistry.counter(prefixA + ".destination.a-1.count").getCount());
+            assertEquals(messagesA, metricRegistry.counter(prefixA + ".destination.a-2.count").getCount());
+            assertEquals(messagesB, metricRegistry.counter(prefixB + ".destination.b-1.count").getCount());
+            assertEquals(0, metricRegistry.counter(prefixA + ".destination.b-1.count").getCount());
+            assertEquals(0, metricRegistry.counter(prefixB + ".destination.a-1.count").getCount());
+            assertEquals(0,
+                    metricRegistry.counter(prefixA + ".failed.count").getCount() +
+                            metricRegistry.counter(prefixB + ".failed.count").getCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static @NotNull TestPublishPacket publishPacket(final @NotNull String payload) {
+        return new TestPublishPacket("topic/test", ByteBuffer.wrap(payload.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static @NotNull List<TestCustomSetting> destinations(final int count) {
+        final List<TestCustomSetting> destinations = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            destinations.add(new TestCustomSetting("destination", "topic-" + i));
+        }
+        return destinations;
+    }
+
+    private static @NotNull TestPublishPacket publishPacket(final int userPropertyCount) {
+        final List<TestUserProperty> userProperties = new ArrayList<>();
+        for (int i = 0; i < userPropertyCount; i++) {
+            userProperties.add(new TestUserProperty("name-" + i, "value-" + i));
+        }
+        return new TestPublishPacket("my/mqtt/topic",
+                Qos.EXACTLY_ONCE,
+                true,
+                ByteBuffer.wrap(new byte[100]),
+                userProperties);
+    }
+
+    private static class NoOpOutboundPubSubMessageBuilder implements OutboundPubSubMessageBuilder {
+
+        private final @NotNull OutboundPubSubMessage message = new TestOutboundPubSubMessage("", Map.of(), null, null);
+        @Nullable Object lastArgument;
 
         @Override
-        public @NotNull String getTopicName() {
-            return "";
+        public @NotNull OutboundPubSubMessageBuilder topicName(final @NotNull String topicName) {
+            lastArgument = topicName;
+            return this;
         }
 
         @Override
-        public @NotNull Map<String, String> getAttributes() {
-            return Map.of();
+        public @NotNull OutboundPubSubMessageBuilder attribute(final @NotNull String name, final @NotNull String value) {
+            lastArgument = value;
+            return this;
         }
 
         @Override
-        public @NotNull Optional<@Immutable ByteBuffer> getData() {
-            return Optional.empty();
+        public @NotNull OutboundPubSubMessageBuilder data(final @NotNull ByteBuffer data) {
+            lastArgument = data;
+            return this;
         }
 
         @Override
-        public @NotNull Optional<byte[]> getDataAsByteArray() {
-            return Optional.empty();
+        public @NotNull OutboundPubSubMessageBuilder orderingKey(final @NotNull String orderingKey) {
+            lastArgument = orderingKey;
+            return this;
         }
 
         @Override
-        public @NotNull Optional<String> getOrderingKey() {
-            return Optional.empty();
+        public @NotNull OutboundPubSubMessage build() {
+            return message;
         }
     }
-}
\ No newline at end of file
+}
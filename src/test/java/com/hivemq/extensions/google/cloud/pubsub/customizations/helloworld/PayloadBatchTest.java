@@ -0,0 +1,110 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @since 4.53.0
+ */
+class PayloadBatchTest {
+
+    @Test
+    void encode_lengthPrefixed_mqttTopicsAndPayloadsDecoded() {
+        final ByteBuffer data = encode(PayloadBatch.Format.LENGTH_PREFIXED, "a/b", "first", "a/ä", "", "c", "third");
+
+        assertEquals(2 + 3 + 4 + 5 + 2 + 4 + 4 + 0 + 2 + 1 + 4 + 5, data.remaining());
+        assertTrue(data.isReadOnly());
+        assertEquals(List.of("a/b", "first", "a/ä", "", "c", "third"),
+                decode(PayloadBatch.Format.LENGTH_PREFIXED, data));
+    }
+
+    @Test
+    void encode_newline_payloadsDecoded() {
+        final ByteBuffer data = encode(PayloadBatch.Format.NEWLINE, "a/b", "{\"t\":1}", "c", "{\"t\":2}");
+
+        assertEquals("{\"t\":1}\n{\"t\":2}\n", StandardCharsets.UTF_8.decode(data.duplicate()).toString());
+        assertEquals(Arrays.asList(null, "{\"t\":1}", null, "{\"t\":2}"), decode(PayloadBatch.Format.NEWLINE, data));
+    }
+
+    @Test
+    void canEncode_newlineInPayload_false() {
+        final byte[] mqttTopic = PayloadBatch.Format.NEWLINE.encodeMqttTopic("a/b");
+
+        assertFalse(PayloadBatch.Format.NEWLINE.canEncode(mqttTopic, utf8("line 1\nline 2")));
+        assertTrue(PayloadBatch.Format.NEWLINE.canEncode(mqttTopic, utf8("line 1")));
+        assertTrue(PayloadBatch.Format.LENGTH_PREFIXED.canEncode(PayloadBatch.Format.LENGTH_PREFIXED.encodeMqttTopic(
+                "a/b"), utf8("line 1\nline 2")));
+    }
+
+    @Test
+    void decode_truncated_exception() {
+        final ByteBuffer data = encode(PayloadBatch.Format.LENGTH_PREFIXED, "a/b", "payload");
+        data.limit(data.limit() - 1);
+
+        assertThrows(IllegalArgumentException.class,
+                () -> PayloadBatch.decode(PayloadBatch.Format.LENGTH_PREFIXED, data, (mqttTopic, payload) -> {
+                }));
+    }
+
+    @Test
+    void fromName_unknown_null() {
+        assertEquals(PayloadBatch.Format.NEWLINE, PayloadBatch.Format.fromName("NewLine"));
+        assertNull(PayloadBatch.Format.fromName("csv"));
+    }
+
+    /**
+     * @param records alternating MQTT topics and payloads.
+     */
+    private static @NotNull ByteBuffer encode(final @NotNull PayloadBatch.Format format, final String... records) {
+        final BatchAccumulator accumulator = new BatchAccumulator(format, records.length / 2, Integer.MAX_VALUE, 60_000);
+        final List<BatchAccumulator.Batch> completed = new ArrayList<>();
+        for (int i = 0; i < records.length; i += 2) {
+            accumulator.add("topic-1", format.encodeMqttTopic(records[i]), utf8(records[i + 1]), completed);
+        }
+        assertEquals(1, completed.size());
+        return PayloadBatch.encode(format, completed.get(0));
+    }
+
+    private static @NotNull List<String> decode(
+            final @NotNull PayloadBatch.Format format,
+            final @NotNull ByteBuffer data) {
+        final List<String> records = new ArrayList<>();
+        PayloadBatch.decode(format, data, (mqttTopic, payload) -> {
+            assertTrue(payload.isReadOnly());
+            records.add(mqttTopic);
+            records.add(StandardCharsets.UTF_8.decode(payload).toString());
+        });
+        return records;
+    }
+
+    private static @NotNull ByteBuffer utf8(final @NotNull String value) {
+        return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+    }
+}
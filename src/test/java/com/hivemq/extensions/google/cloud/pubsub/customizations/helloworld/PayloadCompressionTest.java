@@ -0,0 +1,147 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @since 4.53.0
+ */
+class PayloadCompressionTest {
+
+    private static final byte[] JSON = ("{\"device\":\"sensor-1\",\"temperature\":21.5,\"humidity\":40}\n".repeat(200))
+            .getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void compress_gzip_roundTrip() throws DataFormatException {
+        final ByteBuffer payload = ByteBuffer.wrap(JSON).asReadOnlyBuffer();
+
+        final ByteBuffer compressed = PayloadCompression.compress(payload, PayloadCompression.Algorithm.GZIP);
+
+        assertNotNull(compressed);
+        assertEquals(JSON.length, payload.remaining());
+        assertTrue(compressed.remaining() < JSON.length / 10);
+        final ByteBuffer decompressed =
+                PayloadCompression.decompress(compressed, PayloadCompression.Algorithm.GZIP, Integer.MAX_VALUE);
+        assertArrayEquals(JSON, bytes(decompressed));
+    }
+
+    @Test
+    void compress_deflate_roundTrip() throws DataFormatException {
+        final ByteBuffer compressed =
+                PayloadCompression.compress(ByteBuffer.wrap(JSON), PayloadCompression.Algorithm.DEFLATE);
+
+        assertNotNull(compressed);
+        final ByteBuffer decompressed =
+                PayloadCompression.decompress(compressed, PayloadCompression.Algorithm.DEFLATE, Integer.MAX_VALUE);
+        assertArrayEquals(JSON, bytes(decompressed));
+    }
+
+    @Test
+    void compress_largePayload_roundTrip() throws DataFormatException {
+        final byte[] large = new byte[3 * 1024 * 1024];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = (byte) (i % 64);
+        }
+        for (final PayloadCompression.Algorithm algorithm : PayloadCompression.Algorithm.values()) {
+            final ByteBuffer compressed = PayloadCompression.compress(ByteBuffer.wrap(large), algorithm);
+            assertNotNull(compressed);
+            assertArrayEquals(large, bytes(PayloadCompression.decompress(compressed, algorithm, large.length)));
+        }
+    }
+
+    @Test
+    void compress_gzip_readableByJdk() throws IOException {
+        final ByteBuffer compressed =
+                PayloadCompression.compress(ByteBuffer.wrap(JSON), PayloadCompression.Algorithm.GZIP);
+
+        assertNotNull(compressed);
+        try (final GZIPInputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(bytes(compressed)))) {
+            assertArrayEquals(JSON, inputStream.readAllBytes());
+        }
+    }
+
+    @Test
+    void decompress_gzipFromJdk_decompressed() throws IOException, DataFormatException {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (final GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream)) {
+            gzipOutputStream.write(JSON);
+        }
+
+        final ByteBuffer decompressed = PayloadCompression.decompress(ByteBuffer.wrap(outputStream.toByteArray()),
+                PayloadCompression.Algorithm.GZIP,
+                Integer.MAX_VALUE);
+
+        assertArrayEquals(JSON, bytes(decompressed));
+    }
+
+    @Test
+    void compress_incompressiblePayload_null() {
+        final byte[] random = new byte[4096];
+        new Random(42).nextBytes(random);
+
+        assertNull(PayloadCompression.compress(ByteBuffer.wrap(random), PayloadCompression.Algorithm.GZIP));
+        assertNull(PayloadCompression.compress(ByteBuffer.wrap(new byte[4]), PayloadCompression.Algorithm.DEFLATE));
+    }
+
+    @Test
+    void decompress_exceedsMaximum_exception() {
+        for (final PayloadCompression.Algorithm algorithm : PayloadCompression.Algorithm.values()) {
+            final ByteBuffer compressed = PayloadCompression.compress(ByteBuffer.wrap(JSON), algorithm);
+            assertNotNull(compressed);
+            assertThrows(DataFormatException.class,
+                    () -> PayloadCompression.decompress(compressed, algorithm, JSON.length - 1));
+        }
+    }
+
+    @Test
+    void decompress_malformed_exception() {
+        for (final PayloadCompression.Algorithm algorithm : PayloadCompression.Algorithm.values()) {
+            final ByteBuffer compressed = PayloadCompression.compress(ByteBuffer.wrap(JSON), algorithm);
+            assertNotNull(compressed);
+            final ByteBuffer truncated = compressed.duplicate();
+            truncated.limit(truncated.limit() / 2);
+            assertThrows(DataFormatException.class,
+                    () -> PayloadCompression.decompress(truncated, algorithm, Integer.MAX_VALUE));
+            assertThrows(DataFormatException.class,
+                    () -> PayloadCompression.decompress(ByteBuffer.wrap(JSON), algorithm, Integer.MAX_VALUE));
+        }
+    }
+
+    private static byte[] bytes(final ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.InvalidKeyException;
+import java.security.SignatureException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @since 4.53.0
+ */
+class PayloadEncryptionTest {
+
+    private static final @NotNull SecretKey KEY = TestKeyStore.aesKey(1);
+    private static final byte @NotNull [] AAD = associatedData("key-1", "topic", "1", "false");
+
+    @Test
+    void encrypt_readOnlyPayload_decrypted() throws Exception {
+        for (final String text : List.of("", "a", "{\"temperature\":21.5}".repeat(1000))) {
+            final ByteBuffer payload = utf8("xx" + text).asReadOnlyBuffer();
+            payload.position(2);
+
+            final ByteBuffer data = PayloadEncryption.encrypt(payload, KEY, AAD);
+
+            assertEquals(2, payload.position());
+            assertEquals(PayloadEncryption.IV_BYTES + text.length() + PayloadEncryption.TAG_BYTES, data.remaining());
+            assertEquals(payload, PayloadEncryption.decrypt(data, KEY, AAD));
+            assertEquals(0, data.position());
+        }
+    }
+
+    @Test
+    void encrypt_samePayload_differentIv() throws Exception {
+        final ByteBuffer first = PayloadEncryption.encrypt(utf8("payload"), KEY, AAD);
+        final ByteBuffer second = PayloadEncryption.encrypt(utf8("payload"), KEY, AAD);
+
+        assertNotEquals(first, second);
+    }
+
+    @Test
+    void decrypt_modifiedOrOtherKey_exception() throws Exception {
+        final ByteBuffer data = PayloadEncryption.encrypt(utf8("payload"), KEY, AAD);
+        final ByteBuffer modified = ByteBuffer.allocate(data.remaining()).put(data.duplicate()).flip();
+        modified.put(PayloadEncryption.IV_BYTES, (byte) (modified.get(PayloadEncryption.IV_BYTES) ^ 1));
+
+        assertThrows(AEADBadTagException.class, () -> PayloadEncryption.decrypt(modified, KEY, AAD));
+        assertThrows(AEADBadTagException.class, () -> PayloadEncryption.decrypt(data, TestKeyStore.aesKey(2), AAD));
+        assertThrows(AEADBadTagException.class, () -> PayloadEncryption.decrypt(utf8("short"), KEY, AAD));
+    }
+
+    @Test
+    void decrypt_modifiedAttributes_exception() throws Exception {
+        final ByteBuffer data = PayloadEncryption.encrypt(utf8("payload"), KEY, AAD);
+
+        assertThrows(AEADBadTagException.class, () -> PayloadEncryption.decrypt(data,
+                KEY,
+                associatedData("key-1", "other/topic", "1", "false")));
+        assertThrows(AEADBadTagException.class, () -> PayloadEncryption.decrypt(data,
+                KEY,
+                associatedData("key-1", "topic", "1", "true")));
+        assertThrows(AEADBadTagException.class, () -> PayloadEncryption.decrypt(data,
+                KEY,
+                associatedData("key-1", "topic", null, "false")));
+    }
+
+    @Test
+    void verify_modifiedAttributes_exception() throws Exception {
+        final String signature = PayloadEncryption.sign(utf8("payload"), KEY, AAD);
+
+        assertThrows(SignatureException.class, () -> PayloadEncryption.verify(utf8("payload"),
+                KEY,
+                signature,
+                associatedData("key-2", "topic", "1", "false")));
+        assertThrows(SignatureException.class, () -> PayloadEncryption.verify(utf8("payload"),
+                KEY,
+                signature,
+                associatedData("key-1", "topic", "0", "false")));
+    }
+
+    @Test
+    void associatedData_attributesThatDescribeTheData_authenticated() throws Exception {
+        final ByteBuffer data = PayloadEncryption.encrypt(utf8("payload"), KEY, AAD);
+
+        for (final String name : List.of("envelope",
+                "batch-format",
+                "batch-size",
+                "content-encoding",
+                "payload-schema")) {
+            final Map<String, String> attributes = new HashMap<>(Map.of("key-id",
+                    "key-1",
+                    "mqtt-topic",
+                    "topic",
+                    "qos",
+                    "1",
+                    "retained",
+                    "false"));
+            attributes.put(name, "x");
+
+            assertThrows(AEADBadTagException.class,
+                    () -> PayloadEncryption.decrypt(data, KEY, PayloadEncryption.associatedData(attributes::get)),
+                    name);
+        }
+    }
+
+    @Test
+    void associatedData_missingAndEmptyAndShiftedValues_distinct() {
+        final Set<String> encodings = Set.of(
+                Arrays.toString(associatedData("k", "a", "1", null)),
+                Arrays.toString(associatedData("k", "a", "1", "")),
+                Arrays.toString(associatedData("k", "a1", "", null)),
+                Arrays.toString(associatedData("ka", "", "1", null)));
+
+        assertEquals(4, encodings.size());
+    }
+
+    @Test
+    void countEncryption_overMaxEncryptions_exception() throws Exception {
+        final AtomicLong encryptions = new AtomicLong();
+
+        PayloadEncryption.countEncryption(encryptions, 2, "key-1");
+        PayloadEncryption.countEncryption(encryptions, 2, "key-1");
+
+        assertThrows(InvalidKeyException.class, () -> PayloadEncryption.countEncryption(encryptions, 2, "key-1"));
+    }
+
+    @Test
+    void encryptions_sameKeyMaterial_sameCount() {
+        final AtomicLong encryptions = PayloadEncryption.encryptions(TestKeyStore.aesKey(1));
+
+        assertSame(encryptions, PayloadEncryption.encryptions(TestKeyStore.aesKey(1)));
+        assertNotSame(encryptions, PayloadEncryption.encryptions(TestKeyStore.aesKey(2)));
+    }
+
+    @Test
+    void sign_sameKey_verified() throws Exception {
+        final ByteBuffer payload = utf8("payload");
+        final String signature = PayloadEncryption.sign(payload, KEY, AAD);
+
+        assertEquals(44, signature.length());
+        assertEquals(signature, PayloadEncryption.sign(payload, KEY, AAD));
+        PayloadEncryption.verify(payload, KEY, signature, AAD);
+        assertNotEquals(signature, PayloadEncryption.sign(payload, TestKeyStore.aesKey(2), AAD));
+        // the key of the MAC of the thread is switched back
+        assertEquals(signature, PayloadEncryption.sign(payload, KEY, AAD));
+    }
+
+    @Test
+    void verify_modifiedOrInvalidSignature_exception() throws Exception {
+        final String signature = PayloadEncryption.sign(utf8("payload"), KEY, AAD);
+
+        assertThrows(SignatureException.class, () -> PayloadEncryption.verify(utf8("Payload"), KEY, signature, AAD));
+        assertThrows(SignatureException.class,
+                () -> PayloadEncryption.verify(utf8("payload"), TestKeyStore.aesKey(2), signature, AAD));
+        assertThrows(SignatureException.class, () -> PayloadEncryption.verify(utf8("payload"), KEY, "%", AAD));
+        assertThrows(SignatureException.class, () -> PayloadEncryption.verify(utf8("payload"), KEY, "", AAD));
+    }
+
+    @Test
+    void loadKeys_secretKeysByAlias(final @TempDir @NotNull Path directory) throws Exception {
+        final Path file = TestKeyStore.write(directory.resolve("keys.p12"),
+                Map.of("key-1", KEY, "key-2", TestKeyStore.aesKey(2)));
+
+        final Map<String, SecretKey> keys = PayloadEncryption.loadKeys(file, TestKeyStore.PASSWORD.toCharArray());
+
+        assertEquals(Set.of("key-1", "key-2"), keys.keySet());
+        assertArrayEquals(KEY.getEncoded(), keys.get("key-1").getEncoded());
+        assertArrayEquals(TestKeyStore.aesKey(2).getEncoded(), keys.get("key-2").getEncoded());
+        assertThrows(IOException.class, () -> PayloadEncryption.loadKeys(file, "wrong".toCharArray()));
+    }
+
+    @Test
+    void fromName_unknown_null() {
+        assertEquals(PayloadEncryption.Mode.AES_GCM, PayloadEncryption.Mode.fromName("AES-GCM"));
+        assertEquals(PayloadEncryption.Mode.HMAC_SHA256, PayloadEncryption.Mode.fromName("hmac-sha256"));
+        assertNull(PayloadEncryption.Mode.fromName("rot13"));
+        assertNull(PayloadEncryption.Mode.fromName(null));
+    }
+
+    private static @NotNull ByteBuffer utf8(final @NotNull String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte @NotNull [] associatedData(
+            final @NotNull String keyId,
+            final @NotNull String mqttTopic,
+            final @Nullable String qos,
+            final @Nullable String retained) {
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put("key-id", keyId);
+        attributes.put("mqtt-topic", mqttTopic);
+        attributes.put("qos", qos);
+        attributes.put("retained", retained);
+        return PayloadEncryption.associatedData(attributes::get);
+    }
+}
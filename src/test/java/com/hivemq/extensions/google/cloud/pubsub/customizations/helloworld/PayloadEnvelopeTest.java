@@ -0,0 +1,253 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.packets.general.Qos;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @since 4.53.0
+ */
+class PayloadEnvelopeTest {
+
+    private static final @NotNull List<TestUserProperty> USER_PROPERTIES = List.of(new TestUserProperty("a", "1"),
+            new TestUserProperty("quote \"\\", "line\nbreak\u0001"),
+            new TestUserProperty("a", "ä €𝄞"));
+
+    @Test
+    void encode_json_readableObjectWithBase64Payload() {
+        final ByteBuffer data = PayloadEnvelope.encode(PayloadEnvelope.Format.JSON,
+                "devices/d-1",
+                Qos.EXACTLY_ONCE,
+                true,
+                3600,
+                List.of(new TestUserProperty("type", "\"pump\"")),
+                AttributeFilter.NONE,
+                utf8("hello"));
+
+        assertTrue(data.isReadOnly());
+        assertEquals("{\"topic\":\"devices/d-1\",\"qos\":2,\"retain\":true,\"message_expiry_interval\":3600," +
+                "\"user_properties\":[{\"name\":\"type\",\"value\":\"\\\"pump\\\"\"}],\"payload\":\"aGVsbG8=\"}",
+                StandardCharsets.UTF_8.decode(data).toString());
+    }
+
+    @Test
+    void encode_json_decoded() {
+        for (final String payload : List.of("", "a", "ab", "abc", "{\"temperature\": 21.5}")) {
+            final ByteBuffer data = PayloadEnvelope.encode(PayloadEnvelope.Format.JSON,
+                    "sensors/ä/€",
+                    Qos.AT_LEAST_ONCE,
+                    false,
+                    PayloadEnvelope.NO_EXPIRY,
+                    USER_PROPERTIES,
+                    AttributeFilter.NONE,
+                    utf8(payload));
+
+            assertMessage(PayloadEnvelope.decode(PayloadEnvelope.Format.JSON, data),
+                    "sensors/ä/€",
+                    Qos.AT_LEAST_ONCE,
+                    false,
+                    PayloadEnvelope.NO_EXPIRY,
+                    payload);
+        }
+    }
+
+    @Test
+    void encode_binary_decoded() {
+        final ByteBuffer payload = ByteBuffer.wrap(new byte[]{0, (byte) 0xFF, '\n', 42});
+        payload.position(1);
+
+        final ByteBuffer data = PayloadEnvelope.encode(PayloadEnvelope.Format.BINARY,
+                "sensors/ä/€",
+                Qos.EXACTLY_ONCE,
+                true,
+                0xFFFF_FFFFL,
+                USER_PROPERTIES,
+                AttributeFilter.NONE,
+                payload);
+
+        assertEquals(1, payload.position());
+        assertEquals(1 + 1 + 4 + 2 + 14 + 4 + (2 + 1 + 2 + 1) + (2 + 8 + 2 + 11) + (2 + 1 + 2 + 10) + 4 + 3,
+                data.remaining());
+        final PayloadEnvelope.Message message = PayloadEnvelope.decode(PayloadEnvelope.Format.BINARY, data);
+        assertEquals("sensors/ä/€", message.getMqttTopic());
+        assertEquals(Qos.EXACTLY_ONCE, message.getQos());
+        assertTrue(message.isRetain());
+        assertEquals(0xFFFF_FFFFL, message.getMessageExpiryInterval());
+        assertEquals(List.of(Map.entry("a", "1"),
+                Map.entry("quote \"\\", "line\nbreak\u0001"),
+                Map.entry("a", "ä €𝄞")), message.getUserProperties());
+        assertEquals(ByteBuffer.wrap(new byte[]{(byte) 0xFF, '\n', 42}), message.getPayload());
+        assertTrue(message.getPayload().isReadOnly());
+    }
+
+    @Test
+    void encode_deniedUserProperties_notWrapped() {
+        final AttributeFilter attributeFilter = AttributeFilter.of(new TestCustomSettings(List.of(new TestCustomSetting(
+                "attribute-deny",
+                "quote*"), new TestCustomSetting("attribute-max-bytes", "1"))));
+        for (final PayloadEnvelope.Format format : PayloadEnvelope.Format.values()) {
+            final ByteBuffer data = PayloadEnvelope.encode(format,
+                    "t",
+                    Qos.AT_MOST_ONCE,
+                    false,
+                    PayloadEnvelope.NO_EXPIRY,
+                    USER_PROPERTIES,
+                    attributeFilter,
+                    null);
+
+            // the size limits of attributes do not apply
+            assertEquals(List.of(Map.entry("a", "1"), Map.entry("a", "ä €𝄞")),
+                    PayloadEnvelope.decode(format, data).getUserProperties());
+        }
+    }
+
+    @Test
+    void encode_noPayload_emptyPayloadDecoded() {
+        for (final PayloadEnvelope.Format format : PayloadEnvelope.Format.values()) {
+            final ByteBuffer data = PayloadEnvelope.encode(format,
+                    "t",
+                    Qos.AT_MOST_ONCE,
+                    false,
+                    PayloadEnvelope.NO_EXPIRY,
+                    List.of(),
+                    AttributeFilter.NONE,
+                    null);
+
+            final PayloadEnvelope.Message message = PayloadEnvelope.decode(format, data);
+            assertEquals(0, message.getPayload().remaining());
+            assertEquals(List.of(), message.getUserProperties());
+        }
+    }
+
+    @Test
+    void encode_largePayload_bufferGrows() {
+        final byte[] payload = new byte[300_000];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) i;
+        }
+        for (final PayloadEnvelope.Format format : PayloadEnvelope.Format.values()) {
+            final ByteBuffer data = PayloadEnvelope.encode(format,
+                    "t",
+                    Qos.AT_MOST_ONCE,
+                    false,
+                    PayloadEnvelope.NO_EXPIRY,
+                    List.of(),
+                    AttributeFilter.NONE,
+                    ByteBuffer.wrap(payload));
+            final ByteBuffer small = PayloadEnvelope.encode(format,
+                    "t",
+                    Qos.AT_MOST_ONCE,
+                    false,
+                    PayloadEnvelope.NO_EXPIRY,
+                    List.of(),
+                    AttributeFilter.NONE,
+                    utf8("x"));
+
+            assertEquals(ByteBuffer.wrap(payload), PayloadEnvelope.decode(format, data).getPayload());
+            assertEquals(utf8("x"), PayloadEnvelope.decode(format, small).getPayload());
+        }
+    }
+
+    @Test
+    void decode_jsonFromOtherProducer_membersInAnyOrder() {
+        final PayloadEnvelope.Message message = PayloadEnvelope.decode(PayloadEnvelope.Format.JSON,
+                utf8("{ \"payload\": \"aGk\\/\", \"unknown\": [1, {}], \"user_properties\": [{\"value\": \"v\", " +
+                        "\"name\": \"n\"}], \"retain\": false, \"topic\": \"a\\/b\" }"));
+
+        assertMessageHeader(message, "a/b", Qos.AT_MOST_ONCE, false, PayloadEnvelope.NO_EXPIRY);
+        assertEquals(List.of(Map.entry("n", "v")), message.getUserProperties());
+        assertEquals(ByteBuffer.wrap(new byte[]{'h', 'i', '?'}), message.getPayload());
+    }
+
+    @Test
+    void decode_invalid_exception() {
+        assertThrows(IllegalArgumentException.class,
+                () -> PayloadEnvelope.decode(PayloadEnvelope.Format.JSON, utf8("{\"qos\": 1}")));
+        assertThrows(IllegalArgumentException.class,
+                () -> PayloadEnvelope.decode(PayloadEnvelope.Format.JSON, utf8("{\"topic\": \"t\", \"qos\": 3}")));
+        assertThrows(IllegalArgumentException.class,
+                () -> PayloadEnvelope.decode(PayloadEnvelope.Format.JSON,
+                        utf8("{\"topic\": \"t\", \"payload\": \"%\"}")));
+        assertThrows(IllegalArgumentException.class,
+                () -> PayloadEnvelope.decode(PayloadEnvelope.Format.JSON, utf8("[\"t\"]")));
+        assertThrows(IllegalArgumentException.class,
+                () -> PayloadEnvelope.decode(PayloadEnvelope.Format.BINARY, utf8("{\"topic\": \"t\"}")));
+
+        final ByteBuffer data = PayloadEnvelope.encode(PayloadEnvelope.Format.BINARY,
+                "t",
+                Qos.AT_MOST_ONCE,
+                false,
+                PayloadEnvelope.NO_EXPIRY,
+                USER_PROPERTIES,
+                AttributeFilter.NONE,
+                utf8("payload"));
+        for (int limit = 0; limit < data.limit(); limit++) {
+            final ByteBuffer truncated = data.duplicate();
+            truncated.limit(limit);
+            assertThrows(IllegalArgumentException.class,
+                    () -> PayloadEnvelope.decode(PayloadEnvelope.Format.BINARY, truncated));
+        }
+    }
+
+    @Test
+    void fromName_unknown_null() {
+        assertEquals(PayloadEnvelope.Format.BINARY, PayloadEnvelope.Format.fromName("Binary"));
+        assertNull(PayloadEnvelope.Format.fromName("avro"));
+        assertNull(PayloadEnvelope.Format.fromName(null));
+    }
+
+    private static void assertMessage(
+            final @NotNull PayloadEnvelope.Message message,
+            final @NotNull String mqttTopic,
+            final @NotNull Qos qos,
+            final boolean retain,
+            final long messageExpiryInterval,
+            final @NotNull String payload) {
+        assertMessageHeader(message, mqttTopic, qos, retain, messageExpiryInterval);
+        assertEquals(List.of(Map.entry("a", "1"),
+                Map.entry("quote \"\\", "line\nbreak\u0001"),
+                Map.entry("a", "ä €𝄞")), message.getUserProperties());
+        assertEquals(payload, StandardCharsets.UTF_8.decode(message.getPayload()).toString());
+    }
+
+    private static void assertMessageHeader(
+            final @NotNull PayloadEnvelope.Message message,
+            final @NotNull String mqttTopic,
+            final @NotNull Qos qos,
+            final boolean retain,
+            final long messageExpiryInterval) {
+        assertEquals(mqttTopic, message.getMqttTopic());
+        assertEquals(qos, message.getQos());
+        assertEquals(retain, message.isRetain());
+        assertEquals(messageExpiryInterval, message.getMessageExpiryInterval());
+    }
+
+    private static @NotNull ByteBuffer utf8(final @NotNull String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
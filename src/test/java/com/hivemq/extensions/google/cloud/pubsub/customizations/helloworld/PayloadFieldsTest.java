@@ -0,0 +1,167 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @since 4.53.0
+ */
+class PayloadFieldsTest {
+
+    @Test
+    void extract_nestedFields_addedAsText() {
+        final PayloadFields fields = new PayloadFields(List.of(
+                "/device/type -> deviceType",
+                "/device/online -> online",
+                "/severity -> severity",
+                "/readings/1/value -> second",
+                "/location -> location",
+                "/tags -> tags",
+                "/missing -> missing",
+                "/comment -> comment"));
+
+        final Map<String, String> attributes = extract(fields, "{\"device\": {\"id\": \"d-42\", \"type\": \"pump\", " +
+                "\"online\": true}, \"readings\": [{\"value\": 1.5}, {\"value\": -2e3}], \"comment\": null, " +
+                "\"severity\": \"high \\\"!\\\"\", \"location\": {\"lat\": 1, \"lon\": 2}, \"tags\": [\"a\", \"b\"]}");
+
+        assertEquals(Map.of("deviceType",
+                "pump",
+                "online",
+                "true",
+                "severity",
+                "high \"!\"",
+                "second",
+                "-2e3",
+                "location",
+                "{\"lat\": 1, \"lon\": 2}",
+                "tags",
+                "[\"a\", \"b\"]"), attributes);
+    }
+
+    @Test
+    void extract_escapedPointerAndMemberNames_matched() {
+        final PayloadFields fields =
+                new PayloadFields(List.of("/a~1b -> slash", "/c~0d -> tilde", "/device -> device"));
+
+        assertEquals(Map.of("slash", "1", "tilde", "2", "device", "3"),
+                extract(fields, "{\"a/b\": 1, \"c~d\": 2, \"d\\u0065vice\": 3}"));
+    }
+
+    @Test
+    void extract_allFieldsFound_restOfPayloadNotScanned() {
+        final PayloadFields fields = new PayloadFields(List.of("/severity -> severity", "/device/type -> type"));
+
+        // the payload is truncated after the fields, so a complete scan would fail
+        assertEquals(Map.of("severity", "high", "type", "pump"),
+                extract(fields, "{\"severity\": \"high\", \"device\": {\"type\": \"pump\", \"id\": \"d-4"));
+    }
+
+    @Test
+    void extract_malformedOrNoJson_fieldsFoundSoFarKept() {
+        final PayloadFields fields = new PayloadFields(List.of("/severity -> severity", "/device -> device"));
+
+        assertEquals(Map.of("severity", "high"), extract(fields, "{\"severity\": \"high\", \"device\" 1}"));
+        assertEquals(Map.of(), extract(fields, "severity=high"));
+        assertEquals(Map.of(), extract(fields, ""));
+        assertEquals(Map.of(), extract(fields, "[1, 2"));
+    }
+
+    @Test
+    void extract_duplicateMembers_firstUsed() {
+        final PayloadFields fields = new PayloadFields(List.of("/a -> a", "/b -> b"));
+
+        assertEquals(Map.of("a", "1", "b", "3"), extract(fields, "{\"a\": 1, \"a\": 2, \"b\": 3}"));
+    }
+
+    @Test
+    void extract_samePointerForTwoAttributes_bothAdded() {
+        final PayloadFields fields = new PayloadFields(List.of("/id -> id", "/id -> device-id", "/id/x -> x"));
+
+        assertEquals(Map.of("id", "7", "device-id", "7"), extract(fields, "{\"id\": 7}"));
+    }
+
+    @Test
+    void extract_positionOfBuffer_respectedAndUnchanged() {
+        final PayloadFields fields = new PayloadFields(List.of("/0 -> first"));
+        final ByteBuffer payload = ByteBuffer.wrap("xx[\"a\", \"b\"]".getBytes(StandardCharsets.UTF_8));
+        payload.position(2);
+        final OutboundAttributes attributes = OutboundAttributes.get();
+
+        fields.extract(payload, attributes, AttributeFilter.NONE);
+
+        assertEquals(1, attributes.size());
+        assertEquals("a", attributes.value(0));
+        assertEquals(2, payload.position());
+        attributes.clear();
+    }
+
+    @Test
+    void extract_valuesOverMaxBytes_droppedOrTruncatedAndCounted() {
+        final PayloadFields fields = new PayloadFields(List.of("/short -> short", "/long -> long", "/huge -> huge"));
+        final String payload = "{\"short\": \"abc\", \"long\": \"abcdef\", \"huge\": \"" + "x".repeat(2000) + "\"}";
+        final AttributeFilter drop = new AttributeFilter(List.of(), List.of(), 4, 0, false);
+        final AttributeFilter truncate = new AttributeFilter(List.of(), List.of(), 4, 0, true);
+
+        assertEquals(Map.of("short", "abc"), extract(fields, drop, payload));
+        assertEquals(Map.of("short", "abc", "long", "abcd", "huge", "xxxx"), extract(fields, truncate, payload));
+        // without attribute-max-bytes, values are limited to the 1024 bytes of a Pub/Sub attribute value
+        assertEquals(Map.of("short", "abc", "long", "abcdef"), extract(fields, payload));
+
+        final OutboundAttributes attributes = OutboundAttributes.get();
+        assertEquals(2, fields.extract(ByteBuffer.wrap(payload.getBytes(StandardCharsets.UTF_8)), attributes, drop));
+        assertEquals(1, attributes.size());
+        attributes.clear();
+    }
+
+    @Test
+    void new_invalidRules_ignored() {
+        final PayloadFields fields = new PayloadFields(List.of("device/type -> type", "/device", "/device -> "));
+
+        assertTrue(fields.isEmpty());
+        assertTrue(PayloadFields.NONE.isEmpty());
+        assertFalse(new PayloadFields(List.of("/ -> empty-name")).isEmpty());
+    }
+
+    private static @NotNull Map<String, String> extract(
+            final @NotNull PayloadFields fields,
+            final @NotNull String payload) {
+        return extract(fields, AttributeFilter.NONE, payload);
+    }
+
+    private static @NotNull Map<String, String> extract(
+            final @NotNull PayloadFields fields,
+            final @NotNull AttributeFilter attributeFilter,
+            final @NotNull String payload) {
+        final OutboundAttributes attributes = OutboundAttributes.get();
+        fields.extract(ByteBuffer.wrap(payload.getBytes(StandardCharsets.UTF_8)), attributes, attributeFilter);
+        final TestOutboundPubSubMessageBuilder builder = new TestOutboundPubSubMessageBuilder();
+        builder.topicName("topic");
+        attributes.applyTo(builder);
+        attributes.clear();
+        return builder.build().attributes;
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @since 4.53.0
+ */
+class PayloadSchemaTest {
+
+    private static final @NotNull String SCHEMA = "{\"type\":\"record\",\"name\":\"Reading\",\"namespace\":\"sensors\"," +
+            "\"fields\":[" +
+            "{\"name\":\"on\",\"type\":\"boolean\"}," +
+            "{\"name\":\"count\",\"type\":\"int\"}," +
+            "{\"name\":\"time\",\"type\":\"long\"}," +
+            "{\"name\":\"ratio\",\"type\":\"float\"}," +
+            "{\"name\":\"value\",\"type\":\"double\"}," +
+            "{\"name\":\"device\",\"type\":\"string\"}," +
+            "{\"name\":\"unit\",\"type\":[\"null\",\"string\"]}," +
+            "{\"name\":\"offset\",\"type\":[\"long\",\"null\"]}]}";
+
+    private final @NotNull PayloadSchema schema = PayloadSchema.parse(utf8(SCHEMA));
+
+    @Test
+    void parse_recordSchema_fullName() {
+        assertEquals("sensors.Reading", schema.getFullName());
+        assertEquals("Plain",
+                PayloadSchema.parse(utf8("{\"type\":\"record\",\"name\":\"Plain\",\"fields\":[]}")).getFullName());
+    }
+
+    @Test
+    void parse_unsupportedSchema_exception() {
+        assertThrows(IllegalArgumentException.class,
+                () -> PayloadSchema.parse(utf8("{\"type\":\"enum\",\"name\":\"E\",\"fields\":[]}")));
+        assertThrows(IllegalArgumentException.class,
+                () -> PayloadSchema.parse(utf8("{\"type\":\"record\",\"fields\":[]}")));
+        assertThrows(IllegalArgumentException.class,
+                () -> PayloadSchema.parse(utf8(
+                        "{\"type\":\"record\",\"name\":\"R\",\"fields\":[{\"name\":\"a\",\"type\":\"bytes\"}]}")));
+        assertThrows(IllegalArgumentException.class,
+                () -> PayloadSchema.parse(utf8(
+                        "{\"type\":\"record\",\"name\":\"R\",\"fields\":[{\"name\":\"a\",\"type\":[\"int\",\"long\"]}]}")));
+    }
+
+    @Test
+    void load_schemaFile_parsed(final @TempDir @NotNull Path directory) throws IOException {
+        final Path file = directory.resolve("reading.avsc");
+        Files.writeString(file, SCHEMA);
+
+        assertEquals("sensors.Reading", PayloadSchema.load(file).getFullName());
+        assertThrows(IOException.class, () -> PayloadSchema.load(directory.resolve("missing.avsc")));
+    }
+
+    @Test
+    void encode_knownRecord_avroBinaryEncoding() {
+        final ByteBuffer binary = schema.encode(utf8(
+                "{\"on\":true,\"count\":-1,\"time\":64,\"ratio\":1.5,\"value\":-2.0,\"device\":\"d\",\"unit\":null}"));
+
+        assertNotNull(binary);
+        final byte[] bytes = new byte[binary.remaining()];
+        binary.get(bytes);
+        assertArrayEquals(new byte[]{
+                1, // true
+                1, // -1 zig-zag
+                (byte) 0x80, 1, // 64 zig-zag
+                0, 0, (byte) 0xC0, 0x3F, // 1.5f little-endian
+                0, 0, 0, 0, 0, 0, 0, (byte) 0xC0, // -2.0 little-endian
+                2, 'd', // length 1
+                0, // union index of null
+                2, // union index of null, the member is missing
+        }, bytes);
+    }
+
+    @Test
+    void encode_notMatchingJson_null() {
+        final String valid = "\"on\":true,\"count\":1,\"time\":1,\"ratio\":1,\"value\":1,\"device\":\"d\"";
+
+        assertNotNull(schema.encode(utf8("{" + valid + "}")));
+        assertNull(schema.encode(utf8("{" + valid + ",\"other\":1}")));
+        assertNull(schema.encode(utf8("{" + valid.replace("\"device\":\"d\"", "\"device\":1") + "}")));
+        assertNull(schema.encode(utf8("{" + valid.replace("\"device\":\"d\"", "\"device\":null") + "}")));
+        assertNull(schema.encode(utf8("{" + valid.replace("\"count\":1", "\"count\":2147483648") + "}")));
+        assertNull(schema.encode(utf8("{" + valid.replace("\"count\":1", "\"count\":1.5") + "}")));
+        assertNull(schema.encode(utf8("{" + valid.replace("\"on\":true", "\"on\":1") + "}")));
+        assertNull(schema.encode(utf8("{" + valid.replace("\"value\":1", "\"value\":-Infinity") + "}")));
+        assertNull(schema.encode(utf8("{" + valid.replace(",\"device\":\"d\"", "") + "}")));
+        assertNull(schema.encode(utf8("{" + valid + "} trailing")));
+        assertNull(schema.encode(utf8("{" + valid)));
+        assertNull(schema.encode(utf8("[1]")));
+        assertNull(schema.encode(utf8("not json")));
+    }
+
+    @Test
+    void encode_escapedString_unescaped() {
+        final ByteBuffer binary = schema.encode(utf8("{\"on\":false,\"count\":0,\"time\":0,\"ratio\":0,\"value\":0," +
+                "\"device\":\"a\\nb\\u00e4\",\"unit\":\"\\\"C\\\"\",\"offset\":null}"));
+
+        assertNotNull(binary);
+        assertEquals("{\"on\":false,\"count\":0,\"time\":0,\"ratio\":0.0,\"value\":0.0,\"device\":\"a\\u000abä\"," +
+                "\"unit\":\"\\\"C\\\"\",\"offset\":null}", text(schema.decode(binary)));
+    }
+
+    @Test
+    void encodeDecode_randomRecords_roundTrip() {
+        final Random random = new Random(4711);
+        for (int i = 0; i < 10_000; i++) {
+            final String json = randomRecord(random);
+
+            final ByteBuffer binary = schema.encode(utf8(json));
+
+            assertNotNull(binary, json);
+            assertEquals(json, text(schema.decode(binary)));
+        }
+    }
+
+    @Test
+    void decode_invalidBinary_exception() {
+        final ByteBuffer binary = schema.encode(utf8("{\"on\":true,\"count\":1,\"time\":1,\"ratio\":1,\"value\":1," +
+                "\"device\":\"d\",\"unit\":\"C\",\"offset\":5}"));
+        assertNotNull(binary);
+
+        final byte[] truncated = new byte[binary.remaining() - 1];
+        binary.duplicate().get(truncated);
+        assertThrows(IllegalArgumentException.class, () -> schema.decode(ByteBuffer.wrap(truncated)));
+        final byte[] trailing = new byte[binary.remaining() + 1];
+        binary.duplicate().get(trailing, 0, binary.remaining());
+        assertThrows(IllegalArgumentException.class, () -> schema.decode(ByteBuffer.wrap(trailing)));
+        final byte[] nan = new byte[binary.remaining()];
+        binary.duplicate().get(nan);
+        // the double starts after the boolean, the two varints and the float
+        nan[7] = 0;
+        nan[8] = 0;
+        nan[9] = 0;
+        nan[10] = 0;
+        nan[11] = 0;
+        nan[12] = 0;
+        nan[13] = (byte) 0xF8;
+        nan[14] = 0x7F;
+        assertThrows(IllegalArgumentException.class, () -> schema.decode(ByteBuffer.wrap(nan)));
+    }
+
+    @Test
+    void encode_largeString_onlyResultAllocated() {
+        TestAllocations.assumeSupported();
+        final ByteBuffer json = utf8("{\"on\":true,\"count\":1,\"time\":1,\"ratio\":1,\"value\":1,\"device\":\"" +
+                "x".repeat(256 * 1024) + "\"}");
+        schema.encode(json);
+
+        final long bytesPerRun = TestAllocations.bytesPerRun(20, () -> schema.encode(json));
+
+        assertTrue(bytesPerRun < 300 * 1024, () -> bytesPerRun + " bytes allocated per encoding");
+    }
+
+    /**
+     * @return a record with random values in the canonical JSON that the schema decodes to.
+     */
+    private static @NotNull String randomRecord(final @NotNull Random random) {
+        final float ratio = Float.intBitsToFloat(random.nextInt());
+        final double value = Double.longBitsToDouble(random.nextLong());
+        return "{\"on\":" + random.nextBoolean() +
+                ",\"count\":" + random.nextInt() +
+                ",\"time\":" + random.nextLong() +
+                ",\"ratio\":" + (Float.isFinite(ratio) ? Float.toString(ratio) : "0.0") +
+                ",\"value\":" + (Double.isFinite(value) ? Double.toString(value) : "0.0") +
+                ",\"device\":" + randomString(random) +
+                ",\"unit\":" + (random.nextBoolean() ? "null" : randomString(random)) +
+                ",\"offset\":" + (random.nextBoolean() ? "null" : Long.toString(random.nextInt())) + "}";
+    }
+
+    private static @NotNull String randomString(final @NotNull Random random) {
+        final StringBuilder builder = new StringBuilder("\"");
+        final int length = random.nextInt(20);
+        for (int i = 0; i < length; i++) {
+            final int c;
+            switch (random.nextInt(4)) {
+                case 0:
+                    c = random.nextInt(0x20);
+                    break;
+                case 1:
+                    c = "\"\\/".charAt(random.nextInt(3));
+                    break;
+                case 2:
+                    c = 0x80 + random.nextInt(0xD800 - 0x80);
+                    break;
+                default:
+                    c = 0x20 + random.nextInt(0x5F);
+            }
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append((char) c);
+            } else if (c < 0x20) {
+                builder.append(String.format("\\u%04x", c));
+            } else {
+                builder.append((char) c);
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+    private static @NotNull String text(final @NotNull ByteBuffer json) {
+        return StandardCharsets.UTF_8.decode(json).toString();
+    }
+
+    private static @NotNull ByteBuffer utf8(final @NotNull String json) {
+        return ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -21,19 +21,28 @@ import com.hivemq.extension.sdk.api.packets.general.Qos;
 import com.hivemq.extension.sdk.api.services.builder.PublishBuilder;
 import com.hivemq.extension.sdk.api.services.publish.Publish;
 import com.hivemq.extensions.google.cloud.pubsub.api.model.InboundPubSubMessage;
+import com.hivemq.extensions.google.cloud.pubsub.api.model.OutboundPubSubMessage;
 import com.hivemq.extensions.google.cloud.pubsub.api.transformers.PubSubToMqttInitInput;
 import com.hivemq.extensions.google.cloud.pubsub.api.transformers.PubSubToMqttInput;
 import com.hivemq.extensions.google.cloud.pubsub.api.transformers.PubSubToMqttOutput;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld.PubSubToMqttHelloWorldTransformer.MISSING_DATA_COUNTER_NAME;
+import static com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld.PubSubToMqttHelloWorldTransformer.MISSING_TOPIC_ATTRIBUTE_COUNTER_NAME;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
@@ -66,7 +75,22 @@ class PubSubToMqttHelloWorldTransformerTest {
 
         transformer.init(initInput);
 
-        assertNotNull(transformer.customSettings);
+        assertNotSame(PubSubToMqttSettings.EMPTY, transformer.state.get().getSettings());
+    }
+
+    @Test
+    void initTransformer_qosNotParseable_defaultQosResolved() {
+        final PubSubToMqttInitInput initInput = mock(PubSubToMqttInitInput.class);
+        when(initInput.getPubSubConnection()).thenReturn(new TestPubSubConnection());
+        when(initInput.getCustomSettings()).thenReturn(new TestCustomSettings(
+                List.of(new TestCustomSetting("qos", "ONE"))
+        ));
+        when(initInput.getMetricRegistry()).thenReturn(metricRegistry);
+
+        transformer.init(initInput);
+
+        assertNotSame(PubSubToMqttSettings.EMPTY, transformer.state.get().getSettings());
+        assertEquals(Qos.AT_MOST_ONCE, transformer.state.get().getSettings().getQos());
     }
 
     @Test
@@ -189,4 +213,800 @@ class PubSubToMqttHelloWorldTransformerTest {
         assertEquals(1, publishes.size());
         assertEquals(1, metricRegistry.counter(MISSING_DATA_COUNTER_NAME).getCount());
     }
-}
\ No newline at end of file
+
+    @Test
+    void transformMessage_topicTemplate_attributesSubstituted() {
+        transformer.init(new TestPubSubToMqttInitInput(new TestCustomSettings(List.of(
+                new TestCustomSetting("mqtt-topic", "devices/${attr:device-id}/cmd"),
+                new TestCustomSetting("mqtt-topic-fallback", "devices/unknown/cmd"))), metricRegistry));
+        final TestPubSubToMqttOutput output = new TestPubSubToMqttOutput();
+
+        transformer.transformPubSubToMqtt(new TestPubSubToMqttInput(new TestInboundPubSubMessage(ByteBuffer.allocate(1),
+                Map.of("device-id", "device-1"))), output);
+        assertNotNull(output.publishes);
+        assertEquals("devices/device-1/cmd", output.publishes.get(0).getTopic());
+        assertEquals(0, metricRegistry.counter(MISSING_TOPIC_ATTRIBUTE_COUNTER_NAME).getCount());
+
+        transformer.transformPubSubToMqtt(new TestPubSubToMqttInput(new TestInboundPubSubMessage(ByteBuffer.allocate(1),
+                Map.of())), output);
+        assertEquals("devices/unknown/cmd", output.publishes.get(0).getTopic());
+        assertEquals(1, metricRegistry.counter(MISSING_TOPIC_ATTRIBUTE_COUNTER_NAME).getCount());
+    }
+
+    @Test
+    void transformMessage_compressedByMqttToPubSubTransformer_decompressed() {
+        final MqttToPubSubHelloWorldTransformer mqttToPubSubTransformer = new MqttToPubSubHelloWorldTransformer();
+        mqttToPubSubTransformer.init(new TestMqttToPubSubInitInput(List.of(
+                new TestCustomSetting("destination", "topic-1"),
+                new TestCustomSetting("compression", "gzip"),
+                new TestCustomSetting("compression-min-bytes", "16"))));
+        final byte[] payload = "{\"temperature\":21.5}".repeat(100).getBytes(StandardCharsets.UTF_8);
+        final TestMqttToPubSubOutput mqttToPubSubOutput = new TestMqttToPubSubOutput();
+        mqttToPubSubTransformer.transformMqttToPubSub(new TestMqttToPubSubInput(new TestPublishPacket("my/topic",
+                ByteBuffer.wrap(payload))), mqttToPubSubOutput);
+        assertNotNull(mqttToPubSubOutput.outboundPubSubMessages);
+        final OutboundPubSubMessage pubSubMessage = mqttToPubSubOutput.outboundPubSubMessages.get(0);
+        assertEquals("gzip", pubSubMessage.getAttributes().get("content-encoding"));
+        assertTrue(pubSubMessage.getData().orElseThrow().remaining() < payload.length);
+
+        transformer.init(new TestPubSubToMqttInitInput(new TestCustomSettings(List.of()), metricRegistry));
+        final TestPubSubToMqttOutput output = new TestPubSubToMqttOutput();
+        transformer.transformPubSubToMqtt(new TestPubSubToMqttInput(new TestInboundPubSubMessage(pubSubMessage.getData()
+                .orElseThrow(), pubSubMessage.getAttributes())), output);
+
+        assertNotNull(output.publishes);
+        final Publish publish = output.publishes.get(0);
+        final ByteBuffer mqttPayload = publish.getPayload().orElseThrow();
+        final byte[] mqttPayloadBytes = new byte[mqttPayload.remaining()];
+        mqttPayload.get(mqttPayloadBytes);
+        assertArrayEquals(payload, mqttPayloadBytes);
+        assertTrue(publish.getUserProperties().getFirst("content-encoding").isEmpty());
+        assertEquals("my/topic", publish.getUserProperties().getFirst("mqtt-topic").orElseThrow());
+    }
+
+    @Test
+    void transformMessage_chunkedByMqttToPubSubTransformer_joinedAndDecompressed() {
+        final MqttToPubSubHelloWorldTransformer mqttToPubSubTransformer = new MqttToPubSubHelloWorldTransformer();
+        mqttToPubSubTransformer.init(new TestMqttToPubSubInitInput(List.of(
+                new TestCustomSetting("destination", "topic-1"),
+                new TestCustomSetting("compression", "gzip"),
+                new TestCustomSetting("chunk-max-bytes", "16"))));
+        final byte[] payload = "{\"temperature\":21.5}".repeat(10).getBytes(StandardCharsets.UTF_8);
+        final TestMqttToPubSubOutput mqttToPubSubOutput = new TestMqttToPubSubOutput();
+        mqttToPubSubTransformer.transformMqttToPubSub(new TestMqttToPubSubInput(new TestPublishPacket("my/topic",
+                ByteBuffer.wrap(payload))), mqttToPubSubOutput);
+        assertNotNull(mqttToPubSubOutput.outboundPubSubMessages);
+        final List<OutboundPubSubMessage> chunks = mqttToPubSubOutput.outboundPubSubMessages;
+        assertTrue(chunks.size() > 1);
+
+        transformer.init(new TestPubSubToMqttInitInput(new TestCustomSettings(List.of()), metricRegistry));
+        final TestPubSubToMqttOutput output = new TestPubSubToMqttOutput();
+        // the chunks may arrive in any order
+        for (int i = chunks.size() - 1; i > 0; i--) {
+            final OutboundPubSubMessage chunk = chunks.get(i);
+            transformer.transformPubSubToMqtt(new TestPubSubToMqttInput(new TestInboundPubSubMessage(chunk.getData()
+                    .orElseThrow(), chunk.getAttributes())), output);
+            assertEquals(List.of(), output.publishes);
+        }
+        transformer.transformPubSubToMqtt(new TestPubSubToMqttInput(new TestInboundPubSubMessage(chunks.get(0)
+                .getData()
+                .orElseThrow(), chunks.get(0).getAttributes())), output);
+
+        assertNotNull(output.publishes);
+        assertEquals(1, output.publishes.size());
+        final Publish publish = output.publishes.get(0);
+        assertEquals(ByteBuffer.wrap(payload), publish.getPayload().orElseThrow());
+        assertEquals("my/topic", publish.getUserProperties().getFirst("mqtt-topic").orElseThrow());
+        assertTrue(publish.getUserProperties().getFirst("content-encoding").isEmpty());
+        assertTrue(publish.getUserProperties().getFirst(PayloadChunks.CHUNK_INDEX).isEmpty());
+        assertEquals(0, transformer.state.get().getSettings().getChunkReassembler().getPending());
+        final String prefix =
+                "com.hivemq.extensions.google-cloud-pubsub.customizations.pubsub-to-mqtt.transformer.my-connection.default.";
+        assertEquals(1, metricRegistry.counter(prefix + "chunks.reassembled.count").getCount());
+        assertEquals(1, metricRegistry.counter(prefix + "messages-out.count").getCount());
+    }
+
+    @Test
+    void transformMessage_chunksOfTwoDestinations_bothJoined() {
+        final MqttToPubSubHelloWorldTransformer mqttToPubSubTransformer = new MqttToPubSubHelloWorldTransformer();
+        mqttToPubSubTransformer.init(new TestMqttToPubSubInitInput(List.of(
+                new TestCustomSetting("destination", "topic-1"),
+                new TestCustomSetting("destination", "topic-2"),
+                new TestCustomSetting("chunk-max-bytes", "4"))));
+        final TestMqttToPubSubOutput mqttToPubSubOutput = new TestMqttToPubSubOutput();
+        mqttToPubSubTransformer.transformMqttToPubSub(new TestMqttToPubSubInput(new TestPublishPacket("my/topic",
+                utf8("0123456789"))), mqttToPubSubOutput);
+        assertNotNull(mqttToPubSubOutput.outboundPubSubMessages);
+        assertEquals(6, mqttToPubSubOutput.outboundPubSubMessages.size());
+
+        // one transformer consumes the subscriptions of both Pub/Sub topics, their chunks arrive interleaved
+        transformer.init(new TestPubSubToMqttInitInput(new TestCustomSettings(List.of()), metricRegistry));
+        int published = 0;
+        for (final int index : new int[]{0, 3, 1, 4, 2, 5}) {
+            final OutboundPubSubMessage chunk = mqttToPubSubOutput.outboundPubSubMessages.get(index);
+            final TestPubSubToMqttOutput output = new TestPubSubToMqttOutput();
+            transformer.transformPubSubToMqtt(new TestPubSubToMqttInput(new TestInboundPubSubMessage(chunk.getData()
+                    .orElseThrow(), chunk.getAttributes())), output);
+            assertNotNull(output.publishes);
+            for (final Publish publish : output.publishes) {
+                assertEquals(utf8("0123456789"), publish.getPayload().orElseThrow());
+                published++;
+            }
+        }
+
+        assertEquals(2, published);
+        assertEquals(0, transformer.state.get().getSettings().getChunkReassembler().getPending());
+    }
+
+    @Test
+    void transformMessage_encryptedByMqttToPubSubTransformer_decrypted(final @TempDir @NotNull Path directory)
+            throws Exception {
+        final Path keyStore = TestKeyStore.write(directory.resolve("keys.p12"),
+                Map.of("key-1", TestKeyStore.aesKey(1), "key-2", TestKeyStore.aesKey(2)));
+        final byte[] payload = "{\"temperature\":21.5}".repeat(100).getBytes(StandardCharsets.UTF_8);
+        transformer.init(new TestPubSubToMqttInitInput(new TestCustomSettings(List.of(
+                new TestCustomSetting("keystore-file", keyStore.toString()),
+                new TestCustomSetting("keystore-password", TestKeyStore.PASSWORD),
+                new TestCustomSetting("encryption-required", "true"))), metricRegistry));
+
+        // the messages of the previous key are still decrypted after the sender switched to the next one
+        for (final String keyId : List.of("key-1", "key-2")) {
+            final OutboundPubSubMessage pubSubMessage =
+                    protectedMessage(keyStore, "aes-gcm", keyId, ByteBuffer.wrap(payload));
+            assertEquals("aes-gcm", pubSubMessage.getAttributes().get("encryption"));
+            assertEquals(keyId, pubSubMessage.getAttributes().get("key-id"));
+            // compressed before encrypted, ciphertext does not compress
+            assertTrue(pubSubMessage.getData().orElseThrow().remaining() < payload.length);
+
+            final TestPubSubToMqttOutput output = new TestPubSubToMqttOutput();
+            transformer.transformPubSubToMqtt(new TestPubSubToMqttInput(new TestInboundPubSubMessage(
+                    pubSubMessage.getData().orElseThrow(),
+                    pubSubMessage.getAttributes())), output);
+
+            assertNotNull(output.publishes);
+            final Publish publish = output.publishes.get(0);
+            assertEquals(ByteBuffer.wrap(payload), publish.getPayload().orElseThrow());
+            assertEquals("my/topic", publish.getUserProperties().getFirst("mqtt-topic").orElseThrow());
+            assertTrue(publish.getUserProperties().getFirst("encryption").isEmpty());
+            assertTrue(publish.getUserProperties().getFirst("key-id").isEmpty());
+            assertTrue(publish.getUserProperties().getFirst("content-encoding").isEmpty());
+        }
+    }
+
+    @Test
+    void transformMessage_signedByMqttToPubSubTransformer_verified(final @TempDir @NotNull Path directory)
+            throws Exception {
+        final Path keyStore =
+                TestKeyStore.write(directory.resolve("keys.p12"), Map.of("key-1", TestKeyStore.aesKey(1)));
+        final OutboundPubSubMessage pubSubMessage = protectedMessage(keyStore, "hmac-sha256", "key-1", utf8("21.5"));
+        assertEquals(utf8("21.5"), pubSubMessage.getData().orElseThrow());
+        assertNotNull(pubSubMessage.getAttributes().get("signature"));
+        transformer.init(new TestPubSubToMqttInitInput(new TestCustomSettings(List.of(
+                new TestCustomSetting("keystore-file", keyStore.toString()),
+                new TestCustomSetting("keystore-password", TestKeyStore.PASSWORD))), metricRegistry));
+
+        final TestPubSubToMqttOutput output = new TestPubSubToMqttOutput();
+        transformer.transformPubSubToMqtt(new TestPubSubToMqttInput(new TestInboundPubSubMessage(pubSubMessage.getData()
+                .orElseThrow(), pubSubMessage.getAttributes())), output);
+        assertNotNull(output.publishes);
+        final Publish publish = output.publishes.get(0);
+        assertEquals(utf8("21.5"), publish.getPayload().orElseThrow());
+        assertTrue(publish.getUserProperties().getFirst("signature").isEmpty());
+
+        final TestPubSubToMqttOutput modifiedOutput = new TestPubSubToMqttOutput();
+        transformer.transformPubSubToMqtt(new TestPubSubToMqttInput(new TestInboundPubSubMessage(utf8("99.5"),
+                pubSubMessage.getAttributes())), modifiedOutput);
+        assertNull(modifiedOutput.publishes);
+        final String prefix =
+                "com.hivemq.extensions.google-cloud-pubsub.customizations.pubsub-to-mqtt.transformer.my-connection.default.";
+        assertEquals(1, metricRegistry.counter(prefix + "errors.SignatureException.count").getCount());
+        assertEquals(1, metricRegistry.counter(prefix + "failed.count").getCount());
+    }
+
+    @Test
+    void transformMessage_authenticatedAttributeModified_notPublished(final @TempDir @NotNull Path directory)
+            throws Exception {
+        final Path keyStore =
+                TestKeyStore.write(directory.resolve("keys.p12"), Map.of("key-1", TestKeyStore.aesKey(1)));
+        transformer.init(new TestPubSubToMqttInitInput(new TestCustomSettings(List.of(
+                new TestCustomSetting("keystore-file", keyStore.toString()),
+                new TestCustomSetting("keystore-password", TestKeyStore.PASSWORD))), metricRegistry));
+
+        for (final String encryption : List.of("aes-gcm", "hmac-sha256")) {
+            // compressed, so the message has a content-encoding attribute
+            final OutboundPubSubMessage pubSubMessage =
+                    protectedMessage(keyStore, encryption, "key-1", utf8("21.5,".repeat(20)));
+            assertEquals("gzip", pubSubMessage.getAttributes().get("content-encoding"));
+            final Map<String, String> modifications = Map.of("mqtt-topic",
+                    "other/topic",
+                    "qos",
+                    "2",
+                    "retained",
+                    "true",
+                    "envelope",
+                    "json",
+                    "batch-format",
+                    "length-prefixed",
+                    "batch-size",
+                    "1",
+                    "content-encoding",
+                    "deflate",
+                    "payload-schema",
+                    "sensors.Reading");
+            for (final Map.Entry<String, String> modification : modifications.entrySet()) {
+                final Map<String, String> attributes = new HashMap<>(pubSubMessage.getAttributes());
+                attributes.put(modification.getKey(), modification.getValue());
+                final TestPubSubToMqttOutput output = new TestPubSubToMqttOutput();
+                transformer.transformPubSubToMqtt(new TestPubSubToMqttInput(new TestInboundPubSubMessage(
+                        pubSubMessage.getData().orElseThrow(),
+                        attributes)), output);
+                assertNull(output.publishes, encryption + " " + modification.getKey());
+            }
+            final Map<String, String> attributes = new HashMap<>(pubSubMessage.getAttributes());
+            attributes.remove("content-encoding");
+            final TestPubSubToMqttOutput output = new TestPubSubToMqttOutput();
+            transformer.transformPubSubToMqtt(new TestPubSubToMqttInput(new TestInboundPubSubMessage(
+                    pubSubMessage.getData().orElseThrow(),
+                    attributes)), output);
+            assertNull(output.publishes, encryption + " without content-encoding");
+        }
+
+        final String prefix =
+                "com.hivemq.extensions.google-cloud-pubsub.customizations.pubsub-to-mqtt.transformer.my-connection.default.";
+        assertEquals(9, metricRegistry.counter(prefix + "errors.AEADBadTagException.count").getCount());
+        assertEquals(9, metricRegistry.counter(prefix + "errors.SignatureException.count").getCount());
+    }
+
+    @Test
+    void transformMessage_encryptedBatchAttributeModified_notPublished(final @TempDir @NotNull Path directory)
+            throws Exception {
+        final Path keyStore =
+                TestKeyStore.write(directory.resolve("keys.p12"), Map.of("key-1", TestKeyStore.aesKey(1)));
+        final MqttToPubSubHelloWorldTransformer mqttToPubSubTransformer = new MqttToPubSubHelloWorldTransformer();
+        mqttToPubSubTransformer.init(new TestMqttToPubSubInitInput(List.of(
+                new TestCustomSetting("destination", "topic-1"),
+                new TestCustomSetting("batch-format", "length-prefixed"),
+                new TestCustomSetting("batch-max-messages", "2"),
+                new TestCustomSetting("keystore-file", keyStore.toString()),
+                new TestCustomSetting("keystore-password", TestKeyStore.PASSWORD),
+                new TestCustomSetting("encryption", "aes-gcm"),
+                new TestCustomSetting("encryption-key-id", "key-1"))));
+        final TestMqttToPubSubOutput mqttToPubSubOutput = new TestMqttToPubSubOutput();
+        mqttToPubSubTransformer.transformMqttToPubSub(new TestMqttToPubSubInput(new TestPublishPacket("sensors/1",
+                utf8("21.5"))), mqttToPubSubOutput);
+        mqttToPubSubTransformer.transformMqttToPubSub(new TestMqttToPubSubInput(new TestPublishPacket("sensors/2",
+                utf8("22.5"))), mqttToPubSubOutput);
+        assertNotNull(mqttToPubSubOutput.outboundPubSubMessages);
+        final OutboundPubSubMessage pubSubMessage = mqttToPubSubOutput.outboundPubSubMessages.get(0);
+        transformer.init(new TestPubSubToMqttInitInput(new TestCustomSettings(List.of(
+                new TestCustomSetting("mqtt-topic", "${attr:mqtt-topic}"),
+                new TestCustomSetting("keystore-file", keyStore.toString()),
+                new TestCustomSetting("keystore-password", TestKeyStore.PASSWORD))), metricRegistry));
+
+        final TestPubSubToMqttOutput output = new TestPubSubToMqttOutput();
+        transformer.transformPubSubToMqtt(new TestPubSubToMqttInput(new TestInboundPubSubMessage(
+                pubSubMessage.getData().orElseThrow(),
+                pubSubMessage.getAttributes())), output);
+        assertNotNull(output.publishes);
+        assertEquals(2, output.publishes.size());
+        assertEquals("sensors/2", output.publishes.get(1).getTopic());
+
+        for (final String name : List.of("batch-format", "batch-size")) {
+            final Map<String, String> attributes = new HashMap<>(pubSubMessage.getAttributes());
+            attributes.put(name, name.equals("batch-format") ? "newline" : "1");
+            final TestPubSubToMqttOutput modifiedOutput = new TestPubSubToMqttOutput();
+            transformer.transformPubSubToMqtt(new TestPubSubToMqttInput(new TestInboundPubSubMessage(
+                    pubSubMessage.getData().orElseThrow(),
+                    attributes)), modifiedOutput);
+            assertNull(modifiedOutput.publishes, name);
+        }
+    }
+
+    @Test
+    void transformMessage_keyAddedToKeystore_decryptedWithoutReinit(final @TempDir @NotNull Path directory)
+            throws Exception {
+        final Path keyStore =
+                TestKeyStore.write(directory.resolve("keys.p12"), Map.of("key-1", TestKeyStore.aesKey(1)));
+        transformer.init(new TestPubSubToMqttInitInput(new TestCustomSettings(List.of(
+                new TestCustomSetting("keystore-file", keyStore.toString()),
+                new TestCustomSetting("keystore-password", TestKeyStore.PASSWORD),
+                new TestCustomSetting("keystore-reload-interval-ms", "0"))), metricRegistry));
+        final PubSubToMqttSettings initial = transformer.state.get().getSettings();
+
+        // the sender switches to a key that was added to the keystore after the receiver loaded it
+        TestKeyStore.write(keyStore, Map.of("key-1", TestKeyStore.aesKey(1), "key-2", TestKeyStore.aesKey(2)));
+        final OutboundPubSubMessage pubSubMessage = protectedMessage(keyStore, "aes-gcm", "key-2", utf8("21.5"));
+        final TestPubSubToMqttOutput output = new TestPubSubToMqttOutput();
+        transformer.transformPubSubToMqtt(new TestPubSubToMqttInput(new TestInboundPubSubMessage(
+                pubSubMessage.getData().orElseThrow(),
+                pubSubMessage.getAttributes())), output);
+
+        assertNotNull(output.publishes);
+        assertEquals(utf8("21.5"), output.publishes.get(0).getPayload().orElseThrow());
+        assertSame(initial, transformer.state.get().getSettings());
+    }
+
+    @Test
+    void transformMessage_encryptionRequiredOrUnknownKey_notPublished(final @TempDir @NotNull Path directory)
+            throws Exception {
+        final Path keyStore =
+                TestKeyStore.write(directory.resolve("keys.p12"), Map.of("key-1", TestKeyStore.aesKey(1)));
+        transformer.init(new TestPubSubToMqttInitInput(new TestCustomSettings(List.of(
+                new TestCustomSetting("keystore-file", keyStore.toString()),
+                new TestCustomSetting("keystore-password", TestKeyStore.PASSWORD),
+                new TestCustomSetting("encryption-required", "true"))), metricRegistry));
+        final TestPubSubToMqttOutput output = new TestPubSubToMqttOutput();
+
+        transformer.transformPubSubToMqtt(new TestPubSubToMqttInput(new TestInboundPubSubMessage(utf8("21.5"),
+                Map.of("mqtt-topic", "my/topic"))), output);
+        final ByteBuffer data = PayloadEncryption.encrypt(utf8("21.5"),
+                TestKeyStore.aesKey(3),
+                PayloadEncryption.associatedData(Map.of("key-id", "key-3", "mqtt-topic", "my/topic")::get));
+        transformer.transformPubSubToMqtt(new TestPubSubToMqttInput(new TestInboundPubSubMessage(data,
+                Map.of("mqtt-topic", "my/topic", "encryption", "aes-gcm", "key-id", "key-3"))), output);
+
+        assertNull(output.publishes);
+        final String prefix =
+                "com.hivemq.extensions.google-cloud-pubsub.customizations.pubsub-to-mqtt.transformer.my-connection.default.";
+        assertEquals(1, metricRegistry.counter(prefix + "errors.SecurityException.count").getCount());
+        assertEquals(1, metricRegistry.counter(prefix + "errors.InvalidKeyException.count").getCount());
+    }
+
+    @Test
+    void transformMessage_largeData_notCopied() {
+        TestAllocations.assumeSupported();
+        transformer.init(new TestPubSubToMqttInitInput(new TestCustomSettings(List.of()), metricRegistry));
+        final ByteBuffer data = ByteBuffer.wrap(new byte[10 * 1024 * 1024]);
+        final PubSubToMqttInput input =
+                new TestPubSubToMqttInput(new TestInboundPubSubMessage(data, Map.of("device-id", "device-1")));
+        final TestPubSubToMqttOutput output = new TestPubSubToMqttOutput();
+
+        final long bytesPerMessage =
+                TestAllocations.bytesPerRun(50, () -> transformer.transformPubSubToMqtt(input, output));
+
+        assertTrue(bytesPerMessage < 64 * 1024, () -> bytesPerMessage + " bytes allocated per message");
+        assertNotNull(output.publishes);
+        assertEquals(data.capacity(), output.publishes.get(0).getPayload().orElseThrow().remaining());
+    }
+
+    @Test
+    void transformMessage_noData_emptyReadOnlyPayload() {
+        transformer.init(new TestPubSubToMqttInitInput(new TestCustomSettings(List.of()), metricRegistry));
+        final TestPubSubToMqttOutput output = new TestPubSubToMqttOutput();
+
+        transformer.transformPubSubToMqtt(new TestPubSubToMqttInput(new TestInboundPubSubMessage(null, Map.of())),
+                output);
+
+        assertNotNull(output.publishes);
+        final ByteBuffer payload = output.publishes.get(0).getPayload().orElseThrow();
+        assertEquals(0, payload.remaining());
+        assertTrue(payload.isReadOnly());
+    }
+
+    @Test
+    void transformMessage_batchedByMqttToPubSubTransformer_split() {
+        final MqttToPubSubHelloWorldTransformer mqttToPubSubTransformer = new MqttToPubSubHelloWorldTransformer();
+        mqttToPubSubTransformer.init(new TestMqttToPubSubInitInput(List.of(
+                new TestCustomSetting("destination", "topic-1"),
+                new TestCustomSetting("batch-format", "length-prefixed"),
+                new TestCustomSetting("batch-max-messages", "3"),
+                new TestCustomSetting("compression", "gzip"),
+                new TestCustomSetting("compression-min-bytes", "0"))));
+        final TestMqttToPubSubOutput mqttToPubSubOutput = new TestMqttToPubSubOutput();
+        for (int i = 0; i < 3; i++) {
+            mqttToPubSubTransformer.transformMqttToPubSub(new TestMqttToPubSubInput(new TestPublishPacket("sensors/" + i,
+                    ByteBuffer.wrap(("{\"temperature\":2" + i + "}").getBytes(StandardCharsets.UTF_8)))),
+                    mqttToPubSubOutput);
+        }
+        assertNotNull(mqttToPubSubOutput.outboundPubSubMessages);
+        final OutboundPubSubMessage pubSubMessage = mqttToPubSubOutput.outboundPubSubMessages.get(0);
+
+        transformer.init(new TestPubSubToMqttInitInput(new TestCustomSettings(List.of(new TestCustomSetting("mqtt-topic",
+                "${attr:mqtt-topic}"))), metricRegistry));
+        final TestPubSubToMqttOutput output = new TestPubSubToMqttOutput();
+        transformer.transformPubSubToMqtt(new TestPubSubToMqttInput(new TestInboundPubSubMessage(pubSubMessage.getData()
+                .orElseThrow(), pubSubMessage.getAttributes())), output);
+
+        assertNotNull(output.publishes);
+        assertEquals(3, output.publishes.size());
+        for (int i = 0; i < 3; i++) {
+            final Publish publish = output.publishes.get(i);
+            assertEquals("sensors/" + i, publish.getTopic());
+            assertEquals("{\"temperature\":2" + i + "}",
+                    StandardCharsets.UTF_8.decode(publish.getPayload().orElseThrow()).toString());
+            assertEquals("sensors/" + i, publish.getUserProperties().getFirst("mqtt-topic").orElseThrow());
+            assertTrue(publish.getUserProperties().getFirst("batch-format").isEmpty());
+            assertTrue(publish.getUserProperties().getFirst("content-encoding").isEmpty());
+        }
+        assertEquals(0, metricRegistry.counter(MISSING_TOPIC_ATTRIBUTE_COUNTER_NAME).getCount());
+    }
+
+    @Test
+    void transformMessage_batchAndChunkInjectedAsUserProperties_publishedAsIs() {
+        final MqttToPubSubHelloWorldTransformer mqttToPubSubTransformer = new MqttToPubSubHelloWorldTransformer();
+        mqttToPubSubTransformer.init(new TestMqttToPubSubInitInput(List.of(new TestCustomSetting("destination",
+                "topic-1"))));
+        final TestMqttToPubSubOutput mqttToPubSubOutput = new TestMqttToPubSubOutput();
+        final ByteBuffer payload = ByteBuffer.wrap("{\"t\":21}\n{\"t\":22}\n".getBytes(StandardCharsets.UTF_8));
+        mqttToPubSubTransformer.transformMqttToPubSub(new TestMqttToPubSubInput(new TestPublishPacket("sensors/1",
+                Qos.AT_MOST_ONCE,
+                false,
+                payload.duplicate(),
+                List.of(new TestUserProperty("batch-format", "newline"),
+                        new TestUserProperty("chunk-message-id", "m"),
+                        new TestUserProperty("chunk-index", "0"),
+                        new TestUserProperty("chunk-count", "2"),
+                        new TestUserProperty("chunk-total-bytes", "40")))), mqttToPubSubOutput);
+        assertNotNull(mqttToPubSubOutput.outboundPubSubMessages);
+        final OutboundPubSubMessage pubSubMessage = mqttToPubSubOutput.outboundPubSubMessages.get(0);
+
+        transformer.init(new TestPubSubToMqttInitInput(new TestCustomSettings(List.of()), metricRegistry));
+        final TestPubSubToMqttOutput output = new TestPubSubToMqttOutput();
+        transformer.transformPubSubToMqtt(new TestPubSubToMqttInput(new TestInboundPubSubMessage(pubSubMessage.getData()
+                .orElseThrow(), pubSubMessage.getAttributes())), output);
+
+        // neither split into records nor held back as a chunk
+        assertNotNull(output.publishes);
+        assertEquals(1, output.publishes.size());
+        assertEquals(payload, output.publishes.get(0).getPayload().orElseThrow());
+    }
+
+    @Test
+    void transformMessage_envelopeOfMqttToPubSubTransformer_originalPublishRestored() {
+        final MqttToPubSubHelloWorldTransformer mqttToPubSubTransformer = new MqttToPubSubHelloWorldTransformer();
+        mqttToPubSubTransformer.init(new TestMqttToPubSubInitInput(List.of(new TestCustomSetting("destination",
+                        "topic-1"),
+                new TestCustomSetting("envelope", "binary"),
+                new TestCustomSetting("attribute-deny", "secret"),
+                new TestCustomSetting("compression", "gzip"),
+                new TestCustomSetting("compression-min-bytes", "0"))));
+        final TestMqttToPubSubOutput mqttToPubSubOutput = new TestMqttToPubSubOutput();
+        final String payload = "{\"temperatures\":[" + "21,".repeat(100) + "21]}";
+        mqttToPubSubTransformer.transformMqttToPubSub(new TestMqttToPubSubInput(new TestPublishPacket("sensors/1",
+                Qos.EXACTLY_ONCE,
+                true,
+                ByteBuffer.wrap(payload.getBytes(StandardCharsets.UTF_8)),
+                List.of(new TestUserProperty("unit", "celsius"), new TestUserProperty("secret", "s3cr3t")))),
+                mqttToPubSubOutput);
+        assertNotNull(mqttToPubSubOutput.outboundPubSubMessages);
+        final OutboundPubSubMessage pubSubMessage = mqttToPubSubOutput.outboundPubSubMessages.get(0);
+        assertEquals("binary", pubSubMessage.getAttributes().get("envelope"));
+        assertEquals("gzip", pubSubMessage.getAttributes().get("content-encoding"));
+
+        transformer.init(new TestPubSubToMqttInitInput(new TestCustomSettings(List.of(new TestCustomSetting("mqtt-topic",
+                        "other/topic"),
+                new TestCustomSetting("qos", "0"),
+                new TestCustomSetting("unwrap-envelope", "true"))), metricRegistry));
+        final TestPubSubToMqttOutput output = new TestPubSubToMqttOutput();
+        transformer.transformPubSubToMqtt(new TestPubSubToMqttInput(new TestInboundPubSubMessage(pubSubMessage.getData()
+                .orElseThrow(), pubSubMessage.getAttributes())), output);
+
+        assertNotNull(output.publishes);
+        assertEquals(1, output.publishes.size());
+        final Publish publish = output.publishes.get(0);
+        assertEquals("sensors/1", publish.getTopic());
+        assertEquals(Qos.EXACTLY_ONCE, publish.getQos());
+        assertTrue(publish.getRetain());
+        assertEquals(payload, StandardCharsets.UTF_8.decode(publish.getPayload().orElseThrow()).toString());
+        // only the allowed user properties are wrapped, the attributes of the Pub/Sub message are not added
+        assertEquals(1, publish.getUserProperties().asList().size());
+        assertEquals("celsius", publish.getUserProperties().getFirst("unit").orElseThrow());
+    }
+
+    @Test
+    void transformMessage_envelopeUnwrapNotEnabled_dataPublished() {
+        transformer.init(new TestPubSubToMqttInitInput(new TestCustomSettings(List.of()), metricRegistry));
+        final TestPubSubToMqttOutput output = new TestPubSubToMqttOutput();
+        final ByteBuffer data = PayloadEnvelope.encode(PayloadEnvelope.Format.JSON,
+                "sensors/1",
+                Qos.AT_LEAST_ONCE,
+                false,
+                PayloadEnvelope.NO_EXPIRY,
+                List.of(),
+                AttributeFilter.NONE,
+                null);
+
+        transformer.transformPubSubToMqtt(new TestPubSubToMqttInput(new TestInboundPubSubMessage(data,
+                Map.of("envelope", "json"))), output);
+
+        assertNotNull(output.publishes);
+        final Publish publish = output.publishes.get(0);
+        assertEquals("mqtt/topic", publish.getTopic());
+        assertEquals(data, publish.getPayload().orElseThrow());
+        assertEquals("json", publish.getUserProperties().getFirst("envelope").orElseThrow());
+    }
+
+    @Test
+    void transformMessage_envelopeInjectedAsUserProperty_notUnwrapped() {
+        final MqttToPubSubHelloWorldTransformer mqttToPubSubTransformer = new MqttToPubSubHelloWorldTransformer();
+        mqttToPubSubTransformer.init(new TestMqttToPubSubInitInput(List.of(new TestCustomSetting("destination",
+                "topic-1"))));
+        final TestMqttToPubSubOutput mqttToPubSubOutput = new TestMqttToPubSubOutput();
+        // an envelope that would publish a retained message to a topic the client may not publish to
+        final ByteBuffer forged = PayloadEnvelope.encode(PayloadEnvelope.Format.JSON,
+                "devices/all/cmd",
+                Qos.EXACTLY_ONCE,
+                true,
+                PayloadEnvelope.NO_EXPIRY,
+                List.of(),
+                AttributeFilter.NONE,
+                ByteBuffer.wrap("reset".getBytes(StandardCharsets.UTF_8)));
+        mqttToPubSubTransformer.transformMqttToPubSub(new TestMqttToPubSubInput(new TestPublishPacket("sensors/1",
+                Qos.AT_MOST_ONCE,
+                false,
+                forged.duplicate(),
+                List.of(new TestUserProperty("envelope", "json")))), mqttToPubSubOutput);
+        assertNotNull(mqttToPubSubOutput.outboundPubSubMessages);
+        final OutboundPubSubMessage pubSubMessage = mqttToPubSubOutput.outboundPubSubMessages.get(0);
+        assertNull(pubSubMessage.getAttributes().get("envelope"));
+
+        transformer.init(new TestPubSubToMqttInitInput(new TestCustomSettings(List.of(new TestCustomSetting(
+                "unwrap-envelope", "true"))), metricRegistry));
+        final TestPubSubToMqttOutput output = new TestPubSubToMqttOutput();
+        transformer.transformPubSubToMqtt(new TestPubSubToMqttInput(new TestInboundPubSubMessage(pubSubMessage.getData()
+                .orElseThrow(), pubSubMessage.getAttributes())), output);
+
+        assertNotNull(output.publishes);
+        final Publish publish = output.publishes.get(0);
+        assertEquals("mqtt/topic", publish.getTopic());
+        assertFalse(publish.getRetain());
+        assertEquals(forged, publish.getPayload().orElseThrow());
+    }
+
+    @Test
+    void transformMessage_splitJsonArray_publishPerElement() {
+        transformer.init(new TestPubSubToMqttInitInput(new TestCustomSettings(List.of(new TestCustomSetting("split",
+                        "json-array"),
+                new TestCustomSetting("split-topic-field", "device"),
+                new TestCustomSetting("mqtt-topic", "devices/${attr:device}/cmd"),
+                new TestCustomSetting("mqtt-topic-fallback", "devices/unknown/cmd"))), metricRegistry));
+        final TestPubSubToMqttOutput output = new TestPubSubToMqttOutput();
+        final String data =
+                "[{\"device\":\"d-1\",\"cmd\":\"on\"}, {\"cmd\":\"off\",\"device\":\"d-2\"}, {\"cmd\":\"reset\"}]";
+
+        transformer.transformPubSubToMqtt(new TestPubSubToMqttInput(new TestInboundPubSubMessage(utf8(data),
+                Map.of("source", "backend"))), output);
+
+        assertNotNull(output.publishes);
+        assertEquals(3, output.publishes.size());
+        assertEquals("devices/d-1/cmd", output.publishes.get(0).getTopic());
+        assertEquals("{\"device\":\"d-1\",\"cmd\":\"on\"}",
+                StandardCharsets.UTF_8.decode(output.publishes.get(0).getPayload().orElseThrow()).toString());
+        assertEquals("devices/d-2/cmd", output.publishes.get(1).getTopic());
+        assertEquals("devices/unknown/cmd", output.publishes.get(2).getTopic());
+        assertEquals("backend", output.publishes.get(2).getUserProperties().getFirst("source").orElseThrow());
+        assertEquals(1, metricRegistry.counter(MISSING_TOPIC_ATTRIBUTE_COUNTER_NAME).getCount());
+    }
+
+    @Test
+    void transformMessage_splitNewline_publishPerLine() {
+        transformer.init(new TestPubSubToMqttInitInput(new TestCustomSettings(List.of(new TestCustomSetting("split",
+                "newline"), new TestCustomSetting("split-topic-field", "topic"), new TestCustomSetting("mqtt-topic",
+                "${attr:topic}"))), metricRegistry));
+        final TestPubSubToMqttOutput output = new TestPubSubToMqttOutput();
+        final String data = "{\"topic\":\"a/1\",\"v\":1}\r\n\n{\"topic\":\"a/2\",\"v\":2}";
+
+        transformer.transformPubSubToMqtt(new TestPubSubToMqttInput(new TestInboundPubSubMessage(utf8(data), Map.of())),
+                output);
+
+        assertNotNull(output.publishes);
+        assertEquals(2, output.publishes.size());
+        assertEquals("a/1", output.publishes.get(0).getTopic());
+        assertEquals("{\"topic\":\"a/1\",\"v\":1}",
+                StandardCharsets.UTF_8.decode(output.publishes.get(0).getPayload().orElseThrow()).toString());
+        assertEquals("a/2", output.publishes.get(1).getTopic());
+    }
+
+    @Test
+    void transformMessage_splitLargeJsonArray_elementsNotCopied() {
+        TestAllocations.assumeSupported();
+        transformer.init(new TestPubSubToMqttInitInput(new TestCustomSettings(List.of(new TestCustomSetting("split",
+                "json-array"), new TestCustomSetting("split-topic-field", "device"), new TestCustomSetting("mqtt-topic",
+                "devices/${attr:device}"))), metricRegistry));
+        final StringBuilder data = new StringBuilder("[");
+        for (int i = 0; i < 100; i++) {
+            data.append(i == 0 ? "" : ",").append("{\"device\":\"d-").append(i).append("\",\"firmware\":\"");
+            data.append("A".repeat(40 * 1024)).append("\"}");
+        }
+        final ByteBuffer payload = ByteBuffer.wrap(data.append("]").toString().getBytes(StandardCharsets.UTF_8));
+        final PubSubToMqttInput input = new TestPubSubToMqttInput(new TestInboundPubSubMessage(payload, Map.of()));
+        final TestPubSubToMqttOutput output = new TestPubSubToMqttOutput();
+
+        final long bytesPerMessage =
+                TestAllocations.bytesPerRun(20, () -> transformer.transformPubSubToMqtt(input, output));
+
+        // the 4 MiB of data are split into 100 publishes of 40 KiB each that are views of the data
+        assertTrue(bytesPerMessage < 256 * 1024, () -> bytesPerMessage + " bytes allocated per message");
+        assertNotNull(output.publishes);
+        assertEquals(100, output.publishes.size());
+        assertEquals("devices/d-99", output.publishes.get(99).getTopic());
+    }
+
+    @Test
+    void transformMessage_transcodedByMqttToPubSubTransformer_json(final @TempDir @NotNull Path directory)
+            throws IOException {
+        final Path schema = directory.resolve("reading.avsc");
+        Files.writeString(schema, "{\"type\":\"record\",\"name\":\"Reading\",\"fields\":[" +
+                "{\"name\":\"device\",\"type\":\"string\"},{\"name\":\"temperature\",\"type\":\"double\"}]}");
+        final MqttToPubSubHelloWorldTransformer mqttToPubSubTransformer = new MqttToPubSubHelloWorldTransformer();
+        mqttToPubSubTransformer.init(new TestMqttToPubSubInitInput(List.of(
+                new TestCustomSetting("destination", "topic-1"),
+                new TestCustomSetting("transcode-schema", schema.toString()))));
+        final String payload = "{\"device\":\"d-1\",\"temperature\":21.5}";
+        final TestMqttToPubSubOutput mqttToPubSubOutput = new TestMqttToPubSubOutput();
+        mqttToPubSubTransformer.transformMqttToPubSub(new TestMqttToPubSubInput(new TestPublishPacket("my/topic",
+                utf8(payload))), mqttToPubSubOutput);
+        assertNotNull(mqttToPubSubOutput.outboundPubSubMessages);
+        final OutboundPubSubMessage pubSubMessage = mqttToPubSubOutput.outboundPubSubMessages.get(0);
+        assertEquals("Reading", pubSubMessage.getAttributes().get("payload-schema"));
+        assertEquals(12, pubSubMessage.getData().orElseThrow().remaining());
+
+        transformer.init(new TestPubSubToMqttInitInput(new TestCustomSettings(List.of(new TestCustomSetting(
+                "transcode-schema",
+                schema.toString()))), metricRegistry));
+        final TestPubSubToMqttOutput output = new TestPubSubToMqttOutput();
+        transformer.transformPubSubToMqtt(new TestPubSubToMqttInput(new TestInboundPubSubMessage(pubSubMessage.getData()
+                .orElseThrow(), pubSubMessage.getAttributes())), output);
+
+        assertNotNull(output.publishes);
+        final Publish publish = output.publishes.get(0);
+        assertEquals(payload, StandardCharsets.UTF_8.decode(publish.getPayload().orElseThrow()).toString());
+        assertTrue(publish.getUserProperties().getFirst("payload-schema").isEmpty());
+        assertEquals("my/topic", publish.getUserProperties().getFirst("mqtt-topic").orElseThrow());
+    }
+
+    @Test
+    void transformMessage_redeliveredMessage_publishedOnce() {
+        transformer.init(new TestPubSubToMqttInitInput(new TestCustomSettings(List.of(new TestCustomSetting("dedup",
+                "attribute:message-id"))), metricRegistry));
+
+        final TestPubSubToMqttOutput first = new TestPubSubToMqttOutput();
+        transformer.transformPubSubToMqtt(new TestPubSubToMqttInput(new TestInboundPubSubMessage(utf8("1"),
+                Map.of("message-id", "m-1"))), first);
+        final TestPubSubToMqttOutput redelivered = new TestPubSubToMqttOutput();
+        transformer.transformPubSubToMqtt(new TestPubSubToMqttInput(new TestInboundPubSubMessage(utf8("1"),
+                Map.of("message-id", "m-1"))), redelivered);
+        final TestPubSubToMqttOutput other = new TestPubSubToMqttOutput();
+        transformer.transformPubSubToMqtt(new TestPubSubToMqttInput(new TestInboundPubSubMessage(utf8("1"),
+                Map.of("message-id", "m-2"))), other);
+
+        assertNotNull(first.publishes);
+        assertEquals(1, first.publishes.size());
+        assertEquals(List.of(), redelivered.publishes);
+        assertNotNull(other.publishes);
+        assertEquals(1, other.publishes.size());
+        final String prefix =
+                "com.hivemq.extensions.google-cloud-pubsub.customizations.pubsub-to-mqtt.transformer.my-connection.default.";
+        assertEquals(1, metricRegistry.counter(prefix + "dedup.hits.count").getCount());
+        assertEquals(2, metricRegistry.counter(prefix + "dedup.misses.count").getCount());
+        assertEquals(0, metricRegistry.counter(prefix + "dedup.evictions.count").getCount());
+    }
+
+    @Test
+    void transformMessage_failedMessageRedelivered_transformedAgain() {
+        transformer.init(new TestPubSubToMqttInitInput(new TestCustomSettings(List.of(new TestCustomSetting("dedup",
+                "attribute:message-id"))), metricRegistry));
+
+        final TestPubSubToMqttOutput failed = new TestPubSubToMqttOutput();
+        transformer.transformPubSubToMqtt(new TestPubSubToMqttInput(new TestInboundPubSubMessage(utf8("not gzip"),
+                Map.of("message-id", "m-1", "content-encoding", "gzip"))), failed);
+        final TestPubSubToMqttOutput redelivered = new TestPubSubToMqttOutput();
+        transformer.transformPubSubToMqtt(new TestPubSubToMqttInput(new TestInboundPubSubMessage(utf8("1"),
+                Map.of("message-id", "m-1"))), redelivered);
+        final TestPubSubToMqttOutput duplicate = new TestPubSubToMqttOutput();
+        transformer.transformPubSubToMqtt(new TestPubSubToMqttInput(new TestInboundPubSubMessage(utf8("1"),
+                Map.of("message-id", "m-1"))), duplicate);
+
+        assertNull(failed.publishes);
+        assertNotNull(redelivered.publishes);
+        assertEquals(1, redelivered.publishes.size());
+        assertEquals(List.of(), duplicate.publishes);
+        final String prefix =
+                "com.hivemq.extensions.google-cloud-pubsub.customizations.pubsub-to-mqtt.transformer.my-connection.default.";
+        assertEquals(1, metricRegistry.counter(prefix + "failed.count").getCount());
+        assertEquals(1, metricRegistry.counter(prefix + "dedup.hits.count").getCount());
+        assertEquals(2, metricRegistry.counter(prefix + "dedup.misses.count").getCount());
+    }
+
+    @Test
+    void transformMessage_dedupByPayload_samePayloadPublishedOnce() {
+        transformer.init(new TestPubSubToMqttInitInput(new TestCustomSettings(List.of(new TestCustomSetting("dedup",
+                "payload"))), metricRegistry));
+        final TestPubSubToMqttOutput output = new TestPubSubToMqttOutput();
+
+        transformer.transformPubSubToMqtt(new TestPubSubToMqttInput(new TestInboundPubSubMessage(utf8("{\"a\":1}"),
+                Map.of())), output);
+        transformer.transformPubSubToMqtt(new TestPubSubToMqttInput(new TestInboundPubSubMessage(utf8("{\"a\":1}"),
+                Map.of())), output);
+
+        assertEquals(List.of(), output.publishes);
+    }
+
+    @Test
+    void transformMessage_attributeFilter_attributesFilteredButTopicRendered() {
+        transformer.init(new TestPubSubToMqttInitInput(new TestCustomSettings(List.of(
+                new TestCustomSetting("mqtt-topic", "devices/${attr:device-id}"),
+                new TestCustomSetting("attribute-deny", "device-id"),
+                new TestCustomSetting("attribute-deny", "goog*"),
+                new TestCustomSetting("attribute-max-bytes", "3"))), metricRegistry));
+        final TestPubSubToMqttOutput output = new TestPubSubToMqttOutput();
+
+        transformer.transformPubSubToMqtt(new TestPubSubToMqttInput(new TestInboundPubSubMessage(utf8("1"),
+                Map.of("device-id", "d-42", "googclient_id", "1", "unit", "C", "note", "too long"))), output);
+
+        assertNotNull(output.publishes);
+        final Publish publish = output.publishes.get(0);
+        assertEquals("devices/d-42", publish.getTopic());
+        assertEquals(1, publish.getUserProperties().asList().size());
+        assertEquals("C", publish.getUserProperties().getFirst("unit").orElseThrow());
+    }
+
+    @Test
+    void transformMessage_qosAndRetainAttributes_mqttToPubSubSemanticsRestored() {
+        transformer.init(new TestPubSubToMqttInitInput(new TestCustomSettings(List.of(
+                new TestCustomSetting("qos", "2"),
+                new TestCustomSetting("qos-attribute", "qos"),
+                new TestCustomSetting("retain-attribute", "retained"),
+                new TestCustomSetting("delivery-rule", "type = telemetry -> qos=0"))), metricRegistry));
+        final TestPubSubToMqttOutput output = new TestPubSubToMqttOutput();
+
+        transformer.transformPubSubToMqtt(new TestPubSubToMqttInput(new TestInboundPubSubMessage(utf8("1"),
+                Map.of("qos", "1", "retained", "true"))), output);
+        assertNotNull(output.publishes);
+        final Publish roundTripped = output.publishes.get(0);
+        transformer.transformPubSubToMqtt(new TestPubSubToMqttInput(new TestInboundPubSubMessage(utf8("2"),
+                Map.of("type", "telemetry", "qos", "1"))), output);
+        final Publish telemetry = output.publishes.get(0);
+        transformer.transformPubSubToMqtt(new TestPubSubToMqttInput(new TestInboundPubSubMessage(utf8("3"),
+                Map.of())), output);
+        final Publish plain = output.publishes.get(0);
+
+        assertEquals(Qos.AT_LEAST_ONCE, roundTripped.getQos());
+        assertTrue(roundTripped.getRetain());
+        assertEquals(Qos.AT_MOST_ONCE, telemetry.getQos());
+        assertEquals(Qos.EXACTLY_ONCE, plain.getQos());
+        assertFalse(plain.getRetain());
+    }
+
+    @Test
+    void transformMessage_detailedMetrics_histogramsUpdated() {
+        transformer.init(new TestPubSubToMqttInitInput(new TestCustomSettings(List.of(
+                new TestCustomSetting("detailed-metrics", "true"))), metricRegistry));
+
+        transformer.transformPubSubToMqtt(new TestPubSubToMqttInput(new TestInboundPubSubMessage(utf8("123"),
+                Map.of("a", "1"))), new TestPubSubToMqttOutput());
+
+        final String prefix =
+                "com.hivemq.extensions.google-cloud-pubsub.customizations.pubsub-to-mqtt.transformer.my-connection.default.";
+        assertEquals(1, metricRegistry.counter(prefix + "messages-in.count").getCount());
+        assertEquals(1, metricRegistry.counter(prefix + "messages-out.count").getCount());
+        assertEquals(3, metricRegistry.counter(prefix + "bytes-out.count").getCount());
+        assertEquals(1, metricRegistry.timer(prefix + "transform.time").getCount());
+        assertEquals(1, metricRegistry.histogram(prefix + "attributes").getCount());
+    }
+
+    private static @NotNull OutboundPubSubMessage protectedMessage(
+            final @NotNull Path keyStore,
+            final @NotNull String encryption,
+            final @NotNull String keyId,
+            final @NotNull ByteBuffer payload) {
+        final MqttToPubSubHelloWorldTransformer mqttToPubSubTransformer = new MqttToPubSubHelloWorldTransformer();
+        mqttToPubSubTransformer.init(new TestMqttToPubSubInitInput(List.of(
+                new TestCustomSetting("destination", "topic-1"),
+                new TestCustomSetting("compression", "gzip"),
+                new TestCustomSetting("compression-min-bytes", "16"),
+                new TestCustomSetting("keystore-file", keyStore.toString()),
+                new TestCustomSetting("keystore-password", TestKeyStore.PASSWORD),
+                new TestCustomSetting("encryption", encryption),
+                new TestCustomSetting("encryption-key-id", keyId))));
+        final TestMqttToPubSubOutput mqttToPubSubOutput = new TestMqttToPubSubOutput();
+        mqttToPubSubTransformer.transformMqttToPubSub(new TestMqttToPubSubInput(new TestPublishPacket("my/topic",
+                payload)), mqttToPubSubOutput);
+        assertNotNull(mqttToPubSubOutput.outboundPubSubMessages);
+        return mqttToPubSubOutput.outboundPubSubMessages.get(0);
+    }
+
+    private static @NotNull ByteBuffer utf8(final @NotNull String data) {
+        return ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8));
+    }
+}
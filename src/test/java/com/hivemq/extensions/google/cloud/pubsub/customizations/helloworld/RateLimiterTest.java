@@ -0,0 +1,140 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.packets.general.Qos;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @since 4.53.0
+ */
+class RateLimiterTest {
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    void acquire_burstExceeded_limitedUntilRefilled() {
+        final RateLimiter limiter = new RateLimiter("topic", 10, 3, 1, 60_000);
+        final long now = System.nanoTime();
+
+        assertEquals(RateLimiter.FORWARD, limiter.acquire("a", now));
+        assertEquals(RateLimiter.FORWARD, limiter.acquire("a", now));
+        assertEquals(RateLimiter.FORWARD, limiter.acquire("a", now));
+        assertEquals(RateLimiter.LIMITED, limiter.acquire("a", now));
+        // other keys have their own bucket
+        assertEquals(RateLimiter.FORWARD, limiter.acquire("b", now));
+        // one token is added every 100 ms
+        assertEquals(RateLimiter.LIMITED, limiter.acquire("a", now + 99 * MILLIS));
+        assertEquals(RateLimiter.FORWARD, limiter.acquire("a", now + 100 * MILLIS));
+        assertEquals(RateLimiter.LIMITED, limiter.acquire("a", now + 100 * MILLIS));
+        // the bucket does not fill beyond the burst
+        assertEquals(RateLimiter.FORWARD, limiter.acquire("a", now + 10_000 * MILLIS));
+        assertEquals(RateLimiter.FORWARD, limiter.acquire("a", now + 10_000 * MILLIS));
+        assertEquals(RateLimiter.FORWARD, limiter.acquire("a", now + 10_000 * MILLIS));
+        assertEquals(RateLimiter.LIMITED, limiter.acquire("a", now + 10_000 * MILLIS));
+    }
+
+    @Test
+    void acquire_sampling_everyNthMessagePerKeyForwarded() {
+        final RateLimiter limiter = new RateLimiter("topic", 0, 1, 3, 60_000);
+        final long now = System.nanoTime();
+
+        assertEquals(RateLimiter.FORWARD, limiter.acquire("a", now));
+        assertEquals(RateLimiter.SAMPLED_OUT, limiter.acquire("a", now));
+        assertEquals(RateLimiter.FORWARD, limiter.acquire("b", now));
+        assertEquals(RateLimiter.SAMPLED_OUT, limiter.acquire("a", now));
+        assertEquals(RateLimiter.FORWARD, limiter.acquire("a", now));
+    }
+
+    @Test
+    void acquire_idleKeys_evicted() {
+        final RateLimiter limiter = new RateLimiter("topic", 10, 1, 1, 1000);
+        final long now = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            limiter.acquire("device-" + i, now);
+        }
+        assertEquals(1000, limiter.size());
+
+        // every acquire after the sweep interval sweeps the next stripe, until all stripes are swept
+        for (int i = 1; i <= RateLimiter.STRIPES; i++) {
+            limiter.acquire("active", now + 1000 * MILLIS + i * 20 * MILLIS);
+        }
+
+        assertEquals(1, limiter.size());
+    }
+
+    @Test
+    void acquire_concurrentThreads_burstNotExceeded() throws Exception {
+        final RateLimiter limiter = new RateLimiter("topic", 1, 1000, 1, 60_000);
+        final long now = System.nanoTime();
+        final AtomicInteger forwarded = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final Future<?>[] futures = new Future<?>[8];
+            for (int t = 0; t < futures.length; t++) {
+                futures[t] = executor.submit(() -> {
+                    for (int i = 0; i < 10_000; i++) {
+                        if (limiter.acquire("shared", now) == RateLimiter.FORWARD) {
+                            forwarded.incrementAndGet();
+                        }
+                    }
+                });
+            }
+            for (final Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1000, forwarded.get());
+    }
+
+    @Test
+    void keyOf_configuredKey_extracted() {
+        final TestPublishPacket publishPacket = new TestPublishPacket("devices/sensor-1/temp",
+                Qos.AT_MOST_ONCE,
+                false,
+                null,
+                List.of(new TestUserProperty("device-id", "d-42")));
+
+        assertEquals("devices/sensor-1/temp", new RateLimiter("topic", 1, 1, 1, 1000).keyOf(publishPacket));
+        assertEquals("devices", new RateLimiter("topic-level:0", 1, 1, 1, 1000).keyOf(publishPacket));
+        assertEquals("sensor-1", new RateLimiter("topic-level:1", 1, 1, 1, 1000).keyOf(publishPacket));
+        assertEquals("temp", new RateLimiter("topic-level:2", 1, 1, 1, 1000).keyOf(publishPacket));
+        assertEquals("", new RateLimiter("topic-level:3", 1, 1, 1, 1000).keyOf(publishPacket));
+        assertEquals("d-42", new RateLimiter("user-property:device-id", 1, 1, 1, 1000).keyOf(publishPacket));
+        assertEquals("", new RateLimiter("user-property:other", 1, 1, 1, 1000).keyOf(publishPacket));
+    }
+
+    @Test
+    void new_invalidKey_rejected() {
+        assertThrows(IllegalArgumentException.class, () -> new RateLimiter("client-id", 1, 1, 1, 1000));
+        assertThrows(IllegalArgumentException.class, () -> new RateLimiter("topic-level:x", 1, 1, 1, 1000));
+        assertThrows(IllegalArgumentException.class, () -> new RateLimiter("topic-level:-1", 1, 1, 1, 1000));
+        assertThrows(IllegalArgumentException.class, () -> new RateLimiter("user-property:", 1, 1, 1, 1000));
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extensions.google.cloud.pubsub.api.model.CustomSettings;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @since 4.53.0
+ */
+class RulesFileTest {
+
+    @Test
+    void of_noRulesFileSetting_null() {
+        assertNull(RulesFile.of(new TestCustomSettings(List.of(new TestCustomSetting("destination", "topic-1")))));
+        assertNull(RulesFile.of(new TestCustomSettings(List.of(new TestCustomSetting("rules-file", " ")))));
+    }
+
+    @Test
+    void parse_linesSplitAtFirstEquals_commentsAndInvalidLinesIgnored() {
+        final CustomSettings customSettings = new StaticCustomSettings(RulesFile.parse("# routes\n" +
+                "destination = topic-1\r\n" +
+                "\n" +
+                "destination=topic-2\n" +
+                "delivery-rule = priority = high -> qos=2\n" +
+                "no separator\n" +
+                " = no name\n" +
+                "rules-file = other.rules\n"));
+
+        assertEquals(List.of("topic-1", "topic-2"), customSettings.getAllForName("destination"));
+        assertEquals(Optional.of("priority = high -> qos=2"), customSettings.getFirst("delivery-rule"));
+        assertEquals(3, customSettings.asList().size());
+    }
+
+    @Test
+    void load_settingsOfFile_replaceConfiguredSettingsOfSameName(final @TempDir @NotNull Path directory)
+            throws IOException {
+        final Path file = directory.resolve("pubsub.rules");
+        Files.writeString(file, "destination = topic-3\ndestination = topic-4\n");
+        final RulesFile rulesFile = Objects.requireNonNull(RulesFile.of(new TestCustomSettings(List.of(
+                new TestCustomSetting("rules-file", file.toString()),
+                new TestCustomSetting("destination", "topic-1"),
+                new TestCustomSetting("transformer-id", "transformer-1"),
+                new TestCustomSetting("destination", "topic-2")))));
+
+        final CustomSettings customSettings = rulesFile.load();
+
+        assertEquals(List.of("topic-3", "topic-4"), customSettings.getAllForName("destination"));
+        assertEquals(Optional.of("transformer-1"), customSettings.getFirst("transformer-id"));
+    }
+
+    @Test
+    void load_missingFile_configuredSettingsUsed(final @TempDir @NotNull Path directory) {
+        final TestCustomSettings configured = new TestCustomSettings(List.of(
+                new TestCustomSetting("rules-file", directory.resolve("missing.rules").toString()),
+                new TestCustomSetting("destination", "topic-1")));
+        final RulesFile rulesFile = Objects.requireNonNull(RulesFile.of(configured));
+
+        assertThrows(IOException.class, rulesFile::load);
+        assertEquals(configured, rulesFile.loadOrConfigured());
+    }
+
+    @Test
+    void watch_fileChanged_listenerCalledWithNewSettings(final @TempDir @NotNull Path directory) throws Exception {
+        final Path file = directory.resolve("pubsub.rules");
+        Files.writeString(file, "destination = topic-1\n");
+        final RulesFile rulesFile = Objects.requireNonNull(RulesFile.of(new TestCustomSettings(List.of(
+                new TestCustomSetting("rules-file", file.toString())))));
+        rulesFile.load();
+        final BlockingQueue<CustomSettings> reloaded = new LinkedBlockingQueue<>();
+        try {
+            rulesFile.watch("rules-file-test", reloaded::add);
+
+            Files.writeString(directory.resolve("other.rules"), "destination = other\n");
+            Files.writeString(file, "destination = topic-2\n");
+
+            final CustomSettings customSettings = reloaded.poll(30, TimeUnit.SECONDS);
+            assertNotNull(customSettings);
+            assertEquals(List.of("topic-2"), customSettings.getAllForName("destination"));
+        } finally {
+            rulesFile.close();
+        }
+
+        Files.writeString(file, "destination = topic-3\n");
+        assertNull(reloaded.poll(RulesFile.SETTLE_MILLIS * 5, TimeUnit.MILLISECONDS));
+    }
+}
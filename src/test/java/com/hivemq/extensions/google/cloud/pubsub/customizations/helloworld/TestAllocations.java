@@ -0,0 +1,65 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.sun.management.ThreadMXBean;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Measures the heap memory that the current thread allocates, so tests can verify allocation budgets.
+ *
+ * @since 4.53.0
+ */
+final class TestAllocations {
+
+    private TestAllocations() {
+    }
+
+    /**
+     * Skips the calling test if the JVM does not measure thread allocations.
+     */
+    static void assumeSupported() {
+        final java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        assumeTrue(threadMXBean instanceof ThreadMXBean &&
+                ((ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported() &&
+                ((ThreadMXBean) threadMXBean).isThreadAllocatedMemoryEnabled());
+    }
+
+    /**
+     * Runs the action the given number of times to warm it up and then again to measure it.
+     *
+     * @return the average bytes allocated by one measured run of the action.
+     */
+    static long bytesPerRun(final int runs, final @NotNull Runnable action) {
+        for (int i = 0; i < runs; i++) {
+            action.run();
+        }
+        final long before = allocatedBytes();
+        for (int i = 0; i < runs; i++) {
+            action.run();
+        }
+        return (allocatedBytes() - before) / runs;
+    }
+
+    private static long allocatedBytes() {
+        return ((ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread()
+                .getId());
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.Immutable;
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.hivemq.extensions.google.cloud.pubsub.api.model.InboundPubSubMessage;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * A lightweight stand-in for the {@link InboundPubSubMessage} of the extension, usable in tests and benchmarks without
+ * Mockito.
+ *
+ * @since 4.53.0
+ */
+class TestInboundPubSubMessage implements InboundPubSubMessage {
+
+    final @Nullable ByteBuffer data;
+    final @NotNull Map<String, String> attributes;
+
+    TestInboundPubSubMessage(final @Nullable ByteBuffer data, final @NotNull Map<String, String> attributes) {
+        this.data = data;
+        this.attributes = attributes;
+    }
+
+    @Override
+    public @NotNull Map<String, String> getAttributes() {
+        return attributes;
+    }
+
+    @Override
+    public @NotNull Optional<@Immutable ByteBuffer> getData() {
+        return data == null ? Optional.empty() : Optional.of(data.asReadOnlyBuffer());
+    }
+
+    @Override
+    public @NotNull Optional<byte[]> getDataAsByteArray() {
+        return getData().map(buffer -> {
+            final byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            return bytes;
+        });
+    }
+
+    @Override
+    public @NotNull Optional<String> getOrderingKey() {
+        return Optional.empty();
+    }
+
+    public @NotNull String getMessageId() {
+        return "1";
+    }
+
+    public @NotNull Instant getPublishTime() {
+        return Instant.EPOCH;
+    }
+}
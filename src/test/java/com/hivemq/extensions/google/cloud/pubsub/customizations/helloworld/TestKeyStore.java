@@ -0,0 +1,65 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Writes PKCS12 keystores with secret keys, like {@code keytool -genseckey} does.
+ *
+ * @since 4.53.0
+ */
+final class TestKeyStore {
+
+    static final @NotNull String PASSWORD = "changeit";
+
+    private TestKeyStore() {
+    }
+
+    /**
+     * @return an AES key whose bytes are all the given value.
+     */
+    static @NotNull SecretKey aesKey(final int value) {
+        final byte[] bytes = new byte[32];
+        Arrays.fill(bytes, (byte) value);
+        return new SecretKeySpec(bytes, "AES");
+    }
+
+    /**
+     * Writes the keys by their alias into the file, replacing its previous content.
+     */
+    static @NotNull Path write(final @NotNull Path file, final @NotNull Map<String, SecretKey> keys) throws Exception {
+        final KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        keyStore.load(null, null);
+        final KeyStore.PasswordProtection protection = new KeyStore.PasswordProtection(PASSWORD.toCharArray());
+        for (final Map.Entry<String, SecretKey> key : keys.entrySet()) {
+            keyStore.setEntry(key.getKey(), new KeyStore.SecretKeyEntry(key.getValue()), protection);
+        }
+        try (final OutputStream outputStream = Files.newOutputStream(file)) {
+            keyStore.store(outputStream, PASSWORD.toCharArray());
+        }
+        return file;
+    }
+}
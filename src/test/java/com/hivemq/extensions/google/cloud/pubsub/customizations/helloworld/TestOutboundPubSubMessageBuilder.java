@@ -0,0 +1,72 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.hivemq.extensions.google.cloud.pubsub.api.builders.OutboundPubSubMessageBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A lightweight stand-in for the {@link OutboundPubSubMessageBuilder} of the extension, usable in tests and benchmarks
+ * without Mockito.
+ * <p>
+ * Like the extension, the data buffer is kept as is and not copied.
+ *
+ * @since 4.53.0
+ */
+class TestOutboundPubSubMessageBuilder implements OutboundPubSubMessageBuilder {
+
+    private @Nullable String topicName;
+    private final @NotNull Map<String, String> attributes = new HashMap<>();
+    private @Nullable ByteBuffer data;
+    private @Nullable String orderingKey;
+
+    @Override
+    public @NotNull OutboundPubSubMessageBuilder topicName(final @NotNull String topicName) {
+        this.topicName = topicName;
+        return this;
+    }
+
+    @Override
+    public @NotNull OutboundPubSubMessageBuilder attribute(final @NotNull String name, final @NotNull String value) {
+        attributes.put(name, value);
+        return this;
+    }
+
+    @Override
+    public @NotNull OutboundPubSubMessageBuilder data(final @NotNull ByteBuffer data) {
+        this.data = data;
+        return this;
+    }
+
+    @Override
+    public @NotNull OutboundPubSubMessageBuilder orderingKey(final @NotNull String orderingKey) {
+        this.orderingKey = orderingKey;
+        return this;
+    }
+
+    @Override
+    public @NotNull TestOutboundPubSubMessage build() {
+        if (topicName == null) {
+            throw new IllegalStateException("topic name must be set");
+        }
+        return new TestOutboundPubSubMessage(topicName, attributes, data, orderingKey);
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.codahale.metrics.MetricRegistry;
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extensions.google.cloud.pubsub.api.model.CustomSettings;
+import com.hivemq.extensions.google.cloud.pubsub.api.model.PubSubConnection;
+import com.hivemq.extensions.google.cloud.pubsub.api.transformers.PubSubToMqttInitInput;
+
+import java.util.List;
+
+/**
+ * @since 4.53.0
+ */
+class TestPubSubToMqttInitInput implements PubSubToMqttInitInput {
+
+    final @NotNull CustomSettings customSettings;
+    final @NotNull MetricRegistry metricRegistry;
+
+    TestPubSubToMqttInitInput(final @NotNull CustomSettings customSettings, final @NotNull MetricRegistry metricRegistry) {
+        this.customSettings = customSettings;
+        this.metricRegistry = metricRegistry;
+    }
+
+    TestPubSubToMqttInitInput(final @NotNull List<TestCustomSetting> customSettings) {
+        this(new TestCustomSettings(customSettings), new MetricRegistry());
+    }
+
+    @Override
+    public @NotNull PubSubConnection getPubSubConnection() {
+        return new TestPubSubConnection();
+    }
+
+    @Override
+    public @NotNull CustomSettings getCustomSettings() {
+        return customSettings;
+    }
+
+    @Override
+    public @NotNull MetricRegistry getMetricRegistry() {
+        return metricRegistry;
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.hivemq.extension.sdk.api.services.builder.PublishBuilder;
+import com.hivemq.extension.sdk.api.services.publish.Publish;
+import com.hivemq.extensions.google.cloud.pubsub.api.transformers.PubSubToMqttOutput;
+
+import java.util.List;
+
+/**
+ * A lightweight stand-in for the {@link PubSubToMqttOutput} of the extension that keeps the last set publishes.
+ *
+ * @since 4.53.0
+ */
+class TestPubSubToMqttOutput implements PubSubToMqttOutput {
+
+    @Nullable List<Publish> publishes;
+
+    @Override
+    public @NotNull PublishBuilder newPublishBuilder() {
+        return new TestPublishBuilder();
+    }
+
+    @Override
+    public void setPublishes(final @NotNull List<Publish> publishes) {
+        this.publishes = publishes;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.hivemq.extension.sdk.api.packets.general.Qos;
+import com.hivemq.extension.sdk.api.packets.publish.PayloadFormatIndicator;
+import com.hivemq.extension.sdk.api.packets.publish.PublishPacket;
+import com.hivemq.extension.sdk.api.services.builder.PublishBuilder;
+import com.hivemq.extension.sdk.api.services.publish.Publish;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A lightweight stand-in for the {@link PublishBuilder} of the broker, usable in tests and benchmarks without Mockito.
+ * <p>
+ * Like the broker, the payload buffer is kept as is and not copied.
+ *
+ * @since 4.53.0
+ */
+class TestPublishBuilder implements PublishBuilder {
+
+    private @Nullable String topic;
+    private @NotNull Qos qos = Qos.AT_MOST_ONCE;
+    private boolean retain;
+    private @Nullable Long messageExpiryInterval;
+    private @Nullable ByteBuffer payload;
+    private final @NotNull List<TestUserProperty> userProperties = new ArrayList<>();
+
+    @Override
+    public @NotNull PublishBuilder fromPublish(final @NotNull PublishPacket publishPacket) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public @NotNull PublishBuilder fromPublish(final @NotNull Publish publish) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public @NotNull PublishBuilder qos(final @NotNull Qos qos) {
+        this.qos = qos;
+        return this;
+    }
+
+    @Override
+    public @NotNull PublishBuilder retain(final boolean retain) {
+        this.retain = retain;
+        return this;
+    }
+
+    @Override
+    public @NotNull PublishBuilder topic(final @NotNull String topic) {
+        this.topic = topic;
+        return this;
+    }
+
+    @Override
+    public @NotNull PublishBuilder payloadFormatIndicator(final @Nullable PayloadFormatIndicator payloadFormatIndicator) {
+        return this;
+    }
+
+    @Override
+    public @NotNull PublishBuilder messageExpiryInterval(final long messageExpiryInterval) {
+        this.messageExpiryInterval = messageExpiryInterval;
+        return this;
+    }
+
+    @Override
+    public @NotNull PublishBuilder responseTopic(final @Nullable String responseTopic) {
+        return this;
+    }
+
+    @Override
+    public @NotNull PublishBuilder correlationData(final @Nullable ByteBuffer correlationData) {
+        return this;
+    }
+
+    @Override
+    public @NotNull PublishBuilder contentType(final @Nullable String contentType) {
+        return this;
+    }
+
+    @Override
+    public @NotNull PublishBuilder payload(final @NotNull ByteBuffer payload) {
+        this.payload = payload;
+        return this;
+    }
+
+    @Override
+    public @NotNull PublishBuilder userProperty(final @NotNull String key, final @NotNull String value) {
+        userProperties.add(new TestUserProperty(key, value));
+        return this;
+    }
+
+    @Override
+    public @NotNull TestPublish build() {
+        if (topic == null || payload == null) {
+            throw new IllegalStateException("topic and payload must be set");
+        }
+        return new TestPublish(topic, qos, retain, messageExpiryInterval, payload, userProperties);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.annotations.Nullable;
+import com.hivemq.extension.sdk.api.packets.general.Qos;
+import com.hivemq.extension.sdk.api.packets.publish.PayloadFormatIndicator;
+import com.hivemq.extension.sdk.api.packets.publish.PublishPacket;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * A lightweight stand-in for the {@link PublishPacket} of the broker, usable in tests and benchmarks without Mockito.
+ * <p>
+ * Like the broker, every call to {@link #getPayload()} returns a new read-only view of the same payload.
+ *
+ * @since 4.53.0
+ */
+class TestPublishPacket implements PublishPacket {
+
+    final @NotNull String topic;
+    final @NotNull Qos qos;
+    final boolean retain;
+    final @Nullable ByteBuffer payload;
+    final @NotNull TestUserProperties userProperties;
+
+    TestPublishPacket(
+            final @NotNull String topic,
+            final @NotNull Qos qos,
+            final boolean retain,
+            final @Nullable ByteBuffer payload,
+            final @NotNull List<TestUserProperty> userProperties) {
+        this.topic = topic;
+        this.qos = qos;
+        this.retain = retain;
+        this.payload = payload;
+        this.userProperties = new TestUserProperties(userProperties);
+    }
+
+    TestPublishPacket(final @NotNull String topic, final @Nullable ByteBuffer payload) {
+        this(topic, Qos.AT_LEAST_ONCE, false, payload, List.of());
+    }
+
+    @Override
+    public boolean getDupFlag() {
+        return false;
+    }
+
+    @Override
+    public @NotNull Qos getQos() {
+        return qos;
+    }
+
+    @Override
+    public boolean getRetain() {
+        return retain;
+    }
+
+    @Override
+    public @NotNull String getTopic() {
+        return topic;
+    }
+
+    @Override
+    public int getPacketId() {
+        return 1;
+    }
+
+    @Override
+    public @NotNull Optional<PayloadFormatIndicator> getPayloadFormatIndicator() {
+        return Optional.empty();
+    }
+
+    @Override
+    public @NotNull Optional<Long> getMessageExpiryInterval() {
+        return Optional.empty();
+    }
+
+    @Override
+    public @NotNull Optional<String> getResponseTopic() {
+        return Optional.empty();
+    }
+
+    @Override
+    public @NotNull Optional<ByteBuffer> getCorrelationData() {
+        return Optional.empty();
+    }
+
+    @Override
+    public @NotNull List<Integer> getSubscriptionIdentifiers() {
+        return List.of();
+    }
+
+    @Override
+    public @NotNull Optional<String> getContentType() {
+        return Optional.empty();
+    }
+
+    @Override
+    public @NotNull Optional<ByteBuffer> getPayload() {
+        return payload == null ? Optional.empty() : Optional.of(payload.asReadOnlyBuffer());
+    }
+
+    @Override
+    public @NotNull TestUserProperties getUserProperties() {
+        return userProperties;
+    }
+
+    @Override
+    public long getTimestamp() {
+        return 0;
+    }
+}
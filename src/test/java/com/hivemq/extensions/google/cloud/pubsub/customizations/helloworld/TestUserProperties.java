@@ -0,0 +1,64 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import com.hivemq.extension.sdk.api.packets.general.UserProperties;
+import com.hivemq.extension.sdk.api.packets.general.UserProperty;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * @since 4.53.0
+ */
+class TestUserProperties implements UserProperties {
+
+    final @NotNull List<UserProperty> userProperties;
+    int asListCalls;
+
+    TestUserProperties(final @NotNull List<? extends UserProperty> userProperties) {
+        this.userProperties = List.copyOf(userProperties);
+    }
+
+    @Override
+    public @NotNull Optional<String> getFirst(final @NotNull String name) {
+        return userProperties.stream()
+                .filter(userProperty -> userProperty.getName().equals(name))
+                .findFirst()
+                .map(UserProperty::getValue);
+    }
+
+    @Override
+    public @NotNull List<String> getAllForName(final @NotNull String name) {
+        return userProperties.stream()
+                .filter(userProperty -> userProperty.getName().equals(name))
+                .map(UserProperty::getValue)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public @NotNull List<UserProperty> asList() {
+        asListCalls++;
+        return userProperties;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return userProperties.isEmpty();
+    }
+}
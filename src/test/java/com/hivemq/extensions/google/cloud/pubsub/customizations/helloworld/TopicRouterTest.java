@@ -0,0 +1,122 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @since 4.53.0
+ */
+class TopicRouterTest {
+
+    private static final String[] DESTINATIONS = {"all"};
+
+    @Test
+    void route_noRoutes_destinationsReturned() {
+        final TopicRouter router = new TopicRouter(DESTINATIONS, List.of(), 100);
+
+        assertSame(DESTINATIONS, router.route("sensors/1/temp"));
+    }
+
+    @Test
+    void route_exactAndWildcardRoutes_matchingDestinationsAdded() {
+        final TopicRouter router = new TopicRouter(DESTINATIONS, List.of(
+                "sensors/+/temp -> telemetry-temp",
+                "sensors/1/temp -> device-1",
+                "alarms/# -> alarms",
+                "# -> everything"), 100);
+
+        assertArrayEquals(new String[]{"all", "everything", "device-1", "telemetry-temp"},
+                router.route("sensors/1/temp"));
+        assertArrayEquals(new String[]{"all", "everything", "telemetry-temp"}, router.route("sensors/2/temp"));
+        assertArrayEquals(new String[]{"all", "everything"}, router.route("sensors/2/humidity"));
+        assertArrayEquals(new String[]{"all", "everything", "alarms"}, router.route("alarms"));
+        assertArrayEquals(new String[]{"all", "everything", "alarms"}, router.route("alarms/fire/floor-1"));
+    }
+
+    @Test
+    void route_emptyLevels_matchedLikeMqtt() {
+        final TopicRouter router = new TopicRouter(new String[0], List.of("+/+ -> two-levels", "/# -> leading-slash"), 0);
+
+        assertArrayEquals(new String[]{"leading-slash", "two-levels"}, router.route("/a"));
+        assertArrayEquals(new String[]{"two-levels"}, router.route("a/"));
+        assertArrayEquals(new String[0], router.route("a/b/c"));
+    }
+
+    @Test
+    void route_dollarTopic_notMatchedByLeadingWildcards() {
+        final TopicRouter router =
+                new TopicRouter(new String[0], List.of("# -> all", "+/status -> status", "$SYS/# -> sys"), 100);
+
+        assertArrayEquals(new String[]{"sys"}, router.route("$SYS/status"));
+        assertArrayEquals(new String[]{"all", "status"}, router.route("broker/status"));
+    }
+
+    @Test
+    void route_invalidRoutes_ignored() {
+        final TopicRouter router = new TopicRouter(new String[0], List.of(
+                "no-separator",
+                "a/#/b -> invalid",
+                "a/b+ -> invalid",
+                " -> invalid",
+                "a/b -> ",
+                "a/b -> valid"), 100);
+
+        assertArrayEquals(new String[]{"valid"}, router.route("a/b"));
+    }
+
+    @Test
+    void route_cached_sameResultReturned() {
+        final TopicRouter router = new TopicRouter(DESTINATIONS, List.of("a/+ -> a"), 1);
+
+        final String[] first = router.route("a/b");
+        assertSame(first, router.route("a/b"));
+        // the cache holds a single topic, so the first result is evicted
+        router.route("a/c");
+        final String[] evicted = router.route("a/b");
+        assertArrayEquals(first, evicted);
+    }
+
+    @Test
+    void route_manyRoutes_onlyMatchingDestinationsReturned() {
+        final String[] routes = new String[10_000];
+        for (int i = 0; i < routes.length; i++) {
+            routes[i] = "devices/device-" + i + "/+ -> topic-" + i;
+        }
+        final TopicRouter router = new TopicRouter(new String[0], List.of(routes), 0);
+
+        assertArrayEquals(new String[]{"topic-4711"}, router.route("devices/device-4711/temp"));
+    }
+
+    @Test
+    void isValidTopicFilter() {
+        assertTrue(TopicRouter.isValidTopicFilter("#"));
+        assertTrue(TopicRouter.isValidTopicFilter("+/a/+/#"));
+        assertTrue(TopicRouter.isValidTopicFilter("/"));
+        assertFalse(TopicRouter.isValidTopicFilter(""));
+        assertFalse(TopicRouter.isValidTopicFilter("#/a"));
+        assertFalse(TopicRouter.isValidTopicFilter("a#"));
+        assertFalse(TopicRouter.isValidTopicFilter("a/+b"));
+    }
+}
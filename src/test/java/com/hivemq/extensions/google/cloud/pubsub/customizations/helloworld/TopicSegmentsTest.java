@@ -0,0 +1,104 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.hivemq.extension.sdk.api.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @since 4.53.0
+ */
+class TopicSegmentsTest {
+
+    @Test
+    void extract_segmentsAndOrderingKey_derived() {
+        final TopicSegments segments = new TopicSegments(List.of(
+                "segment[1] -> device-id",
+                "segment[0]->site",
+                "segment[-1] -> measurement"), "segment[1]");
+
+        final TestOutboundPubSubMessage message = extract(segments, "plant-7/sensor-42/temp");
+
+        assertEquals(Map.of("device-id", "sensor-42", "site", "plant-7", "measurement", "temp"), message.attributes);
+        assertEquals(Optional.of("sensor-42"), message.getOrderingKey());
+    }
+
+    @Test
+    void extract_missingOrEmptyLevels_skipped() {
+        final TopicSegments segments = new TopicSegments(List.of(
+                "segment[1] -> second",
+                "segment[3] -> fourth",
+                "segment[-4] -> fourth-from-last"), "segment[1]");
+
+        final TestOutboundPubSubMessage message = extract(segments, "a//c");
+
+        assertEquals(Map.of(), message.attributes);
+        assertEquals(Optional.empty(), message.getOrderingKey());
+        assertEquals(Map.of("second", "b"), extract(segments, "a/b").attributes);
+    }
+
+    @Test
+    void extract_deepTopics_levelOffsetsGrown() {
+        final StringBuilder topic = new StringBuilder("level-0");
+        for (int i = 1; i < 100; i++) {
+            topic.append("/level-").append(i);
+        }
+        final TopicSegments segments = new TopicSegments(List.of("segment[50] -> middle", "segment[-1] -> last"), null);
+
+        assertEquals(Map.of("middle", "level-50", "last", "level-99"), extract(segments, topic.toString()).attributes);
+    }
+
+    @Test
+    void extract_onlyLeadingLevelsScanned_lastScannedLevelComplete() {
+        final TopicSegments segments = new TopicSegments(List.of("segment[1] -> device-id"), null);
+
+        assertEquals(Map.of("device-id", "b"), extract(segments, "a/b/c/d").attributes);
+        assertEquals(Map.of("device-id", "b"), extract(segments, "a/b").attributes);
+    }
+
+    @Test
+    void new_invalidRules_ignored() {
+        final TopicSegments segments = new TopicSegments(List.of(
+                "segment[1]",
+                "segment[x] -> a",
+                "level[1] -> b",
+                "segment[1] -> "), "segment[");
+
+        assertTrue(segments.isEmpty());
+        assertTrue(TopicSegments.NONE.isEmpty());
+        assertFalse(new TopicSegments(List.of(), "segment[0]").isEmpty());
+    }
+
+    private static @NotNull TestOutboundPubSubMessage extract(
+            final @NotNull TopicSegments segments,
+            final @NotNull String mqttTopic) {
+        final OutboundAttributes attributes = OutboundAttributes.get();
+        segments.extract(mqttTopic, attributes);
+        final TestOutboundPubSubMessageBuilder builder = new TestOutboundPubSubMessageBuilder();
+        builder.topicName("topic");
+        attributes.applyTo(builder);
+        attributes.clear();
+        return builder.build();
+    }
+}
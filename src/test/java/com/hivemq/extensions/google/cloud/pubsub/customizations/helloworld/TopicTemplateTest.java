@@ -0,0 +1,75 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @since 4.53.0
+ */
+class TopicTemplateTest {
+
+    @Test
+    void render_literal_sameTopicReturned() {
+        final TopicTemplate template = TopicTemplate.parse("mqtt/topic");
+
+        assertSame(template.render(Map.of()), template.render(Map.of("a", "b")));
+        assertEquals("mqtt/topic", template.render(Map.of()));
+    }
+
+    @Test
+    void render_attributes_replaced() {
+        final TopicTemplate template = TopicTemplate.parse("devices/${attr:device-id}/cmd/${attr:command}");
+
+        assertEquals("devices/device-1/cmd/reboot",
+                template.render(Map.of("device-id", "device-1", "command", "reboot")));
+    }
+
+    @Test
+    void render_singleAttribute_attributeValueReturned() {
+        final TopicTemplate template = TopicTemplate.parse("${attr:mqtt-topic}");
+        final String mqttTopic = "original/mqtt/topic";
+
+        assertSame(mqttTopic, template.render(Map.of("mqtt-topic", mqttTopic)));
+    }
+
+    @Test
+    void render_missingOrInvalidAttribute_null() {
+        final TopicTemplate template = TopicTemplate.parse("devices/${attr:device-id}/cmd");
+
+        assertNull(template.render(Map.of()));
+        assertNull(template.render(Map.of("device-id", "")));
+        assertNull(template.render(Map.of("device-id", "+")));
+        assertNull(TopicTemplate.parse("${attr:mqtt-topic}").render(Map.of("mqtt-topic", "a/#")));
+    }
+
+    @Test
+    void parse_invalidTemplate_exception() {
+        assertThrows(IllegalArgumentException.class, () -> TopicTemplate.parse(""));
+        assertThrows(IllegalArgumentException.class, () -> TopicTemplate.parse("devices/${attr:device-id"));
+        assertThrows(IllegalArgumentException.class, () -> TopicTemplate.parse("devices/${device-id}"));
+        assertThrows(IllegalArgumentException.class, () -> TopicTemplate.parse("devices/${attr:}"));
+        assertThrows(IllegalArgumentException.class, () -> TopicTemplate.parse("devices/+/${attr:device-id}"));
+    }
+}
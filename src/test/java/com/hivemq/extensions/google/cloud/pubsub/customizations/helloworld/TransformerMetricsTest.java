@@ -0,0 +1,80 @@
+/*
+ * Copyright 2022-present HiveMQ GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hivemq.extensions.google.cloud.pubsub.customizations.helloworld;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @since 4.53.0
+ */
+class TransformerMetricsTest {
+
+    private static final String PREFIX =
+            "com.hivemq.extensions.google-cloud-pubsub.customizations.mqtt-to-pubsub.transformer.my-connection.my-id.";
+
+    @Test
+    void transformed_countersUpdated() {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final TransformerMetrics metrics = TransformerMetrics.of(metricRegistry,
+                TransformerMetrics.MQTT_TO_PUBSUB,
+                "my-connection",
+                "my-id",
+                false);
+
+        metrics.transformed(System.nanoTime(), 100, 3, 300, 5);
+        metrics.transformed(System.nanoTime(), 50, 1, 50, 5);
+        metrics.sentTo("topic-1");
+        metrics.sentTo("topic-1");
+        metrics.failed(new IllegalArgumentException());
+        metrics.failed(new IllegalStateException());
+        metrics.failed(new IllegalArgumentException("again"));
+
+        assertEquals(2, metricRegistry.counter(PREFIX + "messages-in.count").getCount());
+        assertEquals(4, metricRegistry.counter(PREFIX + "messages-out.count").getCount());
+        assertEquals(150, metricRegistry.counter(PREFIX + "bytes-in.count").getCount());
+        assertEquals(350, metricRegistry.counter(PREFIX + "bytes-out.count").getCount());
+        assertEquals(2, metricRegistry.counter(PREFIX + "destination.topic-1.count").getCount());
+        assertEquals(3, metricRegistry.counter(PREFIX + "failed.count").getCount());
+        assertEquals(2, metricRegistry.counter(PREFIX + "errors.IllegalArgumentException.count").getCount());
+        assertEquals(1, metricRegistry.counter(PREFIX + "errors.IllegalStateException.count").getCount());
+        assertTrue(metricRegistry.counter(PREFIX + "transform-nanos.count").getCount() >= 0);
+        assertFalse(metricRegistry.getNames().contains(PREFIX + "transform.time"));
+        assertFalse(metricRegistry.getNames().contains(PREFIX + "bytes-in"));
+    }
+
+    @Test
+    void transformed_detailed_timerAndHistogramsUpdated() {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final TransformerMetrics metrics = TransformerMetrics.of(metricRegistry,
+                TransformerMetrics.MQTT_TO_PUBSUB,
+                "my-connection",
+                "my-id",
+                true);
+
+        metrics.transformed(System.nanoTime(), 100, 3, 300, 5);
+
+        assertEquals(1, metricRegistry.timer(PREFIX + "transform.time").getCount());
+        assertEquals(1, metricRegistry.histogram(PREFIX + "bytes-in").getCount());
+        assertEquals(1, metricRegistry.histogram(PREFIX + "bytes-out").getCount());
+        assertEquals(1, metricRegistry.histogram(PREFIX + "messages-out").getCount());
+        assertEquals(1, metricRegistry.histogram(PREFIX + "attributes").getCount());
+    }
+}